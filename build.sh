@@ -12,8 +12,11 @@ echo "======================================"
 # Directorios
 SRC_DIR="src"
 BIN_DIR="bin"
+TEST_DIR="test"
+TEST_BIN_DIR="bin-test"
 SERVER_CLASS="battleship.servidor.ServidorBattleship"
 CLIENT_CLASS="battleship.cliente.ClienteBattleship"
+PROXY_CLASS="battleship.cluster.ProxyBattleship"
 
 # Función para limpiar
 clean() {
@@ -55,6 +58,54 @@ run_client() {
     java -cp $BIN_DIR $CLIENT_CLASS
 }
 
+# Función para ejecutar un clúster local: N nodos (puertos 5101...) en
+# segundo plano y el proxy en el puerto 5001, que es al que se conectan
+# los clientes. Cada nodo guarda sus datos en cluster/nodoI.
+run_cluster() {
+    NUM_NODOS=${1:-3}
+    NODOS=""
+    for ((i = 0; i < NUM_NODOS; i++)); do
+        NODOS="$NODOS${NODOS:+,}localhost:$((5101 + i))"
+    done
+    PIDS=""
+    trap 'kill $PIDS 2>/dev/null' EXIT
+    for ((i = 0; i < NUM_NODOS; i++)); do
+        DIR="cluster/nodo$i"
+        mkdir -p $DIR
+        echo -e "${YELLOW}Iniciando nodo $i en el puerto $((5101 + i)) (salida en $DIR/servidor.log)...${NC}"
+        java -cp $BIN_DIR -Dbattleship.puerto=$((5101 + i)) \
+            -Dbattleship.cluster.nodos=$NODOS -Dbattleship.cluster.nodo=$i \
+            -Dbattleship.diario.dir=$DIR/diario -Dbattleship.repeticiones.dir=$DIR/repeticiones \
+            -Dbattleship.clasificacion.archivo=$DIR/clasificacion.dat \
+            $SERVER_CLASS > $DIR/servidor.log 2>&1 &
+        PIDS="$PIDS $!"
+    done
+    sleep 1
+    echo -e "${YELLOW}Iniciando proxy del clúster...${NC}"
+    java -cp $BIN_DIR -Dbattleship.cluster.nodos=$NODOS $PROXY_CLASS
+}
+
+# Función para ejecutar una herramienta de rendimiento
+run_bench() {
+    echo -e "${YELLOW}Ejecutando battleship.rendimiento.$1...${NC}"
+    shift_args=("${@:2}")
+    java -cp $BIN_DIR battleship.rendimiento.$1 "${shift_args[@]}"
+}
+
+# Función para compilar y ejecutar las pruebas: cada clase Prueba* de test/
+# tiene su main y termina con error si algo falla
+run_tests() {
+    echo -e "${YELLOW}Compilando pruebas...${NC}"
+    rm -rf $TEST_BIN_DIR
+    mkdir -p $TEST_BIN_DIR
+    javac -d $TEST_BIN_DIR -cp $BIN_DIR -sourcepath $TEST_DIR $(find $TEST_DIR -name "*.java") || return 1
+    for clase in $(cd $TEST_DIR && find . -name "Prueba*.java" | sed 's|^\./||; s|\.java$||; s|/|.|g'); do
+        echo -e "${YELLOW}Ejecutando $clase...${NC}"
+        java -cp $BIN_DIR:$TEST_BIN_DIR $clase || return 1
+    done
+    echo -e "${GREEN}✓ Pruebas superadas${NC}"
+}
+
 # Procesar argumentos
 case "$1" in
     clean)
@@ -71,6 +122,15 @@ case "$1" in
         compile
         run_client
         ;;
+    run-cluster)
+        compile && run_cluster "$2"
+        ;;
+    bench)
+        compile && run_bench "${@:2}"
+        ;;
+    test)
+        compile && run_tests || exit 1
+        ;;
     all)
         clean
         compile
@@ -82,13 +142,16 @@ case "$1" in
         fi
         ;;
     *)
-        echo "Uso: $0 {clean|compile|run-server|run-client|all}"
+        echo "Uso: $0 {clean|compile|run-server|run-client|run-cluster [nodos]|bench <Herramienta>|test|all}"
         echo ""
         echo "Comandos:"
         echo "  clean       - Limpiar archivos compilados"
         echo "  compile     - Compilar código fuente"
         echo "  run-server  - Ejecutar servidor"
         echo "  run-client  - Ejecutar cliente"
+        echo "  run-cluster - Ejecutar un clúster local (3 nodos por defecto) con su proxy en el puerto 5001"
+        echo "  bench       - Ejecutar una herramienta de battleship.rendimiento (p. ej. ComparativaCodecs)"
+        echo "  test        - Compilar y ejecutar las pruebas de test/"
         echo "  all         - Limpiar y compilar todo"
         exit 1
         ;;
@@ -1,6 +1,13 @@
 package battleship.cliente;
 
+import battleship.protocol.Capacidades;
+import battleship.protocol.CodecBinario;
+import battleship.protocol.CodecTexto;
+import battleship.protocol.Comando;
+import battleship.protocol.EscritorMensajes;
+import battleship.protocol.LectorMensajes;
 import battleship.protocol.Mensaje;
+import battleship.protocol.TramaFija;
 import battleship.model.*;
 import battleship.util.Colores;
 import java.io.*;
@@ -18,9 +25,16 @@ public class ClienteBattleship {
     private static final String HOST = "localhost";
     private static final int PUERTO = 5001;
     
-    private Socket socket;
-    private BufferedReader br;
-    private PrintWriter out;
+    // Usar el codec binario si el servidor lo ofrece (-Dbattleship.codec=TXT para forzar texto)
+    private static final boolean PREFERIR_BINARIO = !"TXT".equalsIgnoreCase(System.getProperty("battleship.codec", "BIN"));
+    
+    // Intentos de reanudar la partida si se pierde la conexión
+    private static final int INTENTOS_REANUDAR = 5;
+    
+    // Cambian al reanudar la sesión con una conexión nueva
+    private volatile Socket socket;
+    private volatile LectorMensajes br;
+    private volatile EscritorMensajes out;
     private BufferedReader inputReader; // Lector de entrada del usuario
     
     private String nombreJugador;
@@ -35,9 +49,21 @@ public class ClienteBattleship {
     private CountDownLatch finPartida = new CountDownLatch(1);
     private volatile boolean confirmacionRecibida = false;
     private volatile boolean errorColocacion = false;
+    // Observando una partida como espectador o su repetición
+    private volatile boolean observando = false;
 
     private ExecutorService executor;
     
+    // Capacidades pedidas al servidor en CONECTAR
+    private String capacidadesPedidas = "";
+    
+    // Token para reanudar la partida (null si el servidor no lo ofrece)
+    private String tokenReanudar;
+    // Token de la conexión nueva, por si no se puede reanudar
+    private String tokenPendiente;
+    // Esperando la respuesta a REANUDAR
+    private volatile boolean reanudando = false;
+    
     public ClienteBattleship() {
         try {
             this.inputReader = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
@@ -57,9 +83,7 @@ public class ClienteBattleship {
      * Inicia el cliente y se conecta al servidor.
      */
     public void iniciar() {
-        try (Socket socketLocal = new Socket(HOST, PUERTO);
-            BufferedReader brLocal = new BufferedReader(new InputStreamReader(socketLocal.getInputStream(), "UTF-8"));
-            PrintWriter outLocal = new PrintWriter(new OutputStreamWriter(socketLocal.getOutputStream(), "UTF-8"), true)) {
+        try (Socket socketLocal = new Socket(HOST, PUERTO)) {
             
             System.out.println("====================================");
             System.out.println("        Cliente Battleship");
@@ -68,8 +92,19 @@ public class ClienteBattleship {
             
             // Asignar a variables de instancia para uso en otros métodos
             this.socket = socketLocal;
-            this.br = brLocal;
-            this.out = outLocal;
+            this.br = new LectorMensajes(socketLocal.getInputStream(), CodecTexto.INSTANCIA);
+            this.out = new EscritorMensajes(socketLocal.getOutputStream(), CodecTexto.INSTANCIA);
+            
+            // La BIENVENIDA anuncia las capacidades del servidor
+            Mensaje bienvenida = br.leer();
+            if (bienvenida == null) {
+                System.err.println("El servidor cerró la conexión");
+                return;
+            }
+            capacidadesPedidas = elegirCapacidades(bienvenida.getParametro(1));
+            if (Capacidades.contiene(capacidadesPedidas, Capacidades.REANUDAR)) {
+                tokenReanudar = bienvenida.getParametro(2);
+            }
             
             System.out.println("Conectado al servidor\n");
             
@@ -88,8 +123,14 @@ public class ClienteBattleship {
             }
             nombreJugador = nombreJugador.trim();
             
-            // Enviar mensaje de conexión
-            enviarMensaje(new Mensaje(Mensaje.CONECTAR, new String[]{nombreJugador}));
+            // Enviar mensaje de conexión pidiendo las capacidades deseadas.
+            // El servidor lee lo que sigue con el codec pedido, así que se cambia ya.
+            if (capacidadesPedidas.isEmpty()) {
+                enviarMensaje(new Mensaje(Mensaje.CONECTAR, new String[]{nombreJugador}));
+            } else {
+                out.enviarYCambiarCodec(new Mensaje(Mensaje.CONECTAR, new String[]{nombreJugador, capacidadesPedidas}),
+                    Capacidades.contiene(capacidadesPedidas, Capacidades.BINARIO) ? CodecBinario.INSTANCIA : CodecTexto.INSTANCIA);
+            }
             
             // Usamos newSingleThreadExecutor porque solo necesitamos un hilo para escuchar
             executor = Executors.newSingleThreadExecutor();
@@ -105,6 +146,88 @@ public class ClienteBattleship {
         }
     }
     
+    /**
+     * Elige qué capacidades pedir de las que ofrece el servidor.
+     * 
+     * @param ofrecidas Capacidades anunciadas en BIENVENIDA
+     * @return Lista a pedir (vacía si ninguna)
+     */
+    private String elegirCapacidades(String ofrecidas) {
+        String pedidas = "";
+        if (PREFERIR_BINARIO && Capacidades.contiene(ofrecidas, Capacidades.BINARIO)) {
+            pedidas = Capacidades.BINARIO;
+        }
+        if (Capacidades.contiene(ofrecidas, Capacidades.TURNO_RESUELTO)) {
+            pedidas += (pedidas.isEmpty() ? "" : ",") + Capacidades.TURNO_RESUELTO;
+        }
+        if (Capacidades.contiene(ofrecidas, Capacidades.REANUDAR)) {
+            pedidas += (pedidas.isEmpty() ? "" : ",") + Capacidades.REANUDAR;
+        }
+        return pedidas;
+    }
+    
+    /**
+     * Abre una conexión nueva y pide reanudar la partida con el token.
+     * La respuesta (REANUDADO o ERROR) la procesa el receptor como cualquier
+     * otro mensaje. Reintenta con esperas crecientes.
+     * 
+     * @return true si se envió REANUDAR por una conexión nueva
+     */
+    private boolean reconectar() {
+        if (tokenReanudar == null) {
+            return false;
+        }
+        System.out.println("\n" + Colores.AMARILLO + "Conexión perdida, intentando reanudar la partida..." + Colores.RESET);
+        long espera = 500;
+        for (int intento = 1; intento <= INTENTOS_REANUDAR; intento++) {
+            try {
+                Thread.sleep(espera);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            espera *= 2;
+            Socket nuevo = null;
+            try {
+                nuevo = new Socket(HOST, PUERTO);
+                LectorMensajes lector = new LectorMensajes(nuevo.getInputStream(), CodecTexto.INSTANCIA);
+                EscritorMensajes escritor = new EscritorMensajes(nuevo.getOutputStream(), CodecTexto.INSTANCIA);
+                Mensaje bienvenida = lector.leer();
+                if (bienvenida == null) {
+                    throw new IOException("El servidor cerró la conexión");
+                }
+                String pedidas = elegirCapacidades(bienvenida.getParametro(1));
+                tokenPendiente = bienvenida.getParametro(2);
+                reanudando = true;
+                escritor.enviarYCambiarCodec(new Mensaje(Mensaje.REANUDAR, new String[]{tokenReanudar, pedidas}),
+                    Capacidades.contiene(pedidas, Capacidades.BINARIO) ? CodecBinario.INSTANCIA : CodecTexto.INSTANCIA);
+                
+                Socket anterior = socket;
+                capacidadesPedidas = pedidas;
+                br = lector;
+                out = escritor;
+                socket = nuevo;
+                try {
+                    anterior.close();
+                } catch (IOException e) {
+                    // Ya estaba rota
+                }
+                return true;
+            } catch (IOException e) {
+                System.out.println("Intento " + intento + " de " + INTENTOS_REANUDAR + " fallido: " + e.getMessage());
+                reanudando = false;
+                if (nuevo != null) {
+                    try {
+                        nuevo.close();
+                    } catch (IOException ex) {
+                        // Ignorar
+                    }
+                }
+            }
+        }
+        return false;
+    }
+    
     /**
      * Muestra el menú principal del cliente.
      */
@@ -118,7 +241,11 @@ public class ClienteBattleship {
                     System.out.println("\n====== MENÚ PRINCIPAL ======");
                     System.out.println("1. Crear nueva partida");
                     System.out.println("2. Unirse a partida existente");
-                    System.out.println("3. Salir");
+                    System.out.println("3. Partida rápida (emparejamiento automático)");
+                    System.out.println("4. Partida clasificatoria");
+                    System.out.println("5. Observar una partida");
+                    System.out.println("6. Ver repetición de una partida");
+                    System.out.println("7. Salir");
                     System.out.print("Opción: ");
                     System.out.flush();
                     
@@ -127,12 +254,13 @@ public class ClienteBattleship {
                     
                     switch (opcion.trim()) {
                         case "1":
-                            enviarMensaje(new Mensaje(Mensaje.CREAR_PARTIDA));
+                            enviarMensaje(TramaFija.de(Comando.CREAR_PARTIDA));
                             System.out.println("Solicitud enviada, esperando al servidor...");
                             // Bloqueamos aquí esperando a que empiece el juego o ocurra un error
                             esperarInicioJuego();
                             break;
                         case "2":
+                            listarPartidas();
                             System.out.print("ID de la partida: ");
                             System.out.flush();
                             String idStr = inputReader.readLine();
@@ -149,7 +277,43 @@ public class ClienteBattleship {
                             if (!enJuego) resetearJuego();
                             break;
                         case "3":
-                            enviarMensaje(new Mensaje(Mensaje.DESCONECTAR));
+                            enviarMensaje(TramaFija.de(Comando.BUSCAR_PARTIDA));
+                            System.out.println("Buscando rival...");
+                            esperarInicioJuego();
+                            if (!enJuego) resetearJuego();
+                            break;
+                        case "4":
+                            enviarMensaje(TramaFija.de(Comando.CONSULTAR_PUNTUACION));
+                            enviarMensaje(TramaFija.de(Comando.BUSCAR_CLASIFICATORIA));
+                            System.out.println("Buscando rival de puntuación parecida...");
+                            esperarInicioJuego();
+                            if (!enJuego) resetearJuego();
+                            break;
+                        case "5":
+                            System.out.print("ID de la partida: ");
+                            System.out.flush();
+                            String idObservar = inputReader.readLine();
+                            if (idObservar != null) {
+                                try {
+                                    int idPartida = Integer.parseInt(idObservar.trim());
+                                    observando = true;
+                                    enviarMensaje(new Mensaje(Mensaje.OBSERVAR_PARTIDA, new String[]{String.valueOf(idPartida)}));
+                                    // Hasta FIN_PARTIDA o un error
+                                    finPartida.await();
+                                } catch (NumberFormatException e) {
+                                    System.out.println("ID inválido");
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                                observando = false;
+                                resetearJuego();
+                            }
+                            break;
+                        case "6":
+                            verRepeticion();
+                            break;
+                        case "7":
+                            enviarMensaje(TramaFija.de(Comando.DESCONECTAR));
                             salir = true;
                             break;
                         default:
@@ -177,6 +341,54 @@ public class ClienteBattleship {
         }
     }
 
+    /**
+     * Muestra las partidas abiertas del vestíbulo (la primera página). El
+     * receptor las muestra y baja finPartida.
+     */
+    private void listarPartidas() {
+        observando = true;
+        try {
+            enviarMensaje(TramaFija.de(Comando.LISTAR_PARTIDAS));
+            finPartida.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            observando = false;
+            finPartida = new CountDownLatch(1);
+        }
+    }
+
+    /**
+     * Muestra las partidas archivadas del jugador y reproduce la elegida.
+     * El receptor muestra las respuestas y baja finPartida con cada una.
+     */
+    private void verRepeticion() throws IOException {
+        observando = true;
+        try {
+            enviarMensaje(TramaFija.de(Comando.LISTAR_REPETICIONES));
+            finPartida.await();
+            finPartida = new CountDownLatch(1);
+            
+            System.out.print("ID de la partida: ");
+            System.out.flush();
+            String idStr = inputReader.readLine();
+            if (idStr != null) {
+                try {
+                    int idPartida = Integer.parseInt(idStr.trim());
+                    enviarMensaje(new Mensaje(Mensaje.VER_REPETICION, new String[]{String.valueOf(idPartida)}));
+                    finPartida.await();
+                } catch (NumberFormatException e) {
+                    System.out.println("ID inválido");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            observando = false;
+            resetearJuego();
+        }
+    }
+
     /**
      * Método auxiliar para bloquear el hilo principal mientras se espera partida.
      */
@@ -290,19 +502,28 @@ public class ClienteBattleship {
         System.out.println(miTablero.obtenerVisualizacion(true));
         
         // Notificar al servidor que está listo
-        enviarMensaje(new Mensaje(Mensaje.LISTO));
+        enviarMensaje(TramaFija.de(Comando.LISTO));
         System.out.println("\n" + Colores.AMARILLO + "⏳ Esperando al rival..." + Colores.RESET);
     }
     
     /**
      * Solicita al jugador realizar un disparo.
      */
-    private synchronized void realizarDisparo() {
+    private synchronized void realizarDisparo(Mensaje turno) {
         try {
             System.out.println("\n" + Colores.Battleship.TITULO + repetir(50, "=") + Colores.RESET);
             System.out.println(Colores.Battleship.TITULO + "============== TU TURNO ==============" + Colores.RESET);
             System.out.println(Colores.Battleship.TITULO + repetir(50, "=") + Colores.RESET);
             
+            // Reloj del turno (si el servidor lo tiene activado)
+            if (turno.getNumParametros() > 0) {
+                String reloj = "⏱ Tiempo para disparar: " + aSegundos(turno.getParametro(0)) + "s";
+                if (turno.getNumParametros() > 1) {
+                    reloj += " (tiempo total restante: " + aSegundos(turno.getParametro(1)) + "s)";
+                }
+                System.out.println("\n" + Colores.AMARILLO_BRILLANTE + reloj + Colores.RESET);
+            }
+            
             System.out.println("\n" + Colores.ROJO_BRILLANTE + "📍 TABLERO RIVAL" + Colores.RESET + " (tus disparos):");
             System.out.println("  " + Colores.Battleship.TOCADO + "X" + Colores.RESET + " = Tocado  |  " + 
                              Colores.Battleship.AGUA + "O" + Colores.RESET + " = Agua");
@@ -328,6 +549,17 @@ public class ClienteBattleship {
         }
     }
 
+    /**
+     * Convierte un parámetro en milisegundos a segundos para mostrarlo.
+     */
+    private long aSegundos(String milisegundos) {
+        try {
+            return Long.parseLong(milisegundos) / 1000;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     /**
      * Lee un entero dentro de un rango, reintentando hasta que sea válido.
      */
@@ -371,8 +603,11 @@ public class ClienteBattleship {
      * Envía un mensaje al servidor.
      */
     private void enviarMensaje(Mensaje mensaje) {
-        out.print(mensaje.serializar());
-        out.flush(); 
+        try {
+            out.enviar(mensaje);
+        } catch (IOException e) {
+            System.err.println("Error enviando mensaje: " + e.getMessage());
+        }
     }
     
     /**
@@ -413,17 +648,23 @@ public class ClienteBattleship {
         
         @Override
         public void run() {
-            try {
-                String linea;
-                while ((linea = br.readLine()) != null) {
-                    Mensaje mensaje = Mensaje.deserializar(linea);
-                    
-                    if (mensaje != null) {
+            while (true) {
+                try {
+                    Mensaje mensaje;
+                    while ((mensaje = br.leer()) != null) {
                         procesarMensaje(mensaje);
                     }
+                } catch (IOException e) {
+                    System.err.println("Conexión con el servidor perdida");
+                }
+                // En mitad de una partida se intenta volver a ella con una conexión nueva
+                if (!enJuego || !reconectar()) {
+                    if (enJuego) {
+                        System.out.println("No se pudo reanudar la partida.");
+                        finPartida.countDown();
+                    }
+                    break;
                 }
-            } catch (IOException e) {
-                System.err.println("Conexión con el servidor perdida");
             }
         }
         
@@ -431,25 +672,43 @@ public class ClienteBattleship {
          * Procesa un mensaje recibido del servidor.
          */
         private void procesarMensaje(Mensaje mensaje) {
-            switch (mensaje.getComando()) {
-                case Mensaje.BIENVENIDA:
-                    // Ya mostrado en iniciar()
+            Comando tipo = mensaje.getTipo();
+            if (tipo == null) {
+                System.out.println("Mensaje desconocido: " + mensaje);
+                return;
+            }
+            switch (tipo) {
+                case BIENVENIDA:
+                    // Confirmación del saludo: a partir de aquí el servidor usa el codec aceptado
+                    if (Capacidades.contiene(mensaje.getParametro(1), Capacidades.BINARIO)
+                            && Capacidades.contiene(capacidadesPedidas, Capacidades.BINARIO)) {
+                        br.setCodec(CodecBinario.INSTANCIA);
+                    }
+                    // Con token es el saludo de otro nodo: el proxy del clúster
+                    // ha llevado la conexión al nodo de la partida
+                    if (mensaje.getNumParametros() > 2) {
+                        if (reanudando) {
+                            tokenPendiente = mensaje.getParametro(2);
+                        } else {
+                            tokenReanudar = mensaje.getParametro(2);
+                        }
+                    }
                     break;
-                case Mensaje.PARTIDA_CREADA:
+                case PARTIDA_CREADA:
                     System.out.println("\n✓ Partida creada con ID: " + mensaje.getParametro(0));
                     break;
-                case Mensaje.ESPERANDO_RIVAL:
+                case ESPERANDO_RIVAL:
                     System.out.println("Esperando a que otro jugador se una...");
                     break;
-                case Mensaje.RIVAL_CONECTADO:
+                case RIVAL_CONECTADO:
                     System.out.println("\n✓ Rival conectado: " + mensaje.getParametro(0));
                     break;
-                case Mensaje.COLOCAR_BARCOS:
+                case COLOCAR_BARCOS:
                     enJuego = true; // Activar modo juego
                     // Señalar al hilo principal que comience la colocación
                     iniciarColocacion.countDown();
                     break;
-                case Mensaje.BARCO_COLOCADO:
+                case BARCO_COLOCADO:
                     System.out.println("\n" + Colores.Battleship.EXITO + "✔ Servidor confirmó barco: " + mensaje.getParametro(0) + Colores.RESET);
                     // Desbloquear al hilo main para continuar con el siguiente barco
                     confirmacionRecibida = true;
@@ -457,37 +716,109 @@ public class ClienteBattleship {
                     // Liberamos un permiso para desbloquear al hilo principal
                     semaforoColocacion.release();
                     break;
-                case Mensaje.TU_TURNO:
-                    realizarDisparo();
+                case TU_TURNO:
+                    realizarDisparo(mensaje);
                     break;
-                case Mensaje.ESPERA_TURNO:
+                case ESPERA_TURNO:
                     System.out.println("\nEsperando turno del rival...");
                     break;
-                case Mensaje.RESULTADO_DISPARO:
+                case RESULTADO_DISPARO:
                     procesarResultadoDisparo(mensaje);
                     break;
-                case Mensaje.DISPARO_RIVAL:
+                case DISPARO_RIVAL:
                     procesarDisparoRival(mensaje);
                     break;
-                case Mensaje.BARCO_HUNDIDO:
+                case BARCO_HUNDIDO:
                     System.out.println("\n¡Barco " + mensaje.getParametro(0) + " HUNDIDO!");
                     break;
-                case Mensaje.VICTORIA:
-                    System.out.println("\n" + repetir(40, "="));
-                    System.out.println("¡VICTORIA! Has ganado la partida");
-                    System.out.println(repetir(40, "="));
+                case VICTORIA:
+                    mostrarVictoria();
+                    break;
+                case DERROTA:
+                    mostrarDerrota(mensaje.getParametro(0));
+                    break;
+                case TURNO_RESUELTO:
+                    procesarTurnoResuelto(mensaje);
+                    break;
+                case OBSERVANDO:
+                    System.out.println("\nObservando la partida " + mensaje.getParametro(0) + ": "
+                        + mensaje.getParametro(1) + " contra " + mensaje.getParametro(2));
+                    if (mensaje.getNumParametros() > 4) {
+                        mostrarInstantanea(mensaje.getParametro(1), mensaje.getParametro(3));
+                        mostrarInstantanea(mensaje.getParametro(2), mensaje.getParametro(4));
+                    }
+                    break;
+                case JUGADA:
+                    System.out.println(mensaje.getParametro(0) + " dispara en (" + mensaje.getParametro(1) + ","
+                        + mensaje.getParametro(2) + "): " + mensaje.getParametro(3));
+                    if (!Mensaje.SIN_BARCO.equals(mensaje.getParametro(4))) {
+                        System.out.println("¡Barco " + mensaje.getParametro(4) + " HUNDIDO!");
+                    }
+                    break;
+                case REANUDADO:
+                    procesarReanudado(mensaje);
+                    break;
+                case PUNTUACION:
+                    System.out.println("Puntuación de " + mensaje.getParametro(0) + ": " + mensaje.getParametro(1)
+                        + " (" + mensaje.getParametro(2) + " partidas clasificatorias)");
+                    break;
+                case REPETICIONES:
+                    if (mensaje.getNumParametros() == 0) {
+                        System.out.println("\nNo tienes partidas archivadas");
+                    } else {
+                        StringBuilder ids = new StringBuilder();
+                        for (int i = 0; i < mensaje.getNumParametros(); i++) {
+                            ids.append(i > 0 ? ", " : "").append(mensaje.getParametro(i));
+                        }
+                        System.out.println("\nTus partidas archivadas: " + ids);
+                    }
                     finPartida.countDown();
                     break;
-                case Mensaje.DERROTA:
+                case PARTIDAS:
+                    // PARTIDAS|version|pagina|paginas|id|creador...
+                    if (mensaje.getNumParametros() <= 3) {
+                        System.out.println("\nNo hay partidas abiertas");
+                    } else {
+                        System.out.println("\nPartidas abiertas (página " + (mensaje.getParametroEntero(1) + 1)
+                            + " de " + mensaje.getParametro(2) + "):");
+                        for (int i = 3; i + 1 < mensaje.getNumParametros(); i += 2) {
+                            System.out.println("  " + mensaje.getParametro(i) + " - " + mensaje.getParametro(i + 1));
+                        }
+                    }
+                    finPartida.countDown();
+                    break;
+                case REPETICION:
+                    procesarRepeticion(mensaje);
+                    finPartida.countDown();
+                    break;
+                case RIVAL_AUSENTE:
+                    System.out.println("\n" + Colores.AMARILLO + "El rival ha perdido la conexión; tiene "
+                        + aSegundos(mensaje.getParametro(0)) + "s para volver" + Colores.RESET);
+                    break;
+                case RIVAL_VUELVE:
+                    System.out.println("\n" + Colores.VERDE_BRILLANTE + "El rival ha vuelto a la partida" + Colores.RESET);
+                    break;
+                case FIN_PARTIDA:
                     System.out.println("\n" + repetir(40, "="));
-                    System.out.println("¡DERROTA! " + mensaje.getParametro(0) + " ha ganado");
+                    System.out.println(mensaje.getNumParametros() > 0
+                        ? "Partida terminada. Ganador: " + mensaje.getParametro(0)
+                        : "Partida terminada sin ganador");
                     System.out.println(repetir(40, "="));
                     finPartida.countDown();
                     break;
-                case Mensaje.ERROR:
+                case ERROR:
                     String errorMsg = mensaje.getParametro(0);
                     System.out.println("\n✗ Error: " + errorMsg);
                     
+                    // No se pudo reanudar: la conexión nueva sigue abierta con su propio token
+                    if (reanudando) {
+                        reanudando = false;
+                        tokenReanudar = tokenPendiente;
+                        System.out.println("Partida cancelada.");
+                        finPartida.countDown();
+                        break;
+                    }
+                    
                     // Gestión de errores en fase de colocación
                     if (enJuego && !confirmacionRecibida) {
                         confirmacionRecibida = true;
@@ -504,20 +835,140 @@ public class ClienteBattleship {
                     if (!enJuego) {
                         iniciarColocacion.countDown();
                     }
+                    
+                    // La partida a observar no existe o no se pudo suscribir
+                    if (observando) {
+                        finPartida.countDown();
+                    }
+                    break;
+                case PING:
+                    // Latido del servidor: responder para no ser desconectado por inactividad
+                    enviarMensaje(TramaFija.de(Comando.PONG));
+                    break;
+                case PONG:
                     break;
                 default:
                     System.out.println("Mensaje desconocido: " + mensaje);
             }
         }
         
+        /**
+         * Procesa REANUDADO: reconstruye ambos tableros a partir de las
+         * instantáneas. El turno llega después en TU_TURNO o ESPERA_TURNO.
+         */
+        private void procesarReanudado(Mensaje mensaje) {
+            reanudando = false;
+            miTablero.restaurar(InstantaneaTablero.desdeBase64(mensaje.getParametro(2)));
+            tableroRival.restaurar(InstantaneaTablero.desdeBase64(mensaje.getParametro(3)));
+            System.out.println("\n" + Colores.VERDE_BRILLANTE + "✓ Partida " + mensaje.getParametro(0)
+                + " reanudada contra " + mensaje.getParametro(1) + Colores.RESET);
+            System.out.println(Colores.ROJO_BRILLANTE + "\nTABLERO RIVAL:" + Colores.RESET);
+            System.out.println(tableroRival.obtenerVisualizacion(false));
+            System.out.println(Colores.VERDE_BRILLANTE + "\nTU TABLERO:" + Colores.RESET);
+            System.out.println(miTablero.obtenerVisualizacion(true));
+        }
+        
+        /**
+         * Lee el cuerpo de una REPETICION y reproduce la partida disparo a
+         * disparo sobre las flotas de ambos jugadores.
+         */
+        private void procesarRepeticion(Mensaje mensaje) {
+            byte[] bytes = new byte[mensaje.getParametroEntero(1)];
+            Repeticion repeticion;
+            try {
+                br.leerCrudo(bytes);
+                repeticion = Repeticion.desdeBytes(bytes);
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("\n✗ Repetición ilegible: " + e.getMessage());
+                return;
+            }
+            
+            Tablero[] tableros = {repeticion.tableroInicial(1), repeticion.tableroInicial(2)};
+            System.out.println("\n" + repetir(40, "="));
+            System.out.println("Repetición de la partida " + repeticion.getId() + ": "
+                + repeticion.getNombre(1) + " contra " + repeticion.getNombre(2));
+            System.out.println(repetir(40, "="));
+            for (int k = 0; k < repeticion.getNumDisparos(); k++) {
+                int tirador = repeticion.getTirador(k);
+                Coordenada coord = repeticion.getDisparo(k);
+                ResultadoDisparo resultado = tableros[2 - tirador].recibirDisparo(coord);
+                System.out.println(repeticion.getNombre(tirador) + " dispara en " + coord + ": " + resultado);
+            }
+            for (int j = 1; j <= 2; j++) {
+                System.out.println("\nTablero de " + repeticion.getNombre(j) + ":");
+                System.out.println(tableros[j - 1].obtenerVisualizacion(true));
+            }
+            System.out.println(repeticion.getGanador() > 0
+                ? "Ganador: " + repeticion.getNombre(repeticion.getGanador())
+                : "Partida terminada sin ganador");
+        }
+        
+        /**
+         * Muestra el tablero de un jugador tal como lo ve un espectador.
+         */
+        private void mostrarInstantanea(String jugador, String instantanea) {
+            Tablero tablero = new Tablero();
+            tablero.restaurar(InstantaneaTablero.desdeBase64(instantanea));
+            System.out.println("\nTablero de " + jugador + ":");
+            System.out.println(tablero.obtenerVisualizacion(false));
+        }
+        
         /**
          * Procesa el resultado de un disparo propio.
          */
         private void procesarResultadoDisparo(Mensaje mensaje) {
-            String resultado = mensaje.getParametro(0);
-            int fila = Integer.parseInt(mensaje.getParametro(1));
-            int columna = Integer.parseInt(mensaje.getParametro(2));
+            mostrarDisparoPropio(mensaje.getParametro(0), mensaje.getParametroEntero(1), mensaje.getParametroEntero(2));
+        }
+        
+        /**
+         * Procesa un disparo recibido del rival.
+         */
+        private void procesarDisparoRival(Mensaje mensaje) {
+            mostrarDisparoRival(mensaje.getParametroEntero(0), mensaje.getParametroEntero(1), mensaje.getParametro(2));
+        }
+        
+        /**
+         * Procesa TURNO_RESUELTO: disparo, barco hundido, desenlace y
+         * siguiente turno en un solo mensaje.
+         */
+        private void procesarTurnoResuelto(Mensaje mensaje) {
+            boolean propio = Mensaje.PROPIO.equals(mensaje.getParametro(0));
+            int fila = mensaje.getParametroEntero(1);
+            int columna = mensaje.getParametroEntero(2);
+            String resultado = mensaje.getParametro(3);
+            String barco = mensaje.getParametro(4);
+            String desenlace = mensaje.getParametro(5);
+            String siguiente = mensaje.getParametro(6);
+            
+            if (propio) {
+                mostrarDisparoPropio(resultado, fila, columna);
+            } else {
+                mostrarDisparoRival(fila, columna, resultado);
+            }
+            if (!Mensaje.SIN_BARCO.equals(barco)) {
+                System.out.println("\n¡Barco " + barco + " HUNDIDO!");
+            }
             
+            if (Mensaje.VICTORIA.equals(desenlace)) {
+                mostrarVictoria();
+            } else if (Mensaje.DERROTA.equals(desenlace)) {
+                mostrarDerrota(siguiente);
+            } else if (Mensaje.PROPIO.equals(siguiente)) {
+                // Los parámetros que siguen son el reloj del turno, como en TU_TURNO
+                String[] reloj = new String[Math.max(0, mensaje.getNumParametros() - 7)];
+                for (int i = 0; i < reloj.length; i++) {
+                    reloj[i] = mensaje.getParametro(7 + i);
+                }
+                realizarDisparo(new Mensaje(Mensaje.TU_TURNO, reloj));
+            } else {
+                System.out.println("\nEsperando turno del rival...");
+            }
+        }
+        
+        /**
+         * Muestra el resultado de un disparo propio.
+         */
+        private void mostrarDisparoPropio(String resultado, int fila, int columna) {
             System.out.println("\nDisparo en (" + fila + "," + columna + "): " + resultado);
             
             // Actualizar tablero rival con el resultado del disparo
@@ -530,13 +981,9 @@ public class ClienteBattleship {
         }
         
         /**
-         * Procesa un disparo recibido del rival.
+         * Muestra un disparo recibido del rival.
          */
-        private void procesarDisparoRival(Mensaje mensaje) {
-            int fila = Integer.parseInt(mensaje.getParametro(0));
-            int columna = Integer.parseInt(mensaje.getParametro(1));
-            String resultado = mensaje.getParametro(2);
-            
+        private void mostrarDisparoRival(int fila, int columna, String resultado) {
             System.out.println("\nEl rival disparó en (" + fila + "," + columna + "): " + resultado);
             
             // Actualizar mi tablero con el impacto recibido
@@ -545,5 +992,25 @@ public class ClienteBattleship {
             System.out.println(Colores.VERDE_BRILLANTE + "\nTU TABLERO ACTUALIZADO:" + Colores.RESET);
             System.out.println(miTablero.obtenerVisualizacion(true));
         }
+        
+        /**
+         * Muestra la victoria y libera al hilo principal.
+         */
+        private void mostrarVictoria() {
+            System.out.println("\n" + repetir(40, "="));
+            System.out.println("¡VICTORIA! Has ganado la partida");
+            System.out.println(repetir(40, "="));
+            finPartida.countDown();
+        }
+        
+        /**
+         * Muestra la derrota y libera al hilo principal.
+         */
+        private void mostrarDerrota(String ganador) {
+            System.out.println("\n" + repetir(40, "="));
+            System.out.println("¡DERROTA! " + ganador + " ha ganado");
+            System.out.println(repetir(40, "="));
+            finPartida.countDown();
+        }
     }
 }
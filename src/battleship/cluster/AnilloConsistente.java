@@ -0,0 +1,177 @@
+package battleship.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reparto de los IDs de partida entre los nodos del clúster por hash
+ * consistente.
+ *
+ * Cada nodo ocupa VIRTUALES puntos del anillo de enteros de 32 bits y una
+ * partida pertenece al nodo del primer punto que hay desde el hash de su
+ * ID. Los puntos salen de "host:puerto#n", así que todos los procesos que
+ * reciben la misma lista calculan el mismo dueño sin hablar entre sí, y
+ * añadir o quitar un nodo sólo mueve las partidas de sus puntos. La
+ * búsqueda es binaria sobre arrays ordenados, sin objetos por consulta.
+ *
+ * Los tokens de reanudación que reparte un nodo del clúster llevan delante
+ * su posición en la lista (nodo.token) para que el proxy sepa a quién
+ * mandar un REANUDAR.
+ *
+ * @author Jorge González Navas
+ */
+public class AnilloConsistente {
+
+    // Puntos de cada nodo en el anillo
+    private static final int VIRTUALES = 128;
+
+    private static final char SEPARADOR_TOKEN = '.';
+
+    private final String[] nodos;
+
+    // Hash de cada punto, ordenados, y nodo al que pertenece cada uno
+    private final int[] puntos;
+    private final int[] duenos;
+
+    /**
+     * Construye el anillo.
+     *
+     * @param nodos Nodos (host:puerto) en el orden común a todo el clúster
+     */
+    public AnilloConsistente(List<String> nodos) {
+        if (nodos.isEmpty()) {
+            throw new IllegalArgumentException("El clúster no tiene nodos");
+        }
+        this.nodos = nodos.toArray(new String[nodos.size()]);
+        int total = this.nodos.length * VIRTUALES;
+        long[] ordenados = new long[total];
+        for (int nodo = 0; nodo < this.nodos.length; nodo++) {
+            for (int v = 0; v < VIRTUALES; v++) {
+                int hash = hashPunto(this.nodos[nodo] + "#" + v);
+                // Hash en la parte alta y nodo en la baja: ordenar los long ordena los puntos
+                ordenados[nodo * VIRTUALES + v] = ((long) hash << 32) | nodo;
+            }
+        }
+        Arrays.sort(ordenados);
+        this.puntos = new int[total];
+        this.duenos = new int[total];
+        for (int i = 0; i < total; i++) {
+            puntos[i] = (int) (ordenados[i] >> 32);
+            duenos[i] = (int) ordenados[i];
+        }
+    }
+
+    /**
+     * Construye el anillo a partir de la lista de la configuración.
+     *
+     * @param lista Nodos host:puerto separados por comas
+     * @return Anillo con esos nodos
+     */
+    public static AnilloConsistente desdeLista(String lista) {
+        List<String> nodos = new ArrayList<String>();
+        for (String nodo : lista.split(",")) {
+            if (!nodo.trim().isEmpty()) {
+                nodos.add(nodo.trim());
+            }
+        }
+        return new AnilloConsistente(nodos);
+    }
+
+    /**
+     * Nodo dueño de una partida.
+     *
+     * @param id ID de la partida
+     * @return Posición del nodo en la lista
+     */
+    public int nodoDe(int id) {
+        int hash = mezclar(id);
+        int posicion = Arrays.binarySearch(puntos, hash);
+        if (posicion < 0) {
+            posicion = -posicion - 1;
+            if (posicion == puntos.length) {
+                posicion = 0; // Se da la vuelta al anillo
+            }
+        }
+        return duenos[posicion];
+    }
+
+    /**
+     * Número de nodos del clúster.
+     *
+     * @return Nodos
+     */
+    public int getNumNodos() {
+        return nodos.length;
+    }
+
+    /**
+     * Dirección de un nodo.
+     *
+     * @param nodo Posición en la lista
+     * @return host:puerto
+     */
+    public String getNodo(int nodo) {
+        return nodos[nodo];
+    }
+
+    /**
+     * Marca un token de reanudación con el nodo que lo emite.
+     *
+     * @param nodo Posición del nodo en la lista
+     * @param token Token generado por el nodo
+     * @return Token con el nodo delante
+     */
+    public static String marcarToken(int nodo, String token) {
+        return nodo + String.valueOf(SEPARADOR_TOKEN) + token;
+    }
+
+    /**
+     * Nodo que emitió un token de reanudación.
+     *
+     * @param token Token recibido del cliente
+     * @return Posición del nodo o -1 si el token no lleva nodo
+     */
+    public static int nodoDeToken(String token) {
+        if (token == null) {
+            return -1;
+        }
+        int separador = token.indexOf(SEPARADOR_TOKEN);
+        if (separador <= 0) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(token.substring(0, separador));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Finalizador de MurmurHash3: reparte IDs consecutivos por todo el anillo.
+     */
+    private static int mezclar(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Hash de un punto del anillo: los primeros 32 bits del MD5, que sólo
+     * se calcula al construirlo.
+     */
+    private static int hashPunto(String clave) {
+        try {
+            byte[] md5 = MessageDigest.getInstance("MD5").digest(clave.getBytes(StandardCharsets.UTF_8));
+            return ((md5[0] & 0xFF) << 24) | ((md5[1] & 0xFF) << 16) | ((md5[2] & 0xFF) << 8) | (md5[3] & 0xFF);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 no disponible", e);
+        }
+    }
+}
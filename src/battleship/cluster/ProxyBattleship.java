@@ -0,0 +1,726 @@
+package battleship.cluster;
+
+import battleship.protocol.Capacidades;
+import battleship.protocol.CodecTexto;
+import battleship.protocol.Comando;
+import battleship.protocol.Mensaje;
+import battleship.servidor.Configuracion;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Proxy de un clúster de servidores Battleship.
+ *
+ * Los clientes se conectan al proxy como si fuera el servidor y el proxy
+ * abre por cada uno una conexión con un nodo. Lo que llega del nodo se
+ * copia al cliente byte a byte; lo que manda el cliente se lee por líneas
+ * para ver a qué nodo le corresponde:
+ *
+ * - CREAR_PARTIDA va al nodo con menos partidas.
+ * - UNIR_PARTIDA, OBSERVAR_PARTIDA y VER_REPETICION van al dueño del ID
+ *   en el anillo (los nodos sólo crean partidas con IDs suyos).
+ * - REANUDAR va al nodo que emitió el token.
+ * - Las colas de emparejamiento y la clasificación están en un solo nodo,
+ *   para que todos los jugadores se puedan emparejar entre sí.
+ * - LISTAR_PARTIDAS y LISTAR_REPETICIONES los contesta el propio proxy
+ *   juntando lo que responde cada nodo: la página N del clúster es la
+ *   unión de las páginas N de todos los nodos.
+ *
+ * Si el comando es de otro nodo, el proxy abre la conexión con él, le
+ * repite el CONECTAR del cliente, le pasa al cliente el saludo del nodo
+ * nuevo (con su token) y cierra la conexión anterior.
+ *
+ * Para poder leer las líneas del cliente el proxy quita BIN de las
+ * capacidades que anuncian los nodos: a través del proxy se habla siempre
+ * el codec de texto. También quita MC, porque reparte conexiones enteras
+ * entre nodos y no podría repartir por canal.
+ *
+ * @author Jorge González Navas
+ */
+public class ProxyBattleship {
+
+    /**
+     * Nodo del clúster y la última carga que informó.
+     */
+    static final class Nodo {
+        final int indice;
+        final String host;
+        final int puerto;
+
+        // Partidas según el último ESTADO_NODO (-1 = no responde)
+        volatile int partidas = -1;
+        volatile int conexiones;
+
+        // Partidas mandadas a crear desde la última consulta
+        final AtomicInteger asignadas = new AtomicInteger();
+
+        // Conexión con la que se consulta la carga
+        private Socket consulta;
+        private InputStream entradaConsulta;
+
+        Nodo(int indice, String direccion) {
+            this.indice = indice;
+            int dosPuntos = direccion.lastIndexOf(':');
+            this.host = direccion.substring(0, dosPuntos);
+            this.puerto = Integer.parseInt(direccion.substring(dosPuntos + 1));
+        }
+
+        boolean disponible() {
+            return partidas >= 0;
+        }
+
+        int carga() {
+            return partidas + asignadas.get();
+        }
+
+        /**
+         * Pide ESTADO_NODO y actualiza la carga. Si el nodo no responde
+         * queda como no disponible hasta la siguiente consulta que funcione.
+         */
+        void consultar() {
+            boolean antes = disponible();
+            try {
+                if (consulta == null) {
+                    consulta = conectarNodo(this);
+                    consulta.setSoTimeout(TIMEOUT_CONEXION);
+                    entradaConsulta = new BufferedInputStream(consulta.getInputStream());
+                    leerLinea(entradaConsulta); // BIENVENIDA
+                }
+                consulta.getOutputStream().write(LINEA_ESTADO);
+                Mensaje respuesta;
+                do {
+                    byte[] linea = leerLinea(entradaConsulta);
+                    if (linea == null) {
+                        throw new IOException("El nodo cerró la conexión");
+                    }
+                    respuesta = aMensaje(linea);
+                } while (respuesta.getTipo() != Comando.NODO);
+                conexiones = Integer.parseInt(respuesta.getParametro(2));
+                asignadas.set(0);
+                partidas = Integer.parseInt(respuesta.getParametro(1));
+            } catch (IOException | RuntimeException e) {
+                partidas = -1;
+                cerrarConsulta();
+            }
+            if (antes != disponible()) {
+                System.out.println("Nodo " + indice + " (" + host + ":" + puerto + ") "
+                    + (disponible() ? "disponible" : "no responde"));
+            }
+        }
+
+        private void cerrarConsulta() {
+            if (consulta != null) {
+                try {
+                    consulta.close();
+                } catch (IOException e) {
+                    // Ignorar
+                }
+                consulta = null;
+            }
+        }
+    }
+
+    // Tiempo máximo para abrir la conexión con un nodo (ms)
+    private static final int TIMEOUT_CONEXION = 2000;
+
+    // Longitud máxima de una línea del cliente
+    static final int MAX_LINEA = 64 * 1024;
+
+    private static final byte[] LINEA_ESTADO = new Mensaje(Mensaje.ESTADO_NODO, new String[0])
+        .serializar().getBytes(StandardCharsets.UTF_8);
+
+    private static AnilloConsistente anillo;
+    private static Nodo[] nodos;
+
+    // Pool de hilos: dos por cliente (cada sentido de la copia)
+    private static final ExecutorService pool = Executors.newCachedThreadPool();
+
+    public static void main(String[] args) {
+        System.out.println("====================================");
+        System.out.println("    Proxy del clúster Battleship");
+        System.out.println("====================================");
+
+        if (Configuracion.NODOS_CLUSTER.isEmpty()) {
+            System.err.println("Falta la lista de nodos (-Dbattleship.cluster.nodos=host:puerto,...)");
+            System.exit(1);
+        }
+        anillo = AnilloConsistente.desdeLista(Configuracion.NODOS_CLUSTER);
+        nodos = new Nodo[anillo.getNumNodos()];
+        for (int i = 0; i < nodos.length; i++) {
+            nodos[i] = new Nodo(i, anillo.getNodo(i));
+            nodos[i].consultar();
+        }
+        iniciarMonitor();
+
+        try (ServerSocket ss = new ServerSocket()) {
+            ss.bind(new InetSocketAddress(Configuracion.PUERTO));
+            System.out.println("Proxy iniciado en puerto " + Configuracion.PUERTO + " con " + nodos.length + " nodos");
+            System.out.println("Esperando conexiones...\n");
+
+            while (true) {
+                Socket cliente = ss.accept();
+                pool.execute(new EnlaceProxy(cliente));
+            }
+
+        } catch (IOException e) {
+            System.err.println("Error en el proxy: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Arranca el hilo que consulta periódicamente la carga de los nodos.
+     */
+    private static void iniciarMonitor() {
+        Thread monitor = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(Configuracion.ESTADO_NODOS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (Nodo nodo : nodos) {
+                        nodo.consultar();
+                    }
+                }
+            }
+        }, "monitor-nodos");
+        monitor.setDaemon(true);
+        monitor.start();
+    }
+
+    /**
+     * Nodo disponible con menos partidas, contando las que se han mandado
+     * crear desde la última consulta.
+     *
+     * @return Posición del nodo o -1 si no responde ninguno
+     */
+    static int menosCargado() {
+        Nodo mejor = null;
+        for (Nodo nodo : nodos) {
+            if (nodo.disponible() && (mejor == null || nodo.carga() < mejor.carga()
+                    || (nodo.carga() == mejor.carga() && nodo.conexiones < mejor.conexiones))) {
+                mejor = nodo;
+            }
+        }
+        return (mejor != null) ? mejor.indice : -1;
+    }
+
+    /**
+     * Elige el nodo en el que se creará una partida y lo anota para que
+     * las siguientes creaciones se repartan antes de la próxima consulta.
+     *
+     * @return Posición del nodo o -1 si no responde ninguno
+     */
+    static int nodoParaCrear() {
+        int nodo = menosCargado();
+        if (nodo >= 0) {
+            nodos[nodo].asignadas.incrementAndGet();
+        }
+        return nodo;
+    }
+
+    /**
+     * Nodo dueño de una partida.
+     *
+     * @param id ID de la partida
+     * @return Posición del nodo
+     */
+    static int nodoDePartida(int id) {
+        return anillo.nodoDe(id);
+    }
+
+    /**
+     * Nodo con las colas de emparejamiento.
+     *
+     * @return Posición del nodo
+     */
+    static int nodoEmparejamiento() {
+        return Math.min(Math.max(Configuracion.NODO_EMPAREJAMIENTO, 0), nodos.length - 1);
+    }
+
+    /**
+     * Abre una conexión con un nodo.
+     *
+     * @param nodo Nodo destino
+     * @return Socket conectado
+     * @throws IOException Si el nodo no acepta la conexión
+     */
+    static Socket conectarNodo(Nodo nodo) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(nodo.host, nodo.puerto), TIMEOUT_CONEXION);
+            socket.setTcpNoDelay(true);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    /**
+     * Manda una consulta a todos los nodos disponibles, cada una por una
+     * conexión propia y en paralelo, y recoge las respuestas.
+     *
+     * @param linea Consulta ya serializada
+     * @param respuesta Tipo de mensaje que se espera de cada nodo
+     * @return Respuestas de los nodos que contestaron
+     */
+    static List<Mensaje> consultarTodos(final byte[] linea, final Comando respuesta) {
+        List<Future<Mensaje>> pendientes = new ArrayList<Future<Mensaje>>();
+        for (final Nodo nodo : nodos) {
+            if (!nodo.disponible()) {
+                continue;
+            }
+            pendientes.add(pool.submit(new Callable<Mensaje>() {
+                public Mensaje call() throws IOException {
+                    try (Socket socket = conectarNodo(nodo)) {
+                        socket.setSoTimeout(TIMEOUT_CONEXION);
+                        InputStream entrada = new BufferedInputStream(socket.getInputStream());
+                        leerLinea(entrada); // BIENVENIDA
+                        socket.getOutputStream().write(linea);
+                        byte[] recibida;
+                        while ((recibida = leerLinea(entrada)) != null) {
+                            Mensaje mensaje = aMensaje(recibida);
+                            if (mensaje.getTipo() == respuesta) {
+                                return mensaje;
+                            }
+                        }
+                        return null;
+                    }
+                }
+            }));
+        }
+        List<Mensaje> respuestas = new ArrayList<Mensaje>();
+        for (Future<Mensaje> pendiente : pendientes) {
+            try {
+                Mensaje mensaje = pendiente.get();
+                if (mensaje != null) {
+                    respuestas.add(mensaje);
+                }
+            } catch (ExecutionException e) {
+                // Ese nodo no contestó: la lista sale sin sus partidas
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return respuestas;
+    }
+
+    static Nodo getNodo(int indice) {
+        return nodos[indice];
+    }
+
+    static int getNumNodos() {
+        return nodos.length;
+    }
+
+    static ExecutorService getPool() {
+        return pool;
+    }
+
+    /**
+     * Lee una línea terminada en \n, incluido el terminador.
+     *
+     * @param entrada Stream (con buffer: se lee byte a byte)
+     * @return Bytes de la línea o null si se cerró antes de empezarla
+     * @throws IOException Si la línea excede MAX_LINEA o se corta a medias
+     */
+    static byte[] leerLinea(InputStream entrada) throws IOException {
+        ByteArrayOutputStream linea = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = entrada.read()) != -1) {
+            linea.write(b);
+            if (b == '\n') {
+                return linea.toByteArray();
+            }
+            if (linea.size() > MAX_LINEA) {
+                throw new IOException("Línea demasiado larga");
+            }
+        }
+        if (linea.size() > 0) {
+            throw new IOException("Conexión cerrada a mitad de línea");
+        }
+        return null;
+    }
+
+    /**
+     * Interpreta una línea del codec de texto.
+     *
+     * @param linea Bytes de la línea, con su terminador
+     * @return Mensaje
+     */
+    static Mensaje aMensaje(byte[] linea) {
+        int fin = linea.length;
+        while (fin > 0 && (linea[fin - 1] == '\n' || linea[fin - 1] == '\r')) {
+            fin--;
+        }
+        return Mensaje.deserializar(new String(linea, 0, fin, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * CONECTAR o REANUDAR del cliente tal como lo verá el nodo: sin BIN
+     * ni MC entre las capacidades pedidas, por si el cliente lo pide aunque no
+     * se le haya ofrecido.
+     *
+     * @param mensaje Mensaje del cliente
+     * @return Línea a reenviar
+     */
+    static byte[] pedirSinBinario(Mensaje mensaje) {
+        String[] params = new String[mensaje.getNumParametros()];
+        for (int i = 0; i < params.length; i++) {
+            params[i] = mensaje.getParametro(i);
+        }
+        if (params.length > 1) {
+            params[1] = sinCapacidadesDeConexion(params[1]);
+            if (params[1].isEmpty()) {
+                // Sin ninguna el nodo no confirmaría el saludo y el cliente lo espera
+                params[1] = CodecTexto.INSTANCIA.getNombre();
+            }
+        }
+        return new Mensaje(mensaje.getComando(), params).serializar().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Saludo de un nodo tal como lo verá el cliente: sin BIN ni MC entre
+     * las capacidades.
+     *
+     * @param saludo Línea BIENVENIDA del nodo
+     * @return Línea a reenviar
+     */
+    static byte[] saludoSinBinario(byte[] saludo) {
+        Mensaje mensaje = aMensaje(saludo);
+        if (mensaje.getTipo() != Comando.BIENVENIDA || mensaje.getNumParametros() < 2) {
+            return saludo;
+        }
+        String[] params = new String[mensaje.getNumParametros()];
+        for (int i = 0; i < params.length; i++) {
+            params[i] = mensaje.getParametro(i);
+        }
+        params[1] = sinCapacidadesDeConexion(params[1]);
+        return new Mensaje(Mensaje.BIENVENIDA, params).serializar().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Quita de una lista las capacidades que el proxy no puede encaminar.
+     */
+    private static String sinCapacidadesDeConexion(String capacidades) {
+        return Capacidades.quitar(Capacidades.quitar(capacidades, Capacidades.BINARIO), Capacidades.MULTICANAL);
+    }
+}
+
+/**
+ * Conexión de un cliente a través del proxy.
+ */
+class EnlaceProxy implements Runnable {
+
+    /**
+     * Conexión con un nodo y copia de lo que manda hacia el cliente.
+     */
+    private final class Tramo implements Runnable {
+        final int nodo;
+        final Socket socket;
+        final InputStream entrada;
+        final OutputStream salida;
+
+        // El cliente ya pasó a otro nodo: lo que quede de este se descarta
+        volatile boolean reemplazado;
+
+        Tramo(int nodo) throws IOException {
+            this.nodo = nodo;
+            this.socket = ProxyBattleship.conectarNodo(ProxyBattleship.getNodo(nodo));
+            this.entrada = new BufferedInputStream(socket.getInputStream());
+            this.salida = socket.getOutputStream();
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[8192];
+            try {
+                int leidos;
+                while ((leidos = entrada.read(buffer)) != -1) {
+                    synchronized (cerrojoCliente) {
+                        if (reemplazado) {
+                            return;
+                        }
+                        aCliente.write(buffer, 0, leidos);
+                    }
+                }
+            } catch (IOException e) {
+                // Se cerró uno de los dos extremos
+            } finally {
+                if (!reemplazado) {
+                    cerrar(cliente);
+                }
+            }
+        }
+
+        /**
+         * Deja el nodo: le avisa de la desconexión y cierra.
+         */
+        void abandonar() {
+            reemplazado = true;
+            try {
+                salida.write(LINEA_DESCONECTAR);
+            } catch (IOException e) {
+                // Ya estaba cerrado
+            }
+            cerrar(socket);
+        }
+    }
+
+    private static final byte[] LINEA_DESCONECTAR = new Mensaje(Mensaje.DESCONECTAR, new String[0])
+        .serializar().getBytes(StandardCharsets.UTF_8);
+
+    private final Socket cliente;
+    private OutputStream aCliente;
+
+    // Lo escriben el tramo activo y el hilo del cliente al cambiar de nodo
+    private final Object cerrojoCliente = new Object();
+
+    private Tramo actual;
+
+    // CONECTAR del cliente, para repetirlo al cambiar de nodo
+    private byte[] lineaConectar;
+    private boolean conectarConCapacidades;
+    private String nombre;
+
+    EnlaceProxy(Socket cliente) {
+        this.cliente = cliente;
+    }
+
+    @Override
+    public void run() {
+        try {
+            cliente.setTcpNoDelay(true);
+            InputStream deCliente = new BufferedInputStream(cliente.getInputStream());
+            aCliente = cliente.getOutputStream();
+
+            int inicial = ProxyBattleship.menosCargado();
+            if (inicial < 0) {
+                enviarError("No hay ningún nodo disponible");
+                return;
+            }
+            actual = new Tramo(inicial);
+            byte[] saludo = ProxyBattleship.leerLinea(actual.entrada);
+            if (saludo == null) {
+                return;
+            }
+            aCliente.write(ProxyBattleship.saludoSinBinario(saludo));
+            ProxyBattleship.getPool().execute(actual);
+
+            byte[] linea;
+            while ((linea = ProxyBattleship.leerLinea(deCliente)) != null) {
+                Mensaje mensaje = ProxyBattleship.aMensaje(linea);
+                if (mensaje.getTipo() == Comando.LISTAR_PARTIDAS) {
+                    listarPartidas(mensaje);
+                    continue;
+                }
+                if (mensaje.getTipo() == Comando.LISTAR_REPETICIONES
+                        && (mensaje.getNumParametros() > 0 || nombre != null)) {
+                    listarRepeticiones(mensaje);
+                    continue;
+                }
+                if (mensaje.getTipo() == Comando.CONECTAR || mensaje.getTipo() == Comando.REANUDAR) {
+                    linea = ProxyBattleship.pedirSinBinario(mensaje);
+                }
+                int destino = destinoDe(mensaje);
+                // El nodo de un token lo pone el cliente: puede no existir
+                if (destino >= ProxyBattleship.getNumNodos() || (destino >= 0 && destino != actual.nodo
+                        && !cambiarANodo(destino, mensaje.getTipo() != Comando.REANUDAR))) {
+                    enviarError("El nodo de esa partida no está disponible");
+                    continue;
+                }
+                actual.salida.write(linea);
+            }
+        } catch (IOException e) {
+            // El cliente o el nodo cerraron la conexión
+        } finally {
+            if (actual != null) {
+                actual.reemplazado = true;
+                cerrar(actual.socket);
+            }
+            cerrar(cliente);
+        }
+    }
+
+    /**
+     * Nodo al que le corresponde un comando del cliente.
+     *
+     * @return Posición del nodo o -1 si sirve el actual
+     */
+    private int destinoDe(Mensaje mensaje) {
+        Comando tipo = mensaje.getTipo();
+        if (tipo == null) {
+            return -1;
+        }
+        switch (tipo) {
+            case CONECTAR:
+                lineaConectar = ProxyBattleship.pedirSinBinario(mensaje);
+                conectarConCapacidades = mensaje.getNumParametros() > 1;
+                nombre = (mensaje.getNumParametros() > 0) ? mensaje.getParametro(0) : null;
+                return -1;
+            case CREAR_PARTIDA:
+                return ProxyBattleship.nodoParaCrear();
+            case UNIR_PARTIDA:
+            case OBSERVAR_PARTIDA:
+            case VER_REPETICION:
+                try {
+                    return ProxyBattleship.nodoDePartida(Integer.parseInt(mensaje.getParametro(0)));
+                } catch (NumberFormatException e) {
+                    return -1; // El nodo actual contestará con el error
+                }
+            case REANUDAR:
+                return AnilloConsistente.nodoDeToken(mensaje.getParametro(0));
+            case BUSCAR_PARTIDA:
+            case BUSCAR_CLASIFICATORIA:
+            case CONSULTAR_PUNTUACION:
+            case ESTADO_EMPAREJAMIENTO:
+                return ProxyBattleship.nodoEmparejamiento();
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Lleva la conexión del cliente a otro nodo: se abre la conexión nueva,
+     * se le repite el CONECTAR y el cliente recibe el saludo del nodo nuevo,
+     * con el token que vale allí. Sólo después se deja el nodo anterior.
+     *
+     * @param destino Nodo nuevo
+     * @param repetirConectar false si el comando que se va a reenviar ya
+     *        hace de saludo (REANUDAR)
+     * @return false si el nodo nuevo no responde (se sigue en el anterior)
+     */
+    private boolean cambiarANodo(int destino, boolean repetirConectar) {
+        Tramo nuevo = null;
+        byte[] saludo;
+        try {
+            nuevo = new Tramo(destino);
+            saludo = ProxyBattleship.leerLinea(nuevo.entrada);
+            if (saludo == null) {
+                throw new IOException("El nodo cerró la conexión");
+            }
+            if (repetirConectar && lineaConectar != null) {
+                nuevo.salida.write(lineaConectar);
+                if (conectarConCapacidades) {
+                    // La confirmación de capacidades ya la recibió el cliente del primer nodo
+                    ProxyBattleship.leerLinea(nuevo.entrada);
+                }
+            }
+        } catch (IOException e) {
+            if (nuevo != null) {
+                cerrar(nuevo.socket);
+            }
+            return false;
+        }
+        Tramo anterior = actual;
+        try {
+            synchronized (cerrojoCliente) {
+                anterior.reemplazado = true;
+                aCliente.write(ProxyBattleship.saludoSinBinario(saludo));
+            }
+        } catch (IOException e) {
+            cerrar(nuevo.socket);
+            cerrar(cliente);
+            return false;
+        }
+        anterior.abandonar();
+        actual = nuevo;
+        ProxyBattleship.getPool().execute(nuevo);
+        return true;
+    }
+
+    /**
+     * Contesta LISTAR_PARTIDAS con la misma página de todos los nodos:
+     * versión = suma de versiones, páginas = las del nodo que más tenga y
+     * las partidas ordenadas por ID.
+     */
+    private void listarPartidas(Mensaje mensaje) throws IOException {
+        byte[] consulta = mensaje.serializar().getBytes(StandardCharsets.UTF_8);
+        long version = 0;
+        int paginas = 1;
+        TreeMap<Integer, String> abiertas = new TreeMap<Integer, String>();
+        for (Mensaje pagina : ProxyBattleship.consultarTodos(consulta, Comando.PARTIDAS)) {
+            version += Long.parseLong(pagina.getParametro(0));
+            paginas = Math.max(paginas, Integer.parseInt(pagina.getParametro(2)));
+            for (int i = 3; i + 1 < pagina.getNumParametros(); i += 2) {
+                abiertas.put(Integer.valueOf(pagina.getParametro(i)), pagina.getParametro(i + 1));
+            }
+        }
+        String[] params = new String[3 + 2 * abiertas.size()];
+        params[0] = String.valueOf(version);
+        params[1] = (mensaje.getNumParametros() > 0) ? mensaje.getParametro(0) : "0";
+        params[2] = String.valueOf(paginas);
+        int i = 3;
+        for (Integer id : abiertas.keySet()) {
+            params[i++] = String.valueOf(id);
+            params[i++] = abiertas.get(id);
+        }
+        enviar(new Mensaje(Mensaje.PARTIDAS, params));
+    }
+
+    /**
+     * Contesta LISTAR_REPETICIONES con las partidas archivadas en todos los
+     * nodos. Sin jugador se pregunta por el nombre del CONECTAR, que es el
+     * que usaría el nodo.
+     */
+    private void listarRepeticiones(Mensaje mensaje) throws IOException {
+        String jugador = (mensaje.getNumParametros() > 0) ? mensaje.getParametro(0) : nombre;
+        byte[] consulta = new Mensaje(Mensaje.LISTAR_REPETICIONES, new String[]{jugador})
+            .serializar().getBytes(StandardCharsets.UTF_8);
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Mensaje lista : ProxyBattleship.consultarTodos(consulta, Comando.REPETICIONES)) {
+            for (int i = 0; i < lista.getNumParametros(); i++) {
+                ids.add(Integer.valueOf(lista.getParametro(i)));
+            }
+        }
+        Integer[] ordenados = ids.toArray(new Integer[ids.size()]);
+        Arrays.sort(ordenados);
+        String[] params = new String[ordenados.length];
+        for (int i = 0; i < ordenados.length; i++) {
+            params[i] = String.valueOf(ordenados[i]);
+        }
+        enviar(new Mensaje(Mensaje.REPETICIONES, params));
+    }
+
+    private void enviar(Mensaje mensaje) throws IOException {
+        byte[] linea = mensaje.serializar().getBytes(StandardCharsets.UTF_8);
+        synchronized (cerrojoCliente) {
+            aCliente.write(linea);
+        }
+    }
+
+    private void enviarError(String texto) throws IOException {
+        enviar(new Mensaje(Mensaje.ERROR, new String[]{texto}));
+    }
+
+    private static void cerrar(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignorar
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package battleship.eventos;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Evento de JFR al pedir plaza para una partida nueva en el semáforo que
+ * limita las partidas simultáneas: lo que se esperó y si se consiguió.
+ *
+ * @author Jorge González Navas
+ */
+@Name("battleship.Admision")
+@Label("Admisión de partida")
+@Description("Espera por una plaza libre para crear una partida")
+@Category({"Battleship", "Partidas"})
+@StackTrace(false)
+public class EventoAdmision extends jdk.jfr.Event {
+
+    @Label("Conseguida")
+    public boolean conseguida;
+
+    @Label("Plazas libres")
+    public int libres;
+}
@@ -0,0 +1,44 @@
+package battleship.eventos;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Evento de JFR cuando un hilo espera al lock de una partida más que el
+ * umbral. Se empieza antes de entrar al bloque sincronizado y se registra
+ * nada más entrar.
+ *
+ * @author Jorge González Navas
+ */
+@Name("battleship.EsperaPartida")
+@Label("Espera al lock de una partida")
+@Description("Tiempo que un hilo esperó para entrar al lock de una partida")
+@Category({"Battleship", "Partidas"})
+@Threshold("10 ms")
+public class EventoEsperaPartida extends jdk.jfr.Event {
+
+    @Label("Partida")
+    public int partida;
+
+    @Label("Operación")
+    public String operacion;
+
+    /**
+     * Cierra la espera y la registra si pasa del umbral. Se llama ya
+     * dentro del bloque sincronizado.
+     *
+     * @param partida ID de la partida
+     * @param operacion Qué iba a hacer el hilo
+     */
+    public void entrar(int partida, String operacion) {
+        end();
+        if (shouldCommit()) {
+            this.partida = partida;
+            this.operacion = operacion;
+            commit();
+        }
+    }
+}
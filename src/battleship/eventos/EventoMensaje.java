@@ -0,0 +1,27 @@
+package battleship.eventos;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Evento de JFR por cada mensaje de un cliente: desde que se lee la trama
+ * hasta que el servidor termina de atenderlo.
+ *
+ * @author Jorge González Navas
+ */
+@Name("battleship.Mensaje")
+@Label("Mensaje atendido")
+@Description("Mensaje recibido de un cliente y el tiempo que tardó en atenderse")
+@Category({"Battleship", "Protocolo"})
+@StackTrace(false)
+public class EventoMensaje extends jdk.jfr.Event {
+
+    @Label("Comando")
+    public String comando;
+
+    @Label("Canal")
+    public int canal;
+}
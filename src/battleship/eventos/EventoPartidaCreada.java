@@ -0,0 +1,24 @@
+package battleship.eventos;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Evento de JFR al crear una partida (a mano o por emparejamiento).
+ *
+ * @author Jorge González Navas
+ */
+@Name("battleship.PartidaCreada")
+@Label("Partida creada")
+@Category({"Battleship", "Partidas"})
+@StackTrace(false)
+public class EventoPartidaCreada extends jdk.jfr.Event {
+
+    @Label("Partida")
+    public int partida;
+
+    @Label("Clasificatoria")
+    public boolean clasificatoria;
+}
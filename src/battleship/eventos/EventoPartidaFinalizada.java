@@ -0,0 +1,33 @@
+package battleship.eventos;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Evento de JFR al eliminar una partida, con lo que duró desde que se creó
+ * y los disparos que se hicieron.
+ *
+ * @author Jorge González Navas
+ */
+@Name("battleship.PartidaFinalizada")
+@Label("Partida finalizada")
+@Category({"Battleship", "Partidas"})
+@StackTrace(false)
+public class EventoPartidaFinalizada extends jdk.jfr.Event {
+
+    @Label("Partida")
+    public int partida;
+
+    @Label("Duración")
+    @Timespan(Timespan.MILLISECONDS)
+    public long duracion;
+
+    @Label("Disparos")
+    public int disparos;
+
+    @Label("Ganador")
+    public int ganador;
+}
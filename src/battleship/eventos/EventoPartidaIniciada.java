@@ -0,0 +1,22 @@
+package battleship.eventos;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Evento de JFR cuando los dos jugadores de una partida están listos y
+ * empieza el primer turno.
+ *
+ * @author Jorge González Navas
+ */
+@Name("battleship.PartidaIniciada")
+@Label("Partida iniciada")
+@Category({"Battleship", "Partidas"})
+@StackTrace(false)
+public class EventoPartidaIniciada extends jdk.jfr.Event {
+
+    @Label("Partida")
+    public int partida;
+}
@@ -0,0 +1,29 @@
+package battleship.eventos;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Evento de JFR por cada escritura en el socket de una conexión: cuántos
+ * bytes y tramas salieron de golpe y lo que tardó la escritura.
+ *
+ * @author Jorge González Navas
+ */
+@Name("battleship.Volcado")
+@Label("Volcado de salida")
+@Description("Escritura de tramas salientes en el socket de una conexión")
+@Category({"Battleship", "Protocolo"})
+@StackTrace(false)
+public class EventoVolcado extends jdk.jfr.Event {
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Tramas")
+    public int tramas;
+}
@@ -42,6 +42,8 @@ public class Barco {
     private final ArrayList<Coordenada> posiciones;
     // Lista de coordenadas que han sido impactadas
     private final ArrayList<Coordenada> impactos;
+    // Orientación con la que se colocó (null si no está colocado)
+    private Orientacion orientacion;
     
     /**
      * Constructor de Barco.
@@ -81,6 +83,15 @@ public class Barco {
         return posiciones;
     }
     
+    /**
+     * Obtiene la orientación con la que se colocó el barco.
+     * 
+     * @return Orientación o null si no está colocado
+     */
+    public Orientacion getOrientacion() {
+        return orientacion;
+    }
+    
     /**
      * Coloca el barco en el tablero a partir de una coordenada inicial.
      * 
@@ -109,6 +120,7 @@ public class Barco {
             posiciones.add(pos);
         }
         
+        this.orientacion = orientacion;
         return true;
     }
     
@@ -0,0 +1,257 @@
+package battleship.model;
+
+import java.util.Arrays;
+
+/**
+ * Foto de un tablero empaquetada en bits: 256 bits (32 bytes) en cuatro
+ * palabras long, 43 caracteres en base64. Sustituye a reenviar un mensaje
+ * por disparo cuando hay que transmitir el estado completo (reanudaciones,
+ * espectadores que llegan tarde).
+ *
+ * Distribución de los bits:
+ * <ul>
+ *   <li>0-99: casilla disparada (fila * 10 + columna)</li>
+ *   <li>100-199: disparo tocado (sólo tiene sentido si está disparada)</li>
+ *   <li>200: la foto incluye los barcos intactos</li>
+ *   <li>201-250: 10 bits por tipo de barco en orden de TipoBarco:
+ *       presente (1), vertical (1), fila (4), columna (4)</li>
+ * </ul>
+ * Los barcos hundidos van siempre; los intactos sólo en la vista del dueño.
+ *
+ * @author Jorge González Navas
+ */
+public final class InstantaneaTablero {
+
+    // Tamaño codificado en bytes
+    public static final int BYTES = 32;
+
+    private static final int CASILLAS = 100;
+    private static final int BIT_TOCADOS = CASILLAS;
+    private static final int BIT_CON_BARCOS = 2 * CASILLAS;
+    private static final int BIT_BARCOS = BIT_CON_BARCOS + 1;
+    private static final int BITS_BARCO = 10;
+
+    private static final char[] ALFABETO =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] VALOR_BASE64 = new int[128];
+
+    static {
+        Arrays.fill(VALOR_BASE64, -1);
+        for (int i = 0; i < ALFABETO.length; i++) {
+            VALOR_BASE64[ALFABETO[i]] = i;
+        }
+    }
+
+    private final long[] palabras;
+
+    /**
+     * Crea una foto vacía. La rellena Tablero.capturar().
+     *
+     * @param conBarcos true si incluirá los barcos intactos
+     */
+    InstantaneaTablero(boolean conBarcos) {
+        this.palabras = new long[BYTES / 8];
+        escribirBits(BIT_CON_BARCOS, 1, conBarcos ? 1 : 0);
+    }
+
+    private InstantaneaTablero(long[] palabras) {
+        this.palabras = palabras;
+    }
+
+    /**
+     * Foto de un tablero en el que aún no se ha colocado ni disparado nada.
+     *
+     * @param conBarcos true si es la vista del dueño
+     * @return Instantánea vacía
+     */
+    public static InstantaneaTablero vacia(boolean conBarcos) {
+        return new InstantaneaTablero(conBarcos);
+    }
+
+    /**
+     * Marca una casilla como disparada.
+     */
+    void marcarDisparo(int casilla, boolean tocado) {
+        escribirBits(casilla, 1, 1);
+        escribirBits(BIT_TOCADOS + casilla, 1, tocado ? 1 : 0);
+    }
+
+    /**
+     * Añade la posición de un barco.
+     */
+    void ponerBarco(Barco.TipoBarco tipo, Coordenada inicio, Barco.Orientacion orientacion) {
+        int base = BIT_BARCOS + tipo.ordinal() * BITS_BARCO;
+        escribirBits(base, 1, 1);
+        escribirBits(base + 1, 1, orientacion == Barco.Orientacion.VERTICAL ? 1 : 0);
+        escribirBits(base + 2, 4, inicio.getFila());
+        escribirBits(base + 6, 4, inicio.getColumna());
+    }
+
+    /**
+     * Indica si se disparó en una casilla.
+     *
+     * @param casilla Índice fila * 10 + columna
+     * @return true si está disparada
+     */
+    public boolean estaDisparada(int casilla) {
+        return leerBits(casilla, 1) != 0;
+    }
+
+    /**
+     * Indica si el disparo en una casilla tocó un barco.
+     *
+     * @param casilla Índice fila * 10 + columna
+     * @return true si está disparada y tocada
+     */
+    public boolean estaTocada(int casilla) {
+        return estaDisparada(casilla) && leerBits(BIT_TOCADOS + casilla, 1) != 0;
+    }
+
+    /**
+     * Indica si la foto incluye los barcos intactos (vista del dueño).
+     *
+     * @return true si los incluye
+     */
+    public boolean incluyeBarcos() {
+        return leerBits(BIT_CON_BARCOS, 1) != 0;
+    }
+
+    /**
+     * Indica si la foto contiene la posición de un barco.
+     *
+     * @param tipo Tipo de barco
+     * @return true si está presente
+     */
+    public boolean tieneBarco(Barco.TipoBarco tipo) {
+        return leerBits(BIT_BARCOS + tipo.ordinal() * BITS_BARCO, 1) != 0;
+    }
+
+    /**
+     * Casilla inicial de un barco presente.
+     *
+     * @param tipo Tipo de barco
+     * @return Coordenada inicial
+     */
+    public Coordenada getInicioBarco(Barco.TipoBarco tipo) {
+        int base = BIT_BARCOS + tipo.ordinal() * BITS_BARCO;
+        return new Coordenada((int) leerBits(base + 2, 4), (int) leerBits(base + 6, 4));
+    }
+
+    /**
+     * Orientación de un barco presente.
+     *
+     * @param tipo Tipo de barco
+     * @return Orientación
+     */
+    public Barco.Orientacion getOrientacionBarco(Barco.TipoBarco tipo) {
+        return leerBits(BIT_BARCOS + tipo.ordinal() * BITS_BARCO + 1, 1) != 0
+            ? Barco.Orientacion.VERTICAL : Barco.Orientacion.HORIZONTAL;
+    }
+
+    /**
+     * Codifica la foto en bytes (palabras en little-endian).
+     *
+     * @return Array de BYTES bytes
+     */
+    public byte[] toBytes() {
+        byte[] bytes = new byte[BYTES];
+        for (int i = 0; i < BYTES; i++) {
+            bytes[i] = (byte) (palabras[i >> 3] >>> ((i & 7) * 8));
+        }
+        return bytes;
+    }
+
+    /**
+     * Reconstruye una foto a partir de sus bytes.
+     *
+     * @param bytes Array de BYTES bytes
+     * @return Foto decodificada
+     * @throws IllegalArgumentException Si la longitud no es la esperada
+     */
+    public static InstantaneaTablero desdeBytes(byte[] bytes) {
+        if (bytes.length != BYTES) {
+            throw new IllegalArgumentException("Instantánea de tablero inválida");
+        }
+        long[] palabras = new long[BYTES / 8];
+        for (int i = 0; i < BYTES; i++) {
+            palabras[i >> 3] |= (bytes[i] & 0xFFL) << ((i & 7) * 8);
+        }
+        return new InstantaneaTablero(palabras);
+    }
+
+    /**
+     * Codifica la foto en base64 sin relleno para viajar como parámetro.
+     *
+     * @return Texto de 43 caracteres
+     */
+    public String toBase64() {
+        byte[] bytes = toBytes();
+        StringBuilder sb = new StringBuilder((BYTES * 4 + 2) / 3);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int restantes = Math.min(3, bytes.length - i);
+            int grupo = (bytes[i] & 0xFF) << 16;
+            if (restantes > 1) {
+                grupo |= (bytes[i + 1] & 0xFF) << 8;
+            }
+            if (restantes > 2) {
+                grupo |= bytes[i + 2] & 0xFF;
+            }
+            for (int j = 0; j <= restantes; j++) {
+                sb.append(ALFABETO[(grupo >> (18 - 6 * j)) & 0x3F]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Decodifica una foto en base64 sin relleno.
+     *
+     * @param texto Texto generado por toBase64()
+     * @return Foto decodificada
+     * @throws IllegalArgumentException Si el texto no es válido
+     */
+    public static InstantaneaTablero desdeBase64(String texto) {
+        if (texto == null || texto.length() != (BYTES * 4 + 2) / 3) {
+            throw new IllegalArgumentException("Instantánea de tablero inválida");
+        }
+        byte[] bytes = new byte[BYTES];
+        int acumulado = 0;
+        int bits = 0;
+        int pos = 0;
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            int valor = (c < 128) ? VALOR_BASE64[c] : -1;
+            if (valor < 0) {
+                throw new IllegalArgumentException("Carácter base64 inválido: " + c);
+            }
+            acumulado = ((acumulado << 6) | valor) & 0xFFFF;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                bytes[pos++] = (byte) (acumulado >> bits);
+            }
+        }
+        return desdeBytes(bytes);
+    }
+
+    private void escribirBits(int desde, int num, long valor) {
+        for (int i = 0; i < num; i++) {
+            int bit = desde + i;
+            long mascara = 1L << (bit & 63);
+            if (((valor >>> i) & 1) != 0) {
+                palabras[bit >>> 6] |= mascara;
+            } else {
+                palabras[bit >>> 6] &= ~mascara;
+            }
+        }
+    }
+
+    private long leerBits(int desde, int num) {
+        long valor = 0;
+        for (int i = 0; i < num; i++) {
+            int bit = desde + i;
+            valor |= ((palabras[bit >>> 6] >>> (bit & 63)) & 1L) << i;
+        }
+        return valor;
+    }
+}
@@ -0,0 +1,380 @@
+package battleship.model;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Repetición compacta de una partida terminada: las dos flotas y la
+ * secuencia de disparos. Los resultados no se guardan porque se deducen
+ * de las flotas, y el tirador tampoco porque los turnos alternan
+ * empezando por el jugador 1.
+ *
+ * Formato: versión (byte), ID y fin en segundos (varint), ganador (byte),
+ * nombres (longitud en un byte y UTF-8), número de disparos (varint) y un
+ * flujo de bits con:
+ * <ul>
+ *   <li>cada flota, barco a barco en orden de TipoBarco: vertical (1),
+ *       fila (4), columna (4)</li>
+ *   <li>cada disparo, respecto al anterior del mismo tirador: 0 y un
+ *       índice de 3 bits en DESPLAZAMIENTOS si es uno de ellos, o 1 y la
+ *       casilla en 7 bits</li>
+ * </ul>
+ * Al rematar un barco casi todos los disparos son vecinos del anterior,
+ * así que la mayoría ocupan 4 bits.
+ *
+ * @author Jorge González Navas
+ */
+public final class Repeticion {
+
+    private static final int VERSION = 1;
+    private static final int DIMENSION = 10;
+
+    // Desplazamientos (en casillas) que se codifican con 3 bits
+    private static final int[] DESPLAZAMIENTOS = {1, -1, DIMENSION, -DIMENSION, 2, -2, 2 * DIMENSION, -2 * DIMENSION};
+
+    private static final Barco.TipoBarco[] TIPOS = Barco.TipoBarco.values();
+
+    private final int id;
+    private final long fin;
+    private final String[] nombres;
+    private final int ganador;
+    // Por jugador y tipo de barco: vertical << 8 | fila << 4 | columna
+    private final int[][] flotas;
+    // Casillas disparadas (fila * 10 + columna) en orden
+    private final byte[] disparos;
+
+    private Repeticion(int id, long fin, String[] nombres, int ganador, int[][] flotas, byte[] disparos) {
+        this.id = id;
+        this.fin = fin;
+        this.nombres = nombres;
+        this.ganador = ganador;
+        this.flotas = flotas;
+        this.disparos = disparos;
+    }
+
+    /**
+     * Crea la repetición de una partida.
+     *
+     * @param id ID de la partida
+     * @param fin Instante en que terminó (ms)
+     * @param nombre1 Nombre del jugador 1
+     * @param nombre2 Nombre del jugador 2
+     * @param ganador 1, 2 o 0 si se abandonó
+     * @param tablero1 Tablero del jugador 1 con todos sus barcos
+     * @param tablero2 Tablero del jugador 2 con todos sus barcos
+     * @param disparos Casillas disparadas en orden (fila * 10 + columna)
+     * @param numDisparos Número de disparos válidos en el array
+     * @return Repetición
+     * @throws IllegalArgumentException Si falta algún barco
+     */
+    public static Repeticion crear(int id, long fin, String nombre1, String nombre2, int ganador,
+            Tablero tablero1, Tablero tablero2, byte[] disparos, int numDisparos) {
+        return new Repeticion(id, fin, new String[]{nombre1, nombre2}, ganador,
+            new int[][]{flota(tablero1), flota(tablero2)}, Arrays.copyOf(disparos, numDisparos));
+    }
+
+    private static int[] flota(Tablero tablero) {
+        int[] flota = new int[TIPOS.length];
+        Arrays.fill(flota, -1);
+        for (Barco barco : tablero.getBarcos()) {
+            Coordenada inicio = barco.getPosiciones().get(0);
+            flota[barco.getTipo().ordinal()] = (barco.getOrientacion() == Barco.Orientacion.VERTICAL ? 1 << 8 : 0)
+                | inicio.getFila() << 4 | inicio.getColumna();
+        }
+        for (int barco : flota) {
+            if (barco < 0) {
+                throw new IllegalArgumentException("Flota incompleta");
+            }
+        }
+        return flota;
+    }
+
+    /**
+     * ID de la partida.
+     *
+     * @return ID
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Instante en que terminó la partida (precisión de segundos).
+     *
+     * @return Milisegundos desde la época
+     */
+    public long getFin() {
+        return fin;
+    }
+
+    /**
+     * Nombre de un jugador.
+     *
+     * @param jugador 1 o 2
+     * @return Nombre
+     */
+    public String getNombre(int jugador) {
+        return nombres[jugador - 1];
+    }
+
+    /**
+     * Ganador de la partida.
+     *
+     * @return 1, 2 o 0 si se abandonó
+     */
+    public int getGanador() {
+        return ganador;
+    }
+
+    /**
+     * Número de disparos de la partida.
+     *
+     * @return Disparos
+     */
+    public int getNumDisparos() {
+        return disparos.length;
+    }
+
+    /**
+     * Casilla del disparo k-ésimo.
+     *
+     * @param k Índice del disparo
+     * @return Coordenada
+     */
+    public Coordenada getDisparo(int k) {
+        return new Coordenada(disparos[k] / DIMENSION, disparos[k] % DIMENSION);
+    }
+
+    /**
+     * Jugador que hizo el disparo k-ésimo.
+     *
+     * @param k Índice del disparo
+     * @return 1 o 2
+     */
+    public int getTirador(int k) {
+        return (k % 2 == 0) ? 1 : 2;
+    }
+
+    /**
+     * Tablero de un jugador con su flota colocada y sin disparos, para
+     * reproducir la partida aplicando los disparos en orden.
+     *
+     * @param jugador 1 o 2
+     * @return Tablero nuevo
+     */
+    public Tablero tableroInicial(int jugador) {
+        Tablero tablero = new Tablero();
+        int[] flota = flotas[jugador - 1];
+        for (int i = 0; i < TIPOS.length; i++) {
+            tablero.colocarBarco(new Barco(TIPOS[i]), new Coordenada((flota[i] >> 4) & 0xF, flota[i] & 0xF),
+                (flota[i] >> 8) != 0 ? Barco.Orientacion.VERTICAL : Barco.Orientacion.HORIZONTAL);
+        }
+        return tablero;
+    }
+
+    /**
+     * Codifica la repetición.
+     *
+     * @return Bytes en el formato descrito arriba
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream(96);
+        salida.write(VERSION);
+        escribirVarint(salida, id);
+        escribirVarint(salida, fin / 1000);
+        salida.write(ganador);
+        for (String nombre : nombres) {
+            byte[] bytes = nombre.getBytes(StandardCharsets.UTF_8);
+            int longitud = Math.min(bytes.length, 255);
+            salida.write(longitud);
+            salida.write(bytes, 0, longitud);
+        }
+        escribirVarint(salida, disparos.length);
+
+        EscritorBits bits = new EscritorBits(salida);
+        for (int[] flota : flotas) {
+            for (int barco : flota) {
+                bits.escribir(barco, 9);
+            }
+        }
+        int[] anterior = {-1, -1};
+        for (int k = 0; k < disparos.length; k++) {
+            int casilla = disparos[k];
+            int indice = indiceDesplazamiento(anterior[k % 2], casilla);
+            if (indice >= 0) {
+                bits.escribir(0, 1);
+                bits.escribir(indice, 3);
+            } else {
+                bits.escribir(1, 1);
+                bits.escribir(casilla, 7);
+            }
+            anterior[k % 2] = casilla;
+        }
+        bits.terminar();
+        return salida.toByteArray();
+    }
+
+    /**
+     * Decodifica una repetición.
+     *
+     * @param bytes Bytes generados por toBytes()
+     * @return Repetición
+     * @throws IllegalArgumentException Si los bytes no son válidos
+     */
+    public static Repeticion desdeBytes(byte[] bytes) {
+        LectorBytes entrada = new LectorBytes(bytes);
+        if (entrada.leerByte() != VERSION) {
+            throw new IllegalArgumentException("Versión de repetición desconocida");
+        }
+        int id = (int) entrada.leerVarint();
+        long fin = entrada.leerVarint() * 1000;
+        int ganador = entrada.leerByte();
+        String[] nombres = new String[2];
+        for (int j = 0; j < 2; j++) {
+            int longitud = entrada.leerByte();
+            nombres[j] = new String(entrada.leer(longitud), StandardCharsets.UTF_8);
+        }
+        int numDisparos = (int) entrada.leerVarint();
+        if (numDisparos < 0 || numDisparos > 2 * DIMENSION * DIMENSION) {
+            throw new IllegalArgumentException("Número de disparos inválido: " + numDisparos);
+        }
+
+        int[][] flotas = new int[2][TIPOS.length];
+        for (int[] flota : flotas) {
+            for (int i = 0; i < flota.length; i++) {
+                flota[i] = entrada.leerBits(9);
+            }
+        }
+        byte[] disparos = new byte[numDisparos];
+        int[] anterior = {-1, -1};
+        for (int k = 0; k < numDisparos; k++) {
+            int casilla;
+            if (entrada.leerBits(1) == 0) {
+                if (anterior[k % 2] < 0) {
+                    throw new IllegalArgumentException("Desplazamiento sin disparo anterior");
+                }
+                casilla = anterior[k % 2] + DESPLAZAMIENTOS[entrada.leerBits(3)];
+            } else {
+                casilla = entrada.leerBits(7);
+            }
+            if (casilla < 0 || casilla >= DIMENSION * DIMENSION) {
+                throw new IllegalArgumentException("Disparo fuera del tablero: " + casilla);
+            }
+            disparos[k] = (byte) casilla;
+            anterior[k % 2] = casilla;
+        }
+        return new Repeticion(id, fin, nombres, ganador, flotas, disparos);
+    }
+
+    /**
+     * Índice en DESPLAZAMIENTOS del paso de una casilla a otra, o -1.
+     */
+    private static int indiceDesplazamiento(int desde, int hasta) {
+        if (desde < 0) {
+            return -1;
+        }
+        for (int i = 0; i < DESPLAZAMIENTOS.length; i++) {
+            if (hasta - desde == DESPLAZAMIENTOS[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void escribirVarint(ByteArrayOutputStream salida, long valor) {
+        while ((valor & ~0x7FL) != 0) {
+            salida.write((int) ((valor & 0x7F) | 0x80));
+            valor >>>= 7;
+        }
+        salida.write((int) valor);
+    }
+
+    /**
+     * Acumula bits (el primero en el bit más alto) y los vuelca por bytes.
+     */
+    private static final class EscritorBits {
+        private final ByteArrayOutputStream salida;
+        private int acumulado;
+        private int bits;
+
+        EscritorBits(ByteArrayOutputStream salida) {
+            this.salida = salida;
+        }
+
+        void escribir(int valor, int num) {
+            for (int i = num - 1; i >= 0; i--) {
+                acumulado = (acumulado << 1) | ((valor >>> i) & 1);
+                if (++bits == 8) {
+                    salida.write(acumulado);
+                    acumulado = 0;
+                    bits = 0;
+                }
+            }
+        }
+
+        void terminar() {
+            if (bits > 0) {
+                salida.write(acumulado << (8 - bits));
+                acumulado = 0;
+                bits = 0;
+            }
+        }
+    }
+
+    /**
+     * Lee bytes, varints y después bits del mismo array.
+     */
+    private static final class LectorBytes {
+        private final byte[] bytes;
+        private int posicion;
+        private int bit;
+
+        LectorBytes(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int leerByte() {
+            comprobar(1);
+            return bytes[posicion++] & 0xFF;
+        }
+
+        byte[] leer(int longitud) {
+            comprobar(longitud);
+            byte[] leidos = Arrays.copyOfRange(bytes, posicion, posicion + longitud);
+            posicion += longitud;
+            return leidos;
+        }
+
+        long leerVarint() {
+            long valor = 0;
+            for (int desplazamiento = 0; desplazamiento < 64; desplazamiento += 7) {
+                int b = leerByte();
+                valor |= (long) (b & 0x7F) << desplazamiento;
+                if ((b & 0x80) == 0) {
+                    return valor;
+                }
+            }
+            throw new IllegalArgumentException("Varint demasiado largo");
+        }
+
+        int leerBits(int num) {
+            int valor = 0;
+            for (int i = 0; i < num; i++) {
+                comprobar(1);
+                valor = (valor << 1) | ((bytes[posicion] >>> (7 - bit)) & 1);
+                if (++bit == 8) {
+                    bit = 0;
+                    posicion++;
+                }
+            }
+            return valor;
+        }
+
+        private void comprobar(int necesarios) {
+            if (posicion + necesarios > bytes.length) {
+                throw new IllegalArgumentException("Repetición truncada");
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package battleship.model;
 
 import battleship.util.Colores;
 import java.util.ArrayList;
+import java.util.Random;
 
 /**
  * @author Jorge González Navas
@@ -38,13 +39,21 @@ public class Tablero {
         this.casillas = new EstadoCasilla[DIMENSION][DIMENSION];
         this.barcos = new ArrayList<Barco>();
         this.disparos = new ArrayList<Coordenada>();
-        
-        // Inicializar todas las casillas como vacías
+        reiniciar();
+    }
+    
+    /**
+     * Deja el tablero vacío conservando la memoria reservada (la matriz y
+     * la capacidad de las listas), para reutilizarlo en otra partida.
+     */
+    public void reiniciar() {
         for (int i = 0; i < DIMENSION; i++) {
             for (int j = 0; j < DIMENSION; j++) {
                 casillas[i][j] = EstadoCasilla.VACIA;
             }
         }
+        barcos.clear();
+        disparos.clear();
     }
     
     /**
@@ -198,6 +207,104 @@ public class Tablero {
         disparos.add(coord);
     }
     
+    /**
+     * Elige al azar una casilla en la que todavía no se ha disparado.
+     * 
+     * @param random Generador de números aleatorios
+     * @return Coordenada libre o null si ya se disparó en todas
+     */
+    public Coordenada obtenerCasillaNoDisparada(Random random) {
+        boolean[] disparada = new boolean[DIMENSION * DIMENSION];
+        int libres = disparada.length;
+        for (Coordenada disp : disparos) {
+            int indice = disp.getFila() * DIMENSION + disp.getColumna();
+            if (!disparada[indice]) {
+                disparada[indice] = true;
+                libres--;
+            }
+        }
+        if (libres <= 0) {
+            return null;
+        }
+        int elegida = random.nextInt(libres);
+        for (int i = 0; i < disparada.length; i++) {
+            if (!disparada[i] && elegida-- == 0) {
+                return new Coordenada(i / DIMENSION, i % DIMENSION);
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Toma una foto empaquetada del tablero: disparos, tocados y barcos
+     * hundidos, más los intactos si se pide la vista del dueño.
+     * 
+     * @param incluirBarcos true para incluir los barcos no hundidos
+     * @return Instantánea del tablero
+     */
+    public InstantaneaTablero capturar(boolean incluirBarcos) {
+        InstantaneaTablero instantanea = new InstantaneaTablero(incluirBarcos);
+        for (int i = 0; i < DIMENSION; i++) {
+            for (int j = 0; j < DIMENSION; j++) {
+                if (casillas[i][j] == EstadoCasilla.AGUA) {
+                    instantanea.marcarDisparo(i * DIMENSION + j, false);
+                } else if (casillas[i][j] == EstadoCasilla.TOCADO) {
+                    instantanea.marcarDisparo(i * DIMENSION + j, true);
+                }
+            }
+        }
+        for (Barco barco : barcos) {
+            if (incluirBarcos || barco.estaHundido()) {
+                instantanea.ponerBarco(barco.getTipo(), barco.getPosiciones().get(0), barco.getOrientacion());
+            }
+        }
+        return instantanea;
+    }
+    
+    /**
+     * Sustituye el contenido del tablero por el de una instantánea en un
+     * solo paso, reconstruyendo los barcos que contiene y sus impactos.
+     * 
+     * @param instantanea Foto tomada con capturar()
+     */
+    public void restaurar(InstantaneaTablero instantanea) {
+        reiniciar();
+        
+        for (Barco.TipoBarco tipo : Barco.TipoBarco.values()) {
+            if (instantanea.tieneBarco(tipo)) {
+                colocarBarco(new Barco(tipo), instantanea.getInicioBarco(tipo), instantanea.getOrientacionBarco(tipo));
+            }
+        }
+        for (int k = 0; k < DIMENSION * DIMENSION; k++) {
+            if (instantanea.estaDisparada(k)) {
+                Coordenada coord = new Coordenada(k / DIMENSION, k % DIMENSION);
+                if (casillas[coord.getFila()][coord.getColumna()] == EstadoCasilla.BARCO) {
+                    recibirDisparo(coord); // Cuenta el impacto en el barco
+                } else {
+                    registrarDisparoRealizado(coord, instantanea.estaTocada(k));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Inicial con la que se representa cada tipo de barco.
+     */
+    private static char obtenerSimboloTipo(Barco.TipoBarco tipo) {
+        switch (tipo) {
+            case PORTAAVIONES:
+                return 'P';
+            case ACORAZADO:
+                return 'A';
+            case CRUCERO:
+                return 'C';
+            case SUBMARINO:
+                return 'S';
+            default:
+                return 'D';
+        }
+    }
+    
     /**
      * Obtiene el símbolo del barco en una posición específica.
      * 
@@ -207,18 +314,7 @@ public class Tablero {
     private char obtenerSimboloBarco(Coordenada coord) {
         for (Barco barco : barcos) {
             if (barco.ocupaPosicion(coord)) {
-                switch (barco.getTipo()) {
-                    case PORTAAVIONES:
-                        return 'P';
-                    case ACORAZADO:
-                        return 'A';
-                    case CRUCERO:
-                        return 'C';
-                    case SUBMARINO:
-                        return 'S';
-                    case DESTRUCTOR:
-                        return 'D';
-                }
+                return obtenerSimboloTipo(barco.getTipo());
             }
         }
         return ' ';
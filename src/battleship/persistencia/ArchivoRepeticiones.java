@@ -0,0 +1,296 @@
+package battleship.persistencia;
+
+import battleship.model.Repeticion;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Archivo de repeticiones de partidas terminadas.
+ *
+ * Las repeticiones se añaden una tras otra a ficheros de segmento
+ * (repeticiones-NNNNNN.dat) y cada una deja una entrada en el índice del
+ * segmento (repeticiones-NNNNNN.idx): ID, posición, longitud y jugadores.
+ * Al arrancar se leen los índices para saber dónde está cada partida y
+ * qué partidas tiene cada jugador; los datos no se tocan hasta que alguien
+ * pide una repetición, y entonces se envían con FileChannel.transferTo.
+ *
+ * @author Jorge González Navas
+ */
+public class ArchivoRepeticiones {
+
+    /**
+     * Posición de una repetición dentro de su segmento.
+     */
+    public static final class Ubicacion {
+        private final FileChannel canal;
+        private final long posicion;
+        private final int longitud;
+
+        Ubicacion(FileChannel canal, long posicion, int longitud) {
+            this.canal = canal;
+            this.posicion = posicion;
+            this.longitud = longitud;
+        }
+
+        /**
+         * Canal de lectura del segmento (compartido: sólo lecturas posicionales).
+         *
+         * @return Canal
+         */
+        public FileChannel getCanal() {
+            return canal;
+        }
+
+        /**
+         * Posición de la repetición en el segmento.
+         *
+         * @return Posición en bytes
+         */
+        public long getPosicion() {
+            return posicion;
+        }
+
+        /**
+         * Longitud de la repetición.
+         *
+         * @return Bytes
+         */
+        public int getLongitud() {
+            return longitud;
+        }
+    }
+
+    private static final String PREFIJO = "repeticiones-";
+    private static final String EXTENSION_DATOS = ".dat";
+    private static final String EXTENSION_INDICE = ".idx";
+
+    private final File directorio;
+    private final long tamanioSegmento;
+
+    // Índices en memoria
+    private final ConcurrentHashMap<Integer, Ubicacion> porPartida = new ConcurrentHashMap<Integer, Ubicacion>();
+    private final ConcurrentHashMap<String, List<Integer>> porJugador = new ConcurrentHashMap<String, List<Integer>>();
+
+    // Canales de lectura abiertos, uno por segmento
+    private final Map<Integer, FileChannel> lectores = new HashMap<Integer, FileChannel>();
+
+    // Segmento en el que se escribe (protegido por this)
+    private int segmento;
+    private FileChannel datos;
+    private FileChannel lectorActual;
+    private DataOutputStream indice;
+
+    /**
+     * Abre el archivo y carga los índices de los segmentos existentes.
+     *
+     * @param directorio Directorio de los segmentos
+     * @param tamanioSegmento Tamaño a partir del cual se empieza otro segmento
+     * @throws IOException Si no se puede crear o leer el directorio
+     */
+    public ArchivoRepeticiones(File directorio, long tamanioSegmento) throws IOException {
+        this.directorio = directorio;
+        this.tamanioSegmento = tamanioSegmento;
+        if (!directorio.isDirectory() && !directorio.mkdirs()) {
+            throw new IOException("No se pudo crear el directorio de repeticiones: " + directorio);
+        }
+        File[] indices = directorio.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String nombre) {
+                return nombre.startsWith(PREFIJO) && nombre.endsWith(EXTENSION_INDICE);
+            }
+        });
+        if (indices != null) {
+            Arrays.sort(indices); // El número va con ceros a la izquierda
+            for (File archivo : indices) {
+                String nombre = archivo.getName();
+                try {
+                    segmento = Integer.parseInt(nombre.substring(PREFIJO.length(), nombre.length() - EXTENSION_INDICE.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                cargarIndice(archivo, abrirLector(segmento));
+            }
+        }
+        abrirSegmento(segmento);
+    }
+
+    /**
+     * Lee las entradas del índice de un segmento. Una entrada a medias (el
+     * proceso murió mientras se escribía) se descarta, igual que una que
+     * apunte más allá de los datos.
+     */
+    private void cargarIndice(File archivo, FileChannel lector) throws IOException {
+        long tamanioDatos = lector.size();
+        try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(new FileInputStream(archivo)))) {
+            while (true) {
+                int id = entrada.readInt();
+                long posicion = entrada.readLong();
+                int longitud = entrada.readInt();
+                String jugador1 = entrada.readUTF();
+                String jugador2 = entrada.readUTF();
+                if (posicion + longitud > tamanioDatos) {
+                    break;
+                }
+                indexar(id, new Ubicacion(lector, posicion, longitud), jugador1, jugador2);
+            }
+        } catch (EOFException e) {
+            // Fin del índice
+        }
+    }
+
+    private void indexar(int id, Ubicacion ubicacion, String jugador1, String jugador2) {
+        porPartida.put(id, ubicacion);
+        for (String jugador : new String[]{jugador1, jugador2}) {
+            List<Integer> partidas = porJugador.get(jugador);
+            if (partidas == null) {
+                List<Integer> nueva = new CopyOnWriteArrayList<Integer>();
+                partidas = porJugador.putIfAbsent(jugador, nueva);
+                if (partidas == null) {
+                    partidas = nueva;
+                }
+            }
+            partidas.add(id);
+        }
+    }
+
+    private FileChannel abrirLector(int numero) throws IOException {
+        FileChannel lector = lectores.get(numero);
+        if (lector == null) {
+            lector = FileChannel.open(archivo(numero, EXTENSION_DATOS).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            lectores.put(numero, lector);
+        }
+        return lector;
+    }
+
+    /**
+     * Abre un segmento para añadir (crea sus ficheros si no existen).
+     */
+    private void abrirSegmento(int numero) throws IOException {
+        segmento = numero;
+        lectorActual = abrirLector(numero);
+        datos = FileChannel.open(archivo(numero, EXTENSION_DATOS).toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        // Las entradas de un lote salen al fichero con un solo flush
+        indice = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(archivo(numero, EXTENSION_INDICE), true)));
+    }
+
+    /**
+     * Archiva una repetición. Primero se escriben los datos y después la
+     * entrada del índice, de modo que el índice nunca apunta a datos que no
+     * están.
+     *
+     * @param repeticion Repetición de una partida terminada
+     * @throws IOException Si falla la escritura
+     */
+    public void guardar(Repeticion repeticion) throws IOException {
+        guardar(Collections.singletonList(repeticion));
+    }
+
+    /**
+     * Archiva un lote de repeticiones: los datos de todas, sus entradas
+     * del índice con un solo flush y después se publican en memoria.
+     *
+     * @param lote Repeticiones de partidas terminadas
+     * @throws IOException Si falla la escritura (las ya escritas del lote
+     *         quedan en el fichero pero no se publican hasta reiniciar)
+     */
+    public synchronized void guardar(List<Repeticion> lote) throws IOException {
+        List<Ubicacion> ubicaciones = new ArrayList<Ubicacion>(lote.size());
+        for (Repeticion repeticion : lote) {
+            byte[] bytes = repeticion.toBytes();
+            if (datos.size() > 0 && datos.size() + bytes.length > tamanioSegmento) {
+                datos.close();
+                indice.close();
+                abrirSegmento(segmento + 1);
+            }
+            long posicion = datos.size();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                datos.write(buffer);
+            }
+            indice.writeInt(repeticion.getId());
+            indice.writeLong(posicion);
+            indice.writeInt(bytes.length);
+            indice.writeUTF(repeticion.getNombre(1));
+            indice.writeUTF(repeticion.getNombre(2));
+            ubicaciones.add(new Ubicacion(lectorActual, posicion, bytes.length));
+        }
+        indice.flush();
+        for (int i = 0; i < lote.size(); i++) {
+            Repeticion repeticion = lote.get(i);
+            indexar(repeticion.getId(), ubicaciones.get(i), repeticion.getNombre(1), repeticion.getNombre(2));
+        }
+    }
+
+    /**
+     * Busca la repetición de una partida.
+     *
+     * @param id ID de la partida
+     * @return Ubicación o null si no está archivada
+     */
+    public Ubicacion buscar(int id) {
+        return porPartida.get(id);
+    }
+
+    /**
+     * Partidas archivadas de un jugador, de la más antigua a la más reciente.
+     *
+     * @param jugador Nombre del jugador
+     * @return IDs de sus partidas (vacía si no tiene)
+     */
+    public List<Integer> partidasDe(String jugador) {
+        List<Integer> partidas = porJugador.get(jugador);
+        return (partidas != null) ? Collections.unmodifiableList(partidas) : Collections.<Integer>emptyList();
+    }
+
+    /**
+     * Mayor ID de partida archivado, para no repetir IDs tras reiniciar.
+     *
+     * @return ID o 0 si el archivo está vacío
+     */
+    public int getMaximoId() {
+        int maximo = 0;
+        for (Integer id : porPartida.keySet()) {
+            maximo = Math.max(maximo, id);
+        }
+        return maximo;
+    }
+
+    /**
+     * Cierra todos los ficheros.
+     */
+    public synchronized void cerrar() {
+        try {
+            datos.close();
+            indice.close();
+            for (FileChannel lector : lectores.values()) {
+                lector.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error cerrando las repeticiones: " + e.getMessage());
+        }
+    }
+
+    private File archivo(int numero, String extension) {
+        return new File(directorio, String.format("%s%06d%s", PREFIJO, numero, extension));
+    }
+}
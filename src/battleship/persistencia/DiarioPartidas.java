@@ -0,0 +1,496 @@
+package battleship.persistencia;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Diario de escritura anticipada de las partidas.
+ *
+ * Los hilos de juego registran eventos sin bloquear (sólo se encolan); un
+ * único hilo escritor los saca por lotes, los añade al segmento proyectado
+ * en memoria y hace un solo force() por lote según la política de fsync
+ * (confirmación en grupo). Con SIEMPRE, esperar() no vuelve hasta que el
+ * lote del evento está en disco.
+ *
+ * Cada cierto tiempo el escritor compacta: pasa a un segmento nuevo, vuelca
+ * el estado de las partidas vivas en un fichero de instantánea y borra los
+ * segmentos anteriores, de modo que recuperar nunca reaplica más que la
+ * última instantánea y los eventos posteriores.
+ *
+ * @author Jorge González Navas
+ */
+public class DiarioPartidas {
+
+    /**
+     * Cuándo se fuerza a disco lo escrito.
+     */
+    public enum PoliticaFsync {
+        SIEMPRE,    // en cada lote, antes de confirmar a los clientes
+        INTERVALO,  // como mucho cada intervaloFsync ms
+        NUNCA       // lo decide el sistema operativo
+    }
+
+    /**
+     * Origen del estado que se vuelca al compactar.
+     */
+    public interface FuenteEstado {
+        /**
+         * Escribe el estado de todas las partidas vivas.
+         *
+         * @param salida Destino de la instantánea
+         * @throws IOException Si falla la escritura
+         */
+        void escribirInstantanea(DataOutputStream salida) throws IOException;
+    }
+
+    /**
+     * Destino de la recuperación al arrancar.
+     */
+    public interface Recuperacion {
+        /**
+         * Carga el estado escrito por FuenteEstado.escribirInstantanea.
+         *
+         * @param entrada Contenido de la instantánea
+         * @throws IOException Si el contenido no es válido
+         */
+        void cargarInstantanea(DataInputStream entrada) throws IOException;
+
+        /**
+         * Reaplica un evento posterior a la instantánea.
+         *
+         * @param evento Evento en orden de secuencia
+         */
+        void aplicar(EventoDiario evento);
+    }
+
+    /**
+     * Interesado en los lotes que se van escribiendo (la réplica).
+     */
+    public interface Suscriptor {
+        /**
+         * Recibe un lote recién escrito. Lo llama el hilo escritor, así que
+         * no debe bloquear; la lista se reutiliza después de la llamada.
+         *
+         * @param lote Eventos en orden de secuencia
+         */
+        void loteEscrito(List<EventoDiario> lote);
+    }
+
+    private static final String PREFIJO_SEGMENTO = "segmento-";
+    private static final String PREFIJO_INSTANTANEA = "instantanea-";
+    private static final String EXTENSION_SEGMENTO = ".log";
+    private static final String EXTENSION_INSTANTANEA = ".dat";
+    private static final int MAGIA_INSTANTANEA = 0x42534931; // "BSI1"
+    private static final int MAX_LOTE = 1024;
+
+    private final File directorio;
+    private final PoliticaFsync politica;
+    private final long intervaloFsync;
+    private final int tamanioSegmento;
+    private final long intervaloCompactacion;
+
+    // Eventos pendientes de escribir (sin límite: registrar nunca bloquea)
+    private final LinkedBlockingQueue<EventoDiario> cola = new LinkedBlockingQueue<EventoDiario>();
+
+    // Última secuencia asignada (protegida por this)
+    private long ultimaSecuencia;
+
+    // Última secuencia escrita y forzada según la política (protegida por persistencia)
+    private final Object persistencia = new Object();
+    private long persistido;
+
+    // Estado del escritor (sólo lo toca su hilo)
+    private SegmentoDiario actual;
+    private long siguienteSegmento;
+    private long ultimoForzado;
+    private long ultimaCompactacion;
+    private boolean sinForzar;
+    private int eventosDesdeCompactacion;
+    // Secuencia del último evento escrito en el segmento
+    private long loteEscrito;
+    private final List<EventoDiario> lote = new ArrayList<EventoDiario>(MAX_LOTE);
+
+    private FuenteEstado fuente;
+    private volatile Suscriptor suscriptor;
+    private Thread escritor;
+    private volatile boolean activo;
+    private volatile boolean compactacionPedida;
+
+    /**
+     * Constructor del diario.
+     *
+     * @param directorio Directorio de segmentos e instantáneas
+     * @param politica Política de fsync
+     * @param intervaloFsync Intervalo máximo entre fsync con INTERVALO (ms)
+     * @param tamanioSegmento Tamaño de cada segmento en bytes
+     * @param intervaloCompactacion Tiempo entre compactaciones (ms)
+     */
+    public DiarioPartidas(File directorio, PoliticaFsync politica, long intervaloFsync,
+            int tamanioSegmento, long intervaloCompactacion) {
+        this.directorio = directorio;
+        this.politica = politica;
+        this.intervaloFsync = intervaloFsync;
+        this.tamanioSegmento = tamanioSegmento;
+        this.intervaloCompactacion = intervaloCompactacion;
+    }
+
+    /**
+     * Reconstruye el estado a partir de la última instantánea válida y los
+     * segmentos posteriores. Debe llamarse antes de iniciar().
+     *
+     * @param destino Receptor del estado y los eventos
+     * @return Número de eventos reaplicados
+     * @throws IOException Si no se puede leer el directorio
+     */
+    public int recuperar(Recuperacion destino) throws IOException {
+        if (!directorio.isDirectory() && !directorio.mkdirs()) {
+            throw new IOException("No se pudo crear el directorio del diario: " + directorio);
+        }
+        long desdeSegmento = 0;
+        File[] instantaneas = listar(PREFIJO_INSTANTANEA, EXTENSION_INSTANTANEA);
+        for (int i = instantaneas.length - 1; i >= 0; i--) {
+            byte[] contenido = leerInstantanea(instantaneas[i]);
+            if (contenido != null) {
+                DataInputStream entrada = new DataInputStream(new ByteArrayInputStream(contenido));
+                entrada.readInt(); // magia
+                desdeSegmento = entrada.readLong();
+                ultimaSecuencia = entrada.readLong();
+                destino.cargarInstantanea(entrada);
+                break;
+            }
+            System.err.println("Instantánea inválida, se descarta: " + instantaneas[i].getName());
+        }
+
+        int reaplicados = 0;
+        File[] segmentos = listar(PREFIJO_SEGMENTO, EXTENSION_SEGMENTO);
+        for (File segmento : segmentos) {
+            long numero = numeroDe(segmento, PREFIJO_SEGMENTO, EXTENSION_SEGMENTO);
+            siguienteSegmento = Math.max(siguienteSegmento, numero + 1);
+            if (numero < desdeSegmento) {
+                continue;
+            }
+            for (EventoDiario evento : SegmentoDiario.leer(segmento)) {
+                ultimaSecuencia = Math.max(ultimaSecuencia, evento.getSecuencia());
+                destino.aplicar(evento);
+                reaplicados++;
+            }
+        }
+        siguienteSegmento = Math.max(siguienteSegmento, desdeSegmento);
+        persistido = ultimaSecuencia;
+        return reaplicados;
+    }
+
+    /**
+     * Abre un segmento nuevo y arranca el hilo escritor. Lo primero que hace
+     * es compactar, para que lo recuperado quede en una instantánea.
+     *
+     * @param fuente Origen del estado para las compactaciones
+     * @throws IOException Si no se puede crear el segmento
+     */
+    public void iniciar(FuenteEstado fuente) throws IOException {
+        this.fuente = fuente;
+        this.actual = nuevoSegmento();
+        this.ultimoForzado = System.currentTimeMillis();
+        this.ultimaCompactacion = ultimoForzado;
+        this.compactacionPedida = true;
+        this.activo = true;
+        escritor = new Thread(new Runnable() {
+            public void run() {
+                bucleEscritor();
+            }
+        }, "diario-partidas");
+        escritor.setDaemon(true);
+        escritor.start();
+    }
+
+    /**
+     * Hace que las secuencias siguientes sean mayores que una dada. Sirve
+     * para continuar las secuencias de partidas que vienen de otro diario
+     * (las de una réplica): sus eventos anteriores no se deben confundir
+     * con los nuevos al recuperar. Debe llamarse antes de iniciar().
+     *
+     * @param secuencia Última secuencia ya usada
+     */
+    public synchronized void avanzarSecuencia(long secuencia) {
+        ultimaSecuencia = Math.max(ultimaSecuencia, secuencia);
+    }
+
+    /**
+     * Indica quién recibe los lotes escritos a partir de ahora.
+     *
+     * @param suscriptor Suscriptor o null para ninguno
+     */
+    public void setSuscriptor(Suscriptor suscriptor) {
+        this.suscriptor = suscriptor;
+    }
+
+    /**
+     * Registra un evento. No bloquea: sólo le asigna secuencia y lo encola.
+     * Quien necesite que esté en disco antes de seguir llama a esperar().
+     *
+     * @param evento Evento a registrar
+     * @return Secuencia asignada
+     */
+    public synchronized long registrar(EventoDiario evento) {
+        evento.setSecuencia(++ultimaSecuencia);
+        cola.add(evento);
+        return evento.getSecuencia();
+    }
+
+    /**
+     * Espera a que un evento sea persistente según la política. Con
+     * INTERVALO o NUNCA vuelve enseguida.
+     *
+     * @param secuencia Secuencia devuelta por registrar()
+     */
+    public void esperar(long secuencia) {
+        if (politica != PoliticaFsync.SIEMPRE || secuencia <= 0) {
+            return;
+        }
+        synchronized (persistencia) {
+            while (persistido < secuencia && activo) {
+                try {
+                    persistencia.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Pide una compactación en el próximo ciclo del escritor.
+     */
+    public void pedirCompactacion() {
+        compactacionPedida = true;
+    }
+
+    /**
+     * Escribe lo pendiente, fuerza a disco y detiene el escritor.
+     */
+    public void cerrar() {
+        activo = false;
+        if (escritor != null) {
+            escritor.interrupt();
+            try {
+                escritor.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void bucleEscritor() {
+        while (activo) {
+            try {
+                EventoDiario primero = cola.poll(Math.max(1, Math.min(intervaloFsync, 1000)), TimeUnit.MILLISECONDS);
+                if (primero != null) {
+                    escribirLote(primero);
+                }
+                forzarSiToca();
+                long ahora = System.currentTimeMillis();
+                if (compactacionPedida
+                        || (eventosDesdeCompactacion > 0 && ahora - ultimaCompactacion >= intervaloCompactacion)) {
+                    compactar();
+                }
+            } catch (InterruptedException e) {
+                // cerrar(): se sale del bucle y se vacía la cola
+            } catch (IOException e) {
+                System.err.println("Error en el diario de partidas: " + e.getMessage());
+            }
+        }
+        try {
+            EventoDiario pendiente = cola.poll();
+            if (pendiente != null) {
+                escribirLote(pendiente);
+            }
+            actual.cerrar();
+        } catch (IOException e) {
+            System.err.println("Error cerrando el diario: " + e.getMessage());
+        }
+        publicar(loteEscrito);
+    }
+
+    /**
+     * Escribe el evento recibido y todos los que ya esperan en la cola.
+     */
+    private void escribirLote(EventoDiario primero) throws IOException {
+        lote.clear();
+        lote.add(primero);
+        cola.drainTo(lote, MAX_LOTE - 1);
+        for (EventoDiario evento : lote) {
+            if (!actual.cabe(evento)) {
+                rodar();
+                if (!actual.cabe(evento)) {
+                    System.err.println("Evento demasiado grande para un segmento, se descarta: " + evento);
+                    continue;
+                }
+            }
+            actual.agregar(evento);
+        }
+        Suscriptor s = suscriptor;
+        if (s != null) {
+            s.loteEscrito(lote);
+        }
+        eventosDesdeCompactacion += lote.size();
+        sinForzar = true;
+        loteEscrito = lote.get(lote.size() - 1).getSecuencia();
+        if (politica == PoliticaFsync.SIEMPRE) {
+            actual.forzar();
+            sinForzar = false;
+            ultimoForzado = System.currentTimeMillis();
+        }
+        publicar(loteEscrito);
+    }
+
+    private void forzarSiToca() {
+        if (sinForzar && politica == PoliticaFsync.INTERVALO
+                && System.currentTimeMillis() - ultimoForzado >= intervaloFsync) {
+            actual.forzar();
+            sinForzar = false;
+            ultimoForzado = System.currentTimeMillis();
+        }
+    }
+
+    private void publicar(long secuencia) {
+        synchronized (persistencia) {
+            if (secuencia > persistido) {
+                persistido = secuencia;
+            }
+            persistencia.notifyAll();
+        }
+    }
+
+    /**
+     * Cierra el segmento actual y abre el siguiente.
+     */
+    private void rodar() throws IOException {
+        actual.cerrar();
+        sinForzar = false;
+        actual = nuevoSegmento();
+    }
+
+    private SegmentoDiario nuevoSegmento() throws IOException {
+        long numero = siguienteSegmento++;
+        return SegmentoDiario.crear(archivoSegmento(numero), numero, tamanioSegmento);
+    }
+
+    /**
+     * Pasa a un segmento nuevo, guarda el estado de las partidas vivas y
+     * borra los segmentos e instantáneas que ya no hacen falta.
+     *
+     * Todo evento de un segmento anterior está ya aplicado al estado que se
+     * vuelca; los que lleguen mientras tanto van al segmento nuevo y, si la
+     * instantánea ya los incluye, la recuperación los salta por secuencia.
+     */
+    private void compactar() throws IOException {
+        compactacionPedida = false;
+        rodar();
+        long desdeSegmento = actual.getNumero();
+        long secuencia;
+        synchronized (this) {
+            secuencia = ultimaSecuencia;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        DataOutputStream salida = new DataOutputStream(bytes);
+        salida.writeInt(MAGIA_INSTANTANEA);
+        salida.writeLong(desdeSegmento);
+        salida.writeLong(secuencia);
+        fuente.escribirInstantanea(salida);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        salida.writeInt((int) crc.getValue());
+        salida.flush();
+
+        // Se escribe aparte y se renombra: una instantánea a medias nunca sustituye a la anterior
+        File definitivo = archivoInstantanea(desdeSegmento);
+        File temporal = new File(directorio, definitivo.getName() + ".tmp");
+        try (FileOutputStream fichero = new FileOutputStream(temporal)) {
+            bytes.writeTo(fichero);
+            fichero.getChannel().force(true);
+        }
+        Files.move(temporal.toPath(), definitivo.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        for (File segmento : listar(PREFIJO_SEGMENTO, EXTENSION_SEGMENTO)) {
+            if (numeroDe(segmento, PREFIJO_SEGMENTO, EXTENSION_SEGMENTO) < desdeSegmento) {
+                Files.deleteIfExists(segmento.toPath());
+            }
+        }
+        for (File instantanea : listar(PREFIJO_INSTANTANEA, EXTENSION_INSTANTANEA)) {
+            if (numeroDe(instantanea, PREFIJO_INSTANTANEA, EXTENSION_INSTANTANEA) < desdeSegmento) {
+                Files.deleteIfExists(instantanea.toPath());
+            }
+        }
+        eventosDesdeCompactacion = 0;
+        ultimaCompactacion = System.currentTimeMillis();
+    }
+
+    /**
+     * Lee una instantánea comprobando su CRC.
+     *
+     * @return Contenido sin el CRC final, o null si no es válida
+     */
+    private static byte[] leerInstantanea(File archivo) throws IOException {
+        byte[] contenido = Files.readAllBytes(archivo.toPath());
+        if (contenido.length < 24) {
+            return null;
+        }
+        int longitud = contenido.length - 4;
+        CRC32 crc = new CRC32();
+        crc.update(contenido, 0, longitud);
+        DataInputStream cola = new DataInputStream(new ByteArrayInputStream(contenido, longitud, 4));
+        DataInputStream cabecera = new DataInputStream(new ByteArrayInputStream(contenido, 0, 4));
+        if (cola.readInt() != (int) crc.getValue() || cabecera.readInt() != MAGIA_INSTANTANEA) {
+            return null;
+        }
+        return Arrays.copyOf(contenido, longitud);
+    }
+
+    private File archivoSegmento(long numero) {
+        return new File(directorio, String.format("%s%016d%s", PREFIJO_SEGMENTO, numero, EXTENSION_SEGMENTO));
+    }
+
+    private File archivoInstantanea(long numero) {
+        return new File(directorio, String.format("%s%016d%s", PREFIJO_INSTANTANEA, numero, EXTENSION_INSTANTANEA));
+    }
+
+    /**
+     * Ficheros del directorio con un prefijo y extensión, ordenados por número.
+     */
+    private File[] listar(final String prefijo, final String extension) {
+        File[] archivos = directorio.listFiles(new java.io.FilenameFilter() {
+            public boolean accept(File dir, String nombre) {
+                return nombre.startsWith(prefijo) && nombre.endsWith(extension);
+            }
+        });
+        if (archivos == null) {
+            return new File[0];
+        }
+        Arrays.sort(archivos); // El número va con ceros a la izquierda
+        return archivos;
+    }
+
+    private static long numeroDe(File archivo, String prefijo, String extension) {
+        String nombre = archivo.getName();
+        try {
+            return Long.parseLong(nombre.substring(prefijo.length(), nombre.length() - extension.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package battleship.persistencia;
+
+import battleship.util.HistogramaLatencias;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lado del primario de la réplica en caliente: manda a un servidor de
+ * reserva el estado de las partidas y después cada lote del diario.
+ *
+ * El hilo escritor del diario sólo deja el lote en una cola acotada (no
+ * espera a la red), así que replicar no añade latencia a las jugadas. Un
+ * hilo propio saca los lotes, los junta en una trama y los escribe. Si la
+ * reserva no da abasto y la cola se llena se corta la conexión: al volver
+ * a conectarse recibe otra instantánea en lugar de los eventos perdidos.
+ *
+ * Al conectarse la reserva primero se empiezan a encolar lotes y después
+ * se saca la instantánea, así que ningún evento se queda fuera de las dos;
+ * los que estén en ambas los descarta la reserva por secuencia, igual que
+ * la recuperación del diario.
+ *
+ * La reserva confirma la última secuencia que ha aplicado. El retraso de
+ * cada lote (desde que se escribió en el diario hasta que la reserva lo
+ * confirma) se guarda en un histograma.
+ *
+ * Tramas (DataOutputStream): INSTANTANEA bytes contenido; LOTE ms bytes
+ * eventos; LATIDO ms secuencia. Confirmaciones: secuencia (long).
+ *
+ * @author Jorge González Navas
+ */
+public class EmisorReplica implements DiarioPartidas.Suscriptor {
+
+    /**
+     * Lote copiado del diario con el instante en que se escribió.
+     */
+    private static final class Lote {
+        final List<EventoDiario> eventos;
+        final long escrito;
+
+        Lote(List<EventoDiario> eventos) {
+            this.eventos = new ArrayList<EventoDiario>(eventos);
+            this.escrito = System.nanoTime();
+        }
+    }
+
+    static final byte INSTANTANEA = 1;
+    static final byte LOTE = 2;
+    static final byte LATIDO = 3;
+
+    private final int puerto;
+    private final DiarioPartidas.FuenteEstado fuente;
+    private final long intervaloLatido;
+
+    // Lotes pendientes de enviar a la reserva conectada
+    private final ArrayBlockingQueue<Lote> cola;
+
+    // Hay una reserva conectada y se le encolan lotes
+    private volatile boolean conectada;
+    private volatile Socket socket;
+
+    // Última secuencia escrita en el diario y última confirmada por la reserva
+    private volatile long ultimaEscrita;
+    private volatile long confirmada;
+
+    // Lotes enviados sin confirmar: {última secuencia, System.nanoTime() al escribirse}
+    private final ArrayDeque<long[]> sinConfirmar = new ArrayDeque<long[]>();
+
+    // Retraso de cada lote hasta su confirmación (µs)
+    private final HistogramaLatencias retrasos = new HistogramaLatencias();
+
+    /**
+     * Crea el emisor.
+     *
+     * @param puerto Puerto local en el que espera a la reserva
+     * @param fuente Origen de la instantánea inicial (la misma que la del diario)
+     * @param capacidadCola Lotes que pueden esperar antes de cortar a la reserva
+     * @param intervaloLatido Tiempo sin lotes tras el que se manda un latido (ms)
+     */
+    public EmisorReplica(int puerto, DiarioPartidas.FuenteEstado fuente, int capacidadCola, long intervaloLatido) {
+        this.puerto = puerto;
+        this.fuente = fuente;
+        this.cola = new ArrayBlockingQueue<Lote>(Math.max(1, capacidadCola));
+        this.intervaloLatido = intervaloLatido;
+    }
+
+    /**
+     * Abre el puerto (sólo en la interfaz local) y arranca el hilo que
+     * atiende a la reserva.
+     *
+     * @throws IOException Si el puerto no está libre
+     */
+    public void iniciar() throws IOException {
+        final ServerSocket servidor = new ServerSocket();
+        servidor.setReuseAddress(true);
+        servidor.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), puerto));
+        Thread hilo = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    try {
+                        servir(servidor.accept());
+                    } catch (IOException e) {
+                        System.err.println("Error aceptando la réplica: " + e.getMessage());
+                    }
+                }
+            }
+        }, "replica-emisor");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    @Override
+    public void loteEscrito(List<EventoDiario> lote) {
+        ultimaEscrita = lote.get(lote.size() - 1).getSecuencia();
+        if (!conectada) {
+            return;
+        }
+        if (!cola.offer(new Lote(lote))) {
+            System.err.println("La réplica no da abasto, se desconecta");
+            conectada = false;
+            cerrar(socket);
+        }
+    }
+
+    /**
+     * Indica si hay una reserva conectada.
+     *
+     * @return true si se le están mandando los lotes
+     */
+    public boolean isConectada() {
+        return conectada;
+    }
+
+    /**
+     * Eventos escritos en el diario que la reserva aún no ha confirmado.
+     *
+     * @return Número de eventos de diferencia
+     */
+    public long getPendientes() {
+        return conectada ? Math.max(0, ultimaEscrita - confirmada) : 0;
+    }
+
+    /**
+     * Percentil del retraso de la reserva.
+     *
+     * @param percentil Entre 0 y 100
+     * @return Microsegundos desde que se escribe un lote hasta que la reserva lo confirma
+     */
+    public long percentilRetraso(double percentil) {
+        return retrasos.percentil(percentil);
+    }
+
+    /**
+     * Atiende a una reserva hasta que se desconecta.
+     */
+    private void servir(Socket reserva) {
+        System.out.println("Réplica conectada desde " + reserva.getRemoteSocketAddress());
+        cola.clear();
+        synchronized (sinConfirmar) {
+            sinConfirmar.clear();
+        }
+        socket = reserva;
+        // Primero se encolan los lotes y después se toma la instantánea
+        conectada = true;
+        try {
+            reserva.setTcpNoDelay(true);
+            DataOutputStream salida = new DataOutputStream(new BufferedOutputStream(reserva.getOutputStream(), 64 * 1024));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+            fuente.escribirInstantanea(new DataOutputStream(bytes));
+            salida.writeByte(INSTANTANEA);
+            salida.writeInt(bytes.size());
+            bytes.writeTo(salida);
+            salida.flush();
+            leerConfirmaciones(reserva);
+
+            List<Lote> lotes = new ArrayList<Lote>();
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (conectada) {
+                Lote primero = cola.poll(intervaloLatido, TimeUnit.MILLISECONDS);
+                if (primero == null) {
+                    salida.writeByte(LATIDO);
+                    salida.writeLong(System.currentTimeMillis());
+                    salida.writeLong(ultimaEscrita);
+                    salida.flush();
+                    continue;
+                }
+                // Todos los lotes que ya esperan van en la misma trama
+                lotes.clear();
+                lotes.add(primero);
+                cola.drainTo(lotes);
+                buffer.clear();
+                for (Lote lote : lotes) {
+                    for (EventoDiario evento : lote.eventos) {
+                        if (buffer.remaining() < evento.longitud()) {
+                            buffer = ampliar(buffer, evento.longitud());
+                        }
+                        evento.escribir(buffer);
+                    }
+                    synchronized (sinConfirmar) {
+                        sinConfirmar.add(new long[]{lote.eventos.get(lote.eventos.size() - 1).getSecuencia(), lote.escrito});
+                    }
+                }
+                salida.writeByte(LOTE);
+                salida.writeLong(System.currentTimeMillis());
+                salida.writeInt(buffer.position());
+                salida.write(buffer.array(), 0, buffer.position());
+                salida.flush();
+            }
+        } catch (IOException e) {
+            // La reserva se desconectó
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            conectada = false;
+            cola.clear();
+            cerrar(reserva);
+            System.out.println("Réplica desconectada");
+        }
+    }
+
+    /**
+     * Arranca el hilo que lee las confirmaciones de la reserva.
+     */
+    private void leerConfirmaciones(final Socket reserva) throws IOException {
+        final DataInputStream entrada = new DataInputStream(new BufferedInputStream(reserva.getInputStream()));
+        Thread hilo = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        confirmar(entrada.readLong());
+                    }
+                } catch (IOException e) {
+                    conectada = false;
+                    cerrar(reserva);
+                }
+            }
+        }, "replica-confirmaciones");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /**
+     * Anota la secuencia confirmada y el retraso de los lotes que cubre.
+     */
+    private void confirmar(long secuencia) {
+        confirmada = Math.max(confirmada, secuencia);
+        long ahora = System.nanoTime();
+        synchronized (sinConfirmar) {
+            while (!sinConfirmar.isEmpty() && sinConfirmar.peek()[0] <= secuencia) {
+                retrasos.registrar(TimeUnit.NANOSECONDS.toMicros(ahora - sinConfirmar.poll()[1]));
+            }
+        }
+    }
+
+    private static ByteBuffer ampliar(ByteBuffer buffer, int minimo) {
+        ByteBuffer mayor = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + minimo));
+        buffer.flip();
+        mayor.put(buffer);
+        return mayor;
+    }
+
+    private static void cerrar(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignorar
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package battleship.persistencia;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Evento del diario de partidas. Cada cambio de estado de una partida se
+ * registra como uno de estos eventos antes de confirmarse a los clientes;
+ * reaplicarlos en orden reconstruye la partida.
+ *
+ * Formato en disco: secuencia (long), tipo (byte), partida (int),
+ * jugador (byte) y los campos del tipo. Los textos van con su longitud
+ * (int, -1 para null) seguida de sus bytes UTF-8.
+ *
+ * @author Jorge González Navas
+ */
+public final class EventoDiario {
+
+    /**
+     * Tipos de evento. El ordinal se guarda en disco: sólo se añaden al final.
+     */
+    public enum Tipo {
+        CREADA,     // jugador 1 crea la partida: nombre, token
+        UNIDO,      // jugador 2 se une: nombre, token
+        BARCO,      // tipo de barco, fila, columna, orientación
+        LISTO,      // el jugador terminó de colocar
+        DISPARO,    // fila, columna
+        FIN         // la partida terminó o se abandonó
+    }
+
+    private static final Tipo[] TIPOS = Tipo.values();
+
+    private long secuencia;
+    private final Tipo tipo;
+    private final int partida;
+    private final int jugador;
+    private final int[] datos;
+    private final String nombre;
+    private final String token;
+
+    private EventoDiario(Tipo tipo, int partida, int jugador, int[] datos, String nombre, String token) {
+        this.tipo = tipo;
+        this.partida = partida;
+        this.jugador = jugador;
+        this.datos = datos;
+        this.nombre = nombre;
+        this.token = token;
+    }
+
+    /**
+     * Partida creada por su primer jugador.
+     *
+     * @param partida ID de la partida
+     * @param nombre Nombre del jugador
+     * @param token Token de reanudación o null
+     * @return Evento
+     */
+    public static EventoDiario creada(int partida, String nombre, String token) {
+        return new EventoDiario(Tipo.CREADA, partida, 1, new int[0], nombre, token);
+    }
+
+    /**
+     * Segundo jugador unido a la partida.
+     *
+     * @param partida ID de la partida
+     * @param nombre Nombre del jugador
+     * @param token Token de reanudación o null
+     * @return Evento
+     */
+    public static EventoDiario unido(int partida, String nombre, String token) {
+        return new EventoDiario(Tipo.UNIDO, partida, 2, new int[0], nombre, token);
+    }
+
+    /**
+     * Barco colocado.
+     *
+     * @param partida ID de la partida
+     * @param jugador 1 o 2
+     * @param tipoBarco Ordinal de Barco.TipoBarco
+     * @param fila Fila inicial
+     * @param columna Columna inicial
+     * @param orientacion Ordinal de Barco.Orientacion
+     * @return Evento
+     */
+    public static EventoDiario barco(int partida, int jugador, int tipoBarco, int fila, int columna, int orientacion) {
+        return new EventoDiario(Tipo.BARCO, partida, jugador, new int[]{tipoBarco, fila, columna, orientacion}, null, null);
+    }
+
+    /**
+     * Jugador listo para empezar.
+     *
+     * @param partida ID de la partida
+     * @param jugador 1 o 2
+     * @return Evento
+     */
+    public static EventoDiario listo(int partida, int jugador) {
+        return new EventoDiario(Tipo.LISTO, partida, jugador, new int[0], null, null);
+    }
+
+    /**
+     * Disparo aplicado (incluidos los automáticos por tiempo).
+     *
+     * @param partida ID de la partida
+     * @param jugador Jugador que dispara (1 o 2)
+     * @param fila Fila del disparo
+     * @param columna Columna del disparo
+     * @return Evento
+     */
+    public static EventoDiario disparo(int partida, int jugador, int fila, int columna) {
+        return new EventoDiario(Tipo.DISPARO, partida, jugador, new int[]{fila, columna}, null, null);
+    }
+
+    /**
+     * Fin de la partida.
+     *
+     * @param partida ID de la partida
+     * @return Evento
+     */
+    public static EventoDiario fin(int partida) {
+        return new EventoDiario(Tipo.FIN, partida, 0, new int[0], null, null);
+    }
+
+    /**
+     * Número de orden del evento en el diario (global, creciente).
+     *
+     * @return Secuencia
+     */
+    public long getSecuencia() {
+        return secuencia;
+    }
+
+    void setSecuencia(long secuencia) {
+        this.secuencia = secuencia;
+    }
+
+    /**
+     * Obtiene el tipo del evento.
+     *
+     * @return Tipo
+     */
+    public Tipo getTipo() {
+        return tipo;
+    }
+
+    /**
+     * Obtiene el ID de la partida del evento.
+     *
+     * @return ID de la partida
+     */
+    public int getPartida() {
+        return partida;
+    }
+
+    /**
+     * Obtiene el jugador al que se refiere el evento.
+     *
+     * @return 1, 2 o 0 si no se refiere a ninguno
+     */
+    public int getJugador() {
+        return jugador;
+    }
+
+    /**
+     * Campo entero del evento (ver cada tipo para su significado).
+     *
+     * @param indice Posición del campo
+     * @return Valor
+     */
+    public int getDato(int indice) {
+        return datos[indice];
+    }
+
+    /**
+     * Nombre del jugador en CREADA y UNIDO.
+     *
+     * @return Nombre o null
+     */
+    public String getNombre() {
+        return nombre;
+    }
+
+    /**
+     * Token de reanudación en CREADA y UNIDO.
+     *
+     * @return Token o null
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Bytes que ocupa el evento codificado.
+     *
+     * @return Longitud en bytes
+     */
+    int longitud() {
+        int bytes = 8 + 1 + 4 + 1 + 1 + 4 * datos.length;
+        if (tipo == Tipo.CREADA || tipo == Tipo.UNIDO) {
+            bytes += longitudTexto(nombre) + longitudTexto(token);
+        }
+        return bytes;
+    }
+
+    /**
+     * Codifica el evento en la posición actual del buffer.
+     *
+     * @param destino Buffer con al menos longitud() bytes libres
+     */
+    void escribir(ByteBuffer destino) {
+        destino.putLong(secuencia);
+        destino.put((byte) tipo.ordinal());
+        destino.putInt(partida);
+        destino.put((byte) jugador);
+        destino.put((byte) datos.length);
+        for (int dato : datos) {
+            destino.putInt(dato);
+        }
+        if (tipo == Tipo.CREADA || tipo == Tipo.UNIDO) {
+            escribirTexto(destino, nombre);
+            escribirTexto(destino, token);
+        }
+    }
+
+    /**
+     * Decodifica un evento desde la posición actual del buffer.
+     *
+     * @param origen Buffer con el evento completo
+     * @return Evento leído
+     * @throws IllegalArgumentException Si el tipo no es conocido
+     */
+    static EventoDiario leer(ByteBuffer origen) {
+        long secuencia = origen.getLong();
+        int ordinal = origen.get();
+        if (ordinal < 0 || ordinal >= TIPOS.length) {
+            throw new IllegalArgumentException("Tipo de evento desconocido: " + ordinal);
+        }
+        Tipo tipo = TIPOS[ordinal];
+        int partida = origen.getInt();
+        int jugador = origen.get();
+        int[] datos = new int[origen.get()];
+        for (int i = 0; i < datos.length; i++) {
+            datos[i] = origen.getInt();
+        }
+        String nombre = null;
+        String token = null;
+        if (tipo == Tipo.CREADA || tipo == Tipo.UNIDO) {
+            nombre = leerTexto(origen);
+            token = leerTexto(origen);
+        }
+        EventoDiario evento = new EventoDiario(tipo, partida, jugador, datos, nombre, token);
+        evento.secuencia = secuencia;
+        return evento;
+    }
+
+    private static int longitudTexto(String texto) {
+        return 4 + ((texto != null) ? texto.getBytes(StandardCharsets.UTF_8).length : 0);
+    }
+
+    private static void escribirTexto(ByteBuffer destino, String texto) {
+        if (texto == null) {
+            destino.putInt(-1);
+            return;
+        }
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        destino.putInt(bytes.length);
+        destino.put(bytes);
+    }
+
+    private static String leerTexto(ByteBuffer origen) {
+        int longitud = origen.getInt();
+        if (longitud < 0) {
+            return null;
+        }
+        if (longitud > origen.remaining()) {
+            throw new IllegalArgumentException("Texto fuera del evento");
+        }
+        byte[] bytes = new byte[longitud];
+        origen.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return "#" + secuencia + " " + tipo + " partida " + partida + " jugador " + jugador;
+    }
+}
@@ -0,0 +1,149 @@
+package battleship.persistencia;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+/**
+ * Lado de la reserva de la réplica en caliente: se conecta al primario y
+ * aplica lo que manda (la instantánea y después los lotes del diario) con
+ * la misma Recuperacion que se usa al arrancar desde el diario.
+ *
+ * Mientras el primario está vivo manda un lote o un latido cada poco; si
+ * pasa el plazo sin recibir nada, o la conexión se cierra, se da por caído
+ * y seguir() vuelve para que el servidor tome el relevo.
+ *
+ * @author Jorge González Navas
+ */
+public class ReceptorReplica {
+
+    // Espera entre intentos mientras el primario no acepta la conexión (ms)
+    private static final long ESPERA_CONEXION = 500;
+
+    private final String host;
+    private final int puerto;
+    private final int plazo;
+
+    // Última secuencia aplicada
+    private long aplicada;
+
+    // Retraso del último lote respecto a cuando el primario lo mandó (ms)
+    private volatile long retraso;
+
+    /**
+     * Crea el receptor.
+     *
+     * @param primario host:puerto de réplica del primario
+     * @param plazo Tiempo sin recibir nada tras el que el primario se da por caído (ms)
+     */
+    public ReceptorReplica(String primario, long plazo) {
+        int dosPuntos = primario.lastIndexOf(':');
+        this.host = (dosPuntos > 0) ? primario.substring(0, dosPuntos) : "localhost";
+        this.puerto = Integer.parseInt(primario.substring(dosPuntos + 1));
+        this.plazo = (int) plazo;
+    }
+
+    /**
+     * Sigue al primario hasta perderlo. Si el primario aún no está
+     * escuchando, espera a que lo esté.
+     *
+     * @param destino Receptor de la instantánea y los eventos
+     * @return Última secuencia aplicada
+     */
+    public long seguir(DiarioPartidas.Recuperacion destino) {
+        Socket socket = conectar();
+        try {
+            socket.setSoTimeout(plazo);
+            socket.setTcpNoDelay(true);
+            DataInputStream entrada = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            DataOutputStream confirmaciones = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            byte[] datos = new byte[64 * 1024];
+            while (true) {
+                int tipo = entrada.readUnsignedByte();
+                if (tipo == EmisorReplica.INSTANTANEA) {
+                    byte[] contenido = new byte[entrada.readInt()];
+                    entrada.readFully(contenido);
+                    destino.cargarInstantanea(new DataInputStream(new ByteArrayInputStream(contenido)));
+                    continue;
+                }
+                long enviado = entrada.readLong();
+                if (tipo == EmisorReplica.LOTE) {
+                    int longitud = entrada.readInt();
+                    if (longitud > datos.length) {
+                        datos = new byte[Math.max(longitud, 2 * datos.length)];
+                    }
+                    entrada.readFully(datos, 0, longitud);
+                    ByteBuffer lote = ByteBuffer.wrap(datos, 0, longitud);
+                    while (lote.hasRemaining()) {
+                        EventoDiario evento = EventoDiario.leer(lote);
+                        destino.aplicar(evento);
+                        aplicada = Math.max(aplicada, evento.getSecuencia());
+                    }
+                } else if (tipo == EmisorReplica.LATIDO) {
+                    entrada.readLong(); // Última secuencia del primario
+                } else {
+                    throw new IOException("Trama de réplica desconocida: " + tipo);
+                }
+                retraso = Math.max(0, System.currentTimeMillis() - enviado);
+                confirmaciones.writeLong(aplicada);
+                confirmaciones.flush();
+            }
+        } catch (SocketTimeoutException e) {
+            System.out.println("El primario no responde desde hace " + plazo + " ms");
+        } catch (EOFException e) {
+            System.out.println("El primario cerró la conexión de réplica");
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Conexión de réplica perdida: " + e.getMessage());
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignorar
+            }
+        }
+        return aplicada;
+    }
+
+    /**
+     * Retraso del último lote recibido respecto a cuando se mandó.
+     *
+     * @return Milisegundos
+     */
+    public long getRetraso() {
+        return retraso;
+    }
+
+    private Socket conectar() {
+        boolean avisado = false;
+        while (true) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(host, puerto), plazo);
+                return socket;
+            } catch (IOException e) {
+                try {
+                    socket.close();
+                } catch (IOException ex) {
+                    // Ignorar
+                }
+                if (!avisado) {
+                    System.out.println("Esperando al primario en " + host + ":" + puerto + "...");
+                    avisado = true;
+                }
+            }
+            try {
+                Thread.sleep(ESPERA_CONEXION);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package battleship.persistencia;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Fichero de segmento del diario, proyectado en memoria y de sólo añadir.
+ *
+ * El fichero se crea con su tamaño final (lleno de ceros) y se proyecta
+ * entero con FileChannel.map, así que añadir un evento es copiar bytes en
+ * memoria: lo escrito sobrevive a que el proceso muera aunque no se haya
+ * hecho force(), que sólo hace falta ante una caída del sistema.
+ *
+ * Formato: cabecera (magia, versión, número de segmento) y registros con
+ * longitud (int), CRC32 del contenido (int) y el evento. Una longitud 0
+ * marca el final; un CRC que no cuadra, una escritura cortada.
+ *
+ * @author Jorge González Navas
+ */
+final class SegmentoDiario {
+
+    private static final int MAGIA = 0x42534A31; // "BSJ1"
+    private static final int VERSION = 1;
+    private static final int CABECERA = 16;
+    private static final int CABECERA_REGISTRO = 8;
+
+    private final File archivo;
+    private final long numero;
+    private final RandomAccessFile fichero;
+    private final MappedByteBuffer mapa;
+
+    // Buffer donde se codifica cada evento para calcular su CRC
+    private final ByteBuffer codificado;
+    private final CRC32 crc = new CRC32();
+
+    private SegmentoDiario(File archivo, long numero, RandomAccessFile fichero, MappedByteBuffer mapa) {
+        this.archivo = archivo;
+        this.numero = numero;
+        this.fichero = fichero;
+        this.mapa = mapa;
+        this.codificado = ByteBuffer.allocate(Math.min(mapa.capacity(), 64 * 1024));
+    }
+
+    /**
+     * Crea un segmento nuevo y vacío.
+     *
+     * @param archivo Fichero a crear
+     * @param numero Número del segmento
+     * @param tamanio Tamaño del fichero en bytes
+     * @return Segmento abierto para añadir
+     * @throws IOException Si no se puede crear o proyectar
+     */
+    static SegmentoDiario crear(File archivo, long numero, int tamanio) throws IOException {
+        RandomAccessFile fichero = new RandomAccessFile(archivo, "rw");
+        try {
+            fichero.setLength(tamanio);
+            MappedByteBuffer mapa = fichero.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, tamanio);
+            mapa.putInt(MAGIA);
+            mapa.putInt(VERSION);
+            mapa.putLong(numero);
+            return new SegmentoDiario(archivo, numero, fichero, mapa);
+        } catch (IOException e) {
+            fichero.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Número del segmento.
+     *
+     * @return Número
+     */
+    long getNumero() {
+        return numero;
+    }
+
+    /**
+     * Fichero del segmento.
+     *
+     * @return Fichero
+     */
+    File getArchivo() {
+        return archivo;
+    }
+
+    /**
+     * Indica si un evento cabe en lo que queda del segmento.
+     *
+     * @param evento Evento a añadir
+     * @return true si cabe (dejando sitio para la marca de final)
+     */
+    boolean cabe(EventoDiario evento) {
+        return mapa.remaining() >= CABECERA_REGISTRO + evento.longitud() + 4;
+    }
+
+    /**
+     * Añade un evento. La longitud se escribe la última para que un lector
+     * nunca vea un registro a medias como válido.
+     *
+     * @param evento Evento a añadir (debe caber)
+     */
+    void agregar(EventoDiario evento) {
+        int longitud = evento.longitud();
+        ByteBuffer buffer = (longitud <= codificado.capacity()) ? codificado : ByteBuffer.allocate(longitud);
+        buffer.clear();
+        evento.escribir(buffer);
+        crc.reset();
+        crc.update(buffer.array(), 0, longitud);
+
+        int inicio = mapa.position();
+        mapa.position(inicio + CABECERA_REGISTRO);
+        mapa.put(buffer.array(), 0, longitud);
+        mapa.putInt(inicio + 4, (int) crc.getValue());
+        mapa.putInt(inicio, longitud);
+    }
+
+    /**
+     * Fuerza al disco lo escrito en el segmento.
+     */
+    void forzar() {
+        mapa.force();
+    }
+
+    /**
+     * Fuerza lo pendiente y cierra el fichero. La proyección se libera
+     * cuando el recolector la descarta.
+     *
+     * @throws IOException Si falla el cierre
+     */
+    void cerrar() throws IOException {
+        mapa.force();
+        fichero.close();
+    }
+
+    /**
+     * Lee todos los eventos válidos de un segmento. Se detiene en la marca
+     * de final o en el primer registro incompleto o corrupto.
+     *
+     * @param archivo Fichero del segmento
+     * @return Eventos en orden de escritura
+     * @throws IOException Si el fichero no es un segmento
+     */
+    static List<EventoDiario> leer(File archivo) throws IOException {
+        List<EventoDiario> eventos = new ArrayList<EventoDiario>();
+        try (RandomAccessFile fichero = new RandomAccessFile(archivo, "r")) {
+            FileChannel canal = fichero.getChannel();
+            if (canal.size() < CABECERA) {
+                return eventos;
+            }
+            MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            if (mapa.getInt() != MAGIA || mapa.getInt() != VERSION) {
+                throw new IOException("No es un segmento del diario: " + archivo);
+            }
+            mapa.getLong();
+            CRC32 crc = new CRC32();
+            while (mapa.remaining() >= CABECERA_REGISTRO) {
+                int longitud = mapa.getInt();
+                int esperado = mapa.getInt();
+                if (longitud <= 0 || longitud > mapa.remaining()) {
+                    break;
+                }
+                byte[] contenido = new byte[longitud];
+                mapa.get(contenido);
+                crc.reset();
+                crc.update(contenido, 0, longitud);
+                if ((int) crc.getValue() != esperado) {
+                    System.err.println("Registro corrupto en " + archivo.getName() + ", se ignora el resto");
+                    break;
+                }
+                try {
+                    eventos.add(EventoDiario.leer(ByteBuffer.wrap(contenido)));
+                } catch (RuntimeException e) {
+                    System.err.println("Evento ilegible en " + archivo.getName() + ": " + e.getMessage());
+                    break;
+                }
+            }
+        }
+        return eventos;
+    }
+}
@@ -0,0 +1,225 @@
+package battleship.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Buffer de bytes en el que los codecs escriben las tramas salientes.
+ * Codifica texto y enteros directamente en bytes, sin pasar por
+ * StringBuilder ni String intermedios. No es seguro entre hilos.
+ *
+ * @author Jorge González Navas
+ */
+public class BufferSalida {
+
+    private byte[] datos;
+    private int tamanio;
+
+    /**
+     * Constructor del buffer.
+     *
+     * @param capacidad Capacidad inicial en bytes
+     */
+    public BufferSalida(int capacidad) {
+        this.datos = new byte[Math.max(16, capacidad)];
+    }
+
+    /**
+     * Vacía el buffer conservando la memoria reservada.
+     */
+    public void reiniciar() {
+        tamanio = 0;
+    }
+
+    /**
+     * Número de bytes escritos.
+     *
+     * @return Tamaño actual
+     */
+    public int getTamanio() {
+        return tamanio;
+    }
+
+    /**
+     * Acceso al array interno (válido hasta la siguiente escritura).
+     *
+     * @return Array con los bytes en [0, getTamanio())
+     */
+    public byte[] getDatos() {
+        return datos;
+    }
+
+    /**
+     * Copia el contenido a un array nuevo.
+     *
+     * @return Bytes escritos
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(datos, tamanio);
+    }
+
+    /**
+     * Escribe el contenido en un stream.
+     *
+     * @param out Stream de destino
+     * @throws IOException Si falla la escritura
+     */
+    public void volcar(OutputStream out) throws IOException {
+        out.write(datos, 0, tamanio);
+    }
+
+    /**
+     * Escribe un byte.
+     *
+     * @param b Byte (se usan los 8 bits bajos)
+     */
+    public void escribirByte(int b) {
+        asegurar(1);
+        datos[tamanio++] = (byte) b;
+    }
+
+    /**
+     * Escribe un trozo de array.
+     *
+     * @param bytes Origen
+     * @param desde Primer byte
+     * @param longitud Número de bytes
+     */
+    public void escribir(byte[] bytes, int desde, int longitud) {
+        asegurar(longitud);
+        System.arraycopy(bytes, desde, datos, tamanio, longitud);
+        tamanio += longitud;
+    }
+
+    /**
+     * Escribe un texto en UTF-8. El caso ASCII copia carácter a byte.
+     *
+     * @param texto Texto a escribir
+     */
+    public void escribirTexto(String texto) {
+        int len = texto.length();
+        asegurar(len);
+        for (int i = 0; i < len; i++) {
+            char c = texto.charAt(i);
+            if (c >= 0x80) {
+                escribirTextoUtf8(texto, i);
+                return;
+            }
+            datos[tamanio++] = (byte) c;
+        }
+    }
+
+    /**
+     * Escribe un entero en decimal sin crear un String.
+     *
+     * @param valor Valor a escribir
+     */
+    public void escribirEntero(int valor) {
+        if (valor == Integer.MIN_VALUE) {
+            escribirTexto("-2147483648");
+            return;
+        }
+        asegurar(11);
+        if (valor < 0) {
+            datos[tamanio++] = '-';
+            valor = -valor;
+        }
+        int cifras = 1;
+        for (int v = valor; v >= 10; v /= 10) {
+            cifras++;
+        }
+        int pos = tamanio + cifras;
+        tamanio = pos;
+        do {
+            datos[--pos] = (byte) ('0' + valor % 10);
+            valor /= 10;
+        } while (valor != 0);
+    }
+
+    /**
+     * Escribe un entero no negativo en varint (7 bits por byte).
+     *
+     * @param valor Valor a escribir
+     */
+    public void escribirVarint(int valor) {
+        asegurar(5);
+        while ((valor & ~0x7F) != 0) {
+            datos[tamanio++] = (byte) ((valor & 0x7F) | 0x80);
+            valor >>>= 7;
+        }
+        datos[tamanio++] = (byte) valor;
+    }
+
+    /**
+     * Bytes que ocupa un texto en UTF-8.
+     *
+     * @param texto Texto a medir
+     * @return Longitud codificada
+     */
+    public static int longitudUtf8(String texto) {
+        int len = texto.length();
+        int bytes = len;
+        for (int i = 0; i < len; i++) {
+            char c = texto.charAt(i);
+            if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(texto.charAt(i + 1))) {
+                    bytes += 2; // 4 bytes por los 2 chars del par
+                    i++;
+                }
+            } else if (c >= 0x800) {
+                bytes += 2;
+            } else if (c >= 0x80) {
+                bytes += 1;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Bytes que ocupa un entero en varint.
+     *
+     * @param valor Valor no negativo
+     * @return Longitud codificada
+     */
+    public static int longitudVarint(int valor) {
+        int bytes = 1;
+        while ((valor & ~0x7F) != 0) {
+            valor >>>= 7;
+            bytes++;
+        }
+        return bytes;
+    }
+
+    private void escribirTextoUtf8(String texto, int desde) {
+        int len = texto.length();
+        asegurar(3 * (len - desde));
+        for (int i = desde; i < len; i++) {
+            char c = texto.charAt(i);
+            if (c < 0x80) {
+                datos[tamanio++] = (byte) c;
+            } else if (c < 0x800) {
+                datos[tamanio++] = (byte) (0xC0 | (c >> 6));
+                datos[tamanio++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(texto.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, texto.charAt(++i));
+                datos[tamanio++] = (byte) (0xF0 | (cp >> 18));
+                datos[tamanio++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                datos[tamanio++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                datos[tamanio++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                datos[tamanio++] = '?'; // Surrogate suelto, igual que String.getBytes
+            } else {
+                datos[tamanio++] = (byte) (0xE0 | (c >> 12));
+                datos[tamanio++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                datos[tamanio++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void asegurar(int extra) {
+        if (tamanio + extra > datos.length) {
+            datos = Arrays.copyOf(datos, Math.max(datos.length * 2, tamanio + extra));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package battleship.protocol;
+
+/**
+ * Capacidades opcionales del protocolo, negociadas en el saludo.
+ * El servidor las anuncia en BIENVENIDA, el cliente pide las que quiere en
+ * CONECTAR y el servidor confirma las aceptadas con otra BIENVENIDA.
+ * Se transmiten como lista separada por comas (p. ej. "BIN,TR").
+ *
+ * @author Jorge González Navas
+ */
+public final class Capacidades {
+
+    // Codec binario compacto
+    public static final String BINARIO = "BIN";
+
+    // Resultado de cada disparo en un único TURNO_RESUELTO por jugador
+    public static final String TURNO_RESUELTO = "TR";
+
+    // Reanudar una partida en curso tras perder la conexión (REANUDAR|token)
+    public static final String REANUDAR = "RS";
+
+    // Varias partidas por conexión: cada mensaje lleva al final su canal
+    public static final String MULTICANAL = "MC";
+
+    private static final String SEPARADOR = ",";
+
+    private Capacidades() {
+    }
+
+    /**
+     * Comprueba si una lista de capacidades contiene una capacidad.
+     *
+     * @param lista Lista separada por comas (puede ser null)
+     * @param capacidad Capacidad a buscar
+     * @return true si está en la lista
+     */
+    public static boolean contiene(String lista, String capacidad) {
+        if (lista == null || lista.isEmpty()) {
+            return false;
+        }
+        for (String c : lista.split(SEPARADOR)) {
+            if (c.trim().equals(capacidad)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Calcula las capacidades pedidas que también se ofrecen.
+     *
+     * @param pedidas Lista pedida por el cliente
+     * @param ofrecidas Lista ofrecida por el servidor
+     * @return Lista con la intersección (vacía si no hay ninguna)
+     */
+    public static String interseccion(String pedidas, String ofrecidas) {
+        StringBuilder sb = new StringBuilder();
+        if (pedidas == null) {
+            return "";
+        }
+        for (String c : pedidas.split(SEPARADOR)) {
+            String cap = c.trim();
+            if (!cap.isEmpty() && contiene(ofrecidas, cap) && !contiene(sb.toString(), cap)) {
+                if (sb.length() > 0) {
+                    sb.append(SEPARADOR);
+                }
+                sb.append(cap);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Quita una capacidad de una lista.
+     *
+     * @param lista Lista separada por comas (puede ser null)
+     * @param capacidad Capacidad a quitar
+     * @return Lista sin esa capacidad (vacía si no queda ninguna)
+     */
+    public static String quitar(String lista, String capacidad) {
+        StringBuilder sb = new StringBuilder();
+        if (lista == null) {
+            return "";
+        }
+        for (String c : lista.split(SEPARADOR)) {
+            String cap = c.trim();
+            if (!cap.isEmpty() && !cap.equals(capacidad)) {
+                if (sb.length() > 0) {
+                    sb.append(SEPARADOR);
+                }
+                sb.append(cap);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,45 @@
+package battleship.protocol;
+
+import java.io.IOException;
+
+/**
+ * Formato de trama con el que se leen y escriben los mensajes en el socket.
+ * El codec se negocia en el saludo CONECTAR/BIENVENIDA; por defecto es texto.
+ *
+ * Los codecs trabajan sobre buffers de bytes y no guardan estado, de modo
+ * que una única instancia sirve a todas las conexiones.
+ *
+ * @author Jorge González Navas
+ */
+public interface Codec {
+
+    /**
+     * Nombre con el que se anuncia el codec en las capacidades.
+     *
+     * @return Nombre del codec
+     */
+    String getNombre();
+
+    /**
+     * Decodifica la primera trama de buffer[desde, hasta) en el mensaje
+     * destino. Los parámetros pueden quedar apuntando a buffer.
+     * Si la trama no contenía mensaje (línea vacía) el destino queda sin
+     * comando.
+     *
+     * @param buffer Bytes recibidos
+     * @param desde Primer byte sin procesar
+     * @param hasta Fin de los bytes válidos
+     * @param destino Mensaje reutilizable en el que se decodifica
+     * @return Bytes consumidos o -1 si la trama aún está incompleta
+     * @throws IOException Si la trama es inválida
+     */
+    int leer(byte[] buffer, int desde, int hasta, MensajeRecibido destino) throws IOException;
+
+    /**
+     * Codifica un mensaje como una trama al final del buffer.
+     *
+     * @param mensaje Mensaje a escribir
+     * @param salida Buffer de salida
+     */
+    void escribir(Mensaje mensaje, BufferSalida salida);
+}
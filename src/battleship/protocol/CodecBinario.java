@@ -0,0 +1,252 @@
+package battleship.protocol;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Codec binario compacto.
+ *
+ * Trama: longitud (varint) | opcode (1 byte) | parámetros.
+ * Cada parámetro empieza por un byte que indica su forma:
+ * <ul>
+ *   <li>0x00-0x7F: entero 0..127 en el propio byte (coordenadas, tipos)</li>
+ *   <li>0x80-0xBF: ficha del diccionario FICHAS (AGUA, HUNDIDO, H...)</li>
+ *   <li>0xC0: texto UTF-8, precedido de su longitud en varint</li>
+ *   <li>0xC1: entero no negativo en varint</li>
+ * </ul>
+ * El opcode es el ordinal del comando en la enumeración Comando.
+ * Un comando que no está en la enumeración se envía con opcode 0xFF seguido de su
+ * nombre como texto. Sólo se codifica como entero el texto decimal canónico,
+ * de modo que decodificar devuelve exactamente los mismos parámetros.
+ * RESULTADO_DISPARO|HUNDIDO|3|4 ocupa 5 bytes frente a los 31 del texto.
+ *
+ * Comando y FICHAS sólo pueden crecer por el final para no romper clientes.
+ *
+ * @author Jorge González Navas
+ */
+public class CodecBinario implements Codec {
+
+    public static final CodecBinario INSTANCIA = new CodecBinario();
+
+    // Tamaño máximo de una trama (protege de longitudes corruptas)
+    private static final int MAX_TRAMA = 64 * 1024;
+
+    private static final int OPCODE_LIBRE = 0xFF;
+    private static final int FICHA = 0x80;
+    private static final int TEXTO = 0xC0;
+    private static final int ENTERO = 0xC1;
+
+    // Diccionario de valores frecuentes (máximo 64)
+    private static final String[] FICHAS = {
+        "AGUA", "TOCADO", "HUNDIDO", "YA_DISPARADO",
+        "PORTAAVIONES", "ACORAZADO", "CRUCERO", "SUBMARINO", "DESTRUCTOR",
+        "H", "V", "TXT", "BIN",
+        "PROPIO", "RIVAL", "SIGUE", "VICTORIA", "DERROTA", "-", "TR"
+    };
+
+    private static final HashMap<String, Integer> indiceFichas = new HashMap<String, Integer>();
+
+    static {
+        for (int i = 0; i < FICHAS.length; i++) {
+            indiceFichas.put(FICHAS[i], i);
+        }
+    }
+
+    private CodecBinario() {
+    }
+
+    @Override
+    public String getNombre() {
+        return "BIN";
+    }
+
+    @Override
+    public int leer(byte[] buffer, int desde, int hasta, MensajeRecibido destino) throws IOException {
+        // Longitud en varint: puede estar incompleta
+        int pos = desde;
+        int longitud = 0;
+        int desplazamiento = 0;
+        while (true) {
+            if (pos >= hasta) {
+                return -1;
+            }
+            if (desplazamiento > 28) {
+                throw new IOException("Varint demasiado largo");
+            }
+            int b = buffer[pos++] & 0xFF;
+            longitud |= (b & 0x7F) << desplazamiento;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            desplazamiento += 7;
+        }
+        if (longitud <= 0 || longitud > MAX_TRAMA) {
+            throw new IOException("Longitud de trama inválida: " + longitud);
+        }
+        if (hasta - pos < longitud) {
+            return -1;
+        }
+        decodificar(buffer, pos, pos + longitud, destino);
+        return pos + longitud - desde;
+    }
+
+    /**
+     * Decodifica el cuerpo de una trama (sin la longitud) en buffer[pos, fin).
+     */
+    private void decodificar(byte[] buffer, int pos, int fin, MensajeRecibido destino) throws IOException {
+        destino.reiniciar(buffer);
+        int opcode = buffer[pos++] & 0xFF;
+        if (opcode != OPCODE_LIBRE && opcode >= Comando.cantidad()) {
+            throw new IOException("Opcode desconocido: " + opcode);
+        }
+        // El opcode basta para admitirlo o descartarlo sin leer nada más
+        if (!destino.admitir(opcode == OPCODE_LIBRE ? null : Comando.desdeOrdinal(opcode))) {
+            return;
+        }
+        if (opcode == OPCODE_LIBRE) {
+            long varint = leerVarint(buffer, pos, fin);
+            int len = (int) varint;
+            pos = (int) (varint >>> 32);
+            comprobarTexto(pos, len, fin);
+            destino.setComandoLibre(new String(buffer, pos, len, StandardCharsets.UTF_8));
+            pos += len;
+        } else {
+            destino.setComando(Comando.desdeOrdinal(opcode));
+        }
+
+        while (pos < fin) {
+            int etiqueta = buffer[pos++] & 0xFF;
+            if (etiqueta < FICHA) {
+                destino.agregarEntero(etiqueta);
+            } else if (etiqueta < TEXTO) {
+                int ficha = etiqueta - FICHA;
+                if (ficha >= FICHAS.length) {
+                    throw new IOException("Ficha desconocida: " + ficha);
+                }
+                destino.agregarConstante(FICHAS[ficha]);
+            } else if (etiqueta == TEXTO) {
+                long varint = leerVarint(buffer, pos, fin);
+                int len = (int) varint;
+                pos = (int) (varint >>> 32);
+                comprobarTexto(pos, len, fin);
+                destino.agregarBytes(pos, pos + len);
+                pos += len;
+            } else if (etiqueta == ENTERO) {
+                long varint = leerVarint(buffer, pos, fin);
+                destino.agregarEntero((int) varint);
+                pos = (int) (varint >>> 32);
+            } else {
+                throw new IOException("Etiqueta desconocida: " + etiqueta);
+            }
+        }
+    }
+
+    @Override
+    public void escribir(Mensaje mensaje, BufferSalida salida) {
+        // Primera pasada: tamaño del cuerpo, para escribir la longitud delante
+        String comando = mensaje.getComando();
+        Comando tipo = mensaje.getTipo();
+        int num = mensaje.getNumParametros();
+        int longitud = 1;
+        if (tipo == null) {
+            longitud += longitudTexto(comando);
+        }
+        for (int i = 0; i < num; i++) {
+            String valor = String.valueOf(mensaje.getParametro(i));
+            int entero = enteroCanonico(valor);
+            if (entero >= 0 && entero < FICHA) {
+                longitud += 1;
+            } else if (entero >= 0) {
+                longitud += 1 + BufferSalida.longitudVarint(entero);
+            } else if (indiceFichas.containsKey(valor)) {
+                longitud += 1;
+            } else {
+                longitud += 1 + longitudTexto(valor);
+            }
+        }
+
+        salida.escribirVarint(longitud);
+        if (tipo != null) {
+            salida.escribirByte(tipo.ordinal());
+        } else {
+            salida.escribirByte(OPCODE_LIBRE);
+            escribirTexto(salida, comando);
+        }
+        for (int i = 0; i < num; i++) {
+            String valor = String.valueOf(mensaje.getParametro(i));
+            int entero = enteroCanonico(valor);
+            if (entero >= 0 && entero < FICHA) {
+                salida.escribirByte(entero);
+            } else if (entero >= 0) {
+                salida.escribirByte(ENTERO);
+                salida.escribirVarint(entero);
+            } else {
+                Integer ficha = indiceFichas.get(valor);
+                if (ficha != null) {
+                    salida.escribirByte(FICHA + ficha);
+                } else {
+                    salida.escribirByte(TEXTO);
+                    escribirTexto(salida, valor);
+                }
+            }
+        }
+    }
+
+    /**
+     * Devuelve el valor si el texto es un entero decimal canónico (sin signo,
+     * sin ceros a la izquierda, hasta 9 cifras) o -1 en otro caso.
+     */
+    private static int enteroCanonico(String valor) {
+        int len = valor.length();
+        if (len == 0 || len > 9 || (len > 1 && valor.charAt(0) == '0')) {
+            return -1;
+        }
+        int n = 0;
+        for (int i = 0; i < len; i++) {
+            char c = valor.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+
+    private static int longitudTexto(String texto) {
+        int bytes = BufferSalida.longitudUtf8(texto);
+        return BufferSalida.longitudVarint(bytes) + bytes;
+    }
+
+    private static void escribirTexto(BufferSalida salida, String texto) {
+        salida.escribirVarint(BufferSalida.longitudUtf8(texto));
+        salida.escribirTexto(texto);
+    }
+
+    private static void comprobarTexto(int pos, int len, int fin) throws IOException {
+        if (len < 0 || pos + len > fin) {
+            throw new IOException("Texto fuera de la trama");
+        }
+    }
+
+    /**
+     * Lee un varint de buffer[pos, fin). Devuelve el valor en los 32 bits
+     * bajos y la posición que le sigue en los altos, para no reservar un
+     * cursor por trama.
+     */
+    private static long leerVarint(byte[] buffer, int pos, int fin) throws IOException {
+        int valor = 0;
+        int desplazamiento = 0;
+        while (true) {
+            if (pos >= fin || desplazamiento > 28) {
+                throw new IOException("Varint mal formado");
+            }
+            int b = buffer[pos++] & 0xFF;
+            valor |= (b & 0x7F) << desplazamiento;
+            if ((b & 0x80) == 0) {
+                return ((long) pos << 32) | (valor & 0xFFFFFFFFL);
+            }
+            desplazamiento += 7;
+        }
+    }
+}
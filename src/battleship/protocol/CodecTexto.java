@@ -0,0 +1,163 @@
+package battleship.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codec de texto original: COMANDO|param1|param2\r\n en UTF-8.
+ *
+ * La línea se trocea directamente sobre el buffer del lector: el comando se
+ * resuelve a su Comando comparando bytes y los parámetros quedan como
+ * posiciones en el buffer, sin split ni Strings intermedios. Se reproducen
+ * las reglas de Mensaje.deserializar (los campos vacíos del final se
+ * descartan). La escritura codifica cada campo directamente en bytes.
+ *
+ * @author Jorge González Navas
+ */
+public class CodecTexto implements Codec {
+
+    public static final CodecTexto INSTANCIA = new CodecTexto();
+
+    private static final byte DELIMITADOR = '|';
+
+    // Tabla hash de comandos conocidos (direccionamiento abierto); la primera
+    // potencia de dos que deja al menos la mitad libre, crezca lo que crezca Comando
+    private static final int TAMANIO_TABLA = Integer.highestOneBit(Comando.values().length * 4 - 1);
+    private static final Comando[] TABLA_COMANDOS = new Comando[TAMANIO_TABLA];
+
+    static {
+        for (Comando comando : Comando.values()) {
+            int h = hash(comando.getNombre());
+            while (TABLA_COMANDOS[h] != null) {
+                h = (h + 1) & (TAMANIO_TABLA - 1);
+            }
+            TABLA_COMANDOS[h] = comando;
+        }
+    }
+
+    private CodecTexto() {
+    }
+
+    @Override
+    public String getNombre() {
+        return "TXT";
+    }
+
+    @Override
+    public int leer(byte[] buffer, int desde, int hasta, MensajeRecibido destino) {
+        int finLinea = -1;
+        for (int i = desde; i < hasta; i++) {
+            if (buffer[i] == '\n') {
+                finLinea = i;
+                break;
+            }
+        }
+        if (finLinea == -1) {
+            return -1;
+        }
+        int consumidos = finLinea + 1 - desde;
+        int fin = finLinea;
+        if (fin > desde && buffer[fin - 1] == '\r') {
+            fin--;
+        }
+
+        // Comando: hasta el primer delimitador
+        int inicio = desde;
+        int pos = inicio;
+        while (pos < fin && buffer[pos] != DELIMITADOR) {
+            pos++;
+        }
+        destino.reiniciar(buffer);
+        int inicioComando = inicio;
+        int finComando = pos;
+        if (finComando == inicioComando && soloDelimitadores(buffer, pos, fin)) {
+            return consumidos; // Línea vacía: no hay mensaje
+        }
+        // El comando basta para admitirlo o descartarlo sin leer los parámetros
+        Comando tipo = buscarComando(buffer, inicioComando, finComando);
+        if (!destino.admitir(tipo)) {
+            return consumidos;
+        }
+
+        // Parámetros
+        while (pos < fin) {
+            inicio = ++pos;
+            while (pos < fin && buffer[pos] != DELIMITADOR) {
+                pos++;
+            }
+            destino.agregarBytes(inicio, pos);
+        }
+
+        // Como String.split, se descartan los campos vacíos del final
+        int num = destino.getNumParametros();
+        while (num > 0 && destino.longitudBytes(num - 1) == 0) {
+            num--;
+        }
+        destino.recortar(num);
+        if (tipo != null) {
+            destino.setComando(tipo);
+        } else {
+            destino.setComandoLibre(new String(buffer, inicioComando, finComando - inicioComando, StandardCharsets.UTF_8));
+        }
+        return consumidos;
+    }
+
+    @Override
+    public void escribir(Mensaje mensaje, BufferSalida salida) {
+        salida.escribirTexto(mensaje.getComando());
+        int num = mensaje.getNumParametros();
+        for (int i = 0; i < num; i++) {
+            salida.escribirByte(DELIMITADOR);
+            salida.escribirTexto(String.valueOf(mensaje.getParametro(i)));
+        }
+        salida.escribirByte('\r');
+        salida.escribirByte('\n');
+    }
+
+    /**
+     * Devuelve el comando que ocupa buffer[desde, hasta) o null si no es un
+     * comando conocido.
+     */
+    private static Comando buscarComando(byte[] buffer, int desde, int hasta) {
+        int longitud = hasta - desde;
+        if (longitud > 0) {
+            int h = hash(buffer[desde], buffer[hasta - 1], longitud);
+            Comando candidato;
+            while ((candidato = TABLA_COMANDOS[h]) != null) {
+                if (iguales(candidato.getNombre(), buffer, desde, longitud)) {
+                    return candidato;
+                }
+                h = (h + 1) & (TAMANIO_TABLA - 1);
+            }
+        }
+        return null;
+    }
+
+    private static boolean soloDelimitadores(byte[] buffer, int desde, int hasta) {
+        for (int i = desde; i < hasta; i++) {
+            if (buffer[i] != DELIMITADOR) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean iguales(String comando, byte[] buffer, int desde, int longitud) {
+        if (comando.length() != longitud) {
+            return false;
+        }
+        for (int i = 0; i < longitud; i++) {
+            if (comando.charAt(i) != buffer[desde + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(String comando) {
+        return hash((byte) comando.charAt(0), (byte) comando.charAt(comando.length() - 1), comando.length());
+    }
+
+    private static int hash(byte primero, byte ultimo, int longitud) {
+        return (primero * 31 + ultimo * 7 + longitud) & (TAMANIO_TABLA - 1);
+    }
+}
@@ -0,0 +1,142 @@
+package battleship.protocol;
+
+import java.util.HashMap;
+
+/**
+ * Comandos del protocolo como tipo enumerado.
+ *
+ * El nombre de cada constante es el texto que viaja en el codec de texto y
+ * su ordinal es el opcode del codec binario, por lo que el orden no se puede
+ * cambiar: los comandos nuevos se añaden siempre al final. Los switch sobre
+ * Comando se resuelven por ordinal en una tabla, sin comparar Strings.
+ *
+ * @author Jorge González Navas
+ */
+public enum Comando {
+
+    // Cliente -> Servidor
+    CONECTAR,
+    CREAR_PARTIDA,
+    UNIR_PARTIDA,
+    COLOCAR_BARCO,
+    LISTO,
+    DISPARAR,
+    DESCONECTAR,
+
+    // Servidor -> Cliente
+    BIENVENIDA,
+    PARTIDA_CREADA,
+    ESPERANDO_RIVAL,
+    RIVAL_CONECTADO,
+    COLOCAR_BARCOS,
+    BARCO_COLOCADO,
+    ERROR,
+    TU_TURNO,
+    ESPERA_TURNO,
+    RESULTADO_DISPARO,
+    DISPARO_RIVAL,
+    BARCO_HUNDIDO,
+    VICTORIA,
+    DERROTA,
+
+    // Ambos sentidos (latido de la conexión)
+    PING,
+    PONG,
+
+    // Servidor -> Cliente (capacidad TR)
+    TURNO_RESUELTO,
+
+    // Espectadores
+    OBSERVAR_PARTIDA,
+    OBSERVANDO,
+    JUGADA,
+    FIN_PARTIDA,
+
+    // Reanudación de sesión (capacidad RS)
+    REANUDAR,
+    REANUDADO,
+    RIVAL_AUSENTE,
+    RIVAL_VUELVE,
+
+    // Repeticiones de partidas terminadas
+    VER_REPETICION,
+    REPETICION,
+    LISTAR_REPETICIONES,
+    REPETICIONES,
+
+    // Emparejamiento automático
+    BUSCAR_PARTIDA,
+    ESTADO_EMPAREJAMIENTO,
+    EMPAREJAMIENTO,
+
+    // Partidas clasificatorias
+    BUSCAR_CLASIFICATORIA,
+    CONSULTAR_PUNTUACION,
+    PUNTUACION,
+
+    // Vestíbulo de partidas abiertas
+    LISTAR_PARTIDAS,
+    PARTIDAS,
+    SUSCRIBIR_VESTIBULO,
+    DEJAR_VESTIBULO,
+
+    // Clúster (proxy -> nodo)
+    ESTADO_NODO,
+    NODO,
+
+    // Réplica en caliente
+    ESTADO_REPLICA,
+    REPLICA,
+
+    // Analítica de disparos
+    ESTADO_ANALITICA,
+    ANALITICA;
+
+    // Tabla por ordinal (values() crea una copia en cada llamada)
+    private static final Comando[] POR_ORDINAL = values();
+    private static final HashMap<String, Comando> POR_NOMBRE = new HashMap<String, Comando>();
+
+    static {
+        for (Comando comando : POR_ORDINAL) {
+            POR_NOMBRE.put(comando.name(), comando);
+        }
+    }
+
+    /**
+     * Texto del comando en el protocolo.
+     *
+     * @return Nombre del comando
+     */
+    public String getNombre() {
+        return name();
+    }
+
+    /**
+     * Busca un comando por su texto.
+     *
+     * @param nombre Texto del comando
+     * @return Comando o null si no es un comando conocido
+     */
+    public static Comando desdeNombre(String nombre) {
+        return (nombre == null) ? null : POR_NOMBRE.get(nombre);
+    }
+
+    /**
+     * Busca un comando por su ordinal (opcode del codec binario).
+     *
+     * @param ordinal Ordinal del comando
+     * @return Comando o null si está fuera de rango
+     */
+    public static Comando desdeOrdinal(int ordinal) {
+        return (ordinal >= 0 && ordinal < POR_ORDINAL.length) ? POR_ORDINAL[ordinal] : null;
+    }
+
+    /**
+     * Número de comandos definidos.
+     *
+     * @return Número de comandos
+     */
+    public static int cantidad() {
+        return POR_ORDINAL.length;
+    }
+}
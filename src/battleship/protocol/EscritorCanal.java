@@ -0,0 +1,58 @@
+package battleship.protocol;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Salida de un canal de una conexión con la capacidad MC: escribe por el
+ * escritor de la conexión, bajo su mismo lock, añadiendo su número de canal
+ * a cada mensaje. El codec, las capacidades y la cola de salida son los de
+ * la conexión, que es la única que los cambia.
+ *
+ * @author Jorge González Navas
+ */
+public class EscritorCanal implements SalidaMensajes {
+
+    private final EscritorMensajes conexion;
+    private final int numCanal;
+
+    /**
+     * Constructor del escritor de canal.
+     *
+     * @param conexion Escritor de la conexión
+     * @param numCanal Canal (distinto de 0)
+     */
+    public EscritorCanal(EscritorMensajes conexion, int numCanal) {
+        this.conexion = conexion;
+        this.numCanal = numCanal;
+    }
+
+    /**
+     * Obtiene el número de canal.
+     *
+     * @return Canal
+     */
+    public int getCanal() {
+        return numCanal;
+    }
+
+    @Override
+    public void enviar(Mensaje mensaje) throws IOException {
+        conexion.enviar(mensaje, numCanal);
+    }
+
+    @Override
+    public void enviarFichero(Mensaje cabecera, FileChannel origen, long posicion, long longitud) throws IOException {
+        conexion.enviarFichero(cabecera, numCanal, origen, posicion, longitud);
+    }
+
+    @Override
+    public boolean isSaturado() {
+        return conexion.isSaturado();
+    }
+
+    @Override
+    public boolean admite(String capacidad) {
+        return conexion.admite(capacidad);
+    }
+}
@@ -0,0 +1,487 @@
+package battleship.protocol;
+
+import battleship.eventos.EventoVolcado;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Escribe mensajes en un socket con el codec negociado.
+ * Es seguro entre hilos: cada mensaje se escribe y vacía de forma atómica.
+ * El codec codifica la trama en un buffer de bytes reutilizado, que se
+ * escribe en el socket con una sola llamada. Las TramaFija se escriben
+ * directamente con los bytes que ya traen codificados.
+ *
+ * Con la capacidad MC cada mensaje lleva al final su canal. Los canales
+ * distintos del 0 escriben a través de un EscritorCanal, que envuelve este
+ * escritor y comparte su lock con el resto de la conexión.
+ *
+ * Con activarColaSalida() enviar() ya no escribe en el socket: deja la
+ * trama en una cola de bytes acotada y un hilo del ejecutor la vuelca
+ * fuera del lock, así que quien envía a un cliente que no lee nunca se
+ * bloquea. Por encima de la marca alta el cliente pasa a estar saturado
+ * (isSaturado) hasta que lo pendiente baja de la marca baja. La conexión se
+ * cierra si lo pendiente llega al máximo, o si sigue saturada o con una
+ * escritura bloqueada más del plazo (comprobarPlazo).
+ *
+ * @author Jorge González Navas
+ */
+public class EscritorMensajes implements SalidaMensajes {
+
+    private final OutputStream out;
+    // Canal del socket para enviar ficheros sin pasar por el heap (null si no lo hay)
+    private final WritableByteChannel canal;
+    private final BufferSalida buffer = new BufferSalida(256);
+    private Codec codec;
+    // Capacidades negociadas en el saludo
+    private volatile String capacidades = "";
+    // Se añade el canal a cada mensaje (capacidad MC)
+    private boolean multicanal;
+    // Vista con el canal añadido, reutilizada bajo el lock
+    private final MensajeEnCanal enCanal = new MensajeEnCanal();
+
+    // Cola de salida (ejecutor null = se escribe directamente en el socket)
+    private Executor ejecutor;
+    private Closeable conexion;
+    private int marcaAlta;
+    private int marcaBaja;
+    private int maximo;
+    private long plazo;
+    // Tramas pendientes y las que está volcando el hilo del ejecutor
+    private BufferSalida pendiente;
+    private BufferSalida enVuelo;
+    // Bytes encolados aún sin escribir (pendientes más en vuelo)
+    private int sinEscribir;
+    // Tramas en la cola pendiente y en la que se está volcando
+    private int tramasPendientes;
+    private int tramasEnVuelo;
+    // Un volcado o un envío de fichero tiene el socket
+    private boolean ocupado;
+    // Instante (System.nanoTime) en que empezó la saturación o la escritura en curso (0 = no hay)
+    private long saturadoDesde;
+    private volatile long escribiendoDesde;
+    // Motivo por el que se cerró la conexión (null mientras sigue abierta)
+    private volatile String fallo;
+
+    // Vuelca la cola de salida en el socket hasta dejarla vacía
+    private final Runnable vaciado = new Runnable() {
+        public void run() {
+            vaciar();
+        }
+    };
+
+    /**
+     * Constructor del escritor.
+     *
+     * @param out Stream de salida del socket
+     * @param codec Codec inicial (texto hasta el saludo)
+     */
+    public EscritorMensajes(OutputStream out, Codec codec) {
+        this(out, codec, null);
+    }
+
+    /**
+     * Constructor con el canal del socket, para que enviarFichero() use
+     * FileChannel.transferTo directamente sobre él.
+     *
+     * @param out Stream de salida del socket
+     * @param codec Codec inicial (texto hasta el saludo)
+     * @param canal Canal del socket o null
+     */
+    public EscritorMensajes(OutputStream out, Codec codec, WritableByteChannel canal) {
+        this.out = out;
+        this.codec = codec;
+        this.canal = canal;
+    }
+
+    /**
+     * Envía un mensaje y vacía el buffer.
+     *
+     * @param mensaje Mensaje a enviar
+     * @throws IOException Si falla la escritura
+     */
+    public void enviar(Mensaje mensaje) throws IOException {
+        enviar(mensaje, 0);
+    }
+
+    /**
+     * Envía un mensaje por un canal de la conexión y vacía el buffer. Sin
+     * la capacidad MC el canal se ignora.
+     *
+     * @param mensaje Mensaje a enviar
+     * @param numCanal Canal del mensaje
+     * @throws IOException Si falla la escritura
+     */
+    public synchronized void enviar(Mensaje mensaje, int numCanal) throws IOException {
+        byte[] fija = (!multicanal && mensaje instanceof TramaFija) ? ((TramaFija) mensaje).trama(codec) : null;
+        if (ejecutor != null) {
+            encolar(mensaje, numCanal, fija);
+            return;
+        }
+        EventoVolcado volcado = new EventoVolcado();
+        volcado.begin();
+        if (fija != null) {
+            out.write(fija);
+        } else {
+            buffer.reiniciar();
+            codec.escribir(multicanal ? enCanal.envolver(mensaje, numCanal) : mensaje, buffer);
+            buffer.volcar(out);
+        }
+        out.flush();
+        if (volcado.shouldCommit()) {
+            volcado.bytes = (fija != null) ? fija.length : buffer.getTamanio();
+            volcado.tramas = 1;
+            volcado.commit();
+        }
+    }
+
+    /**
+     * Activa la cola de salida: a partir de aquí los mensajes se escriben
+     * en el socket desde el ejecutor y quien envía nunca espera al cliente.
+     *
+     * @param ejecutor Ejecutor de los volcados (uno como mucho a la vez por conexión)
+     * @param conexion Lo que se cierra al desconectar a un cliente lento
+     * @param marcaAlta Bytes pendientes a partir de los que el cliente está saturado
+     * @param marcaBaja Bytes pendientes por debajo de los que deja de estarlo
+     * @param maximo Bytes pendientes con los que se cierra la conexión
+     * @param plazoMs Tiempo que puede seguir saturado o con una escritura bloqueada
+     *        (ms, 0 o menos = sin plazo)
+     */
+    public synchronized void activarColaSalida(Executor ejecutor, Closeable conexion, int marcaAlta, int marcaBaja,
+            int maximo, long plazoMs) {
+        this.ejecutor = ejecutor;
+        this.conexion = conexion;
+        this.marcaAlta = Math.max(1, marcaAlta);
+        this.marcaBaja = Math.min(Math.max(0, marcaBaja), this.marcaAlta);
+        this.maximo = Math.max(this.marcaAlta, maximo);
+        this.plazo = TimeUnit.MILLISECONDS.toNanos(Math.max(0, plazoMs));
+        this.pendiente = new BufferSalida(4096);
+        this.enVuelo = new BufferSalida(4096);
+    }
+
+    /**
+     * Añade una trama a la cola de salida y programa el volcado si no lo
+     * está ya. Se llama con el lock.
+     */
+    private void encolar(Mensaje mensaje, int numCanal, byte[] fija) throws IOException {
+        if (fallo != null) {
+            throw new IOException(fallo);
+        }
+        int antes = pendiente.getTamanio();
+        if (fija != null) {
+            pendiente.escribir(fija, 0, fija.length);
+        } else {
+            codec.escribir(multicanal ? enCanal.envolver(mensaje, numCanal) : mensaje, pendiente);
+        }
+        sinEscribir += pendiente.getTamanio() - antes;
+        tramasPendientes++;
+        if (sinEscribir >= maximo) {
+            cerrar("Cliente lento: " + sinEscribir + " bytes sin enviar");
+            throw new IOException(fallo);
+        }
+        if (sinEscribir >= marcaAlta && saturadoDesde == 0) {
+            saturadoDesde = System.nanoTime();
+        }
+        comprobarPlazo();
+        if (!ocupado) {
+            ocupado = true;
+            ejecutor.execute(vaciado);
+        }
+    }
+
+    /**
+     * Vuelca la cola de salida. Escribe fuera del lock, de modo que los
+     * demás hilos pueden seguir encolando mientras el socket está lleno.
+     */
+    private void vaciar() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (pendiente.getTamanio() == 0 || fallo != null) {
+                        ocupado = false;
+                        notifyAll();
+                        return;
+                    }
+                    BufferSalida lleno = pendiente;
+                    pendiente = enVuelo;
+                    enVuelo = lleno;
+                    tramasEnVuelo = tramasPendientes;
+                    tramasPendientes = 0;
+                }
+                EventoVolcado volcado = new EventoVolcado();
+                volcado.begin();
+                escribiendoDesde = System.nanoTime();
+                enVuelo.volcar(out);
+                out.flush();
+                escribiendoDesde = 0;
+                if (volcado.shouldCommit()) {
+                    volcado.bytes = enVuelo.getTamanio();
+                    volcado.tramas = tramasEnVuelo;
+                    volcado.commit();
+                }
+                synchronized (this) {
+                    sinEscribir -= enVuelo.getTamanio();
+                    enVuelo.reiniciar();
+                    if (sinEscribir <= marcaBaja) {
+                        saturadoDesde = 0;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                cerrar("Error de escritura: " + e.getMessage());
+                ocupado = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Cierra la conexión de un cliente lento si ha pasado el plazo con la
+     * cola saturada o con una escritura bloqueada. Lo llama cada envío y,
+     * para los clientes a los que ya no se envía nada, un temporizador.
+     *
+     * @return true si la conexión está cerrada por esta causa u otra de la cola
+     */
+    public boolean comprobarPlazo() {
+        if (ejecutor == null) {
+            return false;
+        }
+        long ahora = System.nanoTime();
+        long escribiendo = escribiendoDesde;
+        synchronized (this) {
+            if (plazo == 0 || fallo != null) {
+                return fallo != null; // Sin plazo sólo cierran el máximo o un error
+            }
+            if (saturadoDesde != 0 && ahora - saturadoDesde > plazo) {
+                cerrar("Cliente lento: saturado más de " + TimeUnit.NANOSECONDS.toMillis(plazo) + " ms");
+            } else if (escribiendo != 0 && ahora - escribiendo > plazo) {
+                cerrar("Cliente lento: escritura bloqueada más de " + TimeUnit.NANOSECONDS.toMillis(plazo) + " ms");
+            }
+            return fallo != null;
+        }
+    }
+
+    /**
+     * Espera a que la cola de salida se vacíe, para no perder los últimos
+     * mensajes al cerrar la conexión. Sin cola de salida vuelve enseguida.
+     *
+     * @param plazoMs Espera máxima (ms)
+     */
+    public synchronized void esperarVaciado(long plazoMs) {
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(plazoMs);
+        while (ocupado && fallo == null) {
+            long resto = TimeUnit.NANOSECONDS.toMillis(limite - System.nanoTime());
+            if (resto <= 0) {
+                return;
+            }
+            try {
+                wait(resto);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Indica si el cliente tiene más bytes pendientes que la marca alta (y
+     * aún no ha bajado de la baja). Sirve para dejar de mandarle tráfico
+     * prescindible.
+     *
+     * @return true si está saturado
+     */
+    public synchronized boolean isSaturado() {
+        return saturadoDesde != 0;
+    }
+
+    /**
+     * Motivo por el que la cola de salida cerró la conexión.
+     *
+     * @return Motivo o null si no la ha cerrado
+     */
+    public String getFallo() {
+        return fallo;
+    }
+
+    /**
+     * Descarta lo pendiente y cierra la conexión, lo que desbloquea la
+     * escritura en curso. Se llama con el lock.
+     */
+    private void cerrar(String motivo) {
+        if (fallo != null) {
+            return;
+        }
+        fallo = motivo;
+        sinEscribir -= pendiente.getTamanio();
+        pendiente.reiniciar();
+        tramasPendientes = 0;
+        try {
+            conexion.close();
+        } catch (IOException e) {
+            // Ignorar
+        }
+    }
+
+    /**
+     * Envía un mensaje de cabecera seguido de un tramo de fichero en crudo,
+     * sin que otro hilo pueda escribir entre medias. Con el canal del socket
+     * los bytes van del fichero al socket sin copiarse en el heap.
+     *
+     * @param cabecera Mensaje que anuncia la longitud del tramo
+     * @param origen Fichero de origen
+     * @param posicion Posición del tramo en el fichero
+     * @param longitud Bytes del tramo
+     * @throws IOException Si falla la lectura o la escritura
+     */
+    public void enviarFichero(Mensaje cabecera, FileChannel origen, long posicion, long longitud)
+            throws IOException {
+        enviarFichero(cabecera, 0, origen, posicion, longitud);
+    }
+
+    /**
+     * Como enviarFichero, con la cabecera en un canal de la conexión.
+     *
+     * @param cabecera Mensaje que anuncia la longitud del tramo
+     * @param numCanal Canal de la cabecera
+     * @param origen Fichero de origen
+     * @param posicion Posición del tramo en el fichero
+     * @param longitud Bytes del tramo
+     * @throws IOException Si falla la lectura o la escritura
+     */
+    public void enviarFichero(Mensaje cabecera, int numCanal, FileChannel origen, long posicion,
+            long longitud) throws IOException {
+        synchronized (this) {
+            if (ejecutor == null) {
+                enviar(cabecera, numCanal);
+                transferir(origen, posicion, longitud);
+                return;
+            }
+            // Con cola de salida se espera a que quede vacía y se toma el
+            // socket; lo que se envíe mientras tanto se encola detrás
+            while (ocupado && fallo == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Envío interrumpido");
+                }
+            }
+            if (fallo != null) {
+                throw new IOException(fallo);
+            }
+            ocupado = true;
+            buffer.reiniciar();
+            codec.escribir(multicanal ? enCanal.envolver(cabecera, numCanal) : cabecera, buffer);
+        }
+        try {
+            EventoVolcado volcado = new EventoVolcado();
+            volcado.begin();
+            escribiendoDesde = System.nanoTime();
+            buffer.volcar(out);
+            transferir(origen, posicion, longitud);
+            escribiendoDesde = 0;
+            if (volcado.shouldCommit()) {
+                volcado.bytes = buffer.getTamanio() + longitud;
+                volcado.tramas = 1;
+                volcado.commit();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                cerrar("Error de escritura: " + e.getMessage());
+            }
+            throw e;
+        } finally {
+            synchronized (this) {
+                ocupado = false;
+                notifyAll();
+                if (pendiente.getTamanio() > 0 && fallo == null) {
+                    ocupado = true;
+                    ejecutor.execute(vaciado);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copia un tramo de fichero al socket y vacía el stream.
+     */
+    private void transferir(FileChannel origen, long posicion, long longitud) throws IOException {
+        WritableByteChannel destino = (canal != null) ? canal : Channels.newChannel(out);
+        long enviados = 0;
+        while (enviados < longitud) {
+            long n = origen.transferTo(posicion + enviados, longitud - enviados, destino);
+            if (n <= 0) {
+                throw new IOException("Fichero más corto de lo esperado");
+            }
+            enviados += n;
+        }
+        out.flush();
+    }
+
+    /**
+     * Envía un mensaje con el codec actual y cambia al nuevo codec sin que
+     * ningún otro hilo pueda escribir entre medias. Desde ese momento los
+     * mensajes llevan canal si se negoció la capacidad MC.
+     *
+     * @param mensaje Último mensaje en el codec actual
+     * @param nuevo Codec para los siguientes mensajes
+     * @throws IOException Si falla la escritura
+     */
+    public synchronized void enviarYCambiarCodec(Mensaje mensaje, Codec nuevo) throws IOException {
+        enviar(mensaje);
+        this.codec = nuevo;
+        this.multicanal = admite(Capacidades.MULTICANAL);
+    }
+
+    /**
+     * Cambia el codec para los siguientes mensajes.
+     *
+     * @param codec Nuevo codec
+     */
+    public synchronized void setCodec(Codec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Guarda las capacidades aceptadas en el saludo.
+     *
+     * @param capacidades Lista separada por comas
+     */
+    public void setCapacidades(String capacidades) {
+        this.capacidades = (capacidades == null) ? "" : capacidades;
+    }
+
+    /**
+     * Obtiene las capacidades aceptadas en el saludo.
+     *
+     * @return Lista separada por comas
+     */
+    public String getCapacidades() {
+        return capacidades;
+    }
+
+    /**
+     * Indica si la conexión negoció una capacidad.
+     *
+     * @param capacidad Capacidad a consultar
+     * @return true si fue aceptada en el saludo
+     */
+    public boolean admite(String capacidad) {
+        return Capacidades.contiene(capacidades, capacidad);
+    }
+
+    /**
+     * Obtiene el codec actual.
+     *
+     * @return Codec en uso
+     */
+    public synchronized Codec getCodec() {
+        return codec;
+    }
+}
@@ -0,0 +1,200 @@
+package battleship.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Lee mensajes de un socket con el codec negociado.
+ * Sólo debe usarlo un hilo (el receptor de la conexión).
+ *
+ * Los bytes se leen en un buffer propio y el codec decodifica cada trama
+ * sobre él en un único MensajeRecibido que se reutiliza: el mensaje devuelto
+ * por leer() sólo es válido hasta la siguiente llamada.
+ *
+ * @author Jorge González Navas
+ */
+public class LectorMensajes {
+
+    /**
+     * Decide si se admite cada mensaje en cuanto se conoce su comando, antes
+     * de decodificar sus parámetros o crear ningún String.
+     */
+    public interface Admision {
+        /**
+         * Indica si se admite un mensaje del comando dado.
+         *
+         * @param tipo Comando de la trama (null si no es conocido)
+         * @return true si hay que decodificarlo, false para descartarlo
+         */
+        boolean admitir(Comando tipo);
+    }
+
+    // Capacidad inicial y máxima del buffer de entrada
+    private static final int CAPACIDAD_INICIAL = 4096;
+    private static final int CAPACIDAD_MAXIMA = 128 * 1024;
+
+    private final InputStream in;
+    private volatile Codec codec;
+
+    private byte[] buffer = new byte[CAPACIDAD_INICIAL];
+    // Bytes pendientes de decodificar: buffer[inicio, fin)
+    private int inicio;
+    private int fin;
+    private final MensajeRecibido mensaje = new MensajeRecibido();
+
+    // Longitud máxima de una trama (bytes)
+    private int longitudMaxima = CAPACIDAD_MAXIMA;
+
+    // Los mensajes llevan su canal como último parámetro (capacidad MC)
+    private volatile boolean multicanal;
+    // Canal del último mensaje leído
+    private int canal;
+
+    /**
+     * Constructor del lector.
+     *
+     * @param in Stream de entrada del socket
+     * @param codec Codec inicial (texto hasta el saludo)
+     */
+    public LectorMensajes(InputStream in, Codec codec) {
+        this.in = in;
+        this.codec = codec;
+    }
+
+    /**
+     * Lee el siguiente mensaje.
+     *
+     * @return Mensaje (reutilizado en cada lectura) o null si la conexión se cerró
+     * @throws IOException Si falla la lectura o la trama es inválida
+     */
+    public MensajeRecibido leer() throws IOException {
+        while (true) {
+            if (inicio < fin) {
+                int consumidos = codec.leer(buffer, inicio, fin, mensaje);
+                if (consumidos > longitudMaxima) {
+                    throw new IOException("Trama demasiado larga");
+                }
+                if (consumidos >= 0) {
+                    inicio += consumidos;
+                    if (mensaje.tieneMensaje()) {
+                        // Un mensaje descartado no trae parámetros, tampoco el canal
+                        canal = (multicanal && !mensaje.isDescartado()) ? mensaje.extraerCanal() : 0;
+                        return mensaje;
+                    }
+                    continue;
+                }
+            }
+            if (!rellenar()) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Lee más bytes del socket, compactando o ampliando el buffer si hace falta.
+     *
+     * @return false si se alcanzó el fin del stream
+     */
+    private boolean rellenar() throws IOException {
+        // Lo pendiente es una trama a medias: si ya pasa del máximo no se sigue leyendo
+        if (fin - inicio >= longitudMaxima) {
+            throw new IOException("Trama demasiado larga");
+        }
+        if (inicio == fin) {
+            inicio = fin = 0;
+        } else if (fin == buffer.length) {
+            if (inicio > 0) {
+                System.arraycopy(buffer, inicio, buffer, 0, fin - inicio);
+                fin -= inicio;
+                inicio = 0;
+            } else if (buffer.length < CAPACIDAD_MAXIMA) {
+                buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, CAPACIDAD_MAXIMA));
+            } else {
+                throw new IOException("Trama demasiado larga");
+            }
+        }
+        int n = in.read(buffer, fin, buffer.length - fin);
+        if (n == -1) {
+            return false;
+        }
+        fin += n;
+        return true;
+    }
+
+    /**
+     * Lee bytes en crudo que siguen a un mensaje (p. ej. el cuerpo de una
+     * REPETICION). Primero entrega lo que ya estaba en el buffer.
+     *
+     * @param destino Array a llenar por completo
+     * @throws IOException Si la conexión se cierra antes
+     */
+    public void leerCrudo(byte[] destino) throws IOException {
+        int copiados = Math.min(destino.length, fin - inicio);
+        System.arraycopy(buffer, inicio, destino, 0, copiados);
+        inicio += copiados;
+        while (copiados < destino.length) {
+            int n = in.read(destino, copiados, destino.length - copiados);
+            if (n == -1) {
+                throw new IOException("Conexión cerrada a mitad de un envío");
+            }
+            copiados += n;
+        }
+    }
+
+    /**
+     * Cambia el codec para las siguientes lecturas.
+     *
+     * @param codec Nuevo codec
+     */
+    public void setCodec(Codec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Limita la longitud de las tramas que se aceptan. Una más larga hace
+     * fallar leer() en cuanto se nota, sin esperar al final de la trama.
+     *
+     * @param longitudMaxima Bytes (como mucho la capacidad máxima del buffer)
+     */
+    public void setLongitudMaxima(int longitudMaxima) {
+        this.longitudMaxima = Math.max(1, Math.min(longitudMaxima, CAPACIDAD_MAXIMA));
+    }
+
+    /**
+     * Indica quién admite los mensajes. Los que no admite se devuelven
+     * descartados (MensajeRecibido.isDescartado), sin parámetros.
+     *
+     * @param admision Admisión o null para admitirlos todos
+     */
+    public void setAdmision(Admision admision) {
+        mensaje.setAdmision(admision);
+    }
+
+    /**
+     * Activa o desactiva el canal al final de cada mensaje.
+     *
+     * @param multicanal true tras negociar la capacidad MC
+     */
+    public void setMulticanal(boolean multicanal) {
+        this.multicanal = multicanal;
+    }
+
+    /**
+     * Canal del último mensaje leído, ya quitado de sus parámetros.
+     *
+     * @return Canal (0 sin la capacidad MC o si se descartó) o -1 si no era válido
+     */
+    public int getCanal() {
+        return canal;
+    }
+
+    /**
+     * Obtiene el codec actual.
+     *
+     * @return Codec en uso
+     */
+    public Codec getCodec() {
+        return codec;
+    }
+}
@@ -12,9 +12,20 @@ public class Mensaje {
     
     // Comando del mensaje
     private String comando;
+    // Comando ya resuelto (null si no es un comando conocido)
+    private Comando tipo;
     // Parámetros del mensaje
     private String[] parametros;
     
+    /**
+     * Constructor para subclases que guardan los campos de otra forma
+     * (ver MensajeRecibido).
+     */
+    protected Mensaje() {
+        this.comando = null;
+        this.parametros = new String[0];
+    }
+    
     /**
      * Constructor para crear un mensaje sin parámetros.
      * 
@@ -22,6 +33,7 @@ public class Mensaje {
      */
     public Mensaje(String comando) {
         this.comando = comando;
+        this.tipo = Comando.desdeNombre(comando);
         this.parametros = new String[0];
     }
     
@@ -33,6 +45,7 @@ public class Mensaje {
      */
     public Mensaje(String comando, String[] parametros) {
         this.comando = comando;
+        this.tipo = Comando.desdeNombre(comando);
         this.parametros = parametros;
     }
     
@@ -45,6 +58,15 @@ public class Mensaje {
         return comando;
     }
     
+    /**
+     * Obtiene el comando como tipo enumerado, para despacharlo con switch.
+     * 
+     * @return Comando o null si no es un comando conocido
+     */
+    public Comando getTipo() {
+        return tipo;
+    }
+    
     /**
      * Obtiene los parámetros del mensaje.
      * 
@@ -67,6 +89,21 @@ public class Mensaje {
         return null;
     }
     
+    /**
+     * Obtiene un parámetro como entero.
+     * 
+     * @param indice Índice del parámetro
+     * @return Valor entero del parámetro
+     * @throws NumberFormatException Si no existe o no es un entero
+     */
+    public int getParametroEntero(int indice) {
+        String valor = getParametro(indice);
+        if (valor == null) {
+            throw new NumberFormatException("Falta el parámetro " + indice);
+        }
+        return Integer.parseInt(valor);
+    }
+    
     /**
      * Obtiene el número de parámetros.
      * 
@@ -83,11 +120,11 @@ public class Mensaje {
      */
     public String serializar() {
         StringBuilder sb = new StringBuilder();
-        sb.append(comando);
+        sb.append(getComando());
         
-        for (String param : parametros) {
+        for (int i = 0; i < getNumParametros(); i++) {
             sb.append(DELIMITADOR);
-            sb.append(param);
+            sb.append(getParametro(i));
         }
         
         sb.append(TERMINADOR);
@@ -130,13 +167,14 @@ public class Mensaje {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        sb.append(comando);
+        sb.append(getComando());
         
-        if (parametros.length > 0) {
+        int num = getNumParametros();
+        if (num > 0) {
             sb.append("(");
-            for (int i = 0; i < parametros.length; i++) {
-                sb.append(parametros[i]);
-                if (i < parametros.length - 1) {
+            for (int i = 0; i < num; i++) {
+                sb.append(getParametro(i));
+                if (i < num - 1) {
                     sb.append(", ");
                 }
             }
@@ -172,4 +210,118 @@ public class Mensaje {
     public static final String BARCO_HUNDIDO = "BARCO_HUNDIDO";
     public static final String VICTORIA = "VICTORIA";
     public static final String DERROTA = "DERROTA";
+    
+    // Ambos sentidos (latido de la conexión)
+    public static final String PING = "PING";
+    public static final String PONG = "PONG";
+    
+    // Servidor -> Cliente con la capacidad TR: resultado completo de un disparo.
+    // TURNO_RESUELTO|tirador|fila|columna|resultado|barco|desenlace|siguiente[|reloj...]
+    //   tirador:   PROPIO o RIVAL (desde el punto de vista del destinatario)
+    //   barco:     tipo del barco hundido o SIN_BARCO
+    //   desenlace: SIGUE, VICTORIA o DERROTA
+    //   siguiente: PROPIO o RIVAL si SIGUE; nombre del ganador si terminó
+    //   reloj:     parámetros de TU_TURNO cuando el siguiente turno es PROPIO
+    public static final String TURNO_RESUELTO = "TURNO_RESUELTO";
+    public static final String PROPIO = "PROPIO";
+    public static final String RIVAL = "RIVAL";
+    public static final String SIGUE = "SIGUE";
+    public static final String SIN_BARCO = "-";
+    
+    // Espectadores (no reciben la posición de los barcos)
+    // OBSERVAR_PARTIDA|id                        Cliente -> Servidor
+    // OBSERVANDO|id|jugador1|jugador2[|tablero1|tablero2]  confirmación; tableros si ya hay rival
+    // JUGADA|tirador|fila|columna|resultado|barco
+    // FIN_PARTIDA[|ganador]                      sin ganador si se abandonó
+    public static final String OBSERVAR_PARTIDA = "OBSERVAR_PARTIDA";
+    public static final String OBSERVANDO = "OBSERVANDO";
+    public static final String JUGADA = "JUGADA";
+    public static final String FIN_PARTIDA = "FIN_PARTIDA";
+    
+    // Reanudación de sesión (capacidad RS). La primera BIENVENIDA lleva un
+    // tercer parámetro con el token de la conexión.
+    // REANUDAR|token[|capacidades]               Cliente -> Servidor, en lugar de CONECTAR
+    // REANUDADO|id|rival|propio|rival            instantáneas; le sigue TU_TURNO o ESPERA_TURNO
+    // Los tableros viajan como InstantaneaTablero en base64 (43 caracteres).
+    // RIVAL_AUSENTE|ms                           el rival perdió la conexión y tiene ms para volver
+    // RIVAL_VUELVE                               el rival se ha reconectado
+    public static final String REANUDAR = "REANUDAR";
+    public static final String REANUDADO = "REANUDADO";
+    public static final String RIVAL_AUSENTE = "RIVAL_AUSENTE";
+    public static final String RIVAL_VUELVE = "RIVAL_VUELVE";
+    
+    // Varias partidas por conexión (capacidad MC). Tras la BIENVENIDA que la
+    // confirma, todos los mensajes en ambos sentidos llevan como último
+    // parámetro su canal; el 0 es el de la propia conexión.
+    // DISPARAR|fila|columna|canal                p. ej.
+    // El primer mensaje por un canal nuevo lo abre: antes de responderlo, el
+    // servidor manda por él BIENVENIDA|msg|capacidades[|token] con el token
+    // de reanudación del canal. DESCONECTAR por un canal distinto del 0 sólo
+    // abandona su partida; por el canal 0 cierra la conexión.
+    
+    // Repeticiones de partidas terminadas
+    // VER_REPETICION|id                          Cliente -> Servidor
+    // REPETICION|id|bytes                        le siguen 'bytes' bytes en crudo (formato Repeticion)
+    // LISTAR_REPETICIONES[|jugador]              Cliente -> Servidor; sin jugador, las propias
+    // REPETICIONES|id1|id2|...                   partidas archivadas del jugador, de más antigua a más reciente
+    public static final String VER_REPETICION = "VER_REPETICION";
+    public static final String REPETICION = "REPETICION";
+    public static final String LISTAR_REPETICIONES = "LISTAR_REPETICIONES";
+    public static final String REPETICIONES = "REPETICIONES";
+    
+    // Emparejamiento automático (sin ID de partida)
+    // BUSCAR_PARTIDA                             Cliente -> Servidor; responde ESPERANDO_RIVAL o,
+    //                                            al encontrar rival, PARTIDA_CREADA|id, RIVAL_CONECTADO y COLOCAR_BARCOS
+    // ESTADO_EMPAREJAMIENTO                      Cliente -> Servidor
+    // EMPAREJAMIENTO|esperando|emparejamientos|p50|p90|p99|...   esperas en ms; los cinco primeros de
+    //                                            la partida rápida y los cinco siguientes de la clasificatoria
+    public static final String BUSCAR_PARTIDA = "BUSCAR_PARTIDA";
+    public static final String ESTADO_EMPAREJAMIENTO = "ESTADO_EMPAREJAMIENTO";
+    public static final String EMPAREJAMIENTO = "EMPAREJAMIENTO";
+    
+    // Partidas clasificatorias (puntuación Elo por nombre de jugador)
+    // BUSCAR_CLASIFICATORIA                      Cliente -> Servidor; como BUSCAR_PARTIDA, con rival de
+    //                                            puntuación parecida (la diferencia admitida crece con la espera)
+    // CONSULTAR_PUNTUACION[|jugador]             Cliente -> Servidor; sin jugador, la propia
+    // PUNTUACION|jugador|elo|partidas
+    public static final String BUSCAR_CLASIFICATORIA = "BUSCAR_CLASIFICATORIA";
+    public static final String CONSULTAR_PUNTUACION = "CONSULTAR_PUNTUACION";
+    public static final String PUNTUACION = "PUNTUACION";
+    
+    // Vestíbulo: partidas abiertas que esperan rival, ordenadas por ID
+    // LISTAR_PARTIDAS[|pagina]                   Cliente -> Servidor; la página 0 si no se indica
+    // PARTIDAS|version|pagina|paginas|id1|creador1|id2|creador2|...
+    // SUSCRIBIR_VESTIBULO                        Cliente -> Servidor; recibe PARTIDAS con la página 0
+    //                                            ahora y cada vez que el vestíbulo cambie
+    // DEJAR_VESTIBULO                            Cliente -> Servidor; cancela la suscripción
+    public static final String LISTAR_PARTIDAS = "LISTAR_PARTIDAS";
+    public static final String PARTIDAS = "PARTIDAS";
+    public static final String SUSCRIBIR_VESTIBULO = "SUSCRIBIR_VESTIBULO";
+    public static final String DEJAR_VESTIBULO = "DEJAR_VESTIBULO";
+    
+    // Clúster: el proxy pregunta a cada nodo su carga
+    // ESTADO_NODO                                Proxy -> Servidor
+    // NODO|nodo|partidas|conexiones|abiertas     nodo = posición en battleship.cluster.nodos (-1 fuera de un clúster)
+    public static final String ESTADO_NODO = "ESTADO_NODO";
+    public static final String NODO = "NODO";
+    
+    // Réplica en caliente: estado de la reserva vista desde el primario
+    // ESTADO_REPLICA                             Cliente -> Servidor
+    // REPLICA|conectada|pendientes|p50|p90|p99   conectada = 1/0; pendientes = eventos del diario sin
+    //                                            confirmar; percentiles del retraso de los lotes en µs
+    public static final String ESTADO_REPLICA = "ESTADO_REPLICA";
+    public static final String REPLICA = "REPLICA";
+    
+    // Analítica de disparos de todas las partidas (para administración)
+    // ESTADO_ANALITICA[|minutos[|clave]]         Cliente -> Servidor; ventana de los últimos minutos
+    //                                            (0 o sin indicar = desde el arranque); la clave sólo
+    //                                            si el servidor la pide (battleship.analitica.clave)
+    // ANALITICA|segundos|disparos|aciertos|victorias|media|disparos_casilla|aciertos_casilla|primeros_casilla|TIPO:n1,..,n5|...
+    //                                            segundos = ventana realmente sumada (0 = desde el arranque);
+    //                                            media = disparos medios del ganador para ganar;
+    //                                            *_casilla = 100 valores separados por comas (fila * 10 + columna);
+    //                                            primeros = primer disparo de cada jugador; por cada tipo de
+    //                                            barco, veces que fue el 1º, 2º... en hundirse en su tablero
+    public static final String ESTADO_ANALITICA = "ESTADO_ANALITICA";
+    public static final String ANALITICA = "ANALITICA";
 }
@@ -0,0 +1,67 @@
+package battleship.protocol;
+
+/**
+ * Vista de un mensaje con el número de canal añadido como último
+ * parámetro, para codificarlo con la capacidad MC sin copiar sus campos.
+ * EscritorMensajes reutiliza una sola instancia bajo su lock.
+ *
+ * @author Jorge González Navas
+ */
+final class MensajeEnCanal extends Mensaje {
+
+    // Textos de los canales más bajos, para no formatearlos en cada envío
+    private static final String[] CANALES = new String[64];
+
+    static {
+        for (int i = 0; i < CANALES.length; i++) {
+            CANALES[i] = String.valueOf(i);
+        }
+    }
+
+    private Mensaje mensaje;
+    private String canal;
+
+    /**
+     * Apunta la vista a otro mensaje.
+     *
+     * @param mensaje Mensaje original
+     * @param canal Canal que se añade al final
+     * @return Esta misma vista
+     */
+    MensajeEnCanal envolver(Mensaje mensaje, int canal) {
+        this.mensaje = mensaje;
+        this.canal = (canal < CANALES.length) ? CANALES[canal] : String.valueOf(canal);
+        return this;
+    }
+
+    @Override
+    public String getComando() {
+        return mensaje.getComando();
+    }
+
+    @Override
+    public Comando getTipo() {
+        return mensaje.getTipo();
+    }
+
+    @Override
+    public String[] getParametros() {
+        int num = mensaje.getNumParametros();
+        String[] parametros = new String[num + 1];
+        for (int i = 0; i < num; i++) {
+            parametros[i] = mensaje.getParametro(i);
+        }
+        parametros[num] = canal;
+        return parametros;
+    }
+
+    @Override
+    public String getParametro(int indice) {
+        return (indice == mensaje.getNumParametros()) ? canal : mensaje.getParametro(indice);
+    }
+
+    @Override
+    public int getNumParametros() {
+        return mensaje.getNumParametros() + 1;
+    }
+}
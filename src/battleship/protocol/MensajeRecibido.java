@@ -0,0 +1,293 @@
+package battleship.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Mensaje leído del socket que se reutiliza en cada lectura.
+ *
+ * Los parámetros no se copian: se guardan como posiciones dentro del buffer
+ * del lector, como enteros ya decodificados o como constantes del protocolo.
+ * El String de un parámetro sólo se crea si alguien lo pide con
+ * getParametro(); getParametroEntero() lee los dígitos en el propio buffer.
+ *
+ * El contenido sólo es válido hasta la siguiente lectura del mismo
+ * LectorMensajes. Para conservarlo hay que usar copiar().
+ *
+ * @author Jorge González Navas
+ */
+public class MensajeRecibido extends Mensaje {
+
+    // Formas en que se guarda un parámetro
+    private static final byte BYTES = 0;
+    private static final byte ENTERO = 1;
+    private static final byte CONSTANTE = 2;
+
+    private String comando;
+    private Comando tipo;
+    private int numParametros;
+
+    // Buffer del lector al que apuntan los parámetros BYTES
+    private byte[] trama;
+    private byte[] formas = new byte[8];
+    private int[] inicios = new int[8];
+    private int[] fines = new int[8];
+    private int[] enteros = new int[8];
+    // Constantes y Strings ya creados (caché por lectura)
+    private String[] textos = new String[8];
+
+    // Quien decide si se decodifica cada mensaje (null = todos)
+    private LectorMensajes.Admision admision;
+    // La última trama no se admitió y no se decodificó
+    private boolean descartado;
+
+    /**
+     * Vacía el mensaje para una nueva lectura.
+     *
+     * @param trama Buffer al que apuntarán los parámetros
+     */
+    void reiniciar(byte[] trama) {
+        for (int i = 0; i < numParametros; i++) {
+            textos[i] = null;
+        }
+        this.trama = trama;
+        this.comando = null;
+        this.tipo = null;
+        this.numParametros = 0;
+        this.descartado = false;
+    }
+
+    void setAdmision(LectorMensajes.Admision admision) {
+        this.admision = admision;
+    }
+
+    /**
+     * Pregunta si se admite la trama en cuanto el codec conoce su comando.
+     * Si no, el mensaje queda descartado: con su tipo, pero sin comando
+     * libre ni parámetros, y el codec se salta el resto de la trama.
+     *
+     * @param tipo Comando de la trama (null si no es conocido)
+     * @return true si hay que seguir decodificando
+     */
+    boolean admitir(Comando tipo) {
+        if (admision == null || admision.admitir(tipo)) {
+            return true;
+        }
+        this.tipo = tipo;
+        this.comando = (tipo != null) ? tipo.getNombre() : null;
+        this.descartado = true;
+        return false;
+    }
+
+    /**
+     * Fija un comando conocido una vez leído.
+     *
+     * @param tipo Comando del mensaje
+     */
+    void setComando(Comando tipo) {
+        this.tipo = tipo;
+        this.comando = tipo.getNombre();
+    }
+
+    /**
+     * Fija un comando que no está en la enumeración.
+     *
+     * @param comando Texto del comando
+     */
+    void setComandoLibre(String comando) {
+        this.tipo = null;
+        this.comando = comando;
+    }
+
+    /**
+     * Añade un parámetro que ocupa trama[inicio, fin) en UTF-8.
+     */
+    void agregarBytes(int inicio, int fin) {
+        int i = reservar(BYTES);
+        inicios[i] = inicio;
+        fines[i] = fin;
+    }
+
+    /**
+     * Añade un parámetro entero ya decodificado.
+     */
+    void agregarEntero(int valor) {
+        enteros[reservar(ENTERO)] = valor;
+    }
+
+    /**
+     * Añade un parámetro que es una constante del protocolo.
+     */
+    void agregarConstante(String valor) {
+        textos[reservar(CONSTANTE)] = valor;
+    }
+
+    /**
+     * Quita los últimos parámetros hasta dejar el número indicado.
+     */
+    void recortar(int num) {
+        for (int i = num; i < numParametros; i++) {
+            textos[i] = null;
+        }
+        numParametros = num;
+    }
+
+    /**
+     * Longitud en bytes de un parámetro BYTES (0 para el resto).
+     */
+    int longitudBytes(int indice) {
+        return formas[indice] == BYTES ? fines[indice] - inicios[indice] : 0;
+    }
+
+    private int reservar(byte forma) {
+        if (numParametros == formas.length) {
+            int nuevo = formas.length * 2;
+            formas = Arrays.copyOf(formas, nuevo);
+            inicios = Arrays.copyOf(inicios, nuevo);
+            fines = Arrays.copyOf(fines, nuevo);
+            enteros = Arrays.copyOf(enteros, nuevo);
+            textos = Arrays.copyOf(textos, nuevo);
+        }
+        formas[numParametros] = forma;
+        return numParametros++;
+    }
+
+    /**
+     * Quita el último parámetro, que con la capacidad MC es el canal.
+     *
+     * @return Canal del mensaje, 0 si no lleva parámetros o -1 si no es un
+     *         número de canal válido (entonces no se quita)
+     */
+    int extraerCanal() {
+        if (numParametros == 0) {
+            return 0;
+        }
+        int canal;
+        try {
+            canal = getParametroEntero(numParametros - 1);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        if (canal < 0) {
+            return -1;
+        }
+        recortar(numParametros - 1);
+        return canal;
+    }
+
+    /**
+     * Indica si la lectura produjo un mensaje (las líneas vacías no lo hacen).
+     *
+     * @return true si hay mensaje
+     */
+    public boolean tieneMensaje() {
+        return comando != null || descartado;
+    }
+
+    /**
+     * Indica si la trama se descartó sin decodificar porque no se admitió.
+     *
+     * @return true si está descartado
+     */
+    public boolean isDescartado() {
+        return descartado;
+    }
+
+    /**
+     * Crea una copia independiente del buffer del lector.
+     *
+     * @return Mensaje inmutable con los mismos campos
+     */
+    public Mensaje copiar() {
+        return new Mensaje(comando, getParametros());
+    }
+
+    @Override
+    public String getComando() {
+        return comando;
+    }
+
+    @Override
+    public Comando getTipo() {
+        return tipo;
+    }
+
+    @Override
+    public String[] getParametros() {
+        String[] parametros = new String[numParametros];
+        for (int i = 0; i < numParametros; i++) {
+            parametros[i] = getParametro(i);
+        }
+        return parametros;
+    }
+
+    @Override
+    public String getParametro(int indice) {
+        if (indice < 0 || indice >= numParametros) {
+            return null;
+        }
+        String texto = textos[indice];
+        if (texto == null) {
+            if (formas[indice] == ENTERO) {
+                texto = String.valueOf(enteros[indice]);
+            } else {
+                texto = new String(trama, inicios[indice], fines[indice] - inicios[indice], StandardCharsets.UTF_8);
+            }
+            textos[indice] = texto;
+        }
+        return texto;
+    }
+
+    @Override
+    public int getParametroEntero(int indice) {
+        if (indice < 0 || indice >= numParametros) {
+            throw new NumberFormatException("Falta el parámetro " + indice);
+        }
+        switch (formas[indice]) {
+            case ENTERO:
+                return enteros[indice];
+            case BYTES:
+                return leerEntero(trama, inicios[indice], fines[indice]);
+            default:
+                return Integer.parseInt(textos[indice]);
+        }
+    }
+
+    @Override
+    public int getNumParametros() {
+        return numParametros;
+    }
+
+    /**
+     * Convierte a entero los dígitos decimales de buffer[inicio, fin) con las
+     * mismas reglas que Integer.parseInt, sin crear objetos.
+     */
+    private static int leerEntero(byte[] buffer, int inicio, int fin) {
+        if (inicio >= fin) {
+            throw new NumberFormatException("Parámetro vacío");
+        }
+        boolean negativo = false;
+        int i = inicio;
+        if (buffer[i] == '-' || buffer[i] == '+') {
+            negativo = buffer[i] == '-';
+            i++;
+            if (i == fin) {
+                throw new NumberFormatException("Entero sin cifras");
+            }
+        }
+        // Se acumula en negativo para poder representar Integer.MIN_VALUE
+        long limite = negativo ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        long valor = 0;
+        for (; i < fin; i++) {
+            int cifra = buffer[i] - '0';
+            if (cifra < 0 || cifra > 9) {
+                throw new NumberFormatException("Entero inválido");
+            }
+            valor = valor * 10 - cifra;
+            if (valor < limite) {
+                throw new NumberFormatException("Entero fuera de rango");
+            }
+        }
+        return (int) (negativo ? valor : -valor);
+    }
+}
@@ -0,0 +1,50 @@
+package battleship.protocol;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Destino al que el servidor envía los mensajes de un cliente: la conexión
+ * entera (EscritorMensajes) o uno de sus canales (EscritorCanal). Es lo
+ * único que necesitan las partidas, los espectadores y el vestíbulo; el
+ * codec, las capacidades y la cola de salida los gestiona quien tiene la
+ * conexión.
+ *
+ * @author Jorge González Navas
+ */
+public interface SalidaMensajes {
+
+    /**
+     * Envía un mensaje y vacía el buffer.
+     *
+     * @param mensaje Mensaje a enviar
+     * @throws IOException Si falla la escritura
+     */
+    void enviar(Mensaje mensaje) throws IOException;
+
+    /**
+     * Envía una cabecera seguida de un tramo de fichero.
+     *
+     * @param cabecera Mensaje que anuncia la longitud del tramo
+     * @param origen Fichero de origen
+     * @param posicion Posición del tramo en el fichero
+     * @param longitud Bytes del tramo
+     * @throws IOException Si falla la lectura o la escritura
+     */
+    void enviarFichero(Mensaje cabecera, FileChannel origen, long posicion, long longitud) throws IOException;
+
+    /**
+     * Indica si el cliente acumula demasiado sin leer.
+     *
+     * @return true si está por encima de la marca alta
+     */
+    boolean isSaturado();
+
+    /**
+     * Indica si el cliente aceptó una capacidad en el saludo.
+     *
+     * @param capacidad Capacidad a consultar
+     * @return true si la aceptó
+     */
+    boolean admite(String capacidad);
+}
@@ -0,0 +1,76 @@
+package battleship.protocol;
+
+/**
+ * Mensaje inmutable cuya trama se codifica una sola vez por codec.
+ *
+ * EscritorMensajes la envía copiando los bytes ya codificados, sin volver a
+ * formatearla. TramaFija.de() da la trama de cualquier comando sin
+ * parámetros (ESPERA_TURNO, VICTORIA, LISTO...); los mensajes con
+ * parámetros constantes se crean una vez con el constructor y se guardan
+ * en una constante.
+ *
+ * @author Jorge González Navas
+ */
+public final class TramaFija extends Mensaje {
+
+    // Tramas sin parámetros por ordinal de Comando
+    private static final TramaFija[] SIN_PARAMETROS = new TramaFija[Comando.cantidad()];
+
+    static {
+        for (int i = 0; i < SIN_PARAMETROS.length; i++) {
+            SIN_PARAMETROS[i] = new TramaFija(Comando.desdeOrdinal(i).getNombre(), new String[0]);
+        }
+    }
+
+    private final byte[] texto;
+    private final byte[] binario;
+
+    /**
+     * Crea un mensaje fijo y lo codifica con los codecs disponibles.
+     *
+     * @param comando Comando del mensaje
+     * @param parametros Parámetros del mensaje (se copian)
+     */
+    public TramaFija(String comando, String[] parametros) {
+        super(comando, parametros.clone());
+        this.texto = codificar(CodecTexto.INSTANCIA);
+        this.binario = codificar(CodecBinario.INSTANCIA);
+    }
+
+    /**
+     * Obtiene la trama precodificada de un comando sin parámetros.
+     *
+     * @param comando Comando
+     * @return Mensaje fijo compartido
+     */
+    public static TramaFija de(Comando comando) {
+        return SIN_PARAMETROS[comando.ordinal()];
+    }
+
+    /**
+     * Bytes de la trama en el codec indicado. No deben modificarse.
+     *
+     * @param codec Codec de la conexión
+     * @return Trama codificada o null si el codec no está precalculado
+     */
+    byte[] trama(Codec codec) {
+        if (codec == CodecTexto.INSTANCIA) {
+            return texto;
+        }
+        if (codec == CodecBinario.INSTANCIA) {
+            return binario;
+        }
+        return null;
+    }
+
+    @Override
+    public String[] getParametros() {
+        return super.getParametros().clone();
+    }
+
+    private byte[] codificar(Codec codec) {
+        BufferSalida salida = new BufferSalida(32);
+        codec.escribir(this, salida);
+        return salida.toByteArray();
+    }
+}
@@ -0,0 +1,155 @@
+package battleship.rendimiento;
+
+import battleship.servidor.Emparejador;
+import battleship.servidor.EmparejadorClasificado;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mide el emparejamiento automático: varios hilos buscan partida una y
+ * otra vez y se cuentan las parejas formadas por segundo, con los
+ * percentiles de espera que lleva el propio Emparejador. Como referencia
+ * mide una cola con un monitor global (synchronized sobre un ArrayDeque),
+ * que es lo que haría falta sin el hueco atómico.
+ *
+ * Para la cola clasificatoria mide el coste de emparejar a un jugador
+ * según cuántos esperan ya (repartidos por puntuación): con el índice de
+ * cubetas debe crecer como mucho con el logaritmo, no con los que esperan.
+ *
+ * Uso: java -cp bin battleship.rendimiento.BancoEmparejador [hilos] [segundos]
+ *
+ * @author Jorge González Navas
+ */
+public class BancoEmparejador {
+
+    /**
+     * Forma de emparejar que se mide: devuelve true si el hilo encontró
+     * rival y false si queda esperando hasta que otro lo empareje.
+     */
+    private interface Cola {
+        boolean buscar(Esperando espera);
+    }
+
+    /**
+     * Marca con la que un hilo espera a que lo emparejen.
+     */
+    private static final class Esperando {
+        volatile boolean emparejado;
+        Emparejador.Solicitud solicitud;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int hilos = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int segundos = (args.length > 1) ? Integer.parseInt(args[1]) : 3;
+        hilos += hilos % 2; // Número par: si no, uno se queda siempre esperando al final
+
+        final Emparejador emparejador = new Emparejador();
+        Cola atomica = new Cola() {
+            public boolean buscar(Esperando espera) {
+                espera.solicitud = new Emparejador.Solicitud("bot", null, null);
+                return emparejador.buscar(espera.solicitud) != null;
+            }
+        };
+        final ArrayDeque<Esperando> cola = new ArrayDeque<Esperando>();
+        Cola conMonitor = new Cola() {
+            public boolean buscar(Esperando espera) {
+                Esperando otro;
+                synchronized (cola) {
+                    otro = cola.poll();
+                    if (otro == null) {
+                        cola.add(espera);
+                        return false;
+                    }
+                }
+                otro.emparejado = true;
+                return true;
+            }
+        };
+
+        System.out.println(String.format("%d hilos, %d s por prueba", hilos, segundos));
+        // Una pasada corta de calentamiento para el JIT
+        medir(atomica, hilos, 1);
+        medir(conMonitor, hilos, 1);
+
+        long parejas = medir(atomica, hilos, segundos);
+        System.out.println(String.format("%-22s %12d parejas/s", "Emparejador (CAS)", parejas / segundos));
+        System.out.println(String.format("%-22s p50 %d us  p90 %d us  p99 %d us", "  espera",
+            emparejador.percentilEspera(50), emparejador.percentilEspera(90), emparejador.percentilEspera(99)));
+        parejas = medir(conMonitor, hilos, segundos);
+        System.out.println(String.format("%-22s %12d parejas/s", "Cola con monitor", parejas / segundos));
+
+        System.out.println();
+        for (int esperando : new int[]{100, 1000, 10000, 100000}) {
+            System.out.println(String.format("clasificatoria, %6d esperando: %5d ns por emparejamiento",
+                esperando, medirClasificatoria(esperando, 100000)));
+        }
+    }
+
+    /**
+     * Llena la cola clasificatoria con jugadores que no se pueden emparejar
+     * entre sí (puntuaciones separadas más que la ventana) y mide lo que
+     * cuesta que llegue un rival para uno de ellos y se lo lleve.
+     *
+     * @return Nanosegundos por emparejamiento
+     */
+    private static long medirClasificatoria(int esperando, int emparejamientos) {
+        EmparejadorClasificado cola = new EmparejadorClasificado(0, 0, 0);
+        Random random = new Random(1);
+        int[] puntuaciones = new int[esperando];
+        for (int i = 0; i < esperando; i++) {
+            // Cubetas de 25 puntos: una por jugador, sin vecinos dentro de la ventana 0
+            puntuaciones[i] = i * 25;
+            cola.buscar(new Emparejador.Solicitud("bot", null, null), puntuaciones[i]);
+        }
+        long inicio = System.nanoTime();
+        for (int k = 0; k < emparejamientos; k++) {
+            int puntuacion = puntuaciones[random.nextInt(esperando)];
+            // El que llega se lleva al que esperaba y entra otro con su misma puntuación
+            cola.buscar(new Emparejador.Solicitud("bot", null, null), puntuacion);
+            cola.buscar(new Emparejador.Solicitud("bot", null, null), puntuacion);
+        }
+        return (System.nanoTime() - inicio) / emparejamientos;
+    }
+
+    /**
+     * Pone a los hilos a buscar partida durante un tiempo.
+     *
+     * @return Parejas formadas
+     */
+    private static long medir(final Cola cola, int hilos, int segundos) throws InterruptedException {
+        final AtomicBoolean parar = new AtomicBoolean();
+        final AtomicLong parejas = new AtomicLong();
+        final CountDownLatch terminados = new CountDownLatch(hilos);
+        for (int i = 0; i < hilos; i++) {
+            Thread hilo = new Thread(new Runnable() {
+                public void run() {
+                    long propias = 0;
+                    while (!parar.get()) {
+                        Esperando espera = new Esperando();
+                        if (cola.buscar(espera)) {
+                            propias++;
+                        } else {
+                            // Quien espera sale en cuanto lo emparejan o se acaba la prueba
+                            while (!espera.emparejado && !parar.get()
+                                    && (espera.solicitud == null || espera.solicitud.estaEsperando())) {
+                                Thread.yield();
+                            }
+                        }
+                    }
+                    parejas.addAndGet(propias);
+                    terminados.countDown();
+                }
+            }, "banco-emparejador-" + i);
+            hilo.setDaemon(true);
+            hilo.start();
+        }
+        TimeUnit.SECONDS.sleep(segundos);
+        parar.set(true);
+        terminados.await();
+        return parejas.get();
+    }
+}
@@ -0,0 +1,91 @@
+package battleship.rendimiento;
+
+import battleship.model.Barco;
+import battleship.model.Coordenada;
+import battleship.model.Tablero;
+import battleship.servidor.ReservaTableros;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Mide los bytes que reserva cada partida en sus tableros, con tableros
+ * nuevos en cada partida (como antes) y tomándolos de una ReservaTableros.
+ * Cada partida simulada toma dos tableros, coloca las dos flotas, dispara
+ * hasta hundir una y los devuelve, igual que hace el servidor.
+ *
+ * Los bytes se leen del contador de memoria reservada por el hilo de
+ * HotSpot (com.sun.management.ThreadMXBean); en otra JVM sólo se mide el
+ * tiempo.
+ *
+ * Uso: java -cp bin battleship.rendimiento.BancoTableros [partidas]
+ *
+ * @author Jorge González Navas
+ */
+public class BancoTableros {
+
+    // Filas en las que se coloca cada barco, en horizontal desde la columna 0
+    private static final int[] FILAS = {0, 2, 4, 6, 8};
+
+    public static void main(String[] args) {
+        int partidas = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+
+        // Calentamiento para que el JIT no cuente en la medida
+        medir(new ReservaTableros(0), partidas / 10);
+        medir(new ReservaTableros(64), partidas / 10);
+
+        System.out.println(String.format("%d partidas", partidas));
+        imprimir("Tableros nuevos", medir(new ReservaTableros(0), partidas), partidas);
+        imprimir("ReservaTableros", medir(new ReservaTableros(64), partidas), partidas);
+    }
+
+    private static void imprimir(String nombre, long[] medida, int partidas) {
+        String bytes = (medida[0] >= 0) ? String.format("%8d bytes/partida", medida[0] / partidas) : "  (sin contador de bytes)";
+        System.out.println(String.format("%-18s %s  %6d ns/partida", nombre, bytes, medida[1] / partidas));
+    }
+
+    /**
+     * Juega las partidas con la reserva dada.
+     *
+     * @return {bytes reservados (-1 si no se pueden medir), nanosegundos}
+     */
+    private static long[] medir(ReservaTableros reserva, int partidas) {
+        long bytesAntes = bytesReservados();
+        long inicio = System.nanoTime();
+        for (int p = 0; p < partidas; p++) {
+            Tablero tablero1 = reserva.tomar();
+            Tablero tablero2 = reserva.tomar();
+            colocarFlota(tablero1);
+            colocarFlota(tablero2);
+            for (int fila : FILAS) {
+                for (int columna = 0; columna < 5 && !tablero2.todosBarcosHundidos(); columna++) {
+                    tablero2.recibirDisparo(new Coordenada(fila, columna));
+                    tablero1.recibirDisparo(new Coordenada(fila + 1, columna));
+                }
+            }
+            reserva.devolver(tablero1);
+            reserva.devolver(tablero2);
+        }
+        long nanos = System.nanoTime() - inicio;
+        long bytesDespues = bytesReservados();
+        return new long[]{(bytesAntes >= 0) ? bytesDespues - bytesAntes : -1, nanos};
+    }
+
+    private static void colocarFlota(Tablero tablero) {
+        Barco.TipoBarco[] tipos = Barco.TipoBarco.values();
+        for (int i = 0; i < tipos.length; i++) {
+            tablero.colocarBarco(new Barco(tipos[i]), new Coordenada(FILAS[i], 0), Barco.Orientacion.HORIZONTAL);
+        }
+    }
+
+    /**
+     * Bytes reservados hasta ahora por este hilo.
+     *
+     * @return Bytes o -1 si la JVM no lo ofrece
+     */
+    private static long bytesReservados() {
+        java.lang.management.ThreadMXBean hilos = ManagementFactory.getThreadMXBean();
+        if (hilos instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) hilos).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
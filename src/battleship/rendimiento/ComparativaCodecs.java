@@ -0,0 +1,214 @@
+package battleship.rendimiento;
+
+import battleship.model.Barco;
+import battleship.model.Coordenada;
+import battleship.model.ResultadoDisparo;
+import battleship.model.Tablero;
+import battleship.protocol.BufferSalida;
+import battleship.protocol.Codec;
+import battleship.protocol.CodecBinario;
+import battleship.protocol.CodecTexto;
+import battleship.protocol.Comando;
+import battleship.protocol.EscritorMensajes;
+import battleship.protocol.Mensaje;
+import battleship.protocol.MensajeRecibido;
+import battleship.protocol.TramaFija;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Compara los codecs de texto y binario: bytes en el cable y coste de
+ * lectura/escritura por mensaje para los mensajes más frecuentes.
+ * Como referencia mide también Mensaje.deserializar/serializar con Strings,
+ * el envío de un mensaje formateado frente a su TramaFija, y los bytes
+ * necesarios para transmitir un tablero disparo a disparo o en una instantánea.
+ *
+ * Uso: java -cp bin battleship.rendimiento.ComparativaCodecs [iteraciones]
+ *
+ * @author Jorge González Navas
+ */
+public class ComparativaCodecs {
+
+    private static final Mensaje[] MUESTRA = {
+        new Mensaje(Mensaje.DISPARAR, new String[]{"3", "4"}),
+        new Mensaje(Mensaje.RESULTADO_DISPARO, new String[]{"HUNDIDO", "3", "4"}),
+        new Mensaje(Mensaje.DISPARO_RIVAL, new String[]{"3", "4", "AGUA"}),
+        new Mensaje(Mensaje.BARCO_HUNDIDO, new String[]{"CRUCERO"}),
+        new Mensaje(Mensaje.COLOCAR_BARCO, new String[]{"PORTAAVIONES", "0", "0", "H"}),
+        new Mensaje(Mensaje.TU_TURNO, new String[]{"60000"}),
+        new Mensaje(Mensaje.ESPERA_TURNO),
+        new Mensaje(Mensaje.ERROR, new String[]{"No es tu turno"})
+    };
+
+    public static void main(String[] args) throws IOException {
+        int iteraciones = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        Codec[] codecs = {CodecTexto.INSTANCIA, CodecBinario.INSTANCIA};
+
+        System.out.println(String.format("%-40s %10s %10s %6s %10s %10s %6s %10s %10s",
+            "Mensaje", "String lee", "String esc", "TXT B", "TXT lee", "TXT esc", "BIN B", "BIN lee", "BIN esc"));
+        for (Mensaje mensaje : MUESTRA) {
+            StringBuilder fila = new StringBuilder(String.format("%-40s", mensaje.serializar().trim()));
+            // Referencia: deserializar/serializar con Strings, como antes de los codecs sobre buffer
+            fila.append(String.format(" %7d ns %7d ns", medirLecturaString(mensaje, iteraciones),
+                medirEscrituraString(mensaje, iteraciones)));
+            for (Codec codec : codecs) {
+                byte[] trama = codificar(codec, mensaje);
+                comprobarIda(codec, mensaje, trama);
+                long nsLectura = medirLectura(codec, trama, iteraciones);
+                long nsEscritura = medirEscritura(codec, mensaje, iteraciones);
+                fila.append(String.format(" %6d %7d ns %7d ns", trama.length, nsLectura, nsEscritura));
+            }
+            System.out.println(fila);
+        }
+
+        // Envío completo por EscritorMensajes: mensaje formateado frente a trama precodificada
+        System.out.println();
+        Mensaje[][] envios = {
+            {new Mensaje(Mensaje.ESPERA_TURNO), TramaFija.de(Comando.ESPERA_TURNO)},
+            {new Mensaje(Mensaje.TU_TURNO, new String[]{"60000"}), new TramaFija(Mensaje.TU_TURNO, new String[]{"60000"})}
+        };
+        for (Codec codec : codecs) {
+            for (Mensaje[] par : envios) {
+                System.out.println(String.format("enviar %-3s %-16s Mensaje %4d ns   TramaFija %4d ns",
+                    codec.getNombre(), par[0].getComando(),
+                    medirEnvio(codec, par[0], iteraciones), medirEnvio(codec, par[1], iteraciones)));
+            }
+        }
+
+        // Estado de un tablero a mitad de partida: un RESULTADO_DISPARO por disparo frente a una instantánea
+        System.out.println();
+        for (int numDisparos : new int[]{10, 50, 100}) {
+            Tablero tablero = tableroDeMuestra();
+            Random random = new Random(numDisparos);
+            Mensaje[] disparos = new Mensaje[numDisparos];
+            for (int i = 0; i < numDisparos; i++) {
+                Coordenada coord = tablero.obtenerCasillaNoDisparada(random);
+                ResultadoDisparo resultado = tablero.recibirDisparo(coord);
+                disparos[i] = new Mensaje(Mensaje.RESULTADO_DISPARO, new String[]{
+                    resultado.name(), String.valueOf(coord.getFila()), String.valueOf(coord.getColumna())});
+            }
+            String instantanea = tablero.capturar(false).toBase64();
+            Mensaje estado = new Mensaje(Mensaje.REANUDADO, new String[]{"1", "rival", instantanea, instantanea});
+            for (Codec codec : codecs) {
+                int bytesDisparos = 0;
+                for (Mensaje disparo : disparos) {
+                    bytesDisparos += codificar(codec, disparo).length;
+                }
+                System.out.println(String.format("tablero %-3s %3d disparos: %3d mensajes %5d B   instantánea %2d B (REANUDADO con dos: %3d B)",
+                    codec.getNombre(), numDisparos, numDisparos, bytesDisparos, instantanea.length(),
+                    codificar(codec, estado).length));
+            }
+        }
+    }
+
+    private static Tablero tableroDeMuestra() {
+        Tablero tablero = new Tablero();
+        int fila = 0;
+        for (Barco.TipoBarco tipo : Barco.TipoBarco.values()) {
+            tablero.colocarBarco(new Barco(tipo), new Coordenada(fila, 0), Barco.Orientacion.HORIZONTAL);
+            fila += 2;
+        }
+        return tablero;
+    }
+
+    private static long medirEnvio(Codec codec, Mensaje mensaje, int iteraciones) throws IOException {
+        EscritorMensajes escritor = new EscritorMensajes(new OutputStream() {
+            public void write(int b) {
+            }
+
+            public void write(byte[] b, int desde, int longitud) {
+            }
+        }, codec);
+        long mejor = Long.MAX_VALUE;
+        for (int ronda = 0; ronda < 5; ronda++) {
+            long inicio = System.nanoTime();
+            for (int i = 0; i < iteraciones; i++) {
+                escritor.enviar(mensaje);
+            }
+            mejor = Math.min(mejor, (System.nanoTime() - inicio) / iteraciones);
+        }
+        return mejor;
+    }
+
+    private static byte[] codificar(Codec codec, Mensaje mensaje) {
+        BufferSalida salida = new BufferSalida(64);
+        codec.escribir(mensaje, salida);
+        return salida.toByteArray();
+    }
+
+    private static void comprobarIda(Codec codec, Mensaje mensaje, byte[] trama) throws IOException {
+        MensajeRecibido leido = new MensajeRecibido();
+        int consumidos = codec.leer(trama, 0, trama.length, leido);
+        if (consumidos != trama.length || !leido.serializar().equals(mensaje.serializar())) {
+            throw new IllegalStateException(codec.getNombre() + " no reproduce " + mensaje);
+        }
+    }
+
+    /**
+     * Lee la misma trama repetida muchas veces desde un único buffer.
+     */
+    private static long medirLectura(Codec codec, byte[] trama, int iteraciones) throws IOException {
+        byte[] flujo = new byte[trama.length * 1000];
+        for (int i = 0; i < 1000; i++) {
+            System.arraycopy(trama, 0, flujo, i * trama.length, trama.length);
+        }
+        MensajeRecibido destino = new MensajeRecibido();
+        long mejor = Long.MAX_VALUE;
+        for (int ronda = 0; ronda < 5; ronda++) {
+            long inicio = System.nanoTime();
+            for (int i = 0; i < iteraciones / 1000; i++) {
+                int pos = 0;
+                for (int j = 0; j < 1000; j++) {
+                    pos += codec.leer(flujo, pos, flujo.length, destino);
+                }
+            }
+            mejor = Math.min(mejor, (System.nanoTime() - inicio) / Math.max(1, (iteraciones / 1000) * 1000));
+        }
+        return mejor;
+    }
+
+    private static long medirEscritura(Codec codec, Mensaje mensaje, int iteraciones) {
+        BufferSalida salida = new BufferSalida(64 * 1024);
+        long mejor = Long.MAX_VALUE;
+        for (int ronda = 0; ronda < 5; ronda++) {
+            long inicio = System.nanoTime();
+            for (int i = 0; i < iteraciones; i++) {
+                if ((i & 1023) == 0) {
+                    salida.reiniciar();
+                }
+                codec.escribir(mensaje, salida);
+            }
+            mejor = Math.min(mejor, (System.nanoTime() - inicio) / iteraciones);
+        }
+        return mejor;
+    }
+
+    private static long medirLecturaString(Mensaje mensaje, int iteraciones) {
+        byte[] trama = mensaje.serializar().getBytes(StandardCharsets.UTF_8);
+        long mejor = Long.MAX_VALUE;
+        int total = 0;
+        for (int ronda = 0; ronda < 5; ronda++) {
+            long inicio = System.nanoTime();
+            for (int i = 0; i < iteraciones; i++) {
+                total += Mensaje.deserializar(new String(trama, 0, trama.length - 2, StandardCharsets.UTF_8)).getNumParametros();
+            }
+            mejor = Math.min(mejor, (System.nanoTime() - inicio) / iteraciones);
+        }
+        return (total == 0) ? mejor : mejor; // total evita que se elimine el bucle
+    }
+
+    private static long medirEscrituraString(Mensaje mensaje, int iteraciones) {
+        long mejor = Long.MAX_VALUE;
+        int total = 0;
+        for (int ronda = 0; ronda < 5; ronda++) {
+            long inicio = System.nanoTime();
+            for (int i = 0; i < iteraciones; i++) {
+                total += mensaje.serializar().getBytes(StandardCharsets.UTF_8).length;
+            }
+            mejor = Math.min(mejor, (System.nanoTime() - inicio) / iteraciones);
+        }
+        return (total == 0) ? mejor : mejor;
+    }
+}
@@ -0,0 +1,138 @@
+package battleship.rendimiento;
+
+import battleship.servidor.Contadores;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Lee desde otro proceso el fichero de contadores de un servidor en marcha
+ * (ver Contadores) y muestra cada cierto tiempo su valor y, para los
+ * acumulados, el ritmo por segundo desde la muestra anterior.
+ *
+ * Sólo mapea el fichero en modo lectura: no habla con el servidor ni le
+ * quita tiempo. Si el servidor se reinicia (cambia el arranque de la
+ * cabecera) vuelve a mapearlo y empieza de cero.
+ *
+ * Uso: java -cp bin battleship.rendimiento.LectorContadores [archivo] [intervalo ms] [muestras]
+ *
+ * @author Jorge González Navas
+ */
+public class LectorContadores {
+
+    private static final VarHandle VALOR = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final SimpleDateFormat HORA = new SimpleDateFormat("HH:mm:ss");
+
+    public static void main(String[] args) throws InterruptedException {
+        String archivo = (args.length > 0) ? args[0] : "contadores.dat";
+        long intervalo = (args.length > 1) ? Long.parseLong(args[1]) : 1000;
+        long muestras = (args.length > 2) ? Long.parseLong(args[2]) : Long.MAX_VALUE;
+
+        ByteBuffer zona = null;
+        long arranque = 0;
+        String[] nombres = null;
+        int[] tipos = null;
+        long[] anteriores = null;
+        long instanteAnterior = 0;
+        for (long muestra = 0; muestra < muestras; ) {
+            if (zona == null || zona.getLong(Contadores.POS_ARRANQUE) != arranque) {
+                zona = mapear(archivo);
+                if (zona == null) {
+                    Thread.sleep(intervalo);
+                    continue;
+                }
+                arranque = zona.getLong(Contadores.POS_ARRANQUE);
+                int numero = zona.getInt(Contadores.POS_NUMERO);
+                nombres = new String[numero];
+                tipos = new int[numero];
+                for (int i = 0; i < numero; i++) {
+                    nombres[i] = nombre(zona, Contadores.CABECERA + i * Contadores.RANURA);
+                    tipos[i] = zona.getInt(Contadores.CABECERA + i * Contadores.RANURA + Contadores.POS_TIPO);
+                }
+                anteriores = null;
+                System.out.println(String.format("Servidor PID %d, arrancado a las %s, %d contadores",
+                    zona.getLong(Contadores.POS_PID), HORA.format(new Date(arranque)), numero));
+            }
+
+            long instante = System.nanoTime();
+            long[] valores = new long[nombres.length];
+            for (int i = 0; i < valores.length; i++) {
+                valores[i] = (long) VALOR.getAcquire(zona, Contadores.CABECERA + i * Contadores.RANURA);
+            }
+            if (anteriores != null) {
+                imprimir(nombres, tipos, valores, anteriores, instante - instanteAnterior);
+                muestra++;
+            }
+            anteriores = valores;
+            instanteAnterior = instante;
+            Thread.sleep(intervalo);
+        }
+    }
+
+    private static void imprimir(String[] nombres, int[] tipos, long[] valores, long[] anteriores, long nanos) {
+        System.out.println("--- " + HORA.format(new Date()));
+        for (int i = 0; i < nombres.length; i++) {
+            if (tipos[i] == Contadores.TIPO_NIVEL) {
+                System.out.println(String.format("%-22s %12d", nombres[i], valores[i]));
+            } else {
+                double ritmo = (valores[i] - anteriores[i]) * 1e9 / Math.max(1, nanos);
+                System.out.println(String.format("%-22s %12d %12.1f/s", nombres[i], valores[i], ritmo));
+            }
+        }
+    }
+
+    /**
+     * Mapea el fichero si ya tiene una cabecera completa y de esta versión.
+     *
+     * @param archivo Fichero de contadores
+     * @return Zona mapeada o null si aún no se puede leer
+     */
+    private static ByteBuffer mapear(String archivo) {
+        try (FileChannel canal = FileChannel.open(Paths.get(archivo), StandardOpenOption.READ)) {
+            if (canal.size() < Contadores.CABECERA) {
+                return null;
+            }
+            ByteBuffer zona = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            zona.order(ByteOrder.nativeOrder());
+            // La magia se escribe la última: si está, el resto de la cabecera también
+            if ((long) VALOR.getAcquire(zona, 0) != Contadores.MAGIA) {
+                return null;
+            }
+            int version = zona.getInt(Contadores.POS_VERSION);
+            if (version != Contadores.VERSION) {
+                System.err.println("Versión de contadores desconocida: " + version);
+                return null;
+            }
+            // Sólo las constantes de Contadores: cargar la clase abriría el fichero como servidor
+            if (canal.size() < Contadores.CABECERA + (long) zona.getInt(Contadores.POS_NUMERO) * Contadores.RANURA) {
+                return null;
+            }
+            return zona;
+        } catch (IOException e) {
+            System.err.println("No se puede leer " + archivo + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String nombre(ByteBuffer zona, int ranura) {
+        int inicio = ranura + Contadores.POS_NOMBRE;
+        int fin = inicio;
+        while (fin < ranura + Contadores.RANURA && zona.get(fin) != 0) {
+            fin++;
+        }
+        byte[] bytes = new byte[fin - inicio];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = zona.get(inicio + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
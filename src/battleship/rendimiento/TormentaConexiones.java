@@ -0,0 +1,125 @@
+package battleship.rendimiento;
+
+import battleship.util.HistogramaLatencias;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simula la avalancha de reconexiones que llega tras reiniciar el
+ * servidor: varios hilos abren conexiones tan deprisa como pueden contra
+ * un servidor ya arrancado y miden cuántas se aceptan por segundo y cuánto
+ * tarda en llegar la BIENVENIDA de cada una (desde antes del connect).
+ *
+ * Para comparar los modos de aceptación se arranca el servidor con
+ * -Dbattleship.aceptadores=1 y con varios, y se lanza la misma tormenta.
+ * Por defecto cada cliente se despide con DESCONECTAR al recibir el
+ * saludo; con "mantener" las conexiones siguen abiertas hasta el final,
+ * como en una reconexión de verdad (cuidado con el límite de descriptores).
+ *
+ * Uso: java -cp bin battleship.rendimiento.TormentaConexiones [conexiones] [hilos] [host:puerto] [mantener]
+ *
+ * @author Jorge González Navas
+ */
+public class TormentaConexiones {
+
+    // Plazo para conectar y para recibir el saludo (ms)
+    private static final int PLAZO = 10000;
+
+    private static final byte[] DESCONECTAR = "DESCONECTAR\n".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws InterruptedException {
+        final int conexiones = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+        int hilos = (args.length > 1) ? Integer.parseInt(args[1]) : 4 * Runtime.getRuntime().availableProcessors();
+        String destino = (args.length > 2) ? args[2] : "localhost:5001";
+        final boolean mantener = args.length > 3 && args[3].equals("mantener");
+        int dosPuntos = destino.lastIndexOf(':');
+        final InetSocketAddress direccion = new InetSocketAddress(destino.substring(0, dosPuntos),
+            Integer.parseInt(destino.substring(dosPuntos + 1)));
+
+        final AtomicInteger repartidas = new AtomicInteger();
+        final AtomicLong fallidas = new AtomicLong();
+        final HistogramaLatencias saludo = new HistogramaLatencias();
+        final List<Socket> abiertas = new ArrayList<Socket>();
+        final CountDownLatch terminados = new CountDownLatch(hilos);
+
+        System.out.println(String.format("%d conexiones con %d hilos contra %s%s", conexiones, hilos, destino,
+            mantener ? " (se mantienen abiertas)" : ""));
+        long inicio = System.nanoTime();
+        for (int i = 0; i < hilos; i++) {
+            Thread hilo = new Thread(new Runnable() {
+                public void run() {
+                    while (repartidas.getAndIncrement() < conexiones) {
+                        long antes = System.nanoTime();
+                        Socket socket = new Socket();
+                        try {
+                            socket.setSoTimeout(PLAZO);
+                            socket.connect(direccion, PLAZO);
+                            leerLinea(socket.getInputStream());
+                            saludo.registrar(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - antes));
+                            if (mantener) {
+                                synchronized (abiertas) {
+                                    abiertas.add(socket);
+                                }
+                                continue;
+                            }
+                            OutputStream salida = socket.getOutputStream();
+                            salida.write(DESCONECTAR);
+                            salida.flush();
+                        } catch (IOException e) {
+                            fallidas.incrementAndGet();
+                        }
+                        cerrar(socket);
+                    }
+                    terminados.countDown();
+                }
+            }, "tormenta-" + i);
+            hilo.start();
+        }
+        terminados.await();
+        long nanos = System.nanoTime() - inicio;
+
+        long aceptadas = saludo.getTotal();
+        System.out.println(String.format("%-22s %12d", "aceptadas", aceptadas));
+        System.out.println(String.format("%-22s %12d", "fallidas", fallidas.get()));
+        System.out.println(String.format("%-22s %12d conexiones/s", "ritmo",
+            aceptadas * TimeUnit.SECONDS.toNanos(1) / Math.max(1, nanos)));
+        System.out.println(String.format("%-22s p50 %d us  p90 %d us  p99 %d us  p99.9 %d us", "hasta BIENVENIDA",
+            saludo.percentil(50), saludo.percentil(90), saludo.percentil(99), saludo.percentil(99.9)));
+
+        for (Socket socket : abiertas) {
+            cerrar(socket);
+        }
+    }
+
+    /**
+     * Lee el saludo del servidor (una línea del codec de texto).
+     *
+     * @throws IOException Si la conexión se cierra antes
+     */
+    private static void leerLinea(InputStream entrada) throws IOException {
+        int b;
+        while ((b = entrada.read()) != '\n') {
+            if (b < 0) {
+                throw new IOException("Conexión cerrada antes de la BIENVENIDA");
+            }
+        }
+    }
+
+    private static void cerrar(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignorar
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package battleship.servidor;
+
+import battleship.model.Barco;
+import battleship.servidor.Contadores.Contador;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Analítica de los disparos de todas las partidas: porcentaje de aciertos
+ * por casilla, mapa del primer disparo de cada jugador, disparos medios
+ * para ganar y en qué orden se hunde cada tipo de barco.
+ *
+ * Partida.procesarDisparo resume cada disparo en un long y lo deja en un
+ * anillo acotado de longs, sin lock ni objetos por disparo: quien registra
+ * reserva una posición con un CAS sobre el contador de reservas y escribe
+ * el evento en ella; el único lector recorre las posiciones publicadas y
+ * las deja vacías. Los anillos van por franjas según la partida para que
+ * las partidas no compitan todas por el mismo contador. El hilo lector
+ * suma en arrays de contadores primitivos, así que agregar no toca el lock
+ * de ninguna partida. Si no da abasto y un anillo se llena, los disparos
+ * que no caben se descartan (se cuentan en los Contadores).
+ *
+ * Los contadores se llevan en cubetas de tiempo fijas (una por minuto por
+ * defecto) en un anillo: una ventana de los últimos N minutos es la suma
+ * de las N últimas cubetas, y una cubeta se vacía al reutilizarla. Aparte
+ * se lleva el total desde el arranque.
+ *
+ * @author Jorge González Navas
+ */
+public class AnaliticaDisparos {
+
+    public static final int CASILLAS = 100;
+    public static final int TIPOS = Barco.TipoBarco.values().length;
+
+    // Pausa del hilo cuando no hay disparos pendientes (ms)
+    private static final long PAUSA = 20;
+
+    // Bits del evento
+    private static final long ACIERTO = 1L << 7;
+    private static final long PRIMERO = 1L << 8;
+    private static final int DESPLAZAMIENTO_TIPO = 9;
+    private static final int DESPLAZAMIENTO_ORDEN = 12;
+    private static final int DESPLAZAMIENTO_VICTORIA = 16;
+
+    // Marca de posición publicada en el anillo (un evento puede valer 0)
+    private static final long PUBLICADO = 1L << 63;
+
+    // Analítica que alimentan las partidas del servidor (después de TIPOS, que usan las cubetas)
+    static final AnaliticaDisparos COMPARTIDA = new AnaliticaDisparos((int) Configuracion.ANALITICA_COLA,
+        Configuracion.ANALITICA_CUBETA, (int) Configuracion.ANALITICA_CUBETAS);
+
+    /**
+     * Contadores de un intervalo de tiempo.
+     */
+    static final class Cubeta {
+        // Número de cubeta (instante / duración) al que corresponden los contadores
+        long numero = -1;
+        final long[] disparos = new long[CASILLAS];
+        final long[] aciertos = new long[CASILLAS];
+        final long[] primeros = new long[CASILLAS];
+        // [tipo * TIPOS + orden - 1]: veces que ese tipo fue el barco hundido en ese orden
+        final long[] hundimientos = new long[TIPOS * TIPOS];
+        long victorias;
+        long disparosVictorias;
+
+        private void vaciar(long numero) {
+            this.numero = numero;
+            Arrays.fill(disparos, 0);
+            Arrays.fill(aciertos, 0);
+            Arrays.fill(primeros, 0);
+            Arrays.fill(hundimientos, 0);
+            victorias = 0;
+            disparosVictorias = 0;
+        }
+
+        /**
+         * Indica si un evento cabe en los contadores: casilla del tablero y
+         * tipo de barco existente.
+         */
+        private static boolean esValido(long evento) {
+            int casilla = (int) (evento & 0x7F);
+            int tipo = (int) ((evento >>> DESPLAZAMIENTO_TIPO) & 0x7);
+            return casilla < CASILLAS && tipo <= TIPOS;
+        }
+
+        private void sumar(long evento) {
+            int casilla = (int) (evento & 0x7F);
+            disparos[casilla]++;
+            if ((evento & ACIERTO) != 0) {
+                aciertos[casilla]++;
+            }
+            if ((evento & PRIMERO) != 0) {
+                primeros[casilla]++;
+            }
+            int tipo = (int) ((evento >>> DESPLAZAMIENTO_TIPO) & 0x7);
+            if (tipo != 0) {
+                int orden = (int) ((evento >>> DESPLAZAMIENTO_ORDEN) & 0x7);
+                hundimientos[(tipo - 1) * TIPOS + Math.min(TIPOS, Math.max(1, orden)) - 1]++;
+            }
+            int paraGanar = (int) ((evento >>> DESPLAZAMIENTO_VICTORIA) & 0xFF);
+            if (paraGanar != 0) {
+                victorias++;
+                disparosVictorias += paraGanar;
+            }
+        }
+
+        private void acumular(Cubeta otra) {
+            for (int i = 0; i < CASILLAS; i++) {
+                disparos[i] += otra.disparos[i];
+                aciertos[i] += otra.aciertos[i];
+                primeros[i] += otra.primeros[i];
+            }
+            for (int i = 0; i < hundimientos.length; i++) {
+                hundimientos[i] += otra.hundimientos[i];
+            }
+            victorias += otra.victorias;
+            disparosVictorias += otra.disparosVictorias;
+        }
+    }
+
+    /**
+     * Anillo de eventos de una franja: varios hilos escriben y sólo el de
+     * agregar lee.
+     */
+    private static final class Franja {
+        // Eventos con la marca PUBLICADO; 0 = posición libre o aún sin escribir
+        final AtomicLongArray eventos;
+        // Posiciones reservadas por quien registra, desde el arranque
+        final AtomicLong reservadas = new AtomicLong();
+        // Posiciones ya leídas; sólo las avanza el hilo de agregar
+        volatile long leidas;
+
+        Franja(int capacidad) {
+            eventos = new AtomicLongArray(capacidad);
+        }
+    }
+
+    private final Franja[] franjas;
+
+    // Capacidad de cada anillo menos uno (es potencia de dos)
+    private final int mascara;
+
+    private final long duracionCubeta;
+
+    private final Cubeta[] cubetas;
+
+    private final Cubeta total = new Cubeta();
+
+    /**
+     * Crea la analítica y arranca su hilo.
+     *
+     * @param capacidad Disparos pendientes de agregar como mucho, entre todas
+     *        las franjas (se redondea a potencia de dos por franja)
+     * @param duracionCubeta Duración de cada cubeta (ms)
+     * @param numeroCubetas Cubetas que se guardan (la ventana más larga)
+     */
+    public AnaliticaDisparos(int capacidad, long duracionCubeta, int numeroCubetas) {
+        int numeroFranjas = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        int capacidadFranja = Integer.highestOneBit(Math.max(1, capacidad / numeroFranjas) * 2 - 1);
+        this.franjas = new Franja[numeroFranjas];
+        for (int i = 0; i < numeroFranjas; i++) {
+            franjas[i] = new Franja(capacidadFranja);
+        }
+        this.mascara = capacidadFranja - 1;
+        this.duracionCubeta = Math.max(1, duracionCubeta);
+        this.cubetas = new Cubeta[Math.max(1, numeroCubetas)];
+        for (int i = 0; i < cubetas.length; i++) {
+            cubetas[i] = new Cubeta();
+        }
+        Thread hilo = new Thread(new Runnable() {
+            public void run() {
+                agregar();
+            }
+        }, "analitica-disparos");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /**
+     * Resume un disparo en un evento.
+     *
+     * @param fila Fila (0-9)
+     * @param columna Columna (0-9)
+     * @param acierto true si tocó o hundió un barco
+     * @param primero true si es el primer disparo del tirador en la partida
+     * @param hundido Barco hundido con el disparo o null
+     * @param orden Barcos hundidos en ese tablero contando éste (1 = el primero)
+     * @param paraGanar Disparos del tirador si con éste gana, 0 si no
+     * @return Evento
+     * @throws IllegalArgumentException Si la casilla está fuera del tablero
+     */
+    public static long codificar(int fila, int columna, boolean acierto, boolean primero, Barco.TipoBarco hundido,
+            int orden, int paraGanar) {
+        if (fila < 0 || fila > 9 || columna < 0 || columna > 9) {
+            throw new IllegalArgumentException("Casilla fuera del tablero: " + fila + "," + columna);
+        }
+        long evento = fila * 10 + columna;
+        if (acierto) {
+            evento |= ACIERTO;
+        }
+        if (primero) {
+            evento |= PRIMERO;
+        }
+        if (hundido != null) {
+            evento |= (long) (hundido.ordinal() + 1) << DESPLAZAMIENTO_TIPO;
+            evento |= (long) (orden & 0x7) << DESPLAZAMIENTO_ORDEN;
+        }
+        evento |= (long) Math.min(paraGanar, 0xFF) << DESPLAZAMIENTO_VICTORIA;
+        return evento;
+    }
+
+    /**
+     * Deja un disparo para agregar. No bloquea, no toma locks ni crea
+     * objetos.
+     *
+     * @param partida ID de la partida (elige la franja)
+     * @param evento Evento de codificar()
+     */
+    public void registrar(int partida, long evento) {
+        Franja franja = franjas[partida & (franjas.length - 1)];
+        long posicion;
+        do {
+            posicion = franja.reservadas.get();
+            if (posicion - franja.leidas > mascara) {
+                Contadores.incrementar(Contador.ANALITICA_DESCARTADOS);
+                return;
+            }
+        } while (!franja.reservadas.compareAndSet(posicion, posicion + 1));
+        franja.eventos.set((int) posicion & mascara, evento | PUBLICADO);
+    }
+
+    /**
+     * Bucle del hilo: vacía las franjas en la cubeta actual y en el total.
+     */
+    private void agregar() {
+        while (true) {
+            int agregados = 0;
+            synchronized (this) {
+                Cubeta actual = cubeta(System.currentTimeMillis() / duracionCubeta);
+                for (Franja franja : franjas) {
+                    long leidas = franja.leidas;
+                    long evento;
+                    // Se para en la primera posición reservada pero aún sin escribir
+                    while ((evento = franja.eventos.get((int) leidas & mascara)) != 0) {
+                        franja.eventos.lazySet((int) leidas & mascara, 0);
+                        evento &= ~PUBLICADO;
+                        // Uno mal formado se salta: no debe tumbar el hilo
+                        if (Cubeta.esValido(evento)) {
+                            actual.sumar(evento);
+                            total.sumar(evento);
+                        } else {
+                            Contadores.incrementar(Contador.ANALITICA_INVALIDOS);
+                        }
+                        leidas++;
+                    }
+                    agregados += (int) (leidas - franja.leidas);
+                    franja.leidas = leidas;
+                }
+            }
+            if (agregados == 0) {
+                try {
+                    Thread.sleep(PAUSA);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Cubeta de un intervalo; si su hueco del anillo tenía uno anterior,
+     * se vacía.
+     */
+    private Cubeta cubeta(long numero) {
+        Cubeta cubeta = cubetas[(int) (numero % cubetas.length)];
+        if (cubeta.numero != numero) {
+            cubeta.vaciar(numero);
+        }
+        return cubeta;
+    }
+
+    /**
+     * Suma de los contadores de una ventana que acaba ahora.
+     *
+     * @param minutos Minutos de la ventana (0 = desde el arranque)
+     * @return Copia de los contadores
+     */
+    synchronized Cubeta consultar(long minutos) {
+        Cubeta suma = new Cubeta();
+        if (minutos <= 0) {
+            suma.acumular(total);
+            return suma;
+        }
+        long actual = System.currentTimeMillis() / duracionCubeta;
+        long numero = cubetasVentana(minutos);
+        for (long n = actual - numero + 1; n <= actual; n++) {
+            Cubeta cubeta = cubetas[(int) (n % cubetas.length)];
+            if (cubeta.numero == n) {
+                suma.acumular(cubeta);
+            }
+        }
+        return suma;
+    }
+
+    /**
+     * Duración de la ventana que se suma de verdad al pedir unos minutos:
+     * se redondea a cubetas enteras y no pasa del anillo.
+     *
+     * @param minutos Minutos pedidos (0 = desde el arranque)
+     * @return Segundos de la ventana o 0 si es desde el arranque
+     */
+    long segundosVentana(long minutos) {
+        return (minutos <= 0) ? 0 : cubetasVentana(minutos) * duracionCubeta / 1000;
+    }
+
+    private long cubetasVentana(long minutos) {
+        long pedidas = (Math.min(minutos, Long.MAX_VALUE / 60000) * 60000 + duracionCubeta - 1) / duracionCubeta;
+        return Math.min(cubetas.length, pedidas);
+    }
+}
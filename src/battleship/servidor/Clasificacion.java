@@ -0,0 +1,205 @@
+package battleship.servidor;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Puntuación Elo de cada jugador (por nombre) para las partidas
+ * clasificatorias.
+ *
+ * Los resultados se encolan al terminar la partida y los aplica un único
+ * hilo, así que quien termina la partida no calcula ni escribe nada y las
+ * actualizaciones no necesitan lock. Las puntuaciones son inmutables y se
+ * sustituyen enteras en el mapa: leerlas no bloquea. Tras cada lote de
+ * resultados la tabla se guarda entera (se escribe aparte y se renombra).
+ *
+ * @author Jorge González Navas
+ */
+public class Clasificacion {
+
+    private static final int MAGIA = 0x42534331; // "BSC1"
+
+    // Puntuación con la que empieza un jugador nuevo
+    public static final int PUNTUACION_INICIAL = 1500;
+
+    // Partidas durante las que la puntuación se mueve más deprisa
+    private static final int PARTIDAS_PROVISIONALES = 30;
+    private static final double K_PROVISIONAL = 40;
+    private static final double K = 20;
+
+    /**
+     * Puntuación de un jugador.
+     */
+    public static final class Puntuacion {
+        private final double elo;
+        private final int partidas;
+
+        Puntuacion(double elo, int partidas) {
+            this.elo = elo;
+            this.partidas = partidas;
+        }
+
+        /**
+         * Puntuación Elo redondeada.
+         *
+         * @return Puntuación
+         */
+        public int getElo() {
+            return (int) Math.round(elo);
+        }
+
+        /**
+         * Partidas clasificatorias jugadas.
+         *
+         * @return Partidas
+         */
+        public int getPartidas() {
+            return partidas;
+        }
+    }
+
+    private static final Puntuacion NUEVO = new Puntuacion(PUNTUACION_INICIAL, 0);
+
+    private final ConcurrentHashMap<String, Puntuacion> puntuaciones = new ConcurrentHashMap<String, Puntuacion>();
+
+    // Resultados pendientes: {ganador, perdedor}
+    private final BlockingQueue<String[]> resultados = new LinkedBlockingQueue<String[]>();
+
+    // Fichero de la tabla (null = sólo en memoria)
+    private final File archivo;
+
+    /**
+     * Carga la tabla y arranca el hilo que aplica los resultados.
+     *
+     * @param archivo Fichero de la tabla o null para no guardarla
+     */
+    public Clasificacion(File archivo) {
+        this.archivo = archivo;
+        if (archivo != null && archivo.exists()) {
+            try {
+                cargar();
+            } catch (IOException e) {
+                System.err.println("No se pudo leer la clasificación: " + e.getMessage());
+            }
+        }
+        Thread hilo = new Thread(new Runnable() {
+            public void run() {
+                aplicarResultados();
+            }
+        }, "clasificacion");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /**
+     * Puntuación de un jugador.
+     *
+     * @param jugador Nombre del jugador
+     * @return Puntuación (la inicial si no ha jugado)
+     */
+    public Puntuacion getPuntuacion(String jugador) {
+        Puntuacion puntuacion = puntuaciones.get(jugador);
+        return (puntuacion != null) ? puntuacion : NUEVO;
+    }
+
+    /**
+     * Encola el resultado de una partida clasificatoria. No bloquea.
+     *
+     * @param ganador Nombre del ganador
+     * @param perdedor Nombre del perdedor
+     */
+    public void registrarResultado(String ganador, String perdedor) {
+        resultados.add(new String[]{ganador, perdedor});
+    }
+
+    /**
+     * Bucle del hilo de la clasificación: aplica los resultados por lotes
+     * y guarda la tabla después de cada lote.
+     */
+    private void aplicarResultados() {
+        List<String[]> lote = new ArrayList<String[]>();
+        while (true) {
+            try {
+                lote.add(resultados.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            resultados.drainTo(lote);
+            for (String[] resultado : lote) {
+                aplicar(resultado[0], resultado[1]);
+            }
+            lote.clear();
+            if (archivo != null) {
+                try {
+                    guardar();
+                } catch (IOException e) {
+                    System.err.println("No se pudo guardar la clasificación: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Actualización Elo de una partida: cada jugador gana o pierde según lo
+     * que se esperaba de él frente a la puntuación del rival.
+     */
+    private void aplicar(String ganador, String perdedor) {
+        Puntuacion g = getPuntuacion(ganador);
+        Puntuacion p = getPuntuacion(perdedor);
+        double esperadoGanador = 1.0 / (1.0 + Math.pow(10, (p.elo - g.elo) / 400.0));
+        puntuaciones.put(ganador, new Puntuacion(g.elo + factor(g) * (1 - esperadoGanador), g.partidas + 1));
+        puntuaciones.put(perdedor, new Puntuacion(p.elo - factor(p) * (1 - esperadoGanador), p.partidas + 1));
+    }
+
+    private static double factor(Puntuacion puntuacion) {
+        return (puntuacion.partidas < PARTIDAS_PROVISIONALES) ? K_PROVISIONAL : K;
+    }
+
+    private void cargar() throws IOException {
+        try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(new FileInputStream(archivo)))) {
+            if (entrada.readInt() != MAGIA) {
+                throw new IOException("No es una tabla de clasificación: " + archivo);
+            }
+            int num = entrada.readInt();
+            for (int i = 0; i < num; i++) {
+                String jugador = entrada.readUTF();
+                puntuaciones.put(jugador, new Puntuacion(entrada.readDouble(), entrada.readInt()));
+            }
+        }
+    }
+
+    private void guardar() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        DataOutputStream salida = new DataOutputStream(bytes);
+        List<Map.Entry<String, Puntuacion>> entradas = new ArrayList<Map.Entry<String, Puntuacion>>(puntuaciones.entrySet());
+        salida.writeInt(MAGIA);
+        salida.writeInt(entradas.size());
+        for (Map.Entry<String, Puntuacion> entrada : entradas) {
+            salida.writeUTF(entrada.getKey());
+            salida.writeDouble(entrada.getValue().elo);
+            salida.writeInt(entrada.getValue().partidas);
+        }
+        salida.flush();
+
+        File temporal = new File(archivo.getPath() + ".tmp");
+        try (FileOutputStream fichero = new FileOutputStream(temporal)) {
+            bytes.writeTo(fichero);
+            fichero.getChannel().force(true);
+        }
+        Files.move(temporal.toPath(), archivo.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,243 @@
+package battleship.servidor;
+
+import java.util.Locale;
+
+/**
+ * Parámetros configurables del servidor.
+ * Se leen de propiedades del sistema (-Dbattleship.xxx=valor) al arrancar.
+ *
+ * @author Jorge González Navas
+ */
+public final class Configuracion {
+
+    /**
+     * Qué hacer al agotarse el tiempo de una jugada.
+     */
+    public enum PoliticaTiempo {
+        DISPARO_ALEATORIO,  // se dispara por el jugador a una casilla libre
+        ABANDONO            // pierde la partida
+    }
+
+    /**
+     * Qué hacer con un espectador cuya cola de eventos se llena.
+     */
+    public enum PoliticaEspectador {
+        DESCONECTAR,  // se le da de baja
+        DESCARTAR     // se pierden los eventos que no caben
+    }
+
+    // Puerto en el que se aceptan conexiones (el del proxy, si se arranca el proxy)
+    public static final int PUERTO = (int) leerLong("battleship.puerto", 5001);
+
+    // Hilos que aceptan conexiones; con más de uno se abre un socket de
+    // escucha por hilo con SO_REUSEPORT si el sistema lo admite
+    public static final int ACEPTADORES = (int) leerLong("battleship.aceptadores", 1);
+
+    // Conexiones pendientes de aceptar que admite cada socket de escucha (0 = la del sistema)
+    public static final int COLA_ACEPTACION = (int) leerLong("battleship.aceptadores.cola", 0);
+
+    // Tiempo sin tráfico tras el que se envía PING al cliente (ms)
+    public static final long INTERVALO_PING = leerLong("battleship.ping.ms", 15000);
+
+    // Tiempo sin recibir nada del cliente tras el que se cierra la conexión (ms)
+    public static final long TIMEOUT_INACTIVIDAD = leerLong("battleship.inactividad.ms", 300000);
+
+    // Cola de salida de cada cliente: por encima de la marca alta de bytes
+    // pendientes está saturado hasta que baja de la marca baja; con el
+    // máximo, o si sigue saturado o con una escritura bloqueada más del
+    // plazo (0 = sin plazo), se le desconecta
+    public static final long SALIDA_MARCA_ALTA = leerLong("battleship.salida.alta.bytes", 64 * 1024);
+    public static final long SALIDA_MARCA_BAJA = leerLong("battleship.salida.baja.bytes", 16 * 1024);
+    public static final long SALIDA_MAXIMA = leerLong("battleship.salida.max.bytes", 1024 * 1024);
+    public static final long PLAZO_ESCRITURA = leerLong("battleship.salida.plazo.ms", 10000);
+
+    // Longitud máxima de una trama recibida de un cliente (bytes); una más
+    // larga cierra la conexión
+    public static final long MAX_TRAMA_CLIENTE = leerLong("battleship.entrada.max.bytes", 4096);
+
+    // Mensajes por segundo que admite cada conexión según su clase: jugadas
+    // (COLOCAR_BARCO, LISTO, DISPARAR), consultas (listados, estado,
+    // repeticiones) y el resto (0 = sin límite). Con MC los tres son de la
+    // conexión, se abran los canales que se abran.
+    public static final long RITMO_JUGADAS = leerLong("battleship.limite.jugadas", 50);
+    public static final long RITMO_CONSULTAS = leerLong("battleship.limite.consultas", 20);
+    public static final long RITMO_OTROS = leerLong("battleship.limite.otros", 20);
+
+    // Segundos de ritmo que se pueden acumular y gastar de golpe
+    public static final long RAFAGA_LIMITE = leerLong("battleship.limite.rafaga", 2);
+
+    // Mensajes descartados seguidos tras los que se cierra la conexión
+    public static final long DESCARTES_EXPULSION = leerLong("battleship.limite.expulsion", 200);
+
+    // Tiempo máximo por jugada (ms, 0 = sin límite)
+    public static final long TIEMPO_JUGADA = leerLong("battleship.reloj.jugada.ms", 60000);
+
+    // Tiempo total de reflexión de cada jugador en la partida (ms, 0 = sin límite)
+    public static final long TIEMPO_PARTIDA = leerLong("battleship.reloj.partida.ms", 0);
+
+    // Qué hacer al agotarse el tiempo de una jugada: DISPARO_ALEATORIO o ABANDONO.
+    // Agotar el tiempo total de la partida siempre supone perderla.
+    public static final PoliticaTiempo POLITICA_TIEMPO = leerEnum("battleship.reloj.politica", PoliticaTiempo.DISPARO_ALEATORIO);
+
+    // Ofrecer el codec binario en el saludo
+    public static final boolean OFRECER_BINARIO = Boolean.parseBoolean(System.getProperty("battleship.codec.binario", "true"));
+
+    // Ofrecer TURNO_RESUELTO (un mensaje por jugador y disparo) en el saludo
+    public static final boolean OFRECER_TURNO_RESUELTO = Boolean.parseBoolean(System.getProperty("battleship.turno.resuelto", "true"));
+
+    // Canales (partidas simultáneas) que puede abrir una conexión además del
+    // canal 0 con la capacidad MC (0 = no se ofrece)
+    public static final long MAX_CANALES = leerLong("battleship.canales.max", 256);
+
+    // Eventos pendientes por espectador antes de aplicar la política
+    public static final long COLA_ESPECTADOR = leerLong("battleship.espectador.cola", 256);
+
+    // Qué hacer con un espectador cuya cola se llena: DESCONECTAR o DESCARTAR
+    public static final PoliticaEspectador POLITICA_ESPECTADOR = leerEnum("battleship.espectador.politica",
+        PoliticaEspectador.DESCONECTAR);
+
+    // Tiempo que se conserva el puesto de un jugador que pierde la conexión
+    // en mitad de una partida (ms, 0 = no se puede reanudar)
+    public static final long GRACIA_REANUDAR = leerLong("battleship.reanudar.gracia.ms", 30000);
+
+    // Directorio del diario de partidas (vacío = sin diario ni recuperación)
+    public static final String DIR_DIARIO = System.getProperty("battleship.diario.dir", "diario");
+
+    // Cuándo se fuerza el diario a disco: SIEMPRE, INTERVALO o NUNCA
+    public static final String FSYNC_DIARIO = System.getProperty("battleship.diario.fsync", "INTERVALO");
+
+    // Intervalo máximo entre fsync del diario con la política INTERVALO (ms)
+    public static final long INTERVALO_FSYNC = leerLong("battleship.diario.fsync.ms", 1000);
+
+    // Tamaño de cada segmento del diario (bytes)
+    public static final long SEGMENTO_DIARIO = leerLong("battleship.diario.segmento.bytes", 4 * 1024 * 1024);
+
+    // Tiempo entre compactaciones del diario en una instantánea (ms)
+    public static final long COMPACTAR_DIARIO = leerLong("battleship.diario.compactar.ms", 60000);
+
+    // Directorio del archivo de repeticiones (vacío = no se archivan)
+    public static final String DIR_REPETICIONES = System.getProperty("battleship.repeticiones.dir", "repeticiones");
+
+    // Tamaño a partir del cual se empieza otro segmento de repeticiones (bytes)
+    public static final long SEGMENTO_REPETICIONES = leerLong("battleship.repeticiones.segmento.bytes", 16 * 1024 * 1024);
+
+    // Fichero de la clasificación (vacío = sólo en memoria)
+    public static final String ARCHIVO_CLASIFICACION = System.getProperty("battleship.clasificacion.archivo", "clasificacion.dat");
+
+    // Diferencia de puntuación admitida al entrar en la cola clasificatoria
+    public static final long VENTANA_CLASIFICATORIA = leerLong("battleship.clasificatoria.ventana", 100);
+
+    // Puntos que se amplía esa ventana por cada segundo de espera
+    public static final long AMPLIACION_VENTANA = leerLong("battleship.clasificatoria.ampliacion", 25);
+
+    // Diferencia máxima de puntuación por mucho que se espere
+    public static final long VENTANA_MAXIMA = leerLong("battleship.clasificatoria.ventana.max", 600);
+
+    // Intervalo entre barridos de la cola clasificatoria (ms)
+    public static final long BARRIDO_CLASIFICATORIA = leerLong("battleship.clasificatoria.barrido.ms", 1000);
+
+    // Partidas por página del vestíbulo
+    public static final long PAGINA_VESTIBULO = leerLong("battleship.vestibulo.pagina", 20);
+
+    // Tiempo mínimo entre avisos de cambios a los suscritos al vestíbulo (ms)
+    public static final long AVISO_VESTIBULO = leerLong("battleship.vestibulo.aviso.ms", 250);
+
+    // Puerto local en el que el primario espera a su réplica (0 = sin réplica)
+    public static final int PUERTO_REPLICA = (int) leerLong("battleship.replica.puerto", 0);
+
+    // host:puerto de réplica del primario. Si se indica, el servidor arranca
+    // como reserva: sigue al primario y sólo atiende clientes cuando lo pierde
+    public static final String PRIMARIO_REPLICA = System.getProperty("battleship.replica.primario", "");
+
+    // Lotes del diario que pueden esperar a la réplica antes de desconectarla
+    public static final long COLA_REPLICA = leerLong("battleship.replica.cola", 1024);
+
+    // Tiempo sin lotes tras el que el primario manda un latido a la réplica (ms)
+    public static final long LATIDO_REPLICA = leerLong("battleship.replica.latido.ms", 200);
+
+    // Tiempo sin noticias del primario tras el que la reserva toma el relevo (ms)
+    public static final long PLAZO_REPLICA = leerLong("battleship.replica.plazo.ms", 800);
+
+    // Nodos del clúster, host:puerto separados por comas y en el mismo orden
+    // en todos los procesos (vacío = servidor único)
+    public static final String NODOS_CLUSTER = System.getProperty("battleship.cluster.nodos", "");
+
+    // Posición de este servidor en la lista de nodos del clúster
+    public static final int NODO_CLUSTER = (int) leerLong("battleship.cluster.nodo", -1);
+
+    // Intervalo con el que el proxy consulta la carga de cada nodo (ms)
+    public static final long ESTADO_NODOS = leerLong("battleship.proxy.estado.ms", 1000);
+
+    // Nodo al que el proxy manda las colas de emparejamiento y la clasificación
+    public static final int NODO_EMPAREJAMIENTO = (int) leerLong("battleship.proxy.emparejamiento", 0);
+
+    // Duración del tick de la rueda de temporizadores (ms)
+    public static final long TICK_RUEDA = leerLong("battleship.rueda.tick.ms", 100);
+
+    // Tableros de partidas terminadas que se guardan para reutilizarlos (0 = ninguno)
+    public static final long RESERVA_TABLEROS = leerLong("battleship.tableros.reserva", 256);
+
+    // Partidas terminadas que pueden esperar a que se archiven, puntúen...
+    // (con la cola llena las procesa quien las termina) y cuántas se
+    // procesan de una vez como mucho
+    public static final long COLA_TRAS_PARTIDA = leerLong("battleship.traspartida.cola", 1024);
+    public static final long LOTE_TRAS_PARTIDA = leerLong("battleship.traspartida.lote", 64);
+
+    // Analítica de disparos: duración de cada cubeta (ms), cubetas que se
+    // guardan (la ventana más larga que se puede consultar) y disparos que
+    // pueden esperar a agregarse antes de descartarlos
+    public static final long ANALITICA_CUBETA = leerLong("battleship.analitica.cubeta.ms", 60000);
+    public static final long ANALITICA_CUBETAS = leerLong("battleship.analitica.cubetas", 60);
+    public static final long ANALITICA_COLA = leerLong("battleship.analitica.cola", 65536);
+
+    // Clave que hay que dar en ESTADO_ANALITICA (vacía = no se pide)
+    public static final String ANALITICA_CLAVE = System.getProperty("battleship.analitica.clave", "");
+
+    // Fichero de contadores que el servidor mapea en memoria para que otro
+    // proceso los lea (vacío = los contadores sólo viven en memoria)
+    public static final String ARCHIVO_CONTADORES = System.getProperty("battleship.contadores.archivo", "contadores.dat");
+
+    private Configuracion() {
+    }
+
+    /**
+     * Lee una propiedad numérica con valor por defecto.
+     *
+     * @param clave Nombre de la propiedad
+     * @param defecto Valor si no existe o es inválida
+     * @return Valor leído
+     */
+    static long leerLong(String clave, long defecto) {
+        String valor = System.getProperty(clave);
+        if (valor == null) {
+            return defecto;
+        }
+        try {
+            return Long.parseLong(valor.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Valor inválido para " + clave + ": " + valor);
+            return defecto;
+        }
+    }
+
+    /**
+     * Lee una propiedad que toma uno de los valores de una enumeración, sin
+     * distinguir mayúsculas, con valor por defecto.
+     *
+     * @param clave Nombre de la propiedad
+     * @param defecto Valor si no existe o no es ninguno de la enumeración
+     * @return Valor leído
+     */
+    static <E extends Enum<E>> E leerEnum(String clave, E defecto) {
+        String valor = System.getProperty(clave);
+        if (valor == null) {
+            return defecto;
+        }
+        try {
+            return Enum.valueOf(defecto.getDeclaringClass(), valor.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Valor inválido para " + clave + ": " + valor + " (se usa " + defecto + ")");
+            return defecto;
+        }
+    }
+}
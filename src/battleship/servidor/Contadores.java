@@ -0,0 +1,211 @@
+package battleship.servidor;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Contadores del servidor (conexiones, partidas, disparos, errores...)
+ * en un fichero mapeado en memoria, para que otro proceso los lea en vivo
+ * sin preguntar al servidor ni analizar su salida (LectorContadores).
+ *
+ * Actualizar un contador es una suma atómica con orden de liberación en
+ * la memoria mapeada: ni cerrojos ni reservas, unos pocos nanosegundos. El
+ * lector sólo lee con orden de adquisición, así que nunca frena al
+ * servidor. Si no hay fichero configurado, o no se puede abrir, los
+ * contadores viven en una zona de memoria normal con la misma disposición.
+ *
+ * Disposición del fichero (enteros en el orden de bytes de la máquina):
+ * <pre>
+ *   0  long  MAGIA ("BSHIPCNT"; se escribe la última al arrancar)
+ *   8  int   VERSION
+ *  12  int   número de contadores
+ *  16  long  PID del servidor
+ *  24  long  arranque (ms desde la época); cambia si el servidor se reinicia
+ *  64  una ranura de 64 bytes por contador, en el orden de Contador:
+ *        +0   long  valor
+ *        +8   int   tipo (TIPO_ACUMULADO o TIPO_NIVEL)
+ *        +12  nombre en ASCII, terminado en 0 (hasta 52 bytes)
+ * </pre>
+ * Cada ranura ocupa su propia línea de caché para que los hilos que suman
+ * contadores distintos no se estorben.
+ *
+ * @author Jorge González Navas
+ */
+public final class Contadores {
+
+    public static final long MAGIA = 0x4253484950434E54L;
+    public static final int VERSION = 1;
+
+    public static final int POS_VERSION = 8;
+    public static final int POS_NUMERO = 12;
+    public static final int POS_PID = 16;
+    public static final int POS_ARRANQUE = 24;
+    public static final int CABECERA = 64;
+
+    public static final int RANURA = 64;
+    public static final int POS_TIPO = 8;
+    public static final int POS_NOMBRE = 12;
+
+    // Valor que sólo crece: el lector muestra su ritmo por segundo
+    public static final int TIPO_ACUMULADO = 0;
+
+    // Valor que sube y baja: el lector muestra el valor actual
+    public static final int TIPO_NIVEL = 1;
+
+    /**
+     * Contadores publicados. Sólo se añaden al final: un monitor externo
+     * puede localizarlos por posición.
+     */
+    public enum Contador {
+        CONEXIONES_ACEPTADAS(TIPO_ACUMULADO),
+        CONEXIONES_ABIERTAS(TIPO_NIVEL),
+        MENSAJES_RECIBIDOS(TIPO_ACUMULADO),
+        PARTIDAS_CREADAS(TIPO_ACUMULADO),
+        PARTIDAS_EN_CURSO(TIPO_NIVEL),
+        PARTIDAS_TERMINADAS(TIPO_ACUMULADO),
+        DISPAROS(TIPO_ACUMULADO),
+        // ERROR enviados a un cliente como respuesta a sus mensajes
+        ERRORES_RESPUESTA(TIPO_ACUMULADO),
+        // Comandos desconocidos o con parámetros inválidos
+        ERRORES_PROTOCOLO(TIPO_ACUMULADO),
+        // Mensajes descartados por el límite de ritmo
+        DESCARTES_LIMITE(TIPO_ACUMULADO),
+        EXPULSIONES(TIPO_ACUMULADO),
+        // Clientes desconectados por un fallo o un plazo de escritura
+        FALLOS_ESCRITURA(TIPO_ACUMULADO),
+        // Partidas rechazadas porque no quedaba cupo
+        SERVIDOR_LLENO(TIPO_ACUMULADO),
+        // Partidas terminadas sin ganador (abandonadas antes de jugarse)
+        PARTIDAS_SIN_GANADOR(TIPO_ACUMULADO),
+        // Partidas terminadas que no cupieron en la cola de TrasPartida (quedan fuera de las estadísticas)
+        TRAS_PARTIDA_DESBORDADA(TIPO_ACUMULADO),
+        // Disparos que no cupieron en la cola de AnaliticaDisparos
+        ANALITICA_DESCARTADOS(TIPO_ACUMULADO),
+        // Eventos de AnaliticaDisparos que no se pudieron agregar por estar mal formados
+        ANALITICA_INVALIDOS(TIPO_ACUMULADO);
+
+        private final int tipo;
+
+        // Posición del valor en la zona de contadores
+        private final int posicion;
+
+        private Contador(int tipo) {
+            this.tipo = tipo;
+            this.posicion = CABECERA + ordinal() * RANURA;
+        }
+    }
+
+    private static final VarHandle VALOR = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final ByteBuffer ZONA = abrir(Configuracion.ARCHIVO_CONTADORES);
+
+    private Contadores() {
+    }
+
+    /**
+     * Suma al contador.
+     *
+     * @param contador Contador
+     * @param cantidad Cantidad (negativa para los de tipo nivel que bajan)
+     */
+    public static void sumar(Contador contador, long cantidad) {
+        VALOR.getAndAddRelease(ZONA, contador.posicion, cantidad);
+    }
+
+    /**
+     * Suma uno al contador.
+     *
+     * @param contador Contador
+     */
+    public static void incrementar(Contador contador) {
+        VALOR.getAndAddRelease(ZONA, contador.posicion, 1L);
+    }
+
+    /**
+     * Valor actual de un contador.
+     *
+     * @param contador Contador
+     * @return Valor
+     */
+    public static long leer(Contador contador) {
+        return (long) VALOR.getAcquire(ZONA, contador.posicion);
+    }
+
+    /**
+     * Tamaño de la zona para un número de contadores.
+     *
+     * @param contadores Número de contadores
+     * @return Bytes
+     */
+    public static int tamanio(int contadores) {
+        return CABECERA + contadores * RANURA;
+    }
+
+    /**
+     * Prepara la zona de contadores: la mapea del fichero, la pone a cero,
+     * escribe los nombres y por último la cabecera, para que un lector que
+     * ya tenga el fichero abierto no vea una disposición a medias.
+     *
+     * @param archivo Fichero (vacío = sólo en memoria)
+     * @return Zona de contadores
+     */
+    private static ByteBuffer abrir(String archivo) {
+        Contador[] contadores = Contador.values();
+        int tamanio = tamanio(contadores.length);
+        ByteBuffer zona = null;
+        if (!archivo.isEmpty()) {
+            // No se trunca: un lector que lo tenga mapeado fallaría al leer
+            try (FileChannel canal = FileChannel.open(Paths.get(archivo), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                zona = canal.map(FileChannel.MapMode.READ_WRITE, 0, tamanio);
+            } catch (IOException e) {
+                System.err.println("No se pudo mapear " + archivo + ": " + e.getMessage() + " (contadores sólo en memoria)");
+            }
+        }
+        if (zona == null) {
+            zona = ByteBuffer.allocateDirect(tamanio);
+        }
+        zona.order(ByteOrder.nativeOrder());
+
+        VALOR.setRelease(zona, 0, 0L);
+        for (int i = 8; i < tamanio; i += 8) {
+            zona.putLong(i, 0L);
+        }
+        for (Contador contador : contadores) {
+            zona.putInt(contador.posicion + POS_TIPO, contador.tipo);
+            byte[] nombre = contador.name().getBytes(StandardCharsets.US_ASCII);
+            for (int i = 0; i < nombre.length && i < RANURA - POS_NOMBRE - 1; i++) {
+                zona.put(contador.posicion + POS_NOMBRE + i, nombre[i]);
+            }
+        }
+        zona.putInt(POS_VERSION, VERSION);
+        zona.putInt(POS_NUMERO, contadores.length);
+        zona.putLong(POS_PID, pid());
+        zona.putLong(POS_ARRANQUE, System.currentTimeMillis());
+        VALOR.setRelease(zona, 0, MAGIA);
+        return zona;
+    }
+
+    /**
+     * PID de este proceso, sacado del nombre de la JVM ("pid@máquina").
+     *
+     * @return PID o 0 si no se puede saber
+     */
+    private static long pid() {
+        String nombre = ManagementFactory.getRuntimeMXBean().getName();
+        int arroba = nombre.indexOf('@');
+        try {
+            return Long.parseLong(arroba > 0 ? nombre.substring(0, arroba) : nombre);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package battleship.servidor;
+
+import battleship.util.HistogramaLatencias;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Emparejamiento automático de jugadores sin monitor global.
+ *
+ * Funciona como un intercambiador: hay un único hueco atómico. Quien llega
+ * y lo encuentra vacío se queda en él esperando; quien lo encuentra ocupado
+ * lo vacía con compareAndSet y se lleva a su ocupante como rival. Como dos
+ * jugadores que esperan se emparejarían entre sí, nunca hay más de uno en
+ * espera. Cada solicitud tiene su propio estado (ESPERANDO, EMPAREJADA o
+ * CANCELADA) que sólo avanza por compareAndSet, así que cancelar y
+ * emparejar a la vez tiene un único ganador y ninguna solicitud se queda
+ * a medias.
+ *
+ * @author Jorge González Navas
+ */
+public class Emparejador {
+
+    /**
+     * Jugador que busca partida.
+     */
+    public static final class Solicitud {
+
+        private static final int ESPERANDO = 0;
+        private static final int EMPAREJADA = 1;
+        private static final int CANCELADA = 2;
+
+        private static final AtomicIntegerFieldUpdater<Solicitud> ESTADO =
+            AtomicIntegerFieldUpdater.newUpdater(Solicitud.class, "estado");
+
+        private final String nombre;
+        private final Socket socket;
+        private final String token;
+        // Instante de llegada (System.nanoTime)
+        private final long llegada;
+
+        private volatile int estado = ESPERANDO;
+
+        // La partida ya está publicada (o no se pudo crear)
+        private volatile boolean resuelta;
+
+        /**
+         * Crea una solicitud.
+         *
+         * @param nombre Nombre del jugador
+         * @param socket Socket del jugador
+         * @param token Token de reanudación o null
+         */
+        public Solicitud(String nombre, Socket socket, String token) {
+            this.nombre = nombre;
+            this.socket = socket;
+            this.token = token;
+            this.llegada = System.nanoTime();
+        }
+
+        /**
+         * Nombre del jugador.
+         *
+         * @return Nombre
+         */
+        public String getNombre() {
+            return nombre;
+        }
+
+        /**
+         * Socket del jugador.
+         *
+         * @return Socket
+         */
+        public Socket getSocket() {
+            return socket;
+        }
+
+        /**
+         * Token de reanudación del jugador.
+         *
+         * @return Token o null
+         */
+        public String getToken() {
+            return token;
+        }
+
+        /**
+         * Indica si sigue esperando rival.
+         *
+         * @return true si no se ha emparejado ni cancelado
+         */
+        public boolean estaEsperando() {
+            return estado == ESPERANDO;
+        }
+
+        /**
+         * Instante en que empezó a buscar.
+         *
+         * @return System.nanoTime() de la llegada
+         */
+        long getLlegada() {
+            return llegada;
+        }
+
+        /**
+         * Pasa de esperando a emparejada.
+         *
+         * @return false si ya estaba emparejada o cancelada
+         */
+        boolean emparejar() {
+            return ESTADO.compareAndSet(this, ESPERANDO, EMPAREJADA);
+        }
+
+        /**
+         * Pasa de esperando a cancelada.
+         *
+         * @return false si ya estaba emparejada o cancelada
+         */
+        boolean cancelar() {
+            return ESTADO.compareAndSet(this, ESPERANDO, CANCELADA);
+        }
+
+        /**
+         * Marca que quien la emparejó ya terminó de crear la partida.
+         */
+        void resolver() {
+            resuelta = true;
+        }
+
+        /**
+         * Espera a que quien la emparejó termine de crear la partida. Ese
+         * trabajo no bloquea, así que la espera es breve.
+         */
+        void esperarResolucion() {
+            while (!resuelta) {
+                Thread.yield();
+            }
+        }
+    }
+
+    // Jugador que espera rival (null si no hay ninguno)
+    private final AtomicReference<Solicitud> hueco = new AtomicReference<Solicitud>();
+
+    private final AtomicLong emparejamientos = new AtomicLong();
+
+    // Tiempo de espera de cada jugador emparejado (µs)
+    private final HistogramaLatencias esperas = new HistogramaLatencias();
+
+    /**
+     * Busca rival para una solicitud.
+     *
+     * @param nueva Solicitud recién llegada
+     * @return Solicitud del rival (que llevaba más tiempo esperando) o null
+     *         si la nueva queda esperando en el hueco
+     */
+    public Solicitud buscar(Solicitud nueva) {
+        while (true) {
+            Solicitud otra = hueco.get();
+            if (otra == null) {
+                if (hueco.compareAndSet(null, nueva)) {
+                    return null;
+                }
+            } else if (hueco.compareAndSet(otra, null) && otra.emparejar()) {
+                nueva.estado = Solicitud.EMPAREJADA;
+                long ahora = System.nanoTime();
+                esperas.registrar(TimeUnit.NANOSECONDS.toMicros(ahora - otra.llegada));
+                esperas.registrar(TimeUnit.NANOSECONDS.toMicros(ahora - nueva.llegada));
+                emparejamientos.incrementAndGet();
+                return otra;
+            }
+            // Otro hilo se adelantó o la que esperaba se canceló: reintentar
+        }
+    }
+
+    /**
+     * Retira una solicitud que espera rival.
+     *
+     * @param solicitud Solicitud a retirar
+     * @return true si se retiró; false si ya estaba emparejada (el rival
+     *         está creando la partida) o cancelada
+     */
+    public boolean cancelar(Solicitud solicitud) {
+        if (!solicitud.cancelar()) {
+            return false;
+        }
+        // Si no sigue en el hueco es que otro hilo ya la sacó y la descartará
+        hueco.compareAndSet(solicitud, null);
+        return true;
+    }
+
+    /**
+     * Jugadores esperando rival.
+     *
+     * @return 0 o 1
+     */
+    public int getEsperando() {
+        Solicitud otra = hueco.get();
+        return (otra != null && otra.estaEsperando()) ? 1 : 0;
+    }
+
+    /**
+     * Parejas formadas desde el arranque.
+     *
+     * @return Emparejamientos
+     */
+    public long getEmparejamientos() {
+        return emparejamientos.get();
+    }
+
+    /**
+     * Percentil del tiempo que esperan los jugadores hasta tener rival.
+     *
+     * @param percentil Entre 0 y 100
+     * @return Microsegundos
+     */
+    public long percentilEspera(double percentil) {
+        return esperas.percentil(percentil);
+    }
+}
@@ -0,0 +1,255 @@
+package battleship.servidor;
+
+import battleship.util.HistogramaLatencias;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Emparejamiento de partidas clasificatorias por puntuación.
+ *
+ * Los jugadores en espera se reparten en cubetas de ANCHO_CUBETA puntos y
+ * sólo las cubetas no vacías están en un TreeMap, así que el rival más
+ * cercano se encuentra con un ceiling y un floor (O(log cubetas)) sin
+ * recorrer a todos los que esperan. Dentro de cada cubeta se respeta el
+ * orden de llegada.
+ *
+ * La diferencia de puntuación admitida crece con lo que lleva esperando
+ * el jugador: al llegar se busca con la ventana inicial y un barrido
+ * periódico vuelve a buscar, del que más espera al que menos, con la
+ * ventana ya ampliada de cada uno.
+ *
+ * A diferencia de la partida rápida aquí hay un índice que mantener, por
+ * lo que las operaciones van con el monitor del emparejador; cancelar
+ * también lo toma, así que las solicitudes que están en el índice siempre
+ * siguen esperando.
+ *
+ * @author Jorge González Navas
+ */
+public class EmparejadorClasificado {
+
+    // Puntos de puntuación que abarca cada cubeta
+    private static final int ANCHO_CUBETA = 25;
+
+    private final int ventanaInicial;
+    private final int ampliacionPorSegundo;
+    private final int ventanaMaxima;
+
+    // Cubetas no vacías por índice (puntuación / ANCHO_CUBETA), en orden de llegada
+    private final TreeMap<Integer, LinkedHashSet<Emparejador.Solicitud>> cubetas =
+        new TreeMap<Integer, LinkedHashSet<Emparejador.Solicitud>>();
+
+    // Cubeta de cada solicitud en espera, en orden de llegada
+    private final LinkedHashMap<Emparejador.Solicitud, Integer> enEspera =
+        new LinkedHashMap<Emparejador.Solicitud, Integer>();
+
+    private long emparejamientos;
+
+    // Tiempo de espera de cada jugador emparejado (µs)
+    private final HistogramaLatencias esperas = new HistogramaLatencias();
+
+    /**
+     * Crea el emparejador.
+     *
+     * @param ventanaInicial Diferencia de puntuación admitida al llegar
+     * @param ampliacionPorSegundo Puntos que crece la ventana por segundo de espera
+     * @param ventanaMaxima Diferencia máxima por mucho que se espere
+     */
+    public EmparejadorClasificado(int ventanaInicial, int ampliacionPorSegundo, int ventanaMaxima) {
+        this.ventanaInicial = ventanaInicial;
+        this.ampliacionPorSegundo = ampliacionPorSegundo;
+        this.ventanaMaxima = ventanaMaxima;
+    }
+
+    /**
+     * Busca rival dentro de la ventana inicial o deja la solicitud en espera.
+     *
+     * @param nueva Solicitud recién llegada
+     * @param puntuacion Puntuación del jugador
+     * @return Rival (que pasa a ser el jugador 1) o null si queda esperando
+     */
+    public synchronized Emparejador.Solicitud buscar(Emparejador.Solicitud nueva, int puntuacion) {
+        int cubeta = cubetaDe(puntuacion);
+        Emparejador.Solicitud rival = rivalMasCercano(cubeta, ventanaEnCubetas(ventanaInicial), nueva);
+        if (rival == null) {
+            enEspera.put(nueva, cubeta);
+            LinkedHashSet<Emparejador.Solicitud> lista = cubetas.get(cubeta);
+            if (lista == null) {
+                lista = new LinkedHashSet<Emparejador.Solicitud>();
+                cubetas.put(cubeta, lista);
+            }
+            lista.add(nueva);
+            return null;
+        }
+        emparejar(rival, nueva);
+        return rival;
+    }
+
+    /**
+     * Vuelve a buscar rival para los que esperan, con la ventana que les
+     * corresponde por el tiempo que llevan.
+     *
+     * @return Parejas formadas; el primero de cada una es el que más esperaba
+     */
+    public synchronized List<Emparejador.Solicitud[]> barrer() {
+        List<Emparejador.Solicitud[]> parejas = new ArrayList<Emparejador.Solicitud[]>();
+        if (enEspera.size() < 2) {
+            return parejas;
+        }
+        long ahora = System.nanoTime();
+        for (Emparejador.Solicitud solicitud : new ArrayList<Emparejador.Solicitud>(enEspera.keySet())) {
+            Integer cubeta = enEspera.get(solicitud);
+            if (cubeta == null) {
+                continue; // Emparejada en este mismo barrido
+            }
+            long segundos = TimeUnit.NANOSECONDS.toSeconds(ahora - solicitud.getLlegada());
+            int ventana = (int) Math.min(ventanaMaxima, ventanaInicial + ampliacionPorSegundo * segundos);
+            Emparejador.Solicitud rival = rivalMasCercano(cubeta, ventanaEnCubetas(ventana), solicitud);
+            if (rival != null) {
+                quitar(solicitud);
+                emparejar(solicitud, rival);
+                parejas.add(new Emparejador.Solicitud[]{solicitud, rival});
+            }
+        }
+        return parejas;
+    }
+
+    /**
+     * Retira una solicitud que espera rival.
+     *
+     * @param solicitud Solicitud a retirar
+     * @return true si se retiró; false si ya estaba emparejada
+     */
+    public synchronized boolean cancelar(Emparejador.Solicitud solicitud) {
+        if (!solicitud.cancelar()) {
+            return false;
+        }
+        quitar(solicitud);
+        return true;
+    }
+
+    /**
+     * Jugadores esperando rival.
+     *
+     * @return Número de solicitudes en espera
+     */
+    public synchronized int getEsperando() {
+        return enEspera.size();
+    }
+
+    /**
+     * Parejas formadas desde el arranque.
+     *
+     * @return Emparejamientos
+     */
+    public synchronized long getEmparejamientos() {
+        return emparejamientos;
+    }
+
+    /**
+     * Percentil del tiempo que esperan los jugadores hasta tener rival.
+     *
+     * @param percentil Entre 0 y 100
+     * @return Microsegundos
+     */
+    public long percentilEspera(double percentil) {
+        return esperas.percentil(percentil);
+    }
+
+    /**
+     * Busca en las cubetas no vacías más próximas por arriba y por abajo y
+     * saca del índice al rival elegido: el de la cubeta más cercana y, si
+     * empatan, el que más espera.
+     */
+    private Emparejador.Solicitud rivalMasCercano(int cubeta, int ventana, Emparejador.Solicitud excluida) {
+        Emparejador.Solicitud arriba = null;
+        int distanciaArriba = Integer.MAX_VALUE;
+        for (Map.Entry<Integer, LinkedHashSet<Emparejador.Solicitud>> entrada = cubetas.ceilingEntry(cubeta);
+                entrada != null && entrada.getKey() - cubeta <= ventana;
+                entrada = cubetas.higherEntry(entrada.getKey())) {
+            arriba = primeraSalvo(entrada.getValue(), excluida);
+            if (arriba != null) {
+                distanciaArriba = entrada.getKey() - cubeta;
+                break;
+            }
+        }
+        Emparejador.Solicitud abajo = null;
+        int distanciaAbajo = Integer.MAX_VALUE;
+        for (Map.Entry<Integer, LinkedHashSet<Emparejador.Solicitud>> entrada = cubetas.lowerEntry(cubeta);
+                entrada != null && cubeta - entrada.getKey() <= ventana;
+                entrada = cubetas.lowerEntry(entrada.getKey())) {
+            abajo = primeraSalvo(entrada.getValue(), excluida);
+            if (abajo != null) {
+                distanciaAbajo = cubeta - entrada.getKey();
+                break;
+            }
+        }
+        Emparejador.Solicitud rival;
+        if (arriba == null) {
+            rival = abajo;
+        } else if (abajo == null) {
+            rival = arriba;
+        } else if (distanciaArriba != distanciaAbajo) {
+            rival = (distanciaArriba < distanciaAbajo) ? arriba : abajo;
+        } else {
+            rival = (arriba.getLlegada() - abajo.getLlegada() <= 0) ? arriba : abajo;
+        }
+        if (rival != null) {
+            quitar(rival);
+        }
+        return rival;
+    }
+
+    /**
+     * Primera solicitud de una cubeta que no sea la excluida. Como mucho se
+     * mira la segunda: la excluida sólo aparece una vez.
+     */
+    private static Emparejador.Solicitud primeraSalvo(LinkedHashSet<Emparejador.Solicitud> lista, Emparejador.Solicitud excluida) {
+        Iterator<Emparejador.Solicitud> it = lista.iterator();
+        while (it.hasNext()) {
+            Emparejador.Solicitud solicitud = it.next();
+            if (solicitud != excluida) {
+                return solicitud;
+            }
+        }
+        return null;
+    }
+
+    private void quitar(Emparejador.Solicitud solicitud) {
+        Integer cubeta = enEspera.remove(solicitud);
+        if (cubeta != null) {
+            LinkedHashSet<Emparejador.Solicitud> lista = cubetas.get(cubeta);
+            lista.remove(solicitud);
+            if (lista.isEmpty()) {
+                cubetas.remove(cubeta);
+            }
+        }
+    }
+
+    /**
+     * Marca la pareja como emparejada y anota sus esperas. Ninguna de las
+     * dos puede estar cancelada: cancelar toma el mismo monitor y las saca
+     * del índice.
+     */
+    private void emparejar(Emparejador.Solicitud primera, Emparejador.Solicitud segunda) {
+        primera.emparejar();
+        segunda.emparejar();
+        long ahora = System.nanoTime();
+        esperas.registrar(TimeUnit.NANOSECONDS.toMicros(ahora - primera.getLlegada()));
+        esperas.registrar(TimeUnit.NANOSECONDS.toMicros(ahora - segunda.getLlegada()));
+        emparejamientos++;
+    }
+
+    private static int cubetaDe(int puntuacion) {
+        return Math.max(puntuacion, 0) / ANCHO_CUBETA;
+    }
+
+    private static int ventanaEnCubetas(int ventana) {
+        return (ventana + ANCHO_CUBETA - 1) / ANCHO_CUBETA;
+    }
+}
@@ -0,0 +1,118 @@
+package battleship.servidor;
+
+import battleship.protocol.SalidaMensajes;
+import battleship.protocol.TramaFija;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Conexión que observa una partida (o el vestíbulo, si está suscrita).
+ *
+ * Los eventos llegan ya codificados (TramaFija) y se comparten entre todos
+ * los espectadores: cada uno sólo guarda la referencia en su cola acotada.
+ * Un hilo del pool vacía la cola cuando hay algo pendiente, de modo que el
+ * jugador que genera el evento nunca espera a un espectador lento. Si la
+ * cola se llena, o la cola de salida de la conexión está saturada, se
+ * aplica la política configurada: DESCONECTAR cierra el canal del
+ * espectador (la conexión entera si es el canal 0), que deja así de estar
+ * suscrito, y DESCARTAR pierde el evento.
+ *
+ * @author Jorge González Navas
+ */
+public class Espectador implements Runnable {
+
+    // Canal por el que observa; se cierra si se queda atrás
+    private final Closeable canal;
+    private final SalidaMensajes out;
+    private final ArrayBlockingQueue<TramaFija> cola;
+
+    // Hay un vaciado programado o en curso
+    private final AtomicBoolean programado = new AtomicBoolean(false);
+    // Eventos perdidos con la política DESCARTAR
+    private final AtomicLong descartados = new AtomicLong();
+    private volatile boolean cerrado = false;
+
+    /**
+     * Constructor del espectador.
+     *
+     * @param canal Canal de la conexión por el que observa
+     * @param out Escritor del canal
+     */
+    public Espectador(Closeable canal, SalidaMensajes out) {
+        this.canal = canal;
+        this.out = out;
+        this.cola = new ArrayBlockingQueue<TramaFija>((int) Math.max(1, Configuracion.COLA_ESPECTADOR));
+    }
+
+    /**
+     * Encola un evento sin bloquear.
+     *
+     * @param evento Trama ya codificada
+     * @return false si el espectador está cerrado y debe darse de baja
+     */
+    public boolean encolar(TramaFija evento) {
+        if (cerrado) {
+            return false;
+        }
+        if (out.isSaturado() || !cola.offer(evento)) {
+            if (Configuracion.POLITICA_ESPECTADOR == Configuracion.PoliticaEspectador.DESCARTAR) {
+                descartados.incrementAndGet();
+            } else {
+                System.out.println("Espectador demasiado lento, se desconecta");
+                cerrar();
+                return false;
+            }
+        }
+        if (programado.compareAndSet(false, true)) {
+            ServidorBattleship.ejecutar(this);
+        }
+        return true;
+    }
+
+    /**
+     * Vacía la cola escribiendo las tramas en el socket.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                TramaFija evento;
+                while ((evento = cola.poll()) != null) {
+                    out.enviar(evento);
+                }
+                programado.set(false);
+                // Si entró algo entre el último poll y el set, seguir aquí
+                if (cola.isEmpty() || !programado.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            cerrar();
+        }
+    }
+
+    /**
+     * Cierra el canal del espectador, que lo da de baja de lo que observa.
+     */
+    public void cerrar() {
+        cerrado = true;
+        cola.clear();
+        try {
+            canal.close();
+        } catch (IOException e) {
+            System.err.println("Error cerrando el canal del espectador: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Número de eventos perdidos por tener la cola llena.
+     *
+     * @return Eventos descartados
+     */
+    public long getDescartados() {
+        return descartados.get();
+    }
+}
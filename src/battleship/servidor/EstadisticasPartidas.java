@@ -0,0 +1,78 @@
+package battleship.servidor;
+
+import battleship.servidor.Contadores.Contador;
+import battleship.util.HistogramaLatencias;
+import java.util.List;
+
+/**
+ * Estadísticas de las partidas terminadas desde que arrancó el servidor:
+ * cuántas, cuántas sin ganador y la distribución de su duración y de sus
+ * disparos. Las alimenta TrasPartida por lotes; los totales se publican
+ * también en los Contadores.
+ *
+ * @author Jorge González Navas
+ */
+public class EstadisticasPartidas implements TrasPartida.Consumidor {
+
+    // Duración de cada partida, desde su creación hasta que se finalizó (ms)
+    private final HistogramaLatencias duracion = new HistogramaLatencias();
+
+    // Disparos de cada partida que llegó a jugarse
+    private final HistogramaLatencias disparos = new HistogramaLatencias();
+
+    private volatile long sinGanador;
+
+    @Override
+    public void procesar(List<Partida> lote) {
+        int nuevasSinGanador = 0;
+        for (Partida partida : lote) {
+            duracion.registrar(Math.max(0, partida.getFinalizada() - partida.getCreada()));
+            if (partida.getGanador() == 0) {
+                nuevasSinGanador++;
+            } else {
+                disparos.registrar(partida.getNumDisparos());
+            }
+        }
+        sinGanador += nuevasSinGanador;
+        Contadores.sumar(Contador.PARTIDAS_TERMINADAS, lote.size());
+        Contadores.sumar(Contador.PARTIDAS_SIN_GANADOR, nuevasSinGanador);
+    }
+
+    /**
+     * Partidas terminadas.
+     *
+     * @return Número de partidas
+     */
+    public long getPartidas() {
+        return duracion.getTotal();
+    }
+
+    /**
+     * Partidas terminadas sin ganador.
+     *
+     * @return Número de partidas
+     */
+    public long getSinGanador() {
+        return sinGanador;
+    }
+
+    /**
+     * Percentil de la duración de las partidas.
+     *
+     * @param percentil Percentil (0-100)
+     * @return Milisegundos
+     */
+    public long percentilDuracion(double percentil) {
+        return duracion.percentil(percentil);
+    }
+
+    /**
+     * Percentil de los disparos de las partidas con ganador.
+     *
+     * @param percentil Percentil (0-100)
+     * @return Disparos
+     */
+    public long percentilDisparos(double percentil) {
+        return disparos.percentil(percentil);
+    }
+}
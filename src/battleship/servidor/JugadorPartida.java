@@ -1,6 +1,8 @@
 package battleship.servidor;
 
+import battleship.model.InstantaneaTablero;
 import battleship.model.Tablero;
+import battleship.util.RuedaTemporizadores;
 import java.net.Socket;
 
 /**
@@ -11,15 +13,30 @@ public class JugadorPartida {
     // Nombre del jugador
     private final String nombre;
     
-    // Socket de conexión del jugador
-    private final Socket socket;
+    // Socket de conexión del jugador (cambia si reanuda la sesión)
+    private volatile Socket socket;
     
-    // Tablero del jugador
-    private final Tablero tablero;
+    // Token con el que puede reanudar la sesión (null si no lo pidió)
+    private final String token;
+    
+    // Indica si perdió la conexión y se le guarda el puesto
+    private boolean ausente;
+    
+    // Plazo para volver mientras está ausente
+    private RuedaTemporizadores.Temporizador gracia;
+    
+    // Tablero del jugador (se toma de la reserva al empezar a colocar barcos)
+    private Tablero tablero;
+    
+    // Indica si el tablero ya se devolvió a la reserva (no se vuelve a tomar)
+    private boolean liberado;
     
     // Indica si el jugador está listo (ha colocado todos sus barcos)
     private boolean listo;
     
+    // Tiempo de reflexión que le queda en la partida (ms)
+    private long tiempoRestante;
+    
     /**
      * Constructor de JugadorPartida.
      * 
@@ -27,10 +44,22 @@ public class JugadorPartida {
      * @param socket Socket de conexión
      */
     public JugadorPartida(String nombre, Socket socket) {
+        this(nombre, socket, null);
+    }
+    
+    /**
+     * Constructor de JugadorPartida con token de reanudación.
+     * 
+     * @param nombre Nombre del jugador
+     * @param socket Socket de conexión
+     * @param token Token de reanudación o null
+     */
+    public JugadorPartida(String nombre, Socket socket, String token) {
         this.nombre = nombre;
         this.socket = socket;
-        this.tablero = new Tablero();
+        this.token = token;
         this.listo = false;
+        this.tiempoRestante = Configuracion.TIEMPO_PARTIDA;
     }
     
     /**
@@ -52,14 +81,107 @@ public class JugadorPartida {
     }
     
     /**
-     * Obtiene el tablero del jugador.
+     * Cambia el socket del jugador al reanudar la sesión.
+     * 
+     * @param socket Nuevo socket de conexión
+     */
+    public void setSocket(Socket socket) {
+        this.socket = socket;
+    }
+    
+    /**
+     * Obtiene el token de reanudación.
+     * 
+     * @return Token o null
+     */
+    public String getToken() {
+        return token;
+    }
+    
+    /**
+     * Verifica si el jugador ha perdido la conexión.
+     * 
+     * @return true si está ausente
+     */
+    public boolean isAusente() {
+        return ausente;
+    }
+    
+    /**
+     * Marca o desmarca al jugador como ausente.
+     * 
+     * @param ausente Estado de ausencia
+     */
+    public void setAusente(boolean ausente) {
+        this.ausente = ausente;
+    }
+    
+    /**
+     * Obtiene el temporizador del plazo para volver.
+     * 
+     * @return Temporizador o null
+     */
+    public RuedaTemporizadores.Temporizador getGracia() {
+        return gracia;
+    }
+    
+    /**
+     * Guarda el temporizador del plazo para volver.
+     * 
+     * @param gracia Temporizador o null
+     */
+    public void setGracia(RuedaTemporizadores.Temporizador gracia) {
+        this.gracia = gracia;
+    }
+    
+    /**
+     * Obtiene el tablero del jugador, tomándolo de la reserva la primera vez.
      * 
      * @return Tablero
+     * @throws IllegalStateException Si el tablero ya se devolvió a la reserva
      */
     public Tablero getTablero() {
+        if (liberado) {
+            throw new IllegalStateException("La partida ya ha terminado");
+        }
+        if (tablero == null) {
+            tablero = ReservaTableros.COMPARTIDA.tomar();
+        }
         return tablero;
     }
     
+    /**
+     * Indica si el jugador tiene ya tablero (ha empezado a colocar barcos).
+     * 
+     * @return true si tiene tablero
+     */
+    public boolean tieneTablero() {
+        return tablero != null;
+    }
+    
+    /**
+     * Foto del tablero sin llegar a crearlo si aún no tiene.
+     * 
+     * @param incluirBarcos true para incluir los barcos no hundidos
+     * @return Instantánea del tablero
+     */
+    public InstantaneaTablero capturarTablero(boolean incluirBarcos) {
+        return (tablero != null) ? tablero.capturar(incluirBarcos) : InstantaneaTablero.vacia(incluirBarcos);
+    }
+    
+    /**
+     * Devuelve el tablero a la reserva al eliminar la partida. Después ya no
+     * se toma otro: un acceso tardío fallaría en vez de llevarse un tablero
+     * que nadie devolvería.
+     */
+    void liberarTablero() {
+        liberado = true;
+        if (tablero != null) {
+            ReservaTableros.COMPARTIDA.devolver(tablero);
+            tablero = null;
+        }
+    }
+    
     /**
      * Verifica si el jugador está listo.
      * 
@@ -78,6 +200,24 @@ public class JugadorPartida {
         this.listo = listo;
     }
     
+    /**
+     * Obtiene el tiempo de reflexión restante.
+     * 
+     * @return Milisegundos restantes
+     */
+    public long getTiempoRestante() {
+        return tiempoRestante;
+    }
+    
+    /**
+     * Descuenta tiempo de reflexión consumido.
+     * 
+     * @param consumido Milisegundos consumidos en el turno
+     */
+    public void consumirTiempo(long consumido) {
+        this.tiempoRestante = Math.max(0, tiempoRestante - consumido);
+    }
+    
     @Override
     public String toString() {
         return nombre + " (listo: " + listo + ")";
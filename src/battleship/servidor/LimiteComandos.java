@@ -0,0 +1,129 @@
+package battleship.servidor;
+
+import battleship.protocol.Comando;
+import battleship.protocol.LectorMensajes;
+
+/**
+ * Limita los mensajes que acepta una conexión con un cubo de fichas por
+ * clase de comando: jugadas, consultas y el resto. Así un cliente que
+ * inunda DISPARAR no gasta las fichas de sus consultas ni al revés.
+ *
+ * Cada cubo se lleva como un único instante teórico (GCRA): cada mensaje
+ * admitido lo adelanta un intervalo y se descarta el que lo pondría más
+ * allá de la ráfaga permitida. No hay que reponer fichas con un
+ * temporizador ni reservar memoria: admitir() es una resta y una
+ * comparación. El lector de la conexión lo llama en cuanto el codec conoce
+ * el comando de la trama, antes de decodificar los parámetros o crear el
+ * String de un comando desconocido.
+ *
+ * Con MC los cubos son de la conexión y no de cada canal: abrir un canal
+ * no cuesta nada (basta un número nuevo en una trama), así que repartir el
+ * ritmo por canales daría a quien inunda tantas veces el cupo como canales
+ * pueda abrir.
+ *
+ * Sólo lo usa el hilo receptor de la conexión, así que no se sincroniza.
+ *
+ * @author Jorge González Navas
+ */
+public class LimiteComandos implements LectorMensajes.Admision {
+
+    private static final int JUGADAS = 0;
+    private static final int CONSULTAS = 1;
+    private static final int OTROS = 2;
+
+    // Nanosegundos entre mensajes de cada clase (0 = sin límite)
+    private final long[] intervalo = new long[3];
+
+    // Adelanto máximo del instante teórico sobre el actual (ns)
+    private final long[] tolerancia = new long[3];
+
+    // Instante teórico en que el cubo vuelve a estar lleno (System.nanoTime)
+    private final long[] teorico = new long[3];
+
+    // Mensajes descartados desde el último admitido
+    private long descartesSeguidos;
+
+    /**
+     * Crea los cubos de una conexión.
+     *
+     * @param ritmoJugadas Jugadas por segundo (0 = sin límite)
+     * @param ritmoConsultas Consultas por segundo (0 = sin límite)
+     * @param ritmoOtros Resto de mensajes por segundo (0 = sin límite)
+     * @param rafaga Segundos de ritmo que se pueden gastar de golpe
+     */
+    public LimiteComandos(long ritmoJugadas, long ritmoConsultas, long ritmoOtros, long rafaga) {
+        configurar(JUGADAS, ritmoJugadas, rafaga);
+        configurar(CONSULTAS, ritmoConsultas, rafaga);
+        configurar(OTROS, ritmoOtros, rafaga);
+        long ahora = System.nanoTime();
+        for (int i = 0; i < teorico.length; i++) {
+            teorico[i] = ahora;
+        }
+    }
+
+    private void configurar(int clase, long ritmo, long rafaga) {
+        if (ritmo > 0) {
+            intervalo[clase] = 1000000000L / ritmo;
+            // Al menos un mensaje, aunque la ráfaga sea 0
+            tolerancia[clase] = Math.max(intervalo[clase], Math.max(0, rafaga) * 1000000000L);
+        }
+    }
+
+    /**
+     * Gasta una ficha del cubo del comando.
+     *
+     * @param tipo Comando recibido (null si es desconocido)
+     * @return true si se admite, false si hay que descartarlo
+     */
+    @Override
+    public boolean admitir(Comando tipo) {
+        int clase = clase(tipo);
+        long paso = intervalo[clase];
+        if (paso == 0) {
+            descartesSeguidos = 0;
+            return true;
+        }
+        long ahora = System.nanoTime();
+        long siguiente = Math.max(teorico[clase], ahora) + paso;
+        if (siguiente - ahora > tolerancia[clase]) {
+            descartesSeguidos++;
+            return false;
+        }
+        teorico[clase] = siguiente;
+        descartesSeguidos = 0;
+        return true;
+    }
+
+    /**
+     * Mensajes descartados desde el último que se admitió.
+     *
+     * @return Descartes seguidos
+     */
+    public long getDescartesSeguidos() {
+        return descartesSeguidos;
+    }
+
+    private static int clase(Comando tipo) {
+        if (tipo == null) {
+            return OTROS;
+        }
+        switch (tipo) {
+            case COLOCAR_BARCO:
+            case LISTO:
+            case DISPARAR:
+                return JUGADAS;
+            case OBSERVAR_PARTIDA:
+            case VER_REPETICION:
+            case LISTAR_REPETICIONES:
+            case CONSULTAR_PUNTUACION:
+            case LISTAR_PARTIDAS:
+            case ESTADO_EMPAREJAMIENTO:
+            case ESTADO_NODO:
+            case ESTADO_REPLICA:
+            case ESTADO_ANALITICA:
+                return CONSULTAS;
+            default:
+                return OTROS;
+        }
+    }
+}
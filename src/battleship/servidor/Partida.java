@@ -1,7 +1,21 @@
 package battleship.servidor;
 
+import battleship.eventos.EventoEsperaPartida;
+import battleship.eventos.EventoPartidaIniciada;
 import battleship.model.*;
+import battleship.persistencia.EventoDiario;
+import battleship.protocol.Comando;
+import battleship.protocol.Mensaje;
+import battleship.protocol.TramaFija;
+import battleship.util.RuedaTemporizadores;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Jorge González Navas
@@ -31,8 +45,61 @@ public class Partida {
     // Turno actual (1 o 2)
     private int turnoActual;
     
+    // Número de cambios de turno (identifica el turno en curso)
+    private long secuenciaTurno;
+    
+    // Reloj del turno en curso (se cancela en cambiarTurno)
+    private RuedaTemporizadores.Temporizador relojTurno;
+    
+    // Instante (ms) en que empezó el turno en curso
+    private long inicioTurno;
+    
+    // Valor de secuencia que acepta cualquier turno (disparos de los clientes)
+    public static final long CUALQUIER_TURNO = -1;
+    
+    private static final Random random = new Random();
+    
+    // Espectadores suscritos (se recorren en cada jugada y cambian poco)
+    private final CopyOnWriteArrayList<Espectador> espectadores = new CopyOnWriteArrayList<Espectador>();
+    
+    // Evita anunciar el final a los espectadores más de una vez
+    private final AtomicBoolean finAnunciado = new AtomicBoolean(false);
+    
+    // Casillas disparadas en orden (fila * 10 + columna), para la repetición
+    private final byte[] disparos = new byte[2 * 100];
+    private int numDisparos;
+    
+    // Ganador (1 o 2) o 0 si la partida no terminó con uno
+    private int ganador;
+    
+    // Cuenta para la clasificación (se creó desde la cola clasificatoria)
+    private final boolean clasificatoria;
+    
+    // Secuencia en el diario del último evento de la partida (0 = ninguno)
+    private long ultimoEvento;
+    
+    // Evita registrar el fin en el diario más de una vez
+    private boolean finRegistrado;
+    
+    // Se están reaplicando eventos del diario o de la réplica: esos disparos
+    // ya pasaron por la analítica cuando se jugaron
+    private boolean reaplicando;
+    
+    // Instante de creación (ms), para la duración de la partida
+    private final long creada = System.currentTimeMillis();
+    
+    // Instante en que se finalizó (ms, 0 = sigue abierta)
+    private long finalizada;
+    
+    /**
+     * Monitor de la partida. Tiene clase propia para que las esperas que
+     * registra la JVM (jdk.JavaMonitorEnter) se distingan de otros locks.
+     */
+    private static final class Cerrojo {
+    }
+    
     // Lock para sincronización
-    private final Object lock = new Object();
+    private final Cerrojo lock = new Cerrojo();
     
     /**
      * Constructor de Partida.
@@ -40,7 +107,18 @@ public class Partida {
      * @param id ID de la partida
      */
     public Partida(int id) {
+        this(id, false);
+    }
+    
+    /**
+     * Constructor de Partida indicando si es clasificatoria.
+     * 
+     * @param id ID de la partida
+     * @param clasificatoria true si su resultado cuenta para la clasificación
+     */
+    public Partida(int id, boolean clasificatoria) {
         this.id = id;
+        this.clasificatoria = clasificatoria;
         this.estado = EstadoPartida.ESPERANDO_JUGADOR;
         this.turnoActual = 1;
     }
@@ -54,6 +132,57 @@ public class Partida {
         return id;
     }
     
+    /**
+     * Instante en que se creó la partida.
+     * 
+     * @return Milisegundos desde la época
+     */
+    public long getCreada() {
+        return creada;
+    }
+    
+    /**
+     * Instante en que se finalizó la partida.
+     * 
+     * @return Milisegundos desde la época o 0 si no ha terminado
+     */
+    public long getFinalizada() {
+        synchronized (lock) {
+            return finalizada;
+        }
+    }
+    
+    /**
+     * Número de disparos hechos en la partida.
+     * 
+     * @return Disparos
+     */
+    public int getNumDisparos() {
+        synchronized (lock) {
+            return numDisparos;
+        }
+    }
+    
+    /**
+     * Indica si el resultado de la partida cuenta para la clasificación.
+     * 
+     * @return true si es clasificatoria
+     */
+    public boolean isClasificatoria() {
+        return clasificatoria;
+    }
+    
+    /**
+     * Obtiene el ganador de la partida.
+     * 
+     * @return 1, 2 o 0 si no ha terminado con un ganador
+     */
+    public int getGanador() {
+        synchronized (lock) {
+            return ganador;
+        }
+    }
+    
     /**
      * Obtiene el estado de la partida.
      * 
@@ -73,13 +202,30 @@ public class Partida {
      * @return true si se agregó exitosamente, false si la partida está completa
      */
     public boolean agregarJugador(String nombre, Socket socket) {
+        return agregarJugador(nombre, socket, null);
+    }
+    
+    /**
+     * Agrega un jugador que podrá reanudar la sesión con un token.
+     * 
+     * @param nombre Nombre del jugador
+     * @param socket Socket de conexión del jugador
+     * @param token Token de reanudación o null
+     * @return true si se agregó exitosamente, false si la partida está completa
+     */
+    public boolean agregarJugador(String nombre, Socket socket, String token) {
+        EventoEsperaPartida espera = new EventoEsperaPartida();
+        espera.begin();
         synchronized (lock) {
+            espera.entrar(id, "UNIR");
             if (jugador1 == null) {
-                jugador1 = new JugadorPartida(nombre, socket);
+                jugador1 = new JugadorPartida(nombre, socket, token);
+                registrar(EventoDiario.creada(id, nombre, token));
                 return true;
             } else if (jugador2 == null) {
-                jugador2 = new JugadorPartida(nombre, socket);
+                jugador2 = new JugadorPartida(nombre, socket, token);
                 estado = EstadoPartida.COLOCANDO_BARCOS;
+                registrar(EventoDiario.unido(id, nombre, token));
                 return true;
             }
             return false;
@@ -145,6 +291,37 @@ public class Partida {
         }
     }
     
+    /**
+     * Indica si un jugador ha colocado ya toda su flota.
+     * 
+     * @param socket Socket del jugador
+     * @return true si tiene los cinco barcos en el tablero
+     */
+    public boolean flotaColocada(Socket socket) {
+        synchronized (lock) {
+            JugadorPartida jugador = obtenerJugador(socket);
+            return jugador != null && jugador.tieneTablero() && jugador.getTablero().todosBarcoColocados();
+        }
+    }
+    
+    /**
+     * Barco del rival hundido por un disparo. Se consulta con el lock para
+     * no leer un tablero que ya se haya devuelto a la reserva.
+     * 
+     * @param socket Socket del tirador
+     * @param coord Casilla del disparo
+     * @return Barco hundido o null si no hay ninguno
+     */
+    public Barco obtenerBarcoHundido(Socket socket, Coordenada coord) {
+        synchronized (lock) {
+            JugadorPartida rival = obtenerRival(socket);
+            if (rival == null || !rival.tieneTablero()) {
+                return null;
+            }
+            return rival.getTablero().obtenerBarcoHundido(coord);
+        }
+    }
+    
     /**
      * Obtiene el jugador asociado a un socket.
      * 
@@ -162,6 +339,31 @@ public class Partida {
         }
     }
     
+    /**
+     * Coloca un barco en el tablero de un jugador y lo registra en el diario.
+     * 
+     * @param socket Socket del jugador
+     * @param barco Barco a colocar
+     * @param inicio Casilla inicial
+     * @param orientacion Orientación del barco
+     * @return true si se colocó, false si no cabe, choca o el jugador no está
+     */
+    public boolean colocarBarco(Socket socket, Barco barco, Coordenada inicio, Barco.Orientacion orientacion) {
+        EventoEsperaPartida espera = new EventoEsperaPartida();
+        espera.begin();
+        synchronized (lock) {
+            espera.entrar(id, "COLOCAR_BARCO");
+            JugadorPartida jugador = obtenerJugador(socket);
+            if (estado == EstadoPartida.FINALIZADA || jugador == null
+                    || !jugador.getTablero().colocarBarco(barco, inicio, orientacion)) {
+                return false;
+            }
+            registrar(EventoDiario.barco(id, numeroDe(jugador), barco.getTipo().ordinal(),
+                inicio.getFila(), inicio.getColumna(), orientacion.ordinal()));
+            return true;
+        }
+    }
+    
     /**
      * Marca que un jugador está listo (terminó de colocar barcos).
      * @param socket Socket del jugador que está listo
@@ -169,21 +371,31 @@ public class Partida {
     public void marcarJugadorListo(Socket socket) {
         boolean iniciarJuego = false;
         
+        EventoEsperaPartida espera = new EventoEsperaPartida();
+        espera.begin();
         synchronized (lock) {
+            espera.entrar(id, "LISTO");
             JugadorPartida jugador = obtenerJugador(socket);
             if (jugador != null) {
                 jugador.setListo(true);
+                registrar(EventoDiario.listo(id, numeroDe(jugador)));
                 
                 // Si soy el último en estar listo, doy la señal
                 if (jugador1.isListo() && jugador2.isListo()) {
                     estado = EstadoPartida.EN_CURSO;
                     iniciarJuego = true;
+                    programarRelojTurno();
                 }
             }
         }
         
         // Fuera del lock, iniciamos si corresponde
         if (iniciarJuego) {
+            EventoPartidaIniciada evento = new EventoPartidaIniciada();
+            if (evento.shouldCommit()) {
+                evento.partida = id;
+                evento.commit();
+            }
             System.out.println("Partida " + id + " iniciada (ambos listos)");
             // No notificamos aquí directamente porque necesitamos enviar mensajes a ambos.
             // Dejamos que el ManejadorCliente que llamó a este método se encargue, 
@@ -223,11 +435,43 @@ public class Partida {
     
     /**
      * Cambia el turno al siguiente jugador.
-     * Alterna entre jugador 1 y jugador 2.
+     * Alterna entre jugador 1 y jugador 2, descuenta el tiempo consumido
+     * y reinicia el reloj para el nuevo jugador en turno.
      */
     public void cambiarTurno() {
         synchronized (lock) {
+            JugadorPartida saliente = (turnoActual == 1) ? jugador1 : jugador2;
+            if (saliente != null) {
+                saliente.consumirTiempo(System.currentTimeMillis() - inicioTurno);
+            }
             turnoActual = (turnoActual == 1) ? 2 : 1;
+            secuenciaTurno++;
+            programarRelojTurno();
+        }
+    }
+    
+    /**
+     * Obtiene el número de cambios de turno realizados.
+     * 
+     * @return Secuencia del turno actual
+     */
+    public long getSecuenciaTurno() {
+        synchronized (lock) {
+            return secuenciaTurno;
+        }
+    }
+    
+    /**
+     * Obtiene el jugador que tiene el turno.
+     * 
+     * @return Jugador en turno o null si la partida no está en curso
+     */
+    public JugadorPartida getJugadorEnTurno() {
+        synchronized (lock) {
+            if (estado != EstadoPartida.EN_CURSO) {
+                return null;
+            }
+            return (turnoActual == 1) ? jugador1 : jugador2;
         }
     }
     
@@ -238,32 +482,608 @@ public class Partida {
      * @param fila Fila del disparo (0-9)
      * @param columna Columna del disparo (0-9)
      * @return ResultadoDisparo indicando el resultado (AGUA, TOCADO, HUNDIDO, etc.)
+     *         o null si no es el turno del jugador
      */
     public ResultadoDisparo procesarDisparo(Socket socket, int fila, int columna) {
+        return procesarDisparo(socket, fila, columna, CUALQUIER_TURNO);
+    }
+    
+    /**
+     * Procesa un disparo comprobando de forma atómica que el jugador tiene
+     * el turno. Si el disparo es válido y la partida sigue, el turno pasa
+     * al rival dentro del mismo lock, de modo que un disparo automático por
+     * tiempo y uno del cliente nunca se aplican ambos.
+     * 
+     * @param socket Socket del jugador que dispara
+     * @param fila Fila del disparo (0-9)
+     * @param columna Columna del disparo (0-9)
+     * @param secuencia Turno esperado o CUALQUIER_TURNO
+     * @return Resultado del disparo o null si no es su turno
+     * @throws IllegalArgumentException Si la casilla está fuera del tablero
+     */
+    public ResultadoDisparo procesarDisparo(Socket socket, int fila, int columna, long secuencia) {
+        // Fuera del tablero no se anota, no se guarda y no gasta el turno
+        Coordenada coord = new Coordenada(fila, columna);
+        if (!coord.esValida()) {
+            throw new IllegalArgumentException("Disparo fuera del tablero: " + fila + "," + columna);
+        }
+        EventoEsperaPartida espera = new EventoEsperaPartida();
+        espera.begin();
         synchronized (lock) {
+            espera.entrar(id, "DISPARO");
+            if (estado != EstadoPartida.EN_CURSO || !esTurnoDeJugador(socket)) {
+                return null;
+            }
+            if (secuencia != CUALQUIER_TURNO && secuencia != secuenciaTurno) {
+                return null;
+            }
             JugadorPartida rival = obtenerRival(socket);
             if (rival == null) {
                 return null;
             }
             
-            Coordenada coord = new Coordenada(fila, columna);
             ResultadoDisparo resultado = rival.getTablero().recibirDisparo(coord);
+            if (resultado == ResultadoDisparo.YA_DISPARADO) {
+                return resultado; // Conserva el turno
+            }
+            registrar(EventoDiario.disparo(id, turnoActual, fila, columna));
+            int anteriores = numDisparos;
+            disparos[numDisparos++] = (byte) (fila * 10 + columna);
             
             // Verificar si el rival perdió
-            if (rival.getTablero().todosBarcosHundidos()) {
+            boolean gana = rival.getTablero().todosBarcosHundidos();
+            if (gana) {
+                ganador = turnoActual;
                 estado = EstadoPartida.FINALIZADA;
+                cancelarRelojTurno();
+            } else {
+                cambiarTurno();
+            }
+            if (!reaplicando) {
+                analizarDisparo(rival.getTablero(), coord, resultado, anteriores, gana);
             }
             
             return resultado;
         }
     }
     
+    /**
+     * Pasa un disparo aplicado a la analítica. Sólo resume el disparo en un
+     * long y lo encola sin lock; la agregación la hace otro hilo. Como los
+     * turnos se alternan, los dos primeros disparos son el primero de cada
+     * jugador y quien gana ha disparado la mitad (redondeando hacia arriba).
+     * Debe llamarse con el lock tomado.
+     * 
+     * @param objetivo Tablero que recibió el disparo
+     * @param coord Casilla del disparo
+     * @param resultado Resultado del disparo
+     * @param anteriores Disparos de la partida antes de éste
+     * @param gana true si con este disparo termina la partida
+     */
+    private void analizarDisparo(Tablero objetivo, Coordenada coord, ResultadoDisparo resultado, int anteriores,
+            boolean gana) {
+        Barco.TipoBarco hundido = null;
+        int orden = 0;
+        if (resultado == ResultadoDisparo.HUNDIDO) {
+            Barco barco = objetivo.obtenerBarcoHundido(coord);
+            if (barco != null) {
+                hundido = barco.getTipo();
+                for (Barco otro : objetivo.getBarcos()) {
+                    if (otro.estaHundido()) {
+                        orden++;
+                    }
+                }
+            }
+        }
+        AnaliticaDisparos.COMPARTIDA.registrar(id, AnaliticaDisparos.codificar(coord.getFila(), coord.getColumna(),
+            resultado != ResultadoDisparo.AGUA, anteriores < 2, hundido, orden, gana ? (anteriores + 2) / 2 : 0));
+    }
+    
+    /**
+     * Elige una casilla al azar del tablero rival para el jugador en turno.
+     * 
+     * @return Coordenada no disparada o null si no hay partida en curso
+     */
+    public Coordenada elegirDisparoAutomatico() {
+        synchronized (lock) {
+            JugadorPartida enTurno = getJugadorEnTurno();
+            if (enTurno == null) {
+                return null;
+            }
+            JugadorPartida rival = (enTurno == jugador1) ? jugador2 : jugador1;
+            return rival.getTablero().obtenerCasillaNoDisparada(random);
+        }
+    }
+    
+    /**
+     * Indica si el jugador en turno ha agotado su tiempo total de partida.
+     * 
+     * @return true si hay límite total y se ha consumido
+     */
+    public boolean reservaAgotada() {
+        synchronized (lock) {
+            JugadorPartida enTurno = getJugadorEnTurno();
+            if (enTurno == null || Configuracion.TIEMPO_PARTIDA <= 0) {
+                return false;
+            }
+            return enTurno.getTiempoRestante() - (System.currentTimeMillis() - inicioTurno) <= 0;
+        }
+    }
+    
+    /**
+     * Da por perdida la partida al jugador en turno por agotar su tiempo.
+     * 
+     * @param secuencia Turno en el que venció el reloj
+     * @return Jugador que pierde o null si el turno ya no es el mismo
+     */
+    public JugadorPartida abandonarPorTiempo(long secuencia) {
+        synchronized (lock) {
+            JugadorPartida enTurno = getJugadorEnTurno();
+            if (enTurno == null || secuencia != secuenciaTurno) {
+                return null;
+            }
+            ganador = (turnoActual == 1) ? 2 : 1;
+            estado = EstadoPartida.FINALIZADA;
+            cancelarRelojTurno();
+            return enTurno;
+        }
+    }
+    
+    /**
+     * Parámetros de reloj que acompañan a TU_TURNO: tiempo restante de la
+     * jugada y, si hay límite total, tiempo de reflexión restante.
+     * 
+     * @return Parámetros (vacío si no hay reloj)
+     */
+    public String[] parametrosReloj() {
+        synchronized (lock) {
+            JugadorPartida enTurno = getJugadorEnTurno();
+            if (enTurno == null || (Configuracion.TIEMPO_JUGADA <= 0 && Configuracion.TIEMPO_PARTIDA <= 0)) {
+                return new String[0];
+            }
+            long transcurrido = System.currentTimeMillis() - inicioTurno;
+            long jugada = Math.max(0, limiteTurno(enTurno) - transcurrido);
+            if (Configuracion.TIEMPO_PARTIDA <= 0) {
+                return new String[]{String.valueOf(jugada)};
+            }
+            long reserva = Math.max(0, enTurno.getTiempoRestante() - transcurrido);
+            return new String[]{String.valueOf(jugada), String.valueOf(reserva)};
+        }
+    }
+    
+    /**
+     * Tiempo máximo del turno para un jugador: el menor entre el límite por
+     * jugada y su tiempo total restante (0 si no hay límite).
+     */
+    private long limiteTurno(JugadorPartida jugador) {
+        long limite = Configuracion.TIEMPO_JUGADA;
+        if (Configuracion.TIEMPO_PARTIDA > 0) {
+            long reserva = jugador.getTiempoRestante();
+            limite = (limite <= 0) ? reserva : Math.min(limite, reserva);
+        }
+        return limite;
+    }
+    
+    /**
+     * Arranca el reloj del jugador en turno en la rueda compartida.
+     * Debe llamarse con el lock tomado.
+     */
+    private void programarRelojTurno() {
+        if (ServidorBattleship.esReserva()) {
+            return; // La copia de la reserva no lleva reloj hasta el relevo
+        }
+        cancelarRelojTurno();
+        inicioTurno = System.currentTimeMillis();
+        JugadorPartida enTurno = (turnoActual == 1) ? jugador1 : jugador2;
+        long limite = limiteTurno(enTurno);
+        if (limite <= 0 && Configuracion.TIEMPO_PARTIDA <= 0) {
+            return; // Sin reloj
+        }
+        final long secuencia = secuenciaTurno;
+        relojTurno = ServidorBattleship.getRueda().programar(new Runnable() {
+            public void run() {
+                ServidorBattleship.turnoAgotado(Partida.this, secuencia);
+            }
+        }, Math.max(0, limite), TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Vuelve a arrancar el reloj del turno de una partida reconstruida, que
+     * cuenta desde que se publica.
+     */
+    void rearmarReloj() {
+        synchronized (lock) {
+            if (estado == EstadoPartida.EN_CURSO) {
+                programarRelojTurno();
+            }
+        }
+    }
+    
+    /**
+     * Cancela el reloj del turno en curso. Debe llamarse con el lock tomado.
+     */
+    private void cancelarRelojTurno() {
+        ServidorBattleship.getRueda().cancelar(relojTurno);
+        relojTurno = null;
+    }
+    
+    /**
+     * Guarda el puesto de un jugador que ha perdido la conexión durante el
+     * plazo indicado. Sólo se hace con partidas en curso y jugadores con token.
+     * 
+     * @param socket Socket que se ha cerrado
+     * @param plazo Milisegundos que tiene para volver
+     * @return Jugador suspendido o null si no se le guarda el puesto
+     */
+    public JugadorPartida suspenderJugador(Socket socket, long plazo) {
+        synchronized (lock) {
+            final JugadorPartida jugador = obtenerJugador(socket);
+            if (estado != EstadoPartida.EN_CURSO || jugador == null || jugador.getToken() == null) {
+                return null;
+            }
+            jugador.setAusente(true);
+            jugador.setGracia(ServidorBattleship.getRueda().programar(new Runnable() {
+                public void run() {
+                    ServidorBattleship.graciaAgotada(Partida.this, jugador);
+                }
+            }, plazo, TimeUnit.MILLISECONDS));
+            return jugador;
+        }
+    }
+    
+    /**
+     * Asocia una nueva conexión al jugador con el token indicado.
+     * Vale también si la conexión anterior aún no se ha dado por perdida.
+     * 
+     * @param token Token de reanudación
+     * @param socket Nuevo socket del jugador
+     * @return Socket anterior del jugador o null si no se puede reanudar
+     */
+    public Socket reanudarJugador(String token, Socket socket) {
+        synchronized (lock) {
+            if (estado != EstadoPartida.EN_CURSO || token == null) {
+                return null;
+            }
+            JugadorPartida jugador = null;
+            if (jugador1 != null && token.equals(jugador1.getToken())) {
+                jugador = jugador1;
+            } else if (jugador2 != null && token.equals(jugador2.getToken())) {
+                jugador = jugador2;
+            }
+            if (jugador == null) {
+                return null;
+            }
+            ServidorBattleship.getRueda().cancelar(jugador.getGracia());
+            jugador.setGracia(null);
+            jugador.setAusente(false);
+            Socket anterior = jugador.getSocket();
+            jugador.setSocket(socket);
+            return anterior;
+        }
+    }
+    
+    /**
+     * Da la partida por abandonada si el jugador sigue ausente al vencer su plazo.
+     * 
+     * @param jugador Jugador suspendido
+     * @return true si no volvió a tiempo y la partida queda finalizada
+     */
+    public boolean expulsarAusente(JugadorPartida jugador) {
+        synchronized (lock) {
+            if (!jugador.isAusente() || estado == EstadoPartida.FINALIZADA) {
+                return false;
+            }
+            ganador = (jugador == jugador1) ? 2 : 1;
+            estado = EstadoPartida.FINALIZADA;
+            cancelarRelojTurno();
+            return true;
+        }
+    }
+    
+    /**
+     * Parámetros de REANUDADO para un jugador: ID, rival y las instantáneas
+     * de ambos tableros tal como los ve él, tomadas de forma consistente.
+     * 
+     * @param jugador Jugador que reanuda
+     * @return Parámetros del mensaje
+     */
+    public String[] estadoReanudacion(JugadorPartida jugador) {
+        synchronized (lock) {
+            JugadorPartida rival = (jugador == jugador1) ? jugador2 : jugador1;
+            return new String[]{
+                String.valueOf(id),
+                rival.getNombre(),
+                jugador.capturarTablero(true).toBase64(),
+                rival.capturarTablero(false).toBase64()
+            };
+        }
+    }
+    
+    /**
+     * Instantáneas de los tableros para un espectador (sin barcos intactos).
+     * 
+     * @return Tableros del jugador 1 y 2 en base64, o null si falta un jugador
+     */
+    public String[] instantaneasPublicas() {
+        synchronized (lock) {
+            if (jugador1 == null || jugador2 == null) {
+                return null;
+            }
+            return new String[]{
+                jugador1.capturarTablero(false).toBase64(),
+                jugador2.capturarTablero(false).toBase64()
+            };
+        }
+    }
+    
+    /**
+     * Suscribe un espectador a los eventos de la partida.
+     * 
+     * @param espectador Espectador a suscribir
+     * @return false si la partida ya terminó
+     */
+    public boolean agregarEspectador(Espectador espectador) {
+        espectadores.add(espectador);
+        if (finAnunciado.get()) {
+            espectadores.remove(espectador);
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Da de baja a un espectador.
+     * 
+     * @param espectador Espectador a quitar
+     */
+    public void quitarEspectador(Espectador espectador) {
+        espectadores.remove(espectador);
+    }
+    
+    /**
+     * Indica si alguien observa la partida (para no construir eventos en vano).
+     * 
+     * @return true si hay espectadores
+     */
+    public boolean tieneEspectadores() {
+        return !espectadores.isEmpty();
+    }
+    
+    /**
+     * Envía un evento ya codificado a todos los espectadores. Nunca bloquea:
+     * cada espectador lo encola y lo escribe desde otro hilo.
+     * 
+     * @param evento Trama compartida por todos los espectadores
+     */
+    public void difundir(TramaFija evento) {
+        for (Espectador espectador : espectadores) {
+            if (!espectador.encolar(evento)) {
+                espectadores.remove(espectador);
+            }
+        }
+    }
+    
+    /**
+     * Anuncia el final a los espectadores (sólo la primera vez) y los da de baja.
+     * 
+     * @param ganador Nombre del ganador o null si la partida se abandonó
+     */
+    public void anunciarFin(String ganador) {
+        if (!finAnunciado.compareAndSet(false, true)) {
+            return;
+        }
+        if (!espectadores.isEmpty()) {
+            difundir(ganador != null
+                ? new TramaFija(Mensaje.FIN_PARTIDA, new String[]{ganador})
+                : TramaFija.de(Comando.FIN_PARTIDA));
+        }
+        espectadores.clear();
+    }
+    
     /**
      * Finaliza la partida.
      */
     public void finalizar() {
         synchronized (lock) {
             estado = EstadoPartida.FINALIZADA;
+            cancelarRelojTurno();
+            if (finalizada == 0) {
+                finalizada = System.currentTimeMillis();
+            }
+            if (!finRegistrado) {
+                finRegistrado = true;
+                registrar(EventoDiario.fin(id));
+            }
+        }
+    }
+    
+    /**
+     * Devuelve los tableros de los jugadores a la reserva. Se llama al
+     * eliminar la partida, cuando ya se archivó su repetición.
+     */
+    void liberarTableros() {
+        synchronized (lock) {
+            for (JugadorPartida jugador : new JugadorPartida[]{jugador1, jugador2}) {
+                if (jugador != null) {
+                    jugador.liberarTablero();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Repetición de la partida para el archivo. Sólo las partidas que
+     * llegaron a jugarse (ambas flotas completas) tienen repetición.
+     * 
+     * @return Repetición o null si la partida no llegó a empezar
+     */
+    public Repeticion crearRepeticion() {
+        synchronized (lock) {
+            if (jugador1 == null || jugador2 == null || !jugador1.isListo() || !jugador2.isListo()) {
+                return null;
+            }
+            return Repeticion.crear(id, System.currentTimeMillis(), jugador1.getNombre(), jugador2.getNombre(),
+                ganador, jugador1.getTablero(), jugador2.getTablero(), disparos, numDisparos);
+        }
+    }
+    
+    /**
+     * Secuencia en el diario del último cambio de la partida. Quien vaya a
+     * confirmar un cambio a los clientes espera a que esté persistido.
+     * 
+     * @return Secuencia o 0 si no se ha registrado nada
+     */
+    public long getUltimoEvento() {
+        synchronized (lock) {
+            return ultimoEvento;
+        }
+    }
+    
+    /**
+     * Registra un evento de la partida en el diario. Debe llamarse con el
+     * lock tomado, justo después de aplicar el cambio, para que el orden del
+     * diario sea el orden en que se aplicaron.
+     */
+    private void registrar(EventoDiario evento) {
+        long secuencia = ServidorBattleship.registrarEvento(evento);
+        if (secuencia > 0) {
+            ultimoEvento = secuencia;
+        }
+    }
+    
+    /**
+     * Número (1 o 2) de un jugador de la partida.
+     */
+    private int numeroDe(JugadorPartida jugador) {
+        return (jugador == jugador1) ? 1 : 2;
+    }
+    
+    /**
+     * Reaplica un evento del diario durante la recuperación. Los eventos que
+     * ya recoge la instantánea de la partida se ignoran, y los disparos no
+     * se vuelven a contar en la analítica.
+     * 
+     * @param evento Evento de la partida
+     */
+    void reaplicar(EventoDiario evento) {
+        synchronized (lock) {
+            if (evento.getSecuencia() <= ultimoEvento) {
+                return;
+            }
+            reaplicando = true;
+            try {
+                aplicar(evento);
+            } finally {
+                reaplicando = false;
+            }
+            ultimoEvento = evento.getSecuencia();
+        }
+    }
+    
+    /**
+     * Aplica un evento del diario. Debe llamarse con el lock tomado.
+     * 
+     * @param evento Evento de la partida
+     */
+    private void aplicar(EventoDiario evento) {
+        JugadorPartida jugador = (evento.getJugador() == 1) ? jugador1 : jugador2;
+        switch (evento.getTipo()) {
+            case CREADA:
+            case UNIDO:
+                agregarJugador(evento.getNombre(), new Socket(), evento.getToken());
+                break;
+            case BARCO:
+                if (jugador != null) {
+                    colocarBarco(jugador.getSocket(),
+                        new Barco(Barco.TipoBarco.values()[evento.getDato(0)]),
+                        new Coordenada(evento.getDato(1), evento.getDato(2)),
+                        Barco.Orientacion.values()[evento.getDato(3)]);
+                }
+                break;
+            case LISTO:
+                if (jugador != null) {
+                    marcarJugadorListo(jugador.getSocket());
+                }
+                break;
+            case DISPARO:
+                if (jugador != null) {
+                    procesarDisparo(jugador.getSocket(), evento.getDato(0), evento.getDato(1));
+                }
+                break;
+            case FIN:
+                finalizar();
+                break;
+            default:
+                break;
+        }
+    }
+    
+    /**
+     * Vuelca el estado de la partida para una instantánea del diario.
+     * El tiempo de reflexión consumido no se guarda.
+     * 
+     * @param salida Destino
+     * @throws IOException Si falla la escritura
+     */
+    void escribirInstantanea(DataOutputStream salida) throws IOException {
+        synchronized (lock) {
+            salida.writeInt(id);
+            salida.writeLong(ultimoEvento);
+            salida.writeByte(estado.ordinal());
+            salida.writeByte(turnoActual);
+            salida.writeLong(secuenciaTurno);
+            salida.writeByte(numDisparos);
+            salida.write(disparos, 0, numDisparos);
+            for (JugadorPartida jugador : new JugadorPartida[]{jugador1, jugador2}) {
+                salida.writeBoolean(jugador != null);
+                if (jugador != null) {
+                    salida.writeUTF(jugador.getNombre() != null ? jugador.getNombre() : "");
+                    salida.writeUTF(jugador.getToken() != null ? jugador.getToken() : "");
+                    salida.writeBoolean(jugador.isListo());
+                    salida.write(jugador.capturarTablero(true).toBytes());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Reconstruye una partida escrita con escribirInstantanea(). Los
+     * jugadores quedan con sockets sin conectar hasta que reanuden.
+     * 
+     * @param entrada Origen
+     * @return Partida reconstruida
+     * @throws IOException Si el contenido no es válido
+     */
+    static Partida leerInstantanea(DataInputStream entrada) throws IOException {
+        Partida partida = new Partida(entrada.readInt());
+        synchronized (partida.lock) {
+            partida.ultimoEvento = entrada.readLong();
+            partida.estado = EstadoPartida.values()[entrada.readByte()];
+            partida.turnoActual = entrada.readByte();
+            partida.secuenciaTurno = entrada.readLong();
+            partida.numDisparos = entrada.readUnsignedByte();
+            entrada.readFully(partida.disparos, 0, partida.numDisparos);
+            for (int i = 1; i <= 2; i++) {
+                if (!entrada.readBoolean()) {
+                    continue;
+                }
+                String nombre = entrada.readUTF();
+                String token = entrada.readUTF();
+                JugadorPartida jugador = new JugadorPartida(nombre, new Socket(), token.isEmpty() ? null : token);
+                jugador.setListo(entrada.readBoolean());
+                byte[] tablero = new byte[InstantaneaTablero.BYTES];
+                entrada.readFully(tablero);
+                jugador.getTablero().restaurar(InstantaneaTablero.desdeBytes(tablero));
+                if (i == 1) {
+                    partida.jugador1 = jugador;
+                } else {
+                    partida.jugador2 = jugador;
+                }
+            }
+            if (partida.estado == EstadoPartida.EN_CURSO) {
+                partida.programarRelojTurno();
+            }
         }
+        return partida;
     }
 }
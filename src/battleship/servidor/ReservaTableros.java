@@ -0,0 +1,65 @@
+package battleship.servidor;
+
+import battleship.model.Tablero;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Tableros de partidas ya terminadas, vaciados y listos para reutilizarse.
+ *
+ * Con mucha rotación de partidas (bots, partida rápida) cada una creaba dos
+ * tableros con su matriz de casillas y sus listas y los dejaba para el GC.
+ * Al eliminar una partida sus tableros vuelven aquí y la siguiente los
+ * toma en lugar de crear otros. La reserva está acotada: lo que no cabe se
+ * deja al GC, y si está vacía se crea un tablero nuevo.
+ *
+ * @author Jorge González Navas
+ */
+public class ReservaTableros {
+
+    // Reserva que usan las partidas del servidor
+    static final ReservaTableros COMPARTIDA = new ReservaTableros((int) Configuracion.RESERVA_TABLEROS);
+
+    // Tableros libres (null si la reserva está desactivada)
+    private final ArrayBlockingQueue<Tablero> libres;
+
+    /**
+     * Crea una reserva.
+     *
+     * @param capacidad Tableros libres que se guardan como mucho (0 = no se reutilizan)
+     */
+    public ReservaTableros(int capacidad) {
+        this.libres = (capacidad > 0) ? new ArrayBlockingQueue<Tablero>(capacidad) : null;
+    }
+
+    /**
+     * Toma un tablero vacío.
+     *
+     * @return Tablero de la reserva o uno nuevo si no queda ninguno
+     */
+    public Tablero tomar() {
+        Tablero tablero = (libres != null) ? libres.poll() : null;
+        return (tablero != null) ? tablero : new Tablero();
+    }
+
+    /**
+     * Devuelve un tablero que ya no usa nadie. Se vacía aquí, en el hilo
+     * que termina la partida, y no en el que empieza la siguiente.
+     *
+     * @param tablero Tablero a reutilizar
+     */
+    public void devolver(Tablero tablero) {
+        if (libres != null) {
+            tablero.reiniciar();
+            libres.offer(tablero);
+        }
+    }
+
+    /**
+     * Tableros libres en este momento.
+     *
+     * @return Número de tableros
+     */
+    public int getLibres() {
+        return (libres != null) ? libres.size() : 0;
+    }
+}
@@ -1,27 +1,59 @@
 package battleship.servidor;
 
+import battleship.cluster.AnilloConsistente;
+import battleship.eventos.EventoAdmision;
+import battleship.eventos.EventoMensaje;
+import battleship.eventos.EventoPartidaCreada;
+import battleship.eventos.EventoPartidaFinalizada;
+import battleship.persistencia.ArchivoRepeticiones;
+import battleship.persistencia.DiarioPartidas;
+import battleship.persistencia.EmisorReplica;
+import battleship.persistencia.EventoDiario;
+import battleship.persistencia.ReceptorReplica;
+import battleship.protocol.Capacidades;
+import battleship.protocol.Codec;
+import battleship.protocol.CodecBinario;
+import battleship.protocol.CodecTexto;
+import battleship.protocol.Comando;
+import battleship.protocol.EscritorCanal;
+import battleship.protocol.EscritorMensajes;
+import battleship.protocol.LectorMensajes;
 import battleship.protocol.Mensaje;
+import battleship.protocol.MensajeRecibido;
+import battleship.protocol.SalidaMensajes;
+import battleship.protocol.TramaFija;
+import battleship.servidor.Contadores.Contador;
 import battleship.model.*;
+import battleship.util.RuedaTemporizadores;
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * @author Jorge González Navas
  */
 public class ServidorBattleship {
     
-    // Puerto del servidor
-    private static final int PUERTO = 5001;
-    
     // Número máximo de partidas simultáneas
     private static final int MAX_PARTIDAS = 50;
     
@@ -31,77 +63,721 @@ public class ServidorBattleship {
     private static List<Partida> partidas = Collections.synchronizedList(new ArrayList<Partida>());
     
     // Caché de streams de salida por socket (thread-safe)
-    private static ConcurrentHashMap<Socket, PrintWriter> streamsPorSocket = new ConcurrentHashMap<>();
+    private static ConcurrentHashMap<Socket, SalidaMensajes> streamsPorSocket = new ConcurrentHashMap<>();
+    
+    // Partidas por token de reanudación de sus jugadores
+    private static final ConcurrentHashMap<String, Partida> partidasPorToken = new ConcurrentHashMap<String, Partida>();
+    
+    // Generador de tokens de reanudación (no deben poder adivinarse)
+    private static final SecureRandom generadorTokens = new SecureRandom();
+    
+    // Contador para IDs de partidas (atómico: el emparejamiento no toma el monitor de la lista)
+    private static final AtomicInteger contadorPartidas = new AtomicInteger(1);
+    
+    // Cola de emparejamiento automático
+    private static final Emparejador emparejador = new Emparejador();
+    
+    // Cola de partidas clasificatorias, por puntuación
+    private static final EmparejadorClasificado emparejadorClasificado = new EmparejadorClasificado(
+        (int) Configuracion.VENTANA_CLASIFICATORIA, (int) Configuracion.AMPLIACION_VENTANA,
+        (int) Configuracion.VENTANA_MAXIMA);
+    
+    // Puntuaciones de las partidas clasificatorias
+    private static Clasificacion clasificacion;
     
-    // Contador para IDs de partidas
-    private static int contadorPartidas = 1;
+    // Partidas abiertas, para listarlas sin recorrer la lista de partidas
+    private static final Vestibulo vestibulo = new Vestibulo(
+        (int) Configuracion.PAGINA_VESTIBULO, Configuracion.AVISO_VESTIBULO);
     
     // Pool de hilos para manejar conexiones
     private static ExecutorService pool = Executors.newCachedThreadPool();
     
+    // Rueda de temporizadores compartida (latidos, inactividad y turnos)
+    private static final RuedaTemporizadores rueda = new RuedaTemporizadores(
+        "rueda-temporizadores", Configuracion.TICK_RUEDA, TimeUnit.MILLISECONDS, 512);
+    
+    // TU_TURNO al empezar un turno sin reserva por partida: siempre es el mismo
+    private static final TramaFija TU_TURNO_INICIAL = (Configuracion.TIEMPO_JUGADA > 0)
+        ? new TramaFija(Mensaje.TU_TURNO, new String[]{String.valueOf(Configuracion.TIEMPO_JUGADA)})
+        : TramaFija.de(Comando.TU_TURNO);
+    
+    // Diario de partidas (null si está desactivado)
+    private static DiarioPartidas diario;
+    
+    // Mientras se reaplica el diario no se registran eventos nuevos
+    private static volatile boolean recuperando;
+    
+    // El servidor es la reserva de otro y aún no ha tomado el relevo
+    private static volatile boolean reserva;
+    
+    // Envío de los lotes del diario a la réplica (null si no se sirve)
+    private static EmisorReplica emisorReplica;
+    
+    // Estado de las partidas vivas, para las instantáneas del diario y de la réplica
+    private static final DiarioPartidas.FuenteEstado ESTADO_PARTIDAS = new DiarioPartidas.FuenteEstado() {
+        public void escribirInstantanea(DataOutputStream salida) throws IOException {
+            List<Partida> copia;
+            synchronized (partidas) {
+                salida.writeInt(contadorPartidas.get());
+                copia = new ArrayList<Partida>(partidas);
+            }
+            salida.writeInt(copia.size());
+            for (Partida partida : copia) {
+                partida.escribirInstantanea(salida);
+            }
+        }
+    };
+    
+    // Archivo de repeticiones (null si está desactivado)
+    private static ArchivoRepeticiones repeticiones;
+    
+    // Reparto de IDs de partida del clúster (null si es un servidor único)
+    private static AnilloConsistente anillo;
+    
+    // Archiva las repeticiones de un lote de partidas terminadas
+    private static final TrasPartida.Consumidor ARCHIVAR = new TrasPartida.Consumidor() {
+        public void procesar(List<Partida> lote) {
+            ArchivoRepeticiones archivo = repeticiones;
+            if (archivo == null) {
+                return;
+            }
+            List<Repeticion> repeticionesLote = new ArrayList<Repeticion>(lote.size());
+            for (Partida partida : lote) {
+                Repeticion repeticion = partida.crearRepeticion();
+                if (repeticion != null) {
+                    repeticionesLote.add(repeticion);
+                }
+            }
+            if (repeticionesLote.isEmpty()) {
+                return;
+            }
+            try {
+                archivo.guardar(repeticionesLote);
+            } catch (IOException e) {
+                System.err.println("No se pudieron archivar " + repeticionesLote.size() + " partidas: " + e.getMessage());
+            }
+        }
+    };
+    
+    // Pasa a la clasificación los resultados de las partidas clasificatorias
+    private static final TrasPartida.Consumidor PUNTUAR = new TrasPartida.Consumidor() {
+        public void procesar(List<Partida> lote) {
+            for (Partida partida : lote) {
+                puntuar(partida);
+            }
+        }
+    };
+    
+    // Devuelve los tableros a la reserva; va el último porque los demás los leen
+    private static final TrasPartida.Consumidor LIBERAR_TABLEROS = new TrasPartida.Consumidor() {
+        public void procesar(List<Partida> lote) {
+            for (Partida partida : lote) {
+                partida.liberarTableros();
+                System.out.println("Partida " + partida.getId() + " eliminada");
+            }
+        }
+    };
+    
+    // Estadísticas de las partidas terminadas
+    private static final EstadisticasPartidas estadisticas = new EstadisticasPartidas();
+    
+    // Lo que queda por hacer con cada partida eliminada, fuera del hilo que la elimina
+    private static final TrasPartida trasPartida = new TrasPartida((int) Configuracion.COLA_TRAS_PARTIDA,
+        (int) Configuracion.LOTE_TRAS_PARTIDA, new TrasPartida.Consumidor[]{estadisticas},
+        new TrasPartida.Consumidor[]{ARCHIVAR, PUNTUAR, LIBERAR_TABLEROS});
+    
     public static void main(String[] args) {
         System.out.println("====================================");
         System.out.println("       Servidor Battleship");
         System.out.println("====================================");
         
-        try (ServerSocket ss = new ServerSocket(PUERTO)) {
-            System.out.println("Servidor iniciado en puerto " + PUERTO);
+        iniciarCluster();
+        Map<Integer, Partida> replicadas = seguirPrimario();
+        iniciarRepeticiones();
+        iniciarDiario(replicadas);
+        iniciarReplica();
+        iniciarClasificacion();
+        
+        // Se acepta por canal para que cada socket tenga su SocketChannel
+        // (lo usa transferTo al enviar repeticiones); se usa en modo bloqueante.
+        // Una reserva que toma el relevo reutiliza el puerto del primario.
+        List<ServerSocketChannel> escuchas = new ArrayList<ServerSocketChannel>();
+        try {
+            abrirEscuchas(escuchas);
+            System.out.println("Servidor iniciado en puerto " + Configuracion.PUERTO);
             System.out.println("Esperando conexiones...\n");
             
-            while (true) {
-                Socket cliente = ss.accept();
-                System.out.println("Nueva conexión desde: " + cliente.getInetAddress());
-            
-                pool.execute(new ManejadorCliente(cliente));
+            // El hilo principal es el primer aceptador; los demás reparten
+            // entre ellos los sockets de escucha (o comparten el único)
+            for (int i = 1; i < Configuracion.ACEPTADORES; i++) {
+                final ServerSocketChannel ss = escuchas.get(i % escuchas.size());
+                Thread aceptador = new Thread(new Runnable() {
+                    public void run() {
+                        aceptar(ss);
+                    }
+                }, "aceptador-" + i);
+                aceptador.setDaemon(true);
+                aceptador.start();
             }
+            aceptar(escuchas.get(0));
             
         } catch (IOException e) {
             System.err.println("Error en el servidor: " + e.getMessage());
             e.printStackTrace();
         } finally {
+            for (ServerSocketChannel ss : escuchas) {
+                try {
+                    ss.close();
+                } catch (IOException e) {
+                    // Ignorar
+                }
+            }
             // Cerrar pool de hilos al finalizar
             pool.shutdown();
         }
     }
     
+    /**
+     * Abre los sockets de escucha del puerto de clientes. Con varios
+     * aceptadores se abre uno por hilo con SO_REUSEPORT, de modo que el
+     * núcleo reparte las conexiones entrantes entre ellos y cada hilo tiene
+     * su propia cola de aceptación. Si el sistema no admite SO_REUSEPORT
+     * todos los hilos aceptan del mismo socket.
+     *
+     * @param escuchas Lista donde se dejan los sockets abiertos
+     * @throws IOException Si no se puede escuchar en el puerto
+     */
+    private static void abrirEscuchas(List<ServerSocketChannel> escuchas) throws IOException {
+        int aceptadores = Math.max(1, Configuracion.ACEPTADORES);
+        ServerSocketChannel primero = ServerSocketChannel.open();
+        escuchas.add(primero);
+        boolean reusePort = aceptadores > 1
+            && primero.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        if (aceptadores > 1 && !reusePort) {
+            System.out.println("SO_REUSEPORT no disponible: " + aceptadores + " hilos aceptan del mismo socket");
+        }
+        int sockets = reusePort ? aceptadores : 1;
+        for (int i = 1; i < sockets; i++) {
+            escuchas.add(ServerSocketChannel.open());
+        }
+        for (ServerSocketChannel ss : escuchas) {
+            ss.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if (reusePort) {
+                ss.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            ss.bind(new InetSocketAddress(Configuracion.PUERTO), Configuracion.COLA_ACEPTACION);
+        }
+        if (aceptadores > 1) {
+            System.out.println(aceptadores + " aceptadores, " + sockets + " socket(s) de escucha");
+        }
+    }
+    
+    /**
+     * Bucle de un aceptador: acepta conexiones y las pasa al pool sin hacer
+     * nada más con ellas, para volver cuanto antes a accept().
+     *
+     * @param ss Socket de escucha del que acepta
+     */
+    private static void aceptar(ServerSocketChannel ss) {
+        while (ss.isOpen()) {
+            try {
+                Socket cliente = ss.accept().socket();
+                Contadores.incrementar(Contador.CONEXIONES_ACEPTADAS);
+                System.out.println("Nueva conexión desde: " + cliente.getInetAddress());
+                
+                pool.execute(new ManejadorCliente(cliente));
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                // Por ejemplo, demasiados descriptores abiertos: se sigue
+                // aceptando tras una pausa para no girar en vacío
+                System.err.println("Error aceptando conexión: " + e.getMessage());
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Si el servidor es un nodo de un clúster, construye el anillo con el
+     * que se reparten los IDs de partida.
+     */
+    private static void iniciarCluster() {
+        if (Configuracion.NODOS_CLUSTER.isEmpty()) {
+            return;
+        }
+        anillo = AnilloConsistente.desdeLista(Configuracion.NODOS_CLUSTER);
+        if (Configuracion.NODO_CLUSTER < 0 || Configuracion.NODO_CLUSTER >= anillo.getNumNodos()) {
+            System.err.println("battleship.cluster.nodo debe estar entre 0 y " + (anillo.getNumNodos() - 1));
+            System.exit(1);
+        }
+        System.out.println("Nodo " + Configuracion.NODO_CLUSTER + " de " + anillo.getNumNodos()
+            + " del clúster (" + anillo.getNodo(Configuracion.NODO_CLUSTER) + ")");
+    }
+    
+    /**
+     * Abre el archivo de repeticiones y carga sus índices.
+     */
+    private static void iniciarRepeticiones() {
+        if (Configuracion.DIR_REPETICIONES.isEmpty()) {
+            return;
+        }
+        try {
+            repeticiones = new ArchivoRepeticiones(new File(Configuracion.DIR_REPETICIONES),
+                Configuracion.SEGMENTO_REPETICIONES);
+            reservarIdsHasta(repeticiones.getMaximoId());
+        } catch (IOException e) {
+            System.err.println("No se pudo abrir el archivo de repeticiones: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Carga la clasificación y programa el barrido de la cola clasificatoria.
+     */
+    private static void iniciarClasificacion() {
+        clasificacion = new Clasificacion(Configuracion.ARCHIVO_CLASIFICACION.isEmpty()
+            ? null : new File(Configuracion.ARCHIVO_CLASIFICACION));
+        programarBarrido();
+    }
+    
+    /**
+     * Barrido periódico de la cola clasificatoria: empareja a quienes ya
+     * caben en la ventana ampliada. Corre en la rueda, así que las partidas
+     * se crean en el pool.
+     */
+    private static void programarBarrido() {
+        rueda.programar(new Runnable() {
+            public void run() {
+                for (final Emparejador.Solicitud[] pareja : emparejadorClasificado.barrer()) {
+                    pool.execute(new Runnable() {
+                        public void run() {
+                            iniciarPartidaEmparejada(pareja[0], pareja[1], true);
+                        }
+                    });
+                }
+                programarBarrido();
+            }
+        }, Configuracion.BARRIDO_CLASIFICATORIA, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Pasa el resultado de una partida clasificatoria a la clasificación,
+     * que lo aplica en su propio hilo. Las partidas sin ganador (abandonadas
+     * sin que nadie se quedara con la victoria) no cuentan.
+     * 
+     * @param partida Partida terminada
+     */
+    private static void puntuar(Partida partida) {
+        int ganador = partida.getGanador();
+        if (!partida.isClasificatoria() || ganador == 0 || clasificacion == null) {
+            return;
+        }
+        JugadorPartida j1 = partida.getJugador1();
+        JugadorPartida j2 = partida.getJugador2();
+        if (ganador == 1) {
+            clasificacion.registrarResultado(j1.getNombre(), j2.getNombre());
+        } else {
+            clasificacion.registrarResultado(j2.getNombre(), j1.getNombre());
+        }
+    }
+    
+    /**
+     * Busca la repetición archivada de una partida.
+     * 
+     * @param id ID de la partida
+     * @return Ubicación o null si no está archivada o no hay archivo
+     */
+    static ArchivoRepeticiones.Ubicacion buscarRepeticion(int id) {
+        return (repeticiones != null) ? repeticiones.buscar(id) : null;
+    }
+    
+    /**
+     * Partidas archivadas de un jugador.
+     * 
+     * @param jugador Nombre del jugador
+     * @return IDs de sus partidas, de la más antigua a la más reciente
+     */
+    static List<Integer> repeticionesDe(String jugador) {
+        return (repeticiones != null) ? repeticiones.partidasDe(jugador) : Collections.<Integer>emptyList();
+    }
+    
+    /**
+     * Si el servidor es la reserva de otro, sigue al primario (sin atender
+     * clientes) hasta que lo pierde.
+     * 
+     * @return Partidas replicadas o null si el servidor no es una reserva
+     */
+    private static Map<Integer, Partida> seguirPrimario() {
+        if (Configuracion.PRIMARIO_REPLICA.isEmpty()) {
+            return null;
+        }
+        Map<Integer, Partida> replicadas = new HashMap<Integer, Partida>();
+        ReceptorReplica receptor = new ReceptorReplica(Configuracion.PRIMARIO_REPLICA, Configuracion.PLAZO_REPLICA);
+        System.out.println("Reserva de " + Configuracion.PRIMARIO_REPLICA);
+        reserva = true;
+        recuperando = true;
+        long secuencia = receptor.seguir(restaurarEn(replicadas));
+        recuperando = false;
+        reserva = false;
+        System.out.println("Tomando el relevo: " + replicadas.size() + " partidas replicadas hasta el evento "
+            + secuencia + " (retraso " + receptor.getRetraso() + " ms)");
+        return replicadas;
+    }
+    
+    /**
+     * Abre el diario de partidas, reconstruye las partidas en curso que dejó
+     * una ejecución anterior y arranca el hilo escritor. Las partidas
+     * recuperadas, y las que vienen de la réplica de un primario caído,
+     * quedan con ambos jugadores ausentes hasta que reanuden con su token;
+     * las que no se pueden reanudar se descartan.
+     * 
+     * @param replicadas Partidas recibidas como reserva o null
+     */
+    private static void iniciarDiario(Map<Integer, Partida> replicadas) {
+        if (Configuracion.DIR_DIARIO.isEmpty()) {
+            if (replicadas != null) {
+                instalarRecuperadas(replicadas.values());
+            }
+            return;
+        }
+        DiarioPartidas.PoliticaFsync politica;
+        try {
+            politica = DiarioPartidas.PoliticaFsync.valueOf(Configuracion.FSYNC_DIARIO);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Política de fsync inválida: " + Configuracion.FSYNC_DIARIO);
+            politica = DiarioPartidas.PoliticaFsync.INTERVALO;
+        }
+        DiarioPartidas nuevo = new DiarioPartidas(new File(Configuracion.DIR_DIARIO), politica,
+            Configuracion.INTERVALO_FSYNC, (int) Configuracion.SEGMENTO_DIARIO, Configuracion.COMPACTAR_DIARIO);
+        
+        Map<Integer, Partida> recuperadas = new HashMap<Integer, Partida>();
+        recuperando = true;
+        try {
+            int eventos = nuevo.recuperar(restaurarEn(recuperadas));
+            if (replicadas != null) {
+                // Lo replicado es más reciente que el diario propio de la reserva
+                recuperadas.putAll(replicadas);
+                for (Partida partida : replicadas.values()) {
+                    nuevo.avanzarSecuencia(partida.getUltimoEvento());
+                }
+            }
+            int reanudables = instalarRecuperadas(recuperadas.values());
+            System.out.println("Diario: " + eventos + " eventos reaplicados, "
+                + reanudables + " partidas pendientes de reanudar");
+        } catch (IOException e) {
+            System.err.println("No se pudo recuperar el diario: " + e.getMessage());
+            return;
+        } finally {
+            recuperando = false;
+        }
+        
+        try {
+            nuevo.iniciar(ESTADO_PARTIDAS);
+        } catch (IOException e) {
+            System.err.println("No se pudo abrir el diario: " + e.getMessage());
+            return;
+        }
+        diario = nuevo;
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                diario.cerrar();
+            }
+        }, "cierre-diario"));
+    }
+    
+    /**
+     * Reconstrucción de partidas a partir de una instantánea y los eventos
+     * posteriores, del diario propio o de la réplica.
+     * 
+     * @param recuperadas Partidas vivas por ID, que se van completando
+     * @return Destino para DiarioPartidas.recuperar o ReceptorReplica.seguir
+     */
+    private static DiarioPartidas.Recuperacion restaurarEn(final Map<Integer, Partida> recuperadas) {
+        return new DiarioPartidas.Recuperacion() {
+            public void cargarInstantanea(DataInputStream entrada) throws IOException {
+                reservarIdsHasta(entrada.readInt() - 1);
+                int num = entrada.readInt();
+                for (int i = 0; i < num; i++) {
+                    Partida partida = Partida.leerInstantanea(entrada);
+                    recuperadas.put(partida.getId(), partida);
+                }
+            }
+            
+            public void aplicar(EventoDiario evento) {
+                Partida partida = recuperadas.get(evento.getPartida());
+                if (partida == null && evento.getTipo() == EventoDiario.Tipo.CREADA) {
+                    partida = new Partida(evento.getPartida());
+                    recuperadas.put(partida.getId(), partida);
+                    reservarIdsHasta(partida.getId());
+                }
+                if (partida == null) {
+                    return; // Partida ya terminada antes de la instantánea
+                }
+                try {
+                    partida.reaplicar(evento);
+                } catch (RuntimeException e) {
+                    // Un evento que no se puede aplicar deja la partida a medias: se
+                    // descarta ella sola y sus eventos posteriores se ignoran
+                    System.err.println("Partida " + partida.getId() + " descartada al recuperar el evento "
+                        + evento.getSecuencia() + " (" + evento.getTipo() + "): " + e);
+                    recuperadas.remove(partida.getId());
+                    partida.finalizar();
+                    return;
+                }
+                if (evento.getTipo() == EventoDiario.Tipo.FIN) {
+                    recuperadas.remove(partida.getId());
+                }
+            }
+        };
+    }
+    
+    /**
+     * Publica las partidas reconstruidas que se pueden reanudar (en curso y
+     * con los tokens de ambos jugadores) y descarta las demás.
+     * 
+     * @param recuperadas Partidas reconstruidas
+     * @return Número de partidas publicadas
+     */
+    private static int instalarRecuperadas(Collection<Partida> recuperadas) {
+        int reanudables = 0;
+        for (Partida partida : recuperadas) {
+            JugadorPartida j1 = partida.getJugador1();
+            JugadorPartida j2 = partida.getJugador2();
+            if (Configuracion.GRACIA_REANUDAR > 0 && partida.getEstado() == Partida.EstadoPartida.EN_CURSO
+                    && j1.getToken() != null && j2.getToken() != null && semaforoPartidas.tryAcquire()) {
+                partida.rearmarReloj();
+                partidas.add(partida);
+                Contadores.incrementar(Contador.PARTIDAS_EN_CURSO);
+                registrarToken(j1.getToken(), partida);
+                registrarToken(j2.getToken(), partida);
+                partida.suspenderJugador(j1.getSocket(), Configuracion.GRACIA_REANUDAR);
+                partida.suspenderJugador(j2.getSocket(), Configuracion.GRACIA_REANUDAR);
+                reanudables++;
+            } else {
+                partida.finalizar();
+            }
+        }
+        return reanudables;
+    }
+    
+    /**
+     * Si está configurado, espera a una réplica y le manda cada lote del
+     * diario. Necesita el diario: la réplica se alimenta de él.
+     */
+    private static void iniciarReplica() {
+        if (Configuracion.PUERTO_REPLICA <= 0) {
+            return;
+        }
+        if (diario == null) {
+            System.err.println("La réplica necesita el diario de partidas (battleship.diario.dir)");
+            return;
+        }
+        EmisorReplica emisor = new EmisorReplica(Configuracion.PUERTO_REPLICA, ESTADO_PARTIDAS,
+            (int) Configuracion.COLA_REPLICA, Configuracion.LATIDO_REPLICA);
+        try {
+            emisor.iniciar();
+        } catch (IOException e) {
+            System.err.println("No se pudo abrir el puerto de réplica: " + e.getMessage());
+            return;
+        }
+        diario.setSuscriptor(emisor);
+        emisorReplica = emisor;
+        System.out.println("Réplica servida en el puerto " + Configuracion.PUERTO_REPLICA);
+    }
+    
+    /**
+     * Indica si el servidor sigue siendo la reserva de otro. Mientras lo es
+     * sus partidas son copias y no corre el reloj de los turnos.
+     * 
+     * @return true hasta que toma el relevo
+     */
+    static boolean esReserva() {
+        return reserva;
+    }
+    
+    /**
+     * Registra un evento en el diario. Lo llama Partida con su lock tomado.
+     * 
+     * @param evento Evento a registrar
+     * @return Secuencia asignada o -1 si no hay diario o se está recuperando
+     */
+    static long registrarEvento(EventoDiario evento) {
+        DiarioPartidas d = diario;
+        if (d == null || recuperando) {
+            return -1;
+        }
+        return d.registrar(evento);
+    }
+    
+    /**
+     * Espera a que el último cambio de una partida esté persistido según la
+     * política de fsync. Se llama antes de confirmarlo a los clientes.
+     * 
+     * @param partida Partida modificada (puede ser null)
+     */
+    static void esperarDiario(Partida partida) {
+        DiarioPartidas d = diario;
+        if (d != null && partida != null) {
+            d.esperar(partida.getUltimoEvento());
+        }
+    }
+    
     /**
      * Crea una nueva partida.
+     * El cupo se espera sin tener el monitor de la lista: quien libera un
+     * cupo (eliminarPartida) lo toma al quitar su partida de la lista.
      * @param nombre Nombre del jugador creador
      * @param socket Socket del jugador
+     * @param token Token de reanudación del jugador o null
      * @return ID de la partida creada
      */
-    public static int crearPartida(String nombre, Socket socket) {
+    public static int crearPartida(String nombre, Socket socket, String token) {
+        EventoAdmision admision = new EventoAdmision();
+        admision.begin();
+        try {
+            semaforoPartidas.acquire();
+            admision.conseguida = true;
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        if (admision.shouldCommit()) {
+            admision.libres = semaforoPartidas.availablePermits();
+            admision.commit();
+        }
         synchronized (partidas) {
-            try {
-                semaforoPartidas.acquire();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            
-            int id = contadorPartidas++;
+            int id = nuevoIdPartida();
             Partida partida = new Partida(id);
-            partida.agregarJugador(nombre, socket);
+            registrarCreacion(partida);
+            partida.agregarJugador(nombre, socket, token);
             partidas.add(partida);
+            Contadores.incrementar(Contador.PARTIDAS_EN_CURSO);
+            registrarToken(token, partida);
+            vestibulo.abrir(id, nombre);
             
             System.out.println("Partida " + id + " creada por " + nombre);
             return id;
         }
     }
     
+    /**
+     * Cuenta una partida nueva y emite su evento de JFR.
+     * 
+     * @param partida Partida recién creada
+     */
+    private static void registrarCreacion(Partida partida) {
+        Contadores.incrementar(Contador.PARTIDAS_CREADAS);
+        EventoPartidaCreada evento = new EventoPartidaCreada();
+        if (evento.shouldCommit()) {
+            evento.partida = partida.getId();
+            evento.clasificatoria = partida.isClasificatoria();
+            evento.commit();
+        }
+    }
+    
+    /**
+     * Crea la partida de dos jugadores emparejados y se la anuncia a ambos.
+     * No toma el monitor de la lista salvo para añadirla: el ID sale de un
+     * contador atómico y el cupo se pide sin esperar.
+     * 
+     * @param primera Solicitud del jugador que esperaba (será el jugador 1)
+     * @param segunda Solicitud del otro jugador
+     * @param clasificatoria true si sale de la cola clasificatoria
+     */
+    static void iniciarPartidaEmparejada(Emparejador.Solicitud primera, Emparejador.Solicitud segunda,
+            boolean clasificatoria) {
+        Partida partida = null;
+        try {
+            EventoAdmision admision = new EventoAdmision();
+            admision.conseguida = semaforoPartidas.tryAcquire();
+            if (admision.shouldCommit()) {
+                admision.libres = semaforoPartidas.availablePermits();
+                admision.commit();
+            }
+            if (admision.conseguida) {
+                partida = new Partida(nuevoIdPartida(), clasificatoria);
+                registrarCreacion(partida);
+                partida.agregarJugador(primera.getNombre(), primera.getSocket(), primera.getToken());
+                partida.agregarJugador(segunda.getNombre(), segunda.getSocket(), segunda.getToken());
+                partidas.add(partida);
+                Contadores.incrementar(Contador.PARTIDAS_EN_CURSO);
+                registrarToken(primera.getToken(), partida);
+                registrarToken(segunda.getToken(), partida);
+            }
+        } finally {
+            // A partir de aquí una desconexión de quien esperaba ya encuentra la partida
+            primera.resolver();
+            segunda.resolver();
+        }
+        if (partida == null) {
+            Contadores.incrementar(Contador.SERVIDOR_LLENO);
+            Mensaje lleno = new Mensaje(Mensaje.ERROR, new String[]{"Servidor lleno, inténtalo más tarde"});
+            enviarMensajeA(primera.getSocket(), lleno);
+            enviarMensajeA(segunda.getSocket(), lleno);
+            return;
+        }
+        System.out.println("Partida " + partida.getId() + (clasificatoria ? " clasificatoria" : "") + " emparejada: "
+            + primera.getNombre() + " contra " + segunda.getNombre());
+        
+        esperarDiario(partida);
+        Mensaje creada = new Mensaje(Mensaje.PARTIDA_CREADA, new String[]{String.valueOf(partida.getId())});
+        enviarMensajeA(primera.getSocket(), creada);
+        enviarMensajeA(segunda.getSocket(), creada);
+        enviarMensajeA(primera.getSocket(), new Mensaje(Mensaje.RIVAL_CONECTADO, new String[]{segunda.getNombre()}));
+        enviarMensajeA(segunda.getSocket(), new Mensaje(Mensaje.RIVAL_CONECTADO, new String[]{primera.getNombre()}));
+        enviarMensajeA(primera.getSocket(), TramaFija.de(Comando.COLOCAR_BARCOS));
+        enviarMensajeA(segunda.getSocket(), TramaFija.de(Comando.COLOCAR_BARCOS));
+    }
+    
+    /**
+     * Asigna el ID de una partida nueva. En un clúster sólo se usan los IDs
+     * de los que este nodo es dueño en el anillo, así que los nodos nunca
+     * repiten ID y el proxy sabe dónde está cada partida.
+     * 
+     * @return ID sin usar
+     */
+    private static int nuevoIdPartida() {
+        while (true) {
+            int id = contadorPartidas.getAndIncrement();
+            if (anillo == null || anillo.nodoDe(id) == Configuracion.NODO_CLUSTER) {
+                return id;
+            }
+        }
+    }
+    
+    /**
+     * Garantiza que los IDs que se asignen a partir de ahora sean mayores
+     * que uno ya usado.
+     * 
+     * @param usado ID de una partida existente o archivada
+     */
+    private static void reservarIdsHasta(int usado) {
+        int actual;
+        while ((actual = contadorPartidas.get()) <= usado && !contadorPartidas.compareAndSet(actual, usado + 1)) {
+            // Reintentar con el valor nuevo
+        }
+    }
+    
     /**
      * Une un jugador a una partida existente.
      * 
      * @param idPartida ID de la partida
      * @param nombre Nombre del jugador
      * @param socket Socket del jugador
+     * @param token Token de reanudación del jugador o null
      * @return true si se unió exitosamente
      */
-    public static boolean unirseAPartida(int idPartida, String nombre, Socket socket) {
+    public static boolean unirseAPartida(int idPartida, String nombre, Socket socket, String token) {
         synchronized (partidas) { 
             for (Partida partida : partidas) {
                 if (partida.getId() == idPartida && !partida.estaCompleta()) {
-                    boolean exito = partida.agregarJugador(nombre, socket);
+                    boolean exito = partida.agregarJugador(nombre, socket, token);
                     if (exito) {
+                        registrarToken(token, partida);
+                        vestibulo.cerrar(idPartida);
                         System.out.println(nombre + " se unió a la partida " + idPartida);
                     }
                     return exito;
@@ -129,23 +805,270 @@ public class ServidorBattleship {
     }
     
     /**
-     * Elimina una partida de la lista.
+     * Busca una partida por su ID.
+     * 
+     * @param idPartida ID de la partida
+     * @return Partida o null si no existe
+     */
+    public static Partida buscarPartida(int idPartida) {
+        synchronized (partidas) {
+            for (Partida partida : partidas) {
+                if (partida.getId() == idPartida) {
+                    return partida;
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Busca la partida de un jugador por su token de reanudación.
+     * 
+     * @param token Token de reanudación
+     * @return Partida o null si no hay ninguna con ese token
+     */
+    public static Partida buscarPartidaPorToken(String token) {
+        return (token != null) ? partidasPorToken.get(token) : null;
+    }
+    
+    private static void registrarToken(String token, Partida partida) {
+        if (token != null) {
+            partidasPorToken.put(token, partida);
+        }
+    }
+    
+    /**
+     * Genera un token de reanudación aleatorio de 128 bits en hexadecimal.
+     * En un clúster lleva delante el número de este nodo.
+     * 
+     * @return Token nuevo
+     */
+    static String nuevoToken() {
+        byte[] bytes = new byte[16];
+        generadorTokens.nextBytes(bytes);
+        StringBuilder sb = new StringBuilder(32);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return (anillo != null) ? AnilloConsistente.marcarToken(Configuracion.NODO_CLUSTER, sb.toString()) : sb.toString();
+    }
+    
+    /**
+     * Elimina una partida de la lista. Aquí sólo se hace lo que tiene que
+     * verse enseguida (deja de estar en la lista, en el vestíbulo y en los
+     * tokens, y libera su cupo); estadísticas, archivo, clasificación,
+     * tableros y el aviso en la consola se dejan a TrasPartida. El monitor
+     * de la lista sólo se toma dentro de remove, que decide quién la
+     * elimina; nadie lo retiene mientras espera un cupo.
      * 
      * @param partida Partida a eliminar
      */
     public static void eliminarPartida(Partida partida) {
-        synchronized (partidas) { 
-            partidas.remove(partida);
-            semaforoPartidas.release(); 
-            System.out.println("Partida " + partida.getId() + " eliminada");
+        if (!partidas.remove(partida)) {
+            return; // Ya eliminada (p. ej. ambos jugadores se desconectan a la vez)
+        }
+        Contadores.sumar(Contador.PARTIDAS_EN_CURSO, -1);
+        vestibulo.cerrar(partida.getId());
+        partida.finalizar();
+        partida.anunciarFin(null); // Sólo llega si no se anunció ya un ganador
+        for (JugadorPartida jugador : new JugadorPartida[]{partida.getJugador1(), partida.getJugador2()}) {
+            if (jugador != null && jugador.getToken() != null) {
+                partidasPorToken.remove(jugador.getToken());
+            }
         }
+        semaforoPartidas.release(); 
+        EventoPartidaFinalizada evento = new EventoPartidaFinalizada();
+        if (evento.shouldCommit()) {
+            evento.partida = partida.getId();
+            evento.duracion = partida.getFinalizada() - partida.getCreada();
+            evento.disparos = partida.getNumDisparos();
+            evento.ganador = partida.getGanador();
+            evento.commit();
+        }
+        trasPartida.publicar(partida);
+    }
+    
+    /**
+     * Obtiene las estadísticas de las partidas terminadas.
+     * 
+     * @return Estadísticas
+     */
+    static EstadisticasPartidas getEstadisticas() {
+        return estadisticas;
+    }
+    
+    /**
+     * Obtiene la cola de emparejamiento automático.
+     * 
+     * @return Emparejador
+     */
+    static Emparejador getEmparejador() {
+        return emparejador;
+    }
+    
+    /**
+     * Obtiene la cola de partidas clasificatorias.
+     * 
+     * @return Emparejador por puntuación
+     */
+    static EmparejadorClasificado getEmparejadorClasificado() {
+        return emparejadorClasificado;
     }
     
-    public static void registrarStream(Socket socket, PrintWriter out) {
+    /**
+     * Obtiene el vestíbulo de partidas abiertas.
+     * 
+     * @return Vestíbulo
+     */
+    static Vestibulo getVestibulo() {
+        return vestibulo;
+    }
+    
+    /**
+     * Obtiene el emisor de la réplica.
+     * 
+     * @return Emisor o null si no se sirve réplica
+     */
+    static EmisorReplica getEmisorReplica() {
+        return emisorReplica;
+    }
+    
+    /**
+     * Partidas en curso o esperando rival.
+     * 
+     * @return Número de partidas
+     */
+    static int getNumPartidas() {
+        return partidas.size();
+    }
+    
+    /**
+     * Conexiones abiertas con el servidor.
+     * 
+     * @return Número de conexiones
+     */
+    static int getNumConexiones() {
+        return streamsPorSocket.size();
+    }
+    
+    /**
+     * Obtiene la clasificación.
+     * 
+     * @return Clasificación
+     */
+    static Clasificacion getClasificacion() {
+        return clasificacion;
+    }
+    
+    /**
+     * Obtiene la rueda de temporizadores compartida.
+     * 
+     * @return Rueda de temporizadores
+     */
+    public static RuedaTemporizadores getRueda() {
+        return rueda;
+    }
+    
+    /**
+     * Ejecuta una tarea en el pool de hilos del servidor.
+     * Se usa para sacar del hilo de la rueda las operaciones de red.
+     * 
+     * @param tarea Tarea a ejecutar
+     */
+    public static void ejecutar(Runnable tarea) {
+        pool.execute(tarea);
+    }
+    
+    /**
+     * Pool de hilos del servidor, para los volcados de las colas de salida.
+     * 
+     * @return Ejecutor del pool
+     */
+    public static Executor getEjecutor() {
+        return pool;
+    }
+    
+    /**
+     * Llamado por la rueda cuando vence el reloj de un turno.
+     * La resolución envía mensajes, así que se saca del hilo de la rueda.
+     * 
+     * @param partida Partida cuyo reloj venció
+     * @param secuencia Turno en el que venció
+     */
+    static void turnoAgotado(final Partida partida, final long secuencia) {
+        pool.execute(new Runnable() {
+            public void run() {
+                ManejadorCliente.resolverTurnoAgotado(partida, secuencia);
+            }
+        });
+    }
+    
+    /**
+     * Llamado por la rueda cuando vence el plazo de un jugador ausente.
+     * Si no ha vuelto, la partida termina como con una desconexión normal.
+     * 
+     * @param partida Partida del jugador
+     * @param ausente Jugador que perdió la conexión
+     */
+    static void graciaAgotada(final Partida partida, final JugadorPartida ausente) {
+        pool.execute(new Runnable() {
+            public void run() {
+                if (!partida.expulsarAusente(ausente)) {
+                    return; // Volvió a tiempo o la partida ya terminó
+                }
+                JugadorPartida rival = partida.obtenerRival(ausente.getSocket());
+                if (rival != null) {
+                    enviarMensajeA(rival.getSocket(), new Mensaje(Mensaje.ERROR, new String[]{"El rival se desconectó"}));
+                }
+                System.out.println(ausente.getNombre() + " no volvió a la partida " + partida.getId());
+                eliminarPartida(partida);
+            }
+        });
+    }
+    
+    /**
+     * Envía un mensaje a un socket específico.
+     * Usa el caché de streams para evitar crear nuevos DataOutputStream.
+     * 
+     * @param destino Socket de destino
+     * @param mensaje Mensaje a enviar
+     */
+    public static void enviarMensajeA(Socket destino, Mensaje mensaje) {
+        try {
+            SalidaMensajes outDestino = obtenerStream(destino);
+            if (outDestino != null) { 
+                // El escritor serializa con el codec negociado y es atómico por mensaje;
+                // con la cola de salida no espera a que el destino lea
+                outDestino.enviar(mensaje);
+            }
+        } catch (RuntimeException e) {
+            // Capturamos primero la excepción específica que lanza obtenerStream
+            System.err.println("Error obteniendo stream: " + e.getMessage());
+        } catch (Exception e) {
+            // Capturamos cualquier otra excepción general al final
+            System.err.println("Error enviando mensaje: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Cierra un socket ignorando errores.
+     * El hilo bloqueado leyendo de él recibe una excepción y ejecuta su limpieza.
+     * 
+     * @param socket Socket a cerrar
+     */
+    public static void cerrarSocket(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("Error cerrando socket: " + e.getMessage());
+        }
+    }
+    
+    public static void registrarStream(Socket socket, SalidaMensajes out) {
         streamsPorSocket.put(socket, out);
     }
 
-    public static PrintWriter obtenerStream(Socket socket) {
+    public static SalidaMensajes obtenerStream(Socket socket) {
         return streamsPorSocket.get(socket);
     }
     
@@ -158,6 +1081,55 @@ public class ServidorBattleship {
         streamsPorSocket.remove(socket);
     }
     
+    /**
+     * Capacidades opcionales que ofrece el servidor en BIENVENIDA.
+     * 
+     * @return Lista separada por comas
+     */
+    public static String getCapacidades() {
+        StringBuilder capacidades = new StringBuilder();
+        if (Configuracion.OFRECER_BINARIO) {
+            capacidades.append(',').append(Capacidades.BINARIO);
+        }
+        if (Configuracion.OFRECER_TURNO_RESUELTO) {
+            capacidades.append(',').append(Capacidades.TURNO_RESUELTO);
+        }
+        if (Configuracion.GRACIA_REANUDAR > 0) {
+            capacidades.append(',').append(Capacidades.REANUDAR);
+        }
+        if (Configuracion.MAX_CANALES > 0) {
+            capacidades.append(',').append(Capacidades.MULTICANAL);
+        }
+        return (capacidades.length() > 0) ? capacidades.substring(1) : "";
+    }
+    
+    /**
+     * Indica si la conexión de un socket negoció una capacidad.
+     * 
+     * @param socket Socket del jugador
+     * @param capacidad Capacidad a consultar
+     * @return true si fue aceptada en el saludo
+     */
+    static boolean admite(Socket socket, String capacidad) {
+        SalidaMensajes escritor = obtenerStream(socket);
+        return escritor != null && escritor.admite(capacidad);
+    }
+    
+    /**
+     * Mensaje TU_TURNO para el jugador que acaba de recibir el turno.
+     * Si no hay reserva de tiempo por partida el reloj del turno empieza
+     * siempre lleno y se envía la trama precodificada.
+     * 
+     * @param partida Partida en curso
+     * @return Mensaje TU_TURNO con los parámetros del reloj
+     */
+    static Mensaje mensajeInicioTurno(Partida partida) {
+        if (Configuracion.TIEMPO_PARTIDA > 0) {
+            return new Mensaje(Mensaje.TU_TURNO, partida.parametrosReloj());
+        }
+        return TU_TURNO_INICIAL;
+    }
+    
     /**
      * Verifica el estado del servidor de forma asíncrona usando Callable.
      * @return Future con el número de partidas activas
@@ -178,42 +1150,274 @@ public class ServidorBattleship {
  */
 class ManejadorCliente implements Runnable {
     
-    private Socket socket;
-    private PrintWriter out;
-    private String nombreJugador;
+    /**
+     * Estado de un canal de la conexión: la partida, observación, búsqueda
+     * o suscripción que se lleva por él. Sin la capacidad MC sólo existe el
+     * canal 0, cuya identidad es el socket de la conexión. Los demás canales
+     * se identifican ante Partida y el resto del servidor con un socket sin
+     * conectar (como los jugadores recuperados del diario) y escriben por la
+     * conexión con su número de canal.
+     * 
+     * Sólo lo toca el hilo lector, salvo close(), con el que un espectador
+     * demasiado lento cierra el canal desde otro hilo.
+     */
+    private static final class Canal implements Closeable {
+        
+        final int id;
+        
+        // Identidad del jugador en la partida y escritor registrado para ella
+        final Socket socket;
+        final SalidaMensajes out;
+        
+        String nombreJugador;
+        
+        // Partida observada como espectador (null si no observa ninguna)
+        volatile Partida partidaObservada;
+        volatile Espectador espectador;
+        
+        // Token con el que el cliente puede reanudar su partida (null si no se ofrece)
+        String token;
+        
+        // Búsqueda de partida rápida o clasificatoria en curso (null si no busca)
+        Emparejador.Solicitud busqueda;
+        boolean busquedaClasificatoria;
+        
+        // Cola por la que llegan los cambios del vestíbulo (null si no está suscrito)
+        volatile Espectador suscripcionVestibulo;
+        
+        // Cerrado por close(); el hilo lector lo limpia con el siguiente mensaje
+        volatile boolean cerrado;
+        
+        Canal(int id, Socket socket, SalidaMensajes out) {
+            this.id = id;
+            this.socket = socket;
+            this.out = out;
+        }
+        
+        /**
+         * Cierra el canal desde cualquier hilo. El canal 0 cierra la
+         * conexión. Otro canal se da de baja enseguida de la partida
+         * observada y del vestíbulo; el hilo lector termina de cerrarlo
+         * cuando llega el siguiente mensaje por él, que lo abre de nuevo.
+         */
+        @Override
+        public void close() throws IOException {
+            if (id == 0) {
+                socket.close();
+                return;
+            }
+            cerrado = true;
+            Partida observada = partidaObservada;
+            Espectador suscrito = espectador;
+            if (observada != null && suscrito != null) {
+                observada.quitarEspectador(suscrito);
+            }
+            suscrito = suscripcionVestibulo;
+            if (suscrito != null) {
+                ServidorBattleship.getVestibulo().desuscribir(suscrito);
+            }
+        }
+        
+        /**
+         * Da de baja la suscripción como espectador, si la hay.
+         */
+        void dejarDeObservar() {
+            if (partidaObservada != null) {
+                partidaObservada.quitarEspectador(espectador);
+                partidaObservada = null;
+                espectador = null;
+            }
+        }
+        
+        /**
+         * Sale de la cola de emparejamiento, si se estaba en ella. Si el rival
+         * ya la había tomado, espera a que la partida esté creada para que quien
+         * llama la encuentre con obtenerPartida.
+         */
+        void cancelarBusqueda() {
+            if (busqueda != null) {
+                boolean cancelada = busquedaClasificatoria
+                    ? ServidorBattleship.getEmparejadorClasificado().cancelar(busqueda)
+                    : ServidorBattleship.getEmparejador().cancelar(busqueda);
+                if (!cancelada) {
+                    busqueda.esperarResolucion();
+                }
+                busqueda = null;
+            }
+        }
+        
+        /**
+         * Da de baja la suscripción al vestíbulo, si la hay.
+         */
+        void dejarVestibulo() {
+            if (suscripcionVestibulo != null) {
+                ServidorBattleship.getVestibulo().desuscribir(suscripcionVestibulo);
+                suscripcionVestibulo = null;
+            }
+        }
+    }
+    
+    // Socket de la conexión, su lector y su escritor (el del canal 0)
+    private final Socket conexion;
+    private LectorMensajes in;
+    private EscritorMensajes salida;
+    
+    // Canal 0 y resto de canales abiertos con la capacidad MC, por número.
+    // Sólo los usa el hilo lector.
+    private Canal principal;
+    private final Map<Integer, Canal> canales = new HashMap<Integer, Canal>();
+    
+    // Canal del mensaje que se está procesando
+    private Canal canal;
+    
+    // Instante (ms) del último mensaje recibido del cliente
+    private volatile long ultimaActividad;
+    
+    // Temporizador de latido e inactividad de esta conexión
+    private volatile RuedaTemporizadores.Temporizador temporizador;
+    
+    // El cliente se despidió con DESCONECTAR: no se le guarda el puesto
+    private boolean salidaVoluntaria;
+    
+    private static final String MENSAJE_BIENVENIDA = "Conectado al servidor Battleship";
+    private static final String MENSAJE_CANAL = "Canal abierto";
+    
+    // Aviso al empezar a descartar mensajes (uno por racha, siempre el mismo)
+    private static final Mensaje DEMASIADOS_MENSAJES = new Mensaje(Mensaje.ERROR, new String[]{"Demasiados mensajes"});
+    
+    // Cubos de fichas por clase de comando de esta conexión
+    private final LimiteComandos limite = new LimiteComandos(Configuracion.RITMO_JUGADAS,
+        Configuracion.RITMO_CONSULTAS, Configuracion.RITMO_OTROS, Configuracion.RAFAGA_LIMITE);
     
     public ManejadorCliente(Socket socket) {
-        this.socket = socket;
+        this.conexion = socket;
     }
     
     @Override
     public void run() {
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
-            PrintWriter outLocal = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true)) {
+        Contadores.incrementar(Contador.CONEXIONES_ABIERTAS);
+        try (InputStream entrada = conexion.getInputStream();
+            OutputStream flujoSalida = conexion.getOutputStream()) {
+            
+            // Hasta el saludo se habla en texto
+            this.in = new LectorMensajes(entrada, CodecTexto.INSTANCIA);
+            in.setLongitudMaxima((int) Configuracion.MAX_TRAMA_CLIENTE);
+            in.setAdmision(limite);
+            this.salida = new EscritorMensajes(flujoSalida, CodecTexto.INSTANCIA, conexion.getChannel());
+            // Quien escribe a este cliente (su rival, el barrido...) no espera a que lea
+            salida.activarColaSalida(ServidorBattleship.getEjecutor(), conexion, (int) Configuracion.SALIDA_MARCA_ALTA,
+                (int) Configuracion.SALIDA_MARCA_BAJA, (int) Configuracion.SALIDA_MAXIMA, Configuracion.PLAZO_ESCRITURA);
+            ServidorBattleship.registrarStream(conexion, salida);
+            principal = new Canal(0, conexion, salida);
+            canal = principal;
             
-            this.out = outLocal;
-            ServidorBattleship.registrarStream(socket, outLocal);
+            // Enviar mensaje de bienvenida anunciando las capacidades
+            // y, si se puede reanudar, el token de esta conexión
+            String capacidades = ServidorBattleship.getCapacidades();
+            if (Capacidades.contiene(capacidades, Capacidades.REANUDAR)) {
+                principal.token = ServidorBattleship.nuevoToken();
+                enviarMensaje(new Mensaje(Mensaje.BIENVENIDA, new String[]{MENSAJE_BIENVENIDA, capacidades, principal.token}));
+            } else {
+                enviarMensaje(new Mensaje(Mensaje.BIENVENIDA, new String[]{MENSAJE_BIENVENIDA, capacidades}));
+            }
             
-            // Enviar mensaje de bienvenida
-            enviarMensaje(new Mensaje(Mensaje.BIENVENIDA, new String[]{"Conectado al servidor Battleship"}));
+            ultimaActividad = System.currentTimeMillis();
+            programarLatido(Configuracion.INTERVALO_PING);
             
-            // Bucle de procesamiento de mensajes
-            String linea;
-            while ((linea = br.readLine()) != null) {
-                Mensaje mensaje = Mensaje.deserializar(linea);
-                if (mensaje == null) {
+            // Bucle de procesamiento de mensajes, hasta que el cliente se despida
+            MensajeRecibido mensaje;
+            while (!salidaVoluntaria && (mensaje = in.leer()) != null) {
+                // Lo que pasa del límite llega descartado: el lector lo cobró
+                // con el comando, antes de decodificar sus parámetros
+                if (mensaje.isDescartado()) {
+                    Contadores.incrementar(Contador.DESCARTES_LIMITE);
+                    if (limite.getDescartesSeguidos() == 1) {
+                        // Por el canal 0: el límite es de la conexión y el descartado no trae canal
+                        salida.enviar(DEMASIADOS_MENSAJES);
+                    } else if (limite.getDescartesSeguidos() >= Configuracion.DESCARTES_EXPULSION) {
+                        System.out.println("Cliente " + conexion.getInetAddress() + " expulsado por exceso de mensajes");
+                        Contadores.incrementar(Contador.EXPULSIONES);
+                        break;
+                    }
+                    continue;
+                }
+                Contadores.incrementar(Contador.MENSAJES_RECIBIDOS);
+                ultimaActividad = System.currentTimeMillis();
+                canal = seleccionarCanal(in.getCanal());
+                if (canal == null) {
                     continue;
                 }
-                String nombreAntes = nombreJugador; // puede ser null antes de CONECTAR
+                String nombreAntes = canal.nombreJugador; // puede ser null antes de CONECTAR
+                EventoMensaje evento = new EventoMensaje();
+                evento.begin();
                 procesarMensaje(mensaje);
-                String nombreDespues = (nombreJugador != null) ? nombreJugador : nombreAntes;
-                System.out.println("Recibido de " + (nombreDespues != null ? nombreDespues : "[sin_nombre]") + ": " + mensaje);
+                if (evento.shouldCommit()) {
+                    evento.comando = mensaje.getComando();
+                    evento.canal = canal.id;
+                    evento.commit();
+                }
+                if (mensaje.getTipo() == Comando.ESTADO_NODO) {
+                    continue; // El proxy lo pregunta continuamente
+                }
+                String nombreDespues = (canal.nombreJugador != null) ? canal.nombreJugador : nombreAntes;
+                System.out.println("Recibido de " + (nombreDespues != null ? nombreDespues : "[sin_nombre]")
+                    + (canal.id != 0 ? " [canal " + canal.id + "]" : "") + ": " + mensaje);
+            }
+            
+        } catch (ClosedChannelException e) {
+            // El socket se cerró desde este servidor (desconectar o expulsión)
+        } catch (IOException e) {
+            System.err.println("Error con cliente: " + e.getMessage());
+        } finally {
+            desconectar();
+        }
+    }
+    
+    /**
+     * Canal por el que llega un mensaje. El primer mensaje de un canal
+     * nuevo lo abre: el cliente recibe por él una BIENVENIDA con su propio
+     * token de reanudación, y el canal hereda el nombre del canal 0.
+     * 
+     * @param id Canal leído del mensaje
+     * @return Canal o null si el número no es válido o no caben más canales
+     */
+    private Canal seleccionarCanal(int id) {
+        if (id == 0) {
+            return principal;
+        }
+        Canal existente = canales.get(id);
+        if (existente != null && !existente.cerrado) {
+            return existente;
+        }
+        if (existente != null) {
+            // Lo cerró un espectador lento: se termina de cerrar y se abre otra vez
+            cerrarCanal(existente, true);
+            canales.remove(id);
+        }
+        try {
+            if (id < 0) {
+                salida.enviar(new Mensaje(Mensaje.ERROR, new String[]{"Canal inválido"}));
+                return null;
             }
-            
+            if (canales.size() >= Configuracion.MAX_CANALES) {
+                salida.enviar(new Mensaje(Mensaje.ERROR, new String[]{"Demasiados canales abiertos"}), id);
+                return null;
+            }
+            Canal nuevo = new Canal(id, new Socket(), new EscritorCanal(salida, id));
+            nuevo.nombreJugador = principal.nombreJugador;
+            ServidorBattleship.registrarStream(nuevo.socket, nuevo.out);
+            canales.put(id, nuevo);
+            if (salida.admite(Capacidades.REANUDAR)) {
+                nuevo.token = ServidorBattleship.nuevoToken();
+                nuevo.out.enviar(new Mensaje(Mensaje.BIENVENIDA,
+                    new String[]{MENSAJE_CANAL, salida.getCapacidades(), nuevo.token}));
+            } else {
+                nuevo.out.enviar(new Mensaje(Mensaje.BIENVENIDA, new String[]{MENSAJE_CANAL, salida.getCapacidades()}));
+            }
+            return nuevo;
         } catch (IOException e) {
-            System.err.println("Error con cliente: " + e.getMessage());
-        } finally {
-            desconectar();
+            System.err.println("Error abriendo el canal " + id + ": " + e.getMessage());
+            return null;
         }
     }
     
@@ -222,39 +1426,111 @@ class ManejadorCliente implements Runnable {
      */
     private void procesarMensaje(Mensaje mensaje) {
         try {
-            switch (mensaje.getComando()) {
-                case Mensaje.CONECTAR:
+            Comando tipo = mensaje.getTipo();
+            if (tipo == null) {
+                Contadores.incrementar(Contador.ERRORES_PROTOCOLO);
+                enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"Comando desconocido"}));
+                return;
+            }
+            switch (tipo) {
+                case CONECTAR:
                     procesarConectar(mensaje);
                     break;
                     
-                case Mensaje.CREAR_PARTIDA:
+                case CREAR_PARTIDA:
                     procesarCrearPartida(mensaje);
                     break;
                     
-                case Mensaje.UNIR_PARTIDA:
+                case UNIR_PARTIDA:
                     procesarUnirPartida(mensaje);
                     break;
                     
-                case Mensaje.COLOCAR_BARCO:
+                case COLOCAR_BARCO:
                     procesarColocarBarco(mensaje);
                     break;
                     
-                case Mensaje.LISTO:
+                case LISTO:
                     procesarListo(mensaje);
                     break;
                     
-                case Mensaje.DISPARAR:
+                case DISPARAR:
                     procesarDisparar(mensaje);
                     break;
                     
-                case Mensaje.DESCONECTAR:
-                    desconectar();
+                case DESCONECTAR:
+                    procesarDesconectar();
+                    break;
+                    
+                case REANUDAR:
+                    procesarReanudar(mensaje);
+                    break;
+                    
+                case PING:
+                    enviarMensaje(TramaFija.de(Comando.PONG));
+                    break;
+                    
+                case OBSERVAR_PARTIDA:
+                    procesarObservarPartida(mensaje);
+                    break;
+                    
+                case PONG:
+                    // La actividad ya quedó registrada al leer la línea
+                    break;
+                    
+                case VER_REPETICION:
+                    procesarVerRepeticion(mensaje);
+                    break;
+                    
+                case LISTAR_REPETICIONES:
+                    procesarListarRepeticiones(mensaje);
+                    break;
+                    
+                case BUSCAR_PARTIDA:
+                    procesarBuscarPartida(false);
+                    break;
+                    
+                case BUSCAR_CLASIFICATORIA:
+                    procesarBuscarPartida(true);
+                    break;
+                    
+                case CONSULTAR_PUNTUACION:
+                    procesarConsultarPuntuacion(mensaje);
+                    break;
+                    
+                case LISTAR_PARTIDAS:
+                    procesarListarPartidas(mensaje);
+                    break;
+                    
+                case SUSCRIBIR_VESTIBULO:
+                    procesarSuscribirVestibulo();
+                    break;
+                    
+                case DEJAR_VESTIBULO:
+                    canal.dejarVestibulo();
+                    break;
+                    
+                case ESTADO_NODO:
+                    procesarEstadoNodo();
+                    break;
+                    
+                case ESTADO_REPLICA:
+                    procesarEstadoReplica();
+                    break;
+                    
+                case ESTADO_EMPAREJAMIENTO:
+                    procesarEstadoEmparejamiento();
+                    break;
+                    
+                case ESTADO_ANALITICA:
+                    procesarEstadoAnalitica(mensaje);
                     break;
                     
                 default:
+                    Contadores.incrementar(Contador.ERRORES_PROTOCOLO);
                     enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"Comando desconocido"}));
             }
         } catch (IllegalArgumentException e) {
+            Contadores.incrementar(Contador.ERRORES_PROTOCOLO);
             System.err.println("Error en parámetros: " + e.getMessage());
             enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"Parámetros inválidos"}));
         } catch (IllegalStateException e) {
@@ -268,8 +1544,342 @@ class ManejadorCliente implements Runnable {
      */
     private void procesarConectar(Mensaje mensaje) {
         if (mensaje.getNumParametros() > 0) {
-            nombreJugador = mensaje.getParametro(0);
-            System.out.println("Jugador " + nombreJugador + " conectado");
+            canal.nombreJugador = mensaje.getParametro(0);
+            System.out.println("Jugador " + canal.nombreJugador + " conectado");
+        }
+        
+        // Las capacidades son de la conexión: sólo se negocian en el canal 0
+        if (mensaje.getNumParametros() > 1 && canal == principal) {
+            negociarCapacidades(mensaje.getParametro(1));
+        }
+    }
+    
+    /**
+     * Confirma las capacidades pedidas en CONECTAR o REANUDAR con otra
+     * BIENVENIDA (aún en texto y sin canal) y a partir de ahí cambia de
+     * codec y, con MC, empieza a esperar y poner el canal en cada mensaje.
+     * 
+     * @param pedidas Capacidades que pide el cliente
+     */
+    private void negociarCapacidades(String pedidas) {
+        String aceptadas = Capacidades.interseccion(pedidas, ServidorBattleship.getCapacidades());
+        Mensaje confirmacion = new Mensaje(Mensaje.BIENVENIDA, new String[]{MENSAJE_BIENVENIDA, aceptadas});
+        salida.setCapacidades(aceptadas);
+        try {
+            Codec codec = Capacidades.contiene(aceptadas, Capacidades.BINARIO) ? CodecBinario.INSTANCIA : salida.getCodec();
+            in.setCodec(codec);
+            in.setMulticanal(Capacidades.contiene(aceptadas, Capacidades.MULTICANAL));
+            salida.enviarYCambiarCodec(confirmacion, codec);
+        } catch (IOException e) {
+            System.err.println("Error en el saludo: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Procesa comando REANUDAR: la conexión ocupa el puesto del jugador con
+     * ese token y recibe el estado de la partida en un solo REANUDADO, en
+     * vez de los mensajes que se perdió.
+     */
+    private void procesarReanudar(Mensaje mensaje) {
+        if (mensaje.getNumParametros() < 1) {
+            enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"Falta el token"}));
+            return;
+        }
+        if (ServidorBattleship.obtenerPartida(canal.socket) != null) {
+            enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"Ya estás en una partida"}));
+            return;
+        }
+        // Como en CONECTAR, el cliente ya habla con el codec que pidió
+        if (mensaje.getNumParametros() > 1 && canal == principal) {
+            negociarCapacidades(mensaje.getParametro(1));
+        }
+        
+        String tokenPedido = mensaje.getParametro(0);
+        Partida partida = ServidorBattleship.buscarPartidaPorToken(tokenPedido);
+        Socket anterior = (partida != null) ? partida.reanudarJugador(tokenPedido, canal.socket) : null;
+        if (anterior == null) {
+            enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"No hay partida que reanudar"}));
+            return;
+        }
+        canal.dejarDeObservar();
+        canal.token = tokenPedido;
+        JugadorPartida jugador = partida.obtenerJugador(canal.socket);
+        canal.nombreJugador = jugador.getNombre();
+        // Si la conexión anterior seguía medio abierta, su hilo ya no la encuentra en la partida
+        ServidorBattleship.cerrarSocket(anterior);
+        System.out.println(canal.nombreJugador + " reanuda la partida " + partida.getId());
+        
+        enviarMensaje(new Mensaje(Mensaje.REANUDADO, partida.estadoReanudacion(jugador)));
+        if (partida.esTurnoDeJugador(canal.socket)) {
+            enviarMensaje(new Mensaje(Mensaje.TU_TURNO, partida.parametrosReloj()));
+        } else {
+            enviarMensaje(TramaFija.de(Comando.ESPERA_TURNO));
+        }
+        
+        JugadorPartida rival = partida.obtenerRival(canal.socket);
+        if (rival != null && ServidorBattleship.admite(rival.getSocket(), Capacidades.REANUDAR)) {
+            enviarMensajeA(rival.getSocket(), TramaFija.de(Comando.RIVAL_VUELVE));
+        }
+    }
+    
+    /**
+     * Procesa comando OBSERVAR_PARTIDA: suscribe la conexión a los eventos
+     * de una partida. La confirmación pasa por la misma cola que los eventos
+     * para que llegue antes que ellos.
+     */
+    private void procesarObservarPartida(Mensaje mensaje) {
+        if (mensaje.getNumParametros() < 1) {
+            enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"Falta el ID de la partida"}));
+            return;
+        }
+        if (ServidorBattleship.obtenerPartida(canal.socket) != null) {
+            enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"No puedes observar mientras juegas"}));
+            return;
+        }
+        int idPartida = mensaje.getParametroEntero(0);
+        canal.dejarDeObservar();
+        canal.cancelarBusqueda();
+        
+        Partida partida = ServidorBattleship.buscarPartida(idPartida);
+        if (partida == null) {
+            enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"La partida no existe"}));
+            return;
+        }
+        JugadorPartida j1 = partida.getJugador1();
+        JugadorPartida j2 = partida.getJugador2();
+        String nombre1 = (j1 != null) ? j1.getNombre() : Mensaje.SIN_BARCO;
+        String nombre2 = (j2 != null) ? j2.getNombre() : Mensaje.SIN_BARCO;
+        // Quien llega a mitad de partida recibe el estado en dos instantáneas
+        String[] tableros = partida.instantaneasPublicas();
+        Espectador nuevo = new Espectador(canal, canal.out);
+        nuevo.encolar(new TramaFija(Mensaje.OBSERVANDO, (tableros != null)
+            ? new String[]{String.valueOf(idPartida), nombre1, nombre2, tableros[0], tableros[1]}
+            : new String[]{String.valueOf(idPartida), nombre1, nombre2}));
+        if (!partida.agregarEspectador(nuevo)) {
+            nuevo.encolar(TramaFija.de(Comando.FIN_PARTIDA));
+            return;
+        }
+        canal.partidaObservada = partida;
+        canal.espectador = nuevo;
+        System.out.println((canal.nombreJugador != null ? canal.nombreJugador : "[sin_nombre]") + " observa la partida " + idPartida);
+    }
+    
+    /**
+     * Procesa comando VER_REPETICION: envía la cabecera y, a continuación,
+     * los bytes de la repetición directamente desde su segmento.
+     */
+    private void procesarVerRepeticion(Mensaje mensaje) {
+        if (mensaje.getNumParametros() < 1) {
+            enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"Falta el ID de la partida"}));
+            return;
+        }
+        int idPartida = mensaje.getParametroEntero(0);
+        ArchivoRepeticiones.Ubicacion ubicacion = ServidorBattleship.buscarRepeticion(idPartida);
+        if (ubicacion == null) {
+            enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"No hay repetición de la partida " + idPartida}));
+            return;
+        }
+        try {
+            canal.out.enviarFichero(new Mensaje(Mensaje.REPETICION,
+                    new String[]{String.valueOf(idPartida), String.valueOf(ubicacion.getLongitud())}),
+                ubicacion.getCanal(), ubicacion.getPosicion(), ubicacion.getLongitud());
+        } catch (IOException e) {
+            System.err.println("Error enviando la repetición " + idPartida + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Procesa comando LISTAR_REPETICIONES: las partidas archivadas del
+     * jugador indicado o, si no se indica, las del propio cliente.
+     */
+    private void procesarListarRepeticiones(Mensaje mensaje) {
+        String jugador = (mensaje.getNumParametros() > 0) ? mensaje.getParametro(0) : canal.nombreJugador;
+        if (jugador == null) {
+            enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"Falta el nombre del jugador"}));
+            return;
+        }
+        List<Integer> ids = ServidorBattleship.repeticionesDe(jugador);
+        String[] params = new String[ids.size()];
+        for (int i = 0; i < params.length; i++) {
+            params[i] = String.valueOf(ids.get(i));
+        }
+        enviarMensaje(new Mensaje(Mensaje.REPETICIONES, params));
+    }
+    
+    /**
+     * Procesa comandos BUSCAR_PARTIDA y BUSCAR_CLASIFICATORIA: entra en la
+     * cola correspondiente. Si ya hay rival, este hilo crea la partida de
+     * los dos; si no, la creará el hilo del rival que llegue (o el barrido
+     * de la cola clasificatoria).
+     * 
+     * @param clasificatoria true para la cola por puntuación
+     */
+    private void procesarBuscarPartida(boolean clasificatoria) {
+        canal.dejarDeObservar();
+        canal.dejarVestibulo();
+        if (canal.nombreJugador == null) {
+            enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"Conéctate antes de buscar partida"}));
+            return;
+        }
+        if (canal.busqueda != null && !canal.busqueda.estaEsperando()) {
+            // Ya emparejada: la partida puede estar creándose en otro hilo
+            canal.busqueda.esperarResolucion();
+        }
+        if ((canal.busqueda != null && canal.busqueda.estaEsperando()) || ServidorBattleship.obtenerPartida(canal.socket) != null) {
+            enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"Ya estás en una partida o buscando rival"}));
+            return;
+        }
+        Emparejador.Solicitud nueva = new Emparejador.Solicitud(canal.nombreJugador, canal.socket, canal.token);
+        // Se anota antes de entrar en la cola: el barrido puede emparejarla en cuanto entra
+        canal.busqueda = nueva;
+        canal.busquedaClasificatoria = clasificatoria;
+        Emparejador.Solicitud rival = clasificatoria
+            ? ServidorBattleship.getEmparejadorClasificado().buscar(nueva,
+                ServidorBattleship.getClasificacion().getPuntuacion(canal.nombreJugador).getElo())
+            : ServidorBattleship.getEmparejador().buscar(nueva);
+        if (rival == null) {
+            enviarMensaje(TramaFija.de(Comando.ESPERANDO_RIVAL));
+        } else {
+            canal.busqueda = null;
+            ServidorBattleship.iniciarPartidaEmparejada(rival, nueva, clasificatoria);
+        }
+    }
+    
+    /**
+     * Procesa comando ESTADO_EMPAREJAMIENTO: de cada cola, jugadores en
+     * espera, parejas formadas y percentiles de la espera en ms.
+     */
+    private void procesarEstadoEmparejamiento() {
+        Emparejador rapida = ServidorBattleship.getEmparejador();
+        EmparejadorClasificado clasificatoria = ServidorBattleship.getEmparejadorClasificado();
+        enviarMensaje(new Mensaje(Mensaje.EMPAREJAMIENTO, new String[]{
+            String.valueOf(rapida.getEsperando()),
+            String.valueOf(rapida.getEmparejamientos()),
+            String.valueOf(rapida.percentilEspera(50) / 1000),
+            String.valueOf(rapida.percentilEspera(90) / 1000),
+            String.valueOf(rapida.percentilEspera(99) / 1000),
+            String.valueOf(clasificatoria.getEsperando()),
+            String.valueOf(clasificatoria.getEmparejamientos()),
+            String.valueOf(clasificatoria.percentilEspera(50) / 1000),
+            String.valueOf(clasificatoria.percentilEspera(90) / 1000),
+            String.valueOf(clasificatoria.percentilEspera(99) / 1000)}));
+    }
+    
+    /**
+     * Procesa comando ESTADO_ANALITICA: los disparos de todas las partidas
+     * en los últimos minutos indicados o desde el arranque. Sólo copia los
+     * contadores ya agregados; no toca ninguna partida.
+     */
+    private void procesarEstadoAnalitica(Mensaje mensaje) {
+        String clave = (mensaje.getNumParametros() > 1) ? mensaje.getParametro(1) : "";
+        if (!Configuracion.ANALITICA_CLAVE.isEmpty() && !MessageDigest.isEqual(
+                Configuracion.ANALITICA_CLAVE.getBytes(StandardCharsets.UTF_8), clave.getBytes(StandardCharsets.UTF_8))) {
+            enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"Clave de administración incorrecta"}));
+            return;
+        }
+        long minutos = (mensaje.getNumParametros() > 0) ? Long.parseLong(mensaje.getParametro(0)) : 0;
+        AnaliticaDisparos.Cubeta suma = AnaliticaDisparos.COMPARTIDA.consultar(minutos);
+        long disparos = 0;
+        long aciertos = 0;
+        for (int i = 0; i < AnaliticaDisparos.CASILLAS; i++) {
+            disparos += suma.disparos[i];
+            aciertos += suma.aciertos[i];
+        }
+        Barco.TipoBarco[] tipos = Barco.TipoBarco.values();
+        String[] params = new String[8 + tipos.length];
+        params[0] = String.valueOf(AnaliticaDisparos.COMPARTIDA.segundosVentana(minutos));
+        params[1] = String.valueOf(disparos);
+        params[2] = String.valueOf(aciertos);
+        params[3] = String.valueOf(suma.victorias);
+        params[4] = String.format(Locale.ROOT, "%.1f",
+            (suma.victorias > 0) ? (double) suma.disparosVictorias / suma.victorias : 0.0);
+        params[5] = lista(suma.disparos, 0, AnaliticaDisparos.CASILLAS);
+        params[6] = lista(suma.aciertos, 0, AnaliticaDisparos.CASILLAS);
+        params[7] = lista(suma.primeros, 0, AnaliticaDisparos.CASILLAS);
+        for (int t = 0; t < tipos.length; t++) {
+            params[8 + t] = tipos[t].name() + ":" + lista(suma.hundimientos, t * AnaliticaDisparos.TIPOS,
+                (t + 1) * AnaliticaDisparos.TIPOS);
+        }
+        enviarMensaje(new Mensaje(Mensaje.ANALITICA, params));
+    }
+    
+    /**
+     * Valores de un tramo de un array separados por comas.
+     */
+    private static String lista(long[] valores, int desde, int hasta) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = desde; i < hasta; i++) {
+            if (i > desde) {
+                sb.append(',');
+            }
+            sb.append(valores[i]);
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Procesa comando ESTADO_NODO: la carga de este servidor para que el
+     * proxy del clúster reparta las partidas nuevas.
+     */
+    private void procesarEstadoNodo() {
+        enviarMensaje(new Mensaje(Mensaje.NODO, new String[]{
+            String.valueOf(Configuracion.NODO_CLUSTER),
+            String.valueOf(ServidorBattleship.getNumPartidas()),
+            String.valueOf(ServidorBattleship.getNumConexiones()),
+            String.valueOf(ServidorBattleship.getVestibulo().getAbiertas())}));
+    }
+    
+    /**
+     * Procesa comando ESTADO_REPLICA: si hay réplica conectada, cuántos
+     * eventos del diario le faltan y percentiles de su retraso en µs.
+     */
+    private void procesarEstadoReplica() {
+        EmisorReplica emisor = ServidorBattleship.getEmisorReplica();
+        if (emisor == null) {
+            enviarMensaje(new Mensaje(Mensaje.REPLICA, new String[]{"0", "0", "0", "0", "0"}));
+            return;
+        }
+        enviarMensaje(new Mensaje(Mensaje.REPLICA, new String[]{
+            emisor.isConectada() ? "1" : "0",
+            String.valueOf(emisor.getPendientes()),
+            String.valueOf(emisor.percentilRetraso(50)),
+            String.valueOf(emisor.percentilRetraso(90)),
+            String.valueOf(emisor.percentilRetraso(99))}));
+    }
+    
+    /**
+     * Procesa comando CONSULTAR_PUNTUACION: la puntuación del jugador
+     * indicado o, si no se indica, la del propio cliente.
+     */
+    private void procesarConsultarPuntuacion(Mensaje mensaje) {
+        String jugador = (mensaje.getNumParametros() > 0) ? mensaje.getParametro(0) : canal.nombreJugador;
+        if (jugador == null) {
+            enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"Falta el nombre del jugador"}));
+            return;
+        }
+        Clasificacion.Puntuacion puntuacion = ServidorBattleship.getClasificacion().getPuntuacion(jugador);
+        enviarMensaje(new Mensaje(Mensaje.PUNTUACION, new String[]{jugador,
+            String.valueOf(puntuacion.getElo()), String.valueOf(puntuacion.getPartidas())}));
+    }
+    
+    /**
+     * Procesa comando LISTAR_PARTIDAS: una página del vestíbulo, ya
+     * codificada. No toma ningún lock.
+     */
+    private void procesarListarPartidas(Mensaje mensaje) {
+        int pagina = (mensaje.getNumParametros() > 0) ? mensaje.getParametroEntero(0) : 0;
+        enviarMensaje(ServidorBattleship.getVestibulo().pagina(pagina));
+    }
+    
+    /**
+     * Procesa comando SUSCRIBIR_VESTIBULO: la primera página llega ahora y
+     * de nuevo cada vez que el vestíbulo cambie, hasta que el cliente entre
+     * en una partida o deje el vestíbulo.
+     */
+    private void procesarSuscribirVestibulo() {
+        if (canal.suscripcionVestibulo == null) {
+            canal.suscripcionVestibulo = new Espectador(canal, canal.out);
+            ServidorBattleship.getVestibulo().suscribir(canal.suscripcionVestibulo);
         }
     }
     
@@ -277,11 +1887,15 @@ class ManejadorCliente implements Runnable {
      * Procesa comando CREAR_PARTIDA.
      */
     private void procesarCrearPartida(Mensaje mensaje) {
+        canal.dejarDeObservar();
+        canal.dejarVestibulo();
+        canal.cancelarBusqueda();
         try {
-            int idPartida = ServidorBattleship.crearPartida(nombreJugador, socket);            
+            int idPartida = ServidorBattleship.crearPartida(canal.nombreJugador, canal.socket, canal.token);
+            ServidorBattleship.esperarDiario(ServidorBattleship.buscarPartida(idPartida));
             String[] paramsId = {String.valueOf(idPartida)};
             enviarMensaje(new Mensaje(Mensaje.PARTIDA_CREADA, paramsId));            
-            enviarMensaje(new Mensaje(Mensaje.ESPERANDO_RIVAL));
+            enviarMensaje(TramaFija.de(Comando.ESPERANDO_RIVAL));
         } catch (IllegalStateException e) {
             String[] paramsError = {e.getMessage()};
             enviarMensaje(new Mensaje(Mensaje.ERROR, paramsError));
@@ -292,23 +1906,27 @@ class ManejadorCliente implements Runnable {
      * Procesa comando UNIR_PARTIDA.
      */
     private void procesarUnirPartida(Mensaje mensaje) {
+        canal.dejarDeObservar();
+        canal.dejarVestibulo();
+        canal.cancelarBusqueda();
         if (mensaje.getNumParametros() > 0) {
             try {
-                int idPartida = Integer.parseInt(mensaje.getParametro(0));
-                boolean exito = ServidorBattleship.unirseAPartida(idPartida, nombreJugador, socket);
+                int idPartida = mensaje.getParametroEntero(0);
+                boolean exito = ServidorBattleship.unirseAPartida(idPartida, canal.nombreJugador, canal.socket, canal.token);
                 
                 if (exito) {
-                    Partida partida = ServidorBattleship.obtenerPartida(socket);
+                    Partida partida = ServidorBattleship.obtenerPartida(canal.socket);
+                    ServidorBattleship.esperarDiario(partida);
                     if (partida != null && partida.estaCompleta()) {
                         // Notificar a ambos jugadores
-                        JugadorPartida rival = partida.obtenerRival(socket);
+                        JugadorPartida rival = partida.obtenerRival(canal.socket);
                         
                         enviarMensaje(new Mensaje(Mensaje.RIVAL_CONECTADO, new String[]{rival.getNombre()}));
-                        enviarMensajeA(rival.getSocket(), new Mensaje(Mensaje.RIVAL_CONECTADO, new String[]{nombreJugador}));
+                        enviarMensajeA(rival.getSocket(), new Mensaje(Mensaje.RIVAL_CONECTADO, new String[]{canal.nombreJugador}));
                         
                         // Solicitar colocación de barcos
-                        enviarMensaje(new Mensaje(Mensaje.COLOCAR_BARCOS));
-                        enviarMensajeA(rival.getSocket(), new Mensaje(Mensaje.COLOCAR_BARCOS));
+                        enviarMensaje(TramaFija.de(Comando.COLOCAR_BARCOS));
+                        enviarMensajeA(rival.getSocket(), TramaFija.de(Comando.COLOCAR_BARCOS));
                     }
                 } else {
                     enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"No se pudo unir a la partida"}));
@@ -326,8 +1944,8 @@ class ManejadorCliente implements Runnable {
         if (mensaje.getNumParametros() >= 4) {
             try {
                 String tipoStr = mensaje.getParametro(0);
-                int fila = Integer.parseInt(mensaje.getParametro(1));
-                int columna = Integer.parseInt(mensaje.getParametro(2));
+                int fila = mensaje.getParametroEntero(1);
+                int columna = mensaje.getParametroEntero(2);
                 String orientacionStr = mensaje.getParametro(3);
                 
                 // Parsear tipo de barco
@@ -345,16 +1963,15 @@ class ManejadorCliente implements Runnable {
                 }
                 
                 // Obtener partida y tablero del jugador
-                Partida partida = ServidorBattleship.obtenerPartida(socket);
+                Partida partida = ServidorBattleship.obtenerPartida(canal.socket);
                 if (partida != null) {
-                    JugadorPartida jugador = partida.obtenerJugador(socket);
-                    
                     Barco barco = new Barco(tipo);
                     Coordenada inicio = new Coordenada(fila, columna);
                     
-                    boolean exito = jugador.getTablero().colocarBarco(barco, inicio, orientacion);
+                    boolean exito = partida.colocarBarco(canal.socket, barco, inicio, orientacion);
                     
                     if (exito) {
+                        ServidorBattleship.esperarDiario(partida);
                         enviarMensaje(new Mensaje(Mensaje.BARCO_COLOCADO, new String[]{tipoStr}));
                     } else {
                         enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"No se pudo colocar el barco"}));
@@ -371,25 +1988,24 @@ class ManejadorCliente implements Runnable {
      * Procesa comando LISTO.
      */
     private void procesarListo(Mensaje mensaje) {
-        Partida partida = ServidorBattleship.obtenerPartida(socket);
+        Partida partida = ServidorBattleship.obtenerPartida(canal.socket);
         if (partida != null) {
-            JugadorPartida jugador = partida.obtenerJugador(socket);
-            
             // Verificar que haya colocado todos los barcos
-            if (!jugador.getTablero().todosBarcoColocados()) {
+            if (!partida.flotaColocada(canal.socket)) {
                 enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"Debes colocar todos los barcos primero"}));
                 return;
             }
             
-            partida.marcarJugadorListo(socket);
+            partida.marcarJugadorListo(canal.socket);
+            ServidorBattleship.esperarDiario(partida);
             
             if (partida.ambosJugadoresListos()) {
                 // Iniciar partida
                 JugadorPartida j1 = partida.getJugador1();
                 JugadorPartida j2 = partida.getJugador2();
                 
-                enviarMensajeA(j1.getSocket(), new Mensaje(Mensaje.TU_TURNO));
-                enviarMensajeA(j2.getSocket(), new Mensaje(Mensaje.ESPERA_TURNO));
+                enviarMensajeA(j1.getSocket(), ServidorBattleship.mensajeInicioTurno(partida));
+                enviarMensajeA(j2.getSocket(), TramaFija.de(Comando.ESPERA_TURNO));
                 
                 System.out.println("Partida " + partida.getId() + " iniciada");
             }
@@ -402,63 +2018,29 @@ class ManejadorCliente implements Runnable {
     private void procesarDisparar(Mensaje mensaje) {
         if (mensaje.getNumParametros() >= 2) {
             try {
-                int fila = Integer.parseInt(mensaje.getParametro(0));
-                int columna = Integer.parseInt(mensaje.getParametro(1));
-                
-                Partida partida = ServidorBattleship.obtenerPartida(socket);
-                if (partida == null) {
-                    enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"No estás en una partida"}));
+                int fila = mensaje.getParametroEntero(0);
+                int columna = mensaje.getParametroEntero(1);
+                if (!new Coordenada(fila, columna).esValida()) {
+                    enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"Coordenadas inválidas"}));
                     return;
                 }
                 
-                // Verificar turno
-                if (!partida.esTurnoDeJugador(socket)) {
-                    enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"No es tu turno"}));
+                Partida partida = ServidorBattleship.obtenerPartida(canal.socket);
+                if (partida == null) {
+                    enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"No estás en una partida"}));
                     return;
                 }
                 
-                // Procesar disparo
-                ResultadoDisparo resultado = partida.procesarDisparo(socket, fila, columna);
+                // Procesar disparo (el turno se comprueba de forma atómica)
+                JugadorPartida jugador = partida.obtenerJugador(canal.socket);
+                ResultadoDisparo resultado = resolverDisparo(partida, jugador, fila, columna, Partida.CUALQUIER_TURNO);
                 
-                if (resultado == ResultadoDisparo.YA_DISPARADO) {
+                if (resultado == null) {
+                    enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"No es tu turno"}));
+                } else if (resultado == ResultadoDisparo.YA_DISPARADO) {
                     enviarMensaje(new Mensaje(Mensaje.ERROR, new String[]{"Ya disparaste en esa posición"}));
                     // Devolver el turno al mismo jugador para que intente de nuevo
-                    enviarMensaje(new Mensaje(Mensaje.TU_TURNO));
-                    return;
-                }
-                
-                // Enviar resultado al jugador que disparó
-                String[] paramsRes = {resultado.name(), String.valueOf(fila), String.valueOf(columna)};
-                enviarMensaje(new Mensaje(Mensaje.RESULTADO_DISPARO, paramsRes));
-                
-                // Enviar disparo al rival
-                JugadorPartida rival = partida.obtenerRival(socket);
-                String[] paramsRival = {String.valueOf(fila), String.valueOf(columna), resultado.name()};
-                enviarMensajeA(rival.getSocket(), new Mensaje(Mensaje.DISPARO_RIVAL, paramsRival));
-                
-                // Si hundió un barco, notificar
-                if (resultado == ResultadoDisparo.HUNDIDO) {
-                    Coordenada coord = new Coordenada(fila, columna);
-                    Barco barcoHundido = rival.getTablero().obtenerBarcoHundido(coord);
-                    if (barcoHundido != null) {
-                        String tipoBarco = barcoHundido.getTipo().name();
-                        enviarMensaje(new Mensaje(Mensaje.BARCO_HUNDIDO, new String[]{tipoBarco}));
-                        enviarMensajeA(rival.getSocket(), new Mensaje(Mensaje.BARCO_HUNDIDO, new String[]{tipoBarco}));
-                    }
-                }
-                
-                // Verificar victoria
-                if (rival.getTablero().todosBarcosHundidos()) {
-                    enviarMensaje(new Mensaje(Mensaje.VICTORIA));
-                    enviarMensajeA(rival.getSocket(), new Mensaje(Mensaje.DERROTA, new String[]{nombreJugador}));
-                    
-                    System.out.println("Partida " + partida.getId() + " finalizada. Ganador: " + nombreJugador);
-                    ServidorBattleship.eliminarPartida(partida);
-                } else {
-                    // Cambiar turno
-                    partida.cambiarTurno();
-                    enviarMensaje(new Mensaje(Mensaje.ESPERA_TURNO));
-                    enviarMensajeA(rival.getSocket(), new Mensaje(Mensaje.TU_TURNO));
+                    enviarMensaje(new Mensaje(Mensaje.TU_TURNO, partida.parametrosReloj()));
                 }
                 
             } catch (NumberFormatException e) {
@@ -467,61 +2049,321 @@ class ManejadorCliente implements Runnable {
         }
     }
     
+    /**
+     * Aplica un disparo del jugador en turno y notifica a ambos jugadores.
+     * Lo usan tanto DISPARAR como el disparo automático por tiempo agotado.
+     * 
+     * @param partida Partida en curso
+     * @param tirador Jugador que dispara
+     * @param fila Fila del disparo
+     * @param columna Columna del disparo
+     * @param secuencia Turno esperado o Partida.CUALQUIER_TURNO
+     * @return Resultado, o null si no era el turno del tirador
+     */
+    static ResultadoDisparo resolverDisparo(Partida partida, JugadorPartida tirador, int fila, int columna, long secuencia) {
+        Socket socketTirador = tirador.getSocket();
+        ResultadoDisparo resultado = partida.procesarDisparo(socketTirador, fila, columna, secuencia);
+        if (resultado == null || resultado == ResultadoDisparo.YA_DISPARADO) {
+            return resultado;
+        }
+        Contadores.incrementar(Contador.DISPAROS);
+        ServidorBattleship.esperarDiario(partida);
+        
+        JugadorPartida rival = partida.obtenerRival(socketTirador);
+        String tipoBarco = null;
+        if (resultado == ResultadoDisparo.HUNDIDO) {
+            Barco barcoHundido = partida.obtenerBarcoHundido(socketTirador, new Coordenada(fila, columna));
+            if (barcoHundido != null) {
+                tipoBarco = barcoHundido.getTipo().name();
+            }
+        }
+        // Si no ha terminado, el turno ya cambió dentro de procesarDisparo
+        boolean finalizada = partida.getEstado() == Partida.EstadoPartida.FINALIZADA;
+        
+        // Jugador que disparó
+        if (ServidorBattleship.admite(socketTirador, Capacidades.TURNO_RESUELTO)) {
+            ServidorBattleship.enviarMensajeA(socketTirador, turnoResuelto(Mensaje.PROPIO, fila, columna, resultado, tipoBarco,
+                finalizada ? Mensaje.VICTORIA : Mensaje.SIGUE, finalizada ? tirador.getNombre() : Mensaje.RIVAL, null));
+        } else {
+            String[] paramsRes = {resultado.name(), String.valueOf(fila), String.valueOf(columna)};
+            ServidorBattleship.enviarMensajeA(socketTirador, new Mensaje(Mensaje.RESULTADO_DISPARO, paramsRes));
+            if (tipoBarco != null) {
+                ServidorBattleship.enviarMensajeA(socketTirador, new Mensaje(Mensaje.BARCO_HUNDIDO, new String[]{tipoBarco}));
+            }
+            ServidorBattleship.enviarMensajeA(socketTirador, TramaFija.de(finalizada ? Comando.VICTORIA : Comando.ESPERA_TURNO));
+        }
+        
+        // Rival
+        Mensaje turnoRival = finalizada ? null : ServidorBattleship.mensajeInicioTurno(partida);
+        if (ServidorBattleship.admite(rival.getSocket(), Capacidades.TURNO_RESUELTO)) {
+            ServidorBattleship.enviarMensajeA(rival.getSocket(), turnoResuelto(Mensaje.RIVAL, fila, columna, resultado, tipoBarco,
+                finalizada ? Mensaje.DERROTA : Mensaje.SIGUE, finalizada ? tirador.getNombre() : Mensaje.PROPIO, turnoRival));
+        } else {
+            String[] paramsRival = {String.valueOf(fila), String.valueOf(columna), resultado.name()};
+            ServidorBattleship.enviarMensajeA(rival.getSocket(), new Mensaje(Mensaje.DISPARO_RIVAL, paramsRival));
+            if (tipoBarco != null) {
+                ServidorBattleship.enviarMensajeA(rival.getSocket(), new Mensaje(Mensaje.BARCO_HUNDIDO, new String[]{tipoBarco}));
+            }
+            ServidorBattleship.enviarMensajeA(rival.getSocket(), finalizada
+                ? new Mensaje(Mensaje.DERROTA, new String[]{tirador.getNombre()})
+                : turnoRival);
+        }
+        
+        // Espectadores: un solo evento codificado una vez para todos
+        if (partida.tieneEspectadores()) {
+            partida.difundir(new TramaFija(Mensaje.JUGADA, new String[]{tirador.getNombre(),
+                String.valueOf(fila), String.valueOf(columna), resultado.name(),
+                (tipoBarco != null) ? tipoBarco : Mensaje.SIN_BARCO}));
+        }
+        
+        if (finalizada) {
+            partida.anunciarFin(tirador.getNombre());
+            System.out.println("Partida " + partida.getId() + " finalizada. Ganador: " + tirador.getNombre());
+            ServidorBattleship.eliminarPartida(partida);
+        }
+        return resultado;
+    }
+    
+    /**
+     * Construye el TURNO_RESUELTO de un disparo para uno de los jugadores.
+     * 
+     * @param tirador PROPIO o RIVAL según quién disparó
+     * @param fila Fila del disparo
+     * @param columna Columna del disparo
+     * @param resultado Resultado del disparo
+     * @param tipoBarco Barco hundido o null
+     * @param desenlace SIGUE, VICTORIA o DERROTA
+     * @param siguiente Dueño del siguiente turno o nombre del ganador
+     * @param turno TU_TURNO cuyos parámetros de reloj se añaden, o null
+     * @return Mensaje TURNO_RESUELTO
+     */
+    private static Mensaje turnoResuelto(String tirador, int fila, int columna, ResultadoDisparo resultado,
+            String tipoBarco, String desenlace, String siguiente, Mensaje turno) {
+        int numReloj = (turno != null) ? turno.getNumParametros() : 0;
+        String[] params = new String[7 + numReloj];
+        params[0] = tirador;
+        params[1] = String.valueOf(fila);
+        params[2] = String.valueOf(columna);
+        params[3] = resultado.name();
+        params[4] = (tipoBarco != null) ? tipoBarco : Mensaje.SIN_BARCO;
+        params[5] = desenlace;
+        params[6] = siguiente;
+        for (int i = 0; i < numReloj; i++) {
+            params[7 + i] = turno.getParametro(i);
+        }
+        return new Mensaje(Mensaje.TURNO_RESUELTO, params);
+    }
+    
+    /**
+     * Resuelve un turno cuyo reloj ha vencido: disparo aleatorio o derrota
+     * según la política configurada. Agotar el tiempo total siempre es derrota.
+     * 
+     * @param partida Partida cuyo reloj venció
+     * @param secuencia Turno en el que venció
+     */
+    static void resolverTurnoAgotado(Partida partida, long secuencia) {
+        JugadorPartida enTurno = partida.getJugadorEnTurno();
+        if (enTurno == null || partida.getSecuenciaTurno() != secuencia) {
+            return; // El jugador disparó justo a tiempo
+        }
+        
+        if (!partida.reservaAgotada() && Configuracion.POLITICA_TIEMPO == Configuracion.PoliticaTiempo.DISPARO_ALEATORIO) {
+            Coordenada coord = partida.elegirDisparoAutomatico();
+            if (coord != null) {
+                System.out.println("Partida " + partida.getId() + ": tiempo agotado, disparo automático de "
+                    + enTurno.getNombre() + " en " + coord);
+                resolverDisparo(partida, enTurno, coord.getFila(), coord.getColumna(), secuencia);
+                return;
+            }
+        }
+        
+        JugadorPartida perdedor = partida.abandonarPorTiempo(secuencia);
+        if (perdedor != null) {
+            JugadorPartida ganador = partida.obtenerRival(perdedor.getSocket());
+            ServidorBattleship.enviarMensajeA(perdedor.getSocket(), new Mensaje(Mensaje.ERROR, new String[]{"Tiempo agotado"}));
+            ServidorBattleship.enviarMensajeA(perdedor.getSocket(), new Mensaje(Mensaje.DERROTA, new String[]{ganador.getNombre()}));
+            ServidorBattleship.enviarMensajeA(ganador.getSocket(), TramaFija.de(Comando.VICTORIA));
+            
+            partida.anunciarFin(ganador.getNombre());
+            System.out.println("Partida " + partida.getId() + " finalizada por tiempo. Ganador: " + ganador.getNombre());
+            ServidorBattleship.eliminarPartida(partida);
+        }
+    }
+    
     /**
      * Envía un mensaje al cliente.
      */
     private void enviarMensaje(Mensaje mensaje) {
-        out.print(mensaje.serializar());
-        out.flush(); 
+        if (mensaje.getTipo() == Comando.ERROR) {
+            Contadores.incrementar(Contador.ERRORES_RESPUESTA);
+        }
+        // Otros hilos (rival, latido) escriben en el mismo stream: el escritor es atómico
+        try {
+            canal.out.enviar(mensaje);
+        } catch (IOException e) {
+            System.err.println("Error enviando mensaje: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Programa la próxima comprobación de latido/inactividad.
+     * 
+     * @param retraso Retraso en milisegundos
+     */
+    private void programarLatido(long retraso) {
+        temporizador = ServidorBattleship.getRueda().programar(new Runnable() {
+            public void run() {
+                comprobarInactividad();
+            }
+        }, retraso, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Ejecutada por la rueda: cierra la conexión si lleva demasiado tiempo
+     * sin tráfico, o envía PING si está ociosa. Un único temporizador por
+     * conexión que se reprograma a sí mismo, sin tocar el camino de lectura.
+     */
+    private void comprobarInactividad() {
+        if (conexion.isClosed()) {
+            return;
+        }
+        // Un cliente que no lee puede no recibir más envíos que lo detecten
+        if (salida.comprobarPlazo()) {
+            return;
+        }
+        long inactivo = System.currentTimeMillis() - ultimaActividad;
+        if (inactivo >= Configuracion.TIMEOUT_INACTIVIDAD) {
+            String nombre = principal.nombreJugador;
+            System.out.println("Cerrando conexión inactiva de " + (nombre != null ? nombre : "[sin_nombre]"));
+            // El hilo lector recibe la excepción y pasa por desconectar()
+            ServidorBattleship.cerrarSocket(conexion);
+            return;
+        }
+        
+        long proxima = Configuracion.INTERVALO_PING - inactivo;
+        if (inactivo >= Configuracion.INTERVALO_PING) {
+            // La escritura puede bloquear: no se hace en el hilo de la rueda
+            ServidorBattleship.ejecutar(new Runnable() {
+                public void run() {
+                    enviarMensajeA(conexion, TramaFija.de(Comando.PING));
+                }
+            });
+            proxima = Configuracion.INTERVALO_PING;
+        }
+        long retraso = Math.min(proxima, Configuracion.TIMEOUT_INACTIVIDAD - inactivo);
+        if (Configuracion.PLAZO_ESCRITURA > 0) {
+            // Para cerrar a tiempo a un cliente lento aunque no se le envíe nada
+            retraso = Math.min(retraso, Configuracion.PLAZO_ESCRITURA);
+        }
+        programarLatido(retraso);
     }
     
     /**
      * Envía un mensaje a un socket específico.
-     * Usa el caché de streams para evitar crear nuevos DataOutputStream.
      * 
      * @param destino Socket de destino
      * @param mensaje Mensaje a enviar
      */
     private void enviarMensajeA(Socket destino, Mensaje mensaje) {
-        try {
-            PrintWriter outDestino = ServidorBattleship.obtenerStream(destino);
-            if (outDestino != null) { 
-                // Correcto: Bloque synchronized para garantizar atomicidad [Fichero 06]
-                synchronized (outDestino) {
-                    outDestino.print(mensaje.serializar());
-                    outDestino.flush(); // Importante hacer flush [Fichero 03]
-                }
+        ServidorBattleship.enviarMensajeA(destino, mensaje);
+    }
+    
+    /**
+     * Guarda el puesto del jugador en la partida si ha perdido la conexión
+     * sin despedirse y negoció la reanudación. El rival se entera con
+     * RIVAL_AUSENTE si lo entiende; si no, sólo nota que el turno no avanza.
+     * 
+     * @param c Canal del jugador
+     * @param partida Partida del jugador
+     * @param voluntaria true si el cliente se despidió
+     * @return true si la partida sigue a la espera de que vuelva
+     */
+    private boolean suspender(Canal c, Partida partida, boolean voluntaria) {
+        if (voluntaria || Configuracion.GRACIA_REANUDAR <= 0 || !salida.admite(Capacidades.REANUDAR)) {
+            return false;
+        }
+        JugadorPartida ausente = partida.suspenderJugador(c.socket, Configuracion.GRACIA_REANUDAR);
+        if (ausente == null) {
+            return false;
+        }
+        JugadorPartida rival = partida.obtenerRival(c.socket);
+        if (rival != null && ServidorBattleship.admite(rival.getSocket(), Capacidades.REANUDAR)) {
+            enviarMensajeA(rival.getSocket(), new Mensaje(Mensaje.RIVAL_AUSENTE,
+                new String[]{String.valueOf(Configuracion.GRACIA_REANUDAR)}));
+        }
+        System.out.println(ausente.getNombre() + " perdió la conexión; se le guarda el puesto "
+            + Configuracion.GRACIA_REANUDAR + " ms");
+        return true;
+    }
+    
+    /**
+     * Deja lo que se estuviera haciendo por un canal: observación, búsqueda,
+     * vestíbulo y partida (que se suspende o se da por abandonada).
+     * 
+     * @param c Canal a cerrar
+     * @param voluntaria true si el cliente se despidió
+     */
+    private void cerrarCanal(Canal c, boolean voluntaria) {
+        c.dejarDeObservar();
+        c.dejarVestibulo();
+        c.cancelarBusqueda();
+        // Notificar a rival si está en partida, salvo que se le guarde el puesto
+        Partida partida = ServidorBattleship.obtenerPartida(c.socket);
+        if (partida != null && !suspender(c, partida, voluntaria)) {
+            JugadorPartida rival = partida.obtenerRival(c.socket);
+            if (rival != null) {
+                enviarMensajeA(rival.getSocket(), 
+                    new Mensaje(Mensaje.ERROR, new String[]{"El rival se desconectó"}));
             }
-        } catch (RuntimeException e) {
-            // Capturamos primero la excepción específica que lanza obtenerStream
-            System.err.println("Error obteniendo stream: " + e.getMessage());
-        } catch (Exception e) {
-            // Capturamos cualquier otra excepción general al final
-            System.err.println("Error enviando mensaje: " + e.getMessage());
+            ServidorBattleship.eliminarPartida(partida);
+        }
+        // Eliminar stream del caché antes de cerrar
+        ServidorBattleship.eliminarStream(c.socket);
+    }
+    
+    /**
+     * Procesa comando DESCONECTAR: en el canal 0 cierra la conexión (al
+     * salir del bucle, desde el finally de run, que es el único sitio que
+     * llama a desconectar); en otro canal sólo abandona lo que se hacía
+     * por él.
+     */
+    private void procesarDesconectar() {
+        if (canal == principal) {
+            salidaVoluntaria = true;
+            return;
         }
+        cerrarCanal(canal, true);
+        canales.remove(canal.id);
+        ServidorBattleship.cerrarSocket(canal.socket);
     }
     
     /**
-     * Desconecta al cliente y limpia recursos.
+     * Desconecta al cliente y limpia recursos de todos sus canales. Se
+     * llama una sola vez, al terminar run.
      */
     private void desconectar() {
+        Contadores.sumar(Contador.CONEXIONES_ABIERTAS, -1);
+        ServidorBattleship.getRueda().cancelar(temporizador);
+        for (Canal c : canales.values()) {
+            cerrarCanal(c, salidaVoluntaria);
+        }
+        canales.clear();
+        if (principal != null) {
+            cerrarCanal(principal, salidaVoluntaria);
+        }
         try {
-            // Notificar a rival si está en partida
-            Partida partida = ServidorBattleship.obtenerPartida(socket);
-            if (partida != null) {
-                JugadorPartida rival = partida.obtenerRival(socket);
-                if (rival != null) {
-                    enviarMensajeA(rival.getSocket(), 
-                        new Mensaje(Mensaje.ERROR, new String[]{"El rival se desconectó"}));
-                }
-                ServidorBattleship.eliminarPartida(partida);
+            String nombre = (principal != null) ? principal.nombreJugador : null;
+            String fallo = null;
+            if (salida != null) {
+                // Que salgan los últimos mensajes antes de cerrar
+                salida.esperarVaciado(Configuracion.PLAZO_ESCRITURA);
+                fallo = salida.getFallo();
             }
-            
-            // Eliminar stream del caché antes de cerrar
-            ServidorBattleship.eliminarStream(socket);
-            
-            socket.close();
-            System.out.println("Cliente " + nombreJugador + " desconectado");
+            conexion.close();
+            if (fallo != null) {
+                Contadores.incrementar(Contador.FALLOS_ESCRITURA);
+            }
+            System.out.println("Cliente " + nombre + " desconectado" + (fallo != null ? " (" + fallo + ")" : ""));
         } catch (IOException e) {
             System.err.println("Error al desconectar: " + e.getMessage());
         }
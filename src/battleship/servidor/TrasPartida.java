@@ -0,0 +1,146 @@
+package battleship.servidor;
+
+import battleship.servidor.Contadores.Contador;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trabajo que queda por hacer con una partida ya eliminada: estadísticas,
+ * archivo de la repetición, clasificación, devolver los tableros...
+ *
+ * Quien elimina la partida (normalmente el hilo del jugador que dio el
+ * último disparo) sólo la encola. Un único hilo las saca por lotes y pasa
+ * cada lote por los consumidores en el orden en que se dieron, así que
+ * éstos no necesitan lock entre sí y pueden agrupar su trabajo (un solo
+ * flush del archivo por lote, por ejemplo).
+ *
+ * La cola está acotada. Si se llena, la partida pasa a una cola de
+ * desbordadas que el mismo hilo vacía sin los pasos prescindibles (las
+ * estadísticas): quien publica nunca espera ni hace el trabajo él mismo, y
+ * lo que no se puede perder (archivo, clasificación, tableros) se hace
+ * igualmente. Las desbordadas se cuentan en los Contadores.
+ *
+ * @author Jorge González Navas
+ */
+public class TrasPartida {
+
+    /**
+     * Paso del procesado de las partidas terminadas. Se llama siempre con
+     * el monitor de TrasPartida tomado.
+     */
+    public interface Consumidor {
+
+        /**
+         * Procesa un lote de partidas terminadas.
+         *
+         * @param lote Partidas, en el orden en que se publicaron
+         */
+        void procesar(List<Partida> lote);
+    }
+
+    // Espera máxima del hilo antes de mirar las desbordadas (ms): una puede
+    // llegar justo cuando el hilo se queda esperando en la cola vacía
+    private static final long ESPERA = 100;
+
+    private final ArrayBlockingQueue<Partida> pendientes;
+
+    // Partidas que no cupieron en la cola; sólo pasan por los imprescindibles
+    private final ConcurrentLinkedQueue<Partida> desbordadas = new ConcurrentLinkedQueue<Partida>();
+
+    // Partidas que se sacan de la cola de una vez como mucho
+    private final int maximoLote;
+
+    // Pasos que se saltan con las partidas desbordadas
+    private final Consumidor[] prescindibles;
+
+    private final Consumidor[] imprescindibles;
+
+    /**
+     * Crea la cola y arranca su hilo. Cada lote pasa primero por los pasos
+     * prescindibles y después por los imprescindibles, en el orden dado.
+     *
+     * @param capacidad Partidas que pueden esperar en la cola
+     * @param maximoLote Partidas por lote como mucho
+     * @param prescindibles Pasos que se saltan si la cola se desborda
+     * @param imprescindibles Pasos que se hacen siempre
+     */
+    public TrasPartida(int capacidad, int maximoLote, Consumidor[] prescindibles, Consumidor[] imprescindibles) {
+        this.pendientes = new ArrayBlockingQueue<Partida>(Math.max(1, capacidad));
+        this.maximoLote = Math.max(1, maximoLote);
+        this.prescindibles = prescindibles.clone();
+        this.imprescindibles = imprescindibles.clone();
+        Thread hilo = new Thread(new Runnable() {
+            public void run() {
+                procesarPendientes();
+            }
+        }, "tras-partida");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /**
+     * Publica una partida terminada. Nunca bloquea.
+     *
+     * @param partida Partida ya eliminada de la lista
+     */
+    public void publicar(Partida partida) {
+        if (!pendientes.offer(partida)) {
+            Contadores.incrementar(Contador.TRAS_PARTIDA_DESBORDADA);
+            desbordadas.offer(partida);
+        }
+    }
+
+    /**
+     * Partidas esperando en la cola o entre las desbordadas.
+     *
+     * @return Número de partidas
+     */
+    public int getPendientes() {
+        return pendientes.size() + desbordadas.size();
+    }
+
+    /**
+     * Bucle del hilo: saca lotes de la cola y los procesa.
+     */
+    private void procesarPendientes() {
+        List<Partida> lote = new ArrayList<Partida>(maximoLote);
+        while (true) {
+            Partida primera;
+            try {
+                primera = pendientes.poll(ESPERA, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (primera != null) {
+                lote.add(primera);
+                pendientes.drainTo(lote, maximoLote - 1);
+                procesar(lote, prescindibles);
+                procesar(lote, imprescindibles);
+                lote.clear();
+            }
+            Partida desbordada;
+            while (lote.size() < maximoLote && (desbordada = desbordadas.poll()) != null) {
+                lote.add(desbordada);
+            }
+            if (!lote.isEmpty()) {
+                procesar(lote, imprescindibles);
+                lote.clear();
+            }
+        }
+    }
+
+    private synchronized void procesar(List<Partida> lote, Consumidor[] consumidores) {
+        for (Consumidor consumidor : consumidores) {
+            try {
+                consumidor.procesar(lote);
+            } catch (RuntimeException e) {
+                // Un paso que falla no impide los siguientes (los tableros se devuelven igual)
+                System.err.println("Error procesando partidas terminadas: " + e);
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package battleship.servidor;
+
+import battleship.protocol.Mensaje;
+import battleship.protocol.TramaFija;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Vestíbulo: las partidas abiertas (esperando rival) que se pueden unir.
+ *
+ * Los clientes leen una instantánea inmutable publicada en un campo
+ * volatile, así que listar no toma ningún lock, ni el de la lista de
+ * partidas ni el de cada partida. La instantánea sólo se rehace (copiando
+ * el array ordenado por ID) cuando se abre o se cierra una partida, y cada
+ * página se codifica una vez, la primera vez que alguien la pide, y se
+ * comparte entre todos los que la piden después.
+ *
+ * Los suscritos reciben la primera página cuando el vestíbulo cambia. Los
+ * cambios seguidos se agrupan en un solo aviso por intervalo y la entrega
+ * pasa por la cola de un Espectador, así que quien abre o cierra una
+ * partida no espera a nadie.
+ *
+ * @author Jorge González Navas
+ */
+public class Vestibulo {
+
+    /**
+     * Partida abierta.
+     */
+    private static final class Entrada {
+        final int id;
+        final String creador;
+
+        Entrada(int id, String creador) {
+            this.id = id;
+            this.creador = creador;
+        }
+    }
+
+    /**
+     * Estado del vestíbulo en un momento dado. No cambia una vez publicada.
+     */
+    private static final class Instantanea {
+        final long version;
+        // Ordenadas por ID
+        final Entrada[] entradas;
+        // Páginas codificadas bajo demanda
+        final AtomicReferenceArray<TramaFija> paginas;
+
+        Instantanea(long version, Entrada[] entradas, int tamanioPagina) {
+            this.version = version;
+            this.entradas = entradas;
+            this.paginas = new AtomicReferenceArray<TramaFija>(numPaginas(entradas.length, tamanioPagina));
+        }
+    }
+
+    private final int tamanioPagina;
+    private final long intervaloAviso;
+
+    private volatile Instantanea actual;
+
+    // Conexiones suscritas a los cambios
+    private final CopyOnWriteArrayList<Espectador> suscritos = new CopyOnWriteArrayList<Espectador>();
+
+    // Hay un aviso a los suscritos programado
+    private final AtomicBoolean avisoProgramado = new AtomicBoolean(false);
+
+    /**
+     * Crea un vestíbulo vacío.
+     *
+     * @param tamanioPagina Partidas por página
+     * @param intervaloAviso Tiempo mínimo entre avisos a los suscritos (ms)
+     */
+    public Vestibulo(int tamanioPagina, long intervaloAviso) {
+        this.tamanioPagina = Math.max(1, tamanioPagina);
+        this.intervaloAviso = intervaloAviso;
+        this.actual = new Instantanea(0, new Entrada[0], this.tamanioPagina);
+    }
+
+    /**
+     * Añade una partida abierta.
+     *
+     * @param id ID de la partida
+     * @param creador Nombre de quien la creó
+     */
+    public void abrir(int id, String creador) {
+        synchronized (this) {
+            Entrada[] entradas = actual.entradas;
+            int posicion = buscar(entradas, id);
+            if (posicion >= 0) {
+                return;
+            }
+            posicion = -posicion - 1;
+            Entrada[] nuevas = new Entrada[entradas.length + 1];
+            System.arraycopy(entradas, 0, nuevas, 0, posicion);
+            nuevas[posicion] = new Entrada(id, creador);
+            System.arraycopy(entradas, posicion, nuevas, posicion + 1, entradas.length - posicion);
+            actual = new Instantanea(actual.version + 1, nuevas, tamanioPagina);
+        }
+        programarAviso();
+    }
+
+    /**
+     * Quita una partida del vestíbulo (se completó o se eliminó). No hace
+     * nada si no estaba.
+     *
+     * @param id ID de la partida
+     */
+    public void cerrar(int id) {
+        synchronized (this) {
+            Entrada[] entradas = actual.entradas;
+            int posicion = buscar(entradas, id);
+            if (posicion < 0) {
+                return;
+            }
+            Entrada[] nuevas = new Entrada[entradas.length - 1];
+            System.arraycopy(entradas, 0, nuevas, 0, posicion);
+            System.arraycopy(entradas, posicion + 1, nuevas, posicion, nuevas.length - posicion);
+            actual = new Instantanea(actual.version + 1, nuevas, tamanioPagina);
+        }
+        programarAviso();
+    }
+
+    /**
+     * Página del listado, ya codificada:
+     * PARTIDAS|version|pagina|paginas|id|creador|id|creador...
+     *
+     * @param pagina Número de página (desde 0)
+     * @return Trama de la página (sin partidas si está fuera de rango)
+     */
+    public TramaFija pagina(int pagina) {
+        Instantanea instantanea = actual;
+        int paginas = instantanea.paginas.length();
+        if (pagina < 0 || pagina >= paginas) {
+            return codificar(instantanea, pagina);
+        }
+        TramaFija trama = instantanea.paginas.get(pagina);
+        if (trama == null) {
+            // Si dos hilos la codifican a la vez, las dos tramas son iguales
+            trama = codificar(instantanea, pagina);
+            instantanea.paginas.set(pagina, trama);
+        }
+        return trama;
+    }
+
+    /**
+     * Número de partidas abiertas.
+     *
+     * @return Partidas en el vestíbulo
+     */
+    public int getAbiertas() {
+        return actual.entradas.length;
+    }
+
+    /**
+     * Suscribe una conexión a los cambios. Recibe enseguida la primera página.
+     *
+     * @param suscrito Cola de la conexión
+     */
+    public void suscribir(Espectador suscrito) {
+        suscritos.add(suscrito);
+        suscrito.encolar(pagina(0));
+    }
+
+    /**
+     * Da de baja una suscripción.
+     *
+     * @param suscrito Cola de la conexión
+     */
+    public void desuscribir(Espectador suscrito) {
+        suscritos.remove(suscrito);
+    }
+
+    /**
+     * Programa un aviso a los suscritos si no hay ya uno pendiente. El
+     * aviso manda la página que haya al vencer, que recoge todos los
+     * cambios hechos mientras tanto.
+     */
+    private void programarAviso() {
+        if (suscritos.isEmpty() || !avisoProgramado.compareAndSet(false, true)) {
+            return;
+        }
+        ServidorBattleship.getRueda().programar(new Runnable() {
+            public void run() {
+                avisoProgramado.set(false);
+                TramaFija primera = pagina(0);
+                for (Espectador suscrito : suscritos) {
+                    if (!suscrito.encolar(primera)) {
+                        suscritos.remove(suscrito);
+                    }
+                }
+            }
+        }, intervaloAviso, TimeUnit.MILLISECONDS);
+    }
+
+    private TramaFija codificar(Instantanea instantanea, int pagina) {
+        Entrada[] entradas = instantanea.entradas;
+        int desde = (pagina >= 0) ? (int) Math.min(entradas.length, (long) pagina * tamanioPagina) : entradas.length;
+        int hasta = Math.min(entradas.length, desde + tamanioPagina);
+        String[] params = new String[3 + 2 * (hasta - desde)];
+        params[0] = String.valueOf(instantanea.version);
+        params[1] = String.valueOf(pagina);
+        params[2] = String.valueOf(instantanea.paginas.length());
+        for (int i = desde; i < hasta; i++) {
+            params[3 + 2 * (i - desde)] = String.valueOf(entradas[i].id);
+            params[4 + 2 * (i - desde)] = entradas[i].creador;
+        }
+        return new TramaFija(Mensaje.PARTIDAS, params);
+    }
+
+    /**
+     * Búsqueda binaria por ID, con el convenio de Arrays.binarySearch.
+     */
+    private static int buscar(Entrada[] entradas, int id) {
+        int bajo = 0;
+        int alto = entradas.length - 1;
+        while (bajo <= alto) {
+            int medio = (bajo + alto) >>> 1;
+            if (entradas[medio].id < id) {
+                bajo = medio + 1;
+            } else if (entradas[medio].id > id) {
+                alto = medio - 1;
+            } else {
+                return medio;
+            }
+        }
+        return -(bajo + 1);
+    }
+
+    private static int numPaginas(int partidas, int tamanioPagina) {
+        return Math.max(1, (partidas + tamanioPagina - 1) / tamanioPagina);
+    }
+}
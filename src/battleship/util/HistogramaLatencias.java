@@ -0,0 +1,103 @@
+package battleship.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latencias sin bloqueos.
+ *
+ * Cada potencia de dos se divide en SUBCUBETAS cubetas iguales, así que el
+ * error relativo de un percentil no pasa de 1/SUBCUBETAS (12,5 %) con
+ * memoria fija. Registrar es un incremento atómico en un AtomicLongArray:
+ * lo pueden hacer muchos hilos a la vez sin contender por un monitor. Los
+ * percentiles se calculan sobre una lectura no atómica del conjunto, que
+ * basta para métricas.
+ *
+ * @author Jorge González Navas
+ */
+public class HistogramaLatencias {
+
+    // Bits de cada potencia de dos que distinguen subcubetas
+    private static final int BITS_SUBCUBETA = 3;
+    private static final int SUBCUBETAS = 1 << BITS_SUBCUBETA;
+
+    // Valores hasta 2^63 - 1: 61 potencias de dos por encima de SUBCUBETAS
+    private static final int CUBETAS = (64 - BITS_SUBCUBETA) * SUBCUBETAS;
+
+    private final AtomicLongArray cuentas = new AtomicLongArray(CUBETAS);
+
+    /**
+     * Registra una muestra.
+     *
+     * @param valor Valor (negativo cuenta como 0)
+     */
+    public void registrar(long valor) {
+        cuentas.incrementAndGet(indice(Math.max(valor, 0)));
+    }
+
+    /**
+     * Número de muestras registradas.
+     *
+     * @return Muestras
+     */
+    public long getTotal() {
+        long total = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            total += cuentas.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Percentil de las muestras registradas, redondeado al límite superior
+     * de su cubeta.
+     *
+     * @param percentil Entre 0 y 100
+     * @return Valor o 0 si no hay muestras
+     */
+    public long percentil(double percentil) {
+        long[] copia = new long[CUBETAS];
+        long total = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            copia[i] = cuentas.get(i);
+            total += copia[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long objetivo = Math.max(1, (long) Math.ceil(total * percentil / 100.0));
+        long acumulado = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            acumulado += copia[i];
+            if (acumulado >= objetivo) {
+                return limiteSuperior(i);
+            }
+        }
+        return limiteSuperior(CUBETAS - 1);
+    }
+
+    /**
+     * Cubeta de un valor: los menores que SUBCUBETAS tienen la suya; el
+     * resto se reparte por su bit más alto y los BITS_SUBCUBETA siguientes.
+     */
+    static int indice(long valor) {
+        if (valor < SUBCUBETAS) {
+            return (int) valor;
+        }
+        int exponente = 63 - Long.numberOfLeadingZeros(valor);
+        int sub = (int) (valor >>> (exponente - BITS_SUBCUBETA)) & (SUBCUBETAS - 1);
+        return (exponente - BITS_SUBCUBETA + 1) * SUBCUBETAS + sub;
+    }
+
+    /**
+     * Mayor valor que cae en una cubeta.
+     */
+    static long limiteSuperior(int indice) {
+        if (indice < SUBCUBETAS) {
+            return indice;
+        }
+        int exponente = indice / SUBCUBETAS + BITS_SUBCUBETA - 1;
+        long ancho = 1L << (exponente - BITS_SUBCUBETA);
+        long inicio = (SUBCUBETAS + indice % SUBCUBETAS) * ancho;
+        return inicio + ancho - 1;
+    }
+}
@@ -0,0 +1,372 @@
+package battleship.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Rueda de temporizadores jerárquica (hierarchical timing wheel).
+ * Programar y cancelar cuestan O(1). El nivel 0 avanza tick a tick; cada nivel
+ * superior cubre una vuelta completa del inferior y, al llegar su casilla,
+ * reparte sus temporizadores en los niveles de abajo. Así un temporizador
+ * lejano no se revisa en cada vuelta del nivel 0.
+ * Un único hilo avanza la rueda y ejecuta las tareas vencidas, por lo que
+ * éstas deben ser breves.
+ *
+ * @author Jorge González Navas
+ */
+public class RuedaTemporizadores {
+
+    // Número de niveles de la jerarquía
+    private static final int NIVELES = 4;
+
+    /**
+     * Temporizador programado en la rueda.
+     */
+    public static final class Temporizador {
+
+        private static final int PENDIENTE = 0;
+        private static final int CANCELADO = 1;
+        private static final int VENCIDO = 2;
+
+        private static final AtomicIntegerFieldUpdater<Temporizador> ESTADO =
+            AtomicIntegerFieldUpdater.newUpdater(Temporizador.class, "estado");
+
+        // Tarea a ejecutar al vencer
+        private final Runnable tarea;
+        // Instante de vencimiento (ns relativos al arranque de la rueda)
+        private final long vencimiento;
+        // Enlaces dentro de la casilla (sólo los toca el hilo de la rueda)
+        private Temporizador siguiente;
+        private Temporizador anterior;
+        private Casilla casilla;
+
+        private volatile int estado = PENDIENTE;
+
+        private Temporizador(Runnable tarea, long vencimiento) {
+            this.tarea = tarea;
+            this.vencimiento = vencimiento;
+        }
+
+        /**
+         * Cancela el temporizador si aún no ha vencido.
+         *
+         * @return true si se canceló
+         */
+        public boolean cancelar() {
+            return ESTADO.compareAndSet(this, PENDIENTE, CANCELADO);
+        }
+
+        /**
+         * Indica si el temporizador fue cancelado.
+         *
+         * @return true si está cancelado
+         */
+        public boolean estaCancelado() {
+            return estado == CANCELADO;
+        }
+    }
+
+    /**
+     * Casilla de la rueda: lista doblemente enlazada de temporizadores.
+     */
+    private static final class Casilla {
+        private Temporizador cabeza;
+        private Temporizador cola;
+
+        void agregar(Temporizador t) {
+            t.casilla = this;
+            if (cabeza == null) {
+                cabeza = cola = t;
+            } else {
+                cola.siguiente = t;
+                t.anterior = cola;
+                cola = t;
+            }
+        }
+
+        Temporizador quitar(Temporizador t) {
+            Temporizador sig = t.siguiente;
+            if (t.anterior != null) {
+                t.anterior.siguiente = sig;
+            }
+            if (sig != null) {
+                sig.anterior = t.anterior;
+            }
+            if (t == cabeza) {
+                cabeza = sig;
+            }
+            if (t == cola) {
+                cola = t.anterior;
+            }
+            t.siguiente = null;
+            t.anterior = null;
+            t.casilla = null;
+            return sig;
+        }
+
+        /**
+         * Vacía la casilla y devuelve la lista de temporizadores que tenía.
+         */
+        Temporizador vaciar() {
+            Temporizador lista = cabeza;
+            cabeza = cola = null;
+            return lista;
+        }
+    }
+
+    // Duración de un tick del nivel 0 en nanosegundos
+    private final long duracionTick;
+    // Casillas por nivel: niveles[k][i] (número de casillas potencia de 2)
+    private final Casilla[][] niveles;
+    private final int bits;
+    private final int mascara;
+
+    // Altas pendientes de insertar por el hilo de la rueda
+    private final ConcurrentLinkedQueue<Temporizador> altas = new ConcurrentLinkedQueue<Temporizador>();
+    // Bajas pendientes de desenlazar
+    private final ConcurrentLinkedQueue<Temporizador> bajas = new ConcurrentLinkedQueue<Temporizador>();
+
+    // Hilo que avanza la rueda (null si se avanza a mano con avanzar)
+    private final Thread hilo;
+    private final long inicio;
+    private volatile boolean activa = true;
+
+    // Instante actual de una rueda sin hilo (ns relativos a su creación)
+    private volatile long instanteManual;
+
+    // Tick actual del nivel 0 (sólo lo toca el hilo de la rueda)
+    private long tick;
+
+    /**
+     * Constructor de la rueda.
+     *
+     * @param nombre Nombre del hilo de la rueda
+     * @param duracionTick Duración de cada tick del nivel 0
+     * @param unidad Unidad de la duración del tick
+     * @param numCasillas Casillas por nivel (se redondea a potencia de 2)
+     */
+    public RuedaTemporizadores(String nombre, long duracionTick, TimeUnit unidad, int numCasillas) {
+        this(nombre, duracionTick, unidad, numCasillas, true);
+    }
+
+    /**
+     * Rueda sin hilo propio: el tiempo sólo pasa con avanzar(), así que
+     * qué vence y en qué tick no depende del reloj. Para las pruebas.
+     *
+     * @param duracionTick Duración de cada tick del nivel 0
+     * @param unidad Unidad de la duración del tick
+     * @param numCasillas Casillas por nivel (se redondea a potencia de 2)
+     */
+    RuedaTemporizadores(long duracionTick, TimeUnit unidad, int numCasillas) {
+        this(null, duracionTick, unidad, numCasillas, false);
+    }
+
+    private RuedaTemporizadores(String nombre, long duracionTick, TimeUnit unidad, int numCasillas,
+            boolean conHilo) {
+        int b = 1;
+        while ((1 << b) < numCasillas) {
+            b++;
+        }
+        this.bits = b;
+        this.mascara = (1 << b) - 1;
+        this.niveles = new Casilla[NIVELES][1 << b];
+        for (int k = 0; k < NIVELES; k++) {
+            for (int i = 0; i <= mascara; i++) {
+                niveles[k][i] = new Casilla();
+            }
+        }
+        this.duracionTick = Math.max(1, unidad.toNanos(duracionTick));
+        this.inicio = System.nanoTime();
+
+        if (!conHilo) {
+            this.hilo = null;
+            return;
+        }
+        this.hilo = new Thread(new Runnable() {
+            public void run() {
+                bucle();
+            }
+        }, nombre);
+        this.hilo.setDaemon(true);
+        this.hilo.start();
+    }
+
+    /**
+     * Programa una tarea para ejecutarse tras un retraso.
+     *
+     * @param tarea Tarea a ejecutar en el hilo de la rueda
+     * @param retraso Retraso
+     * @param unidad Unidad del retraso
+     * @return Temporizador cancelable
+     */
+    public Temporizador programar(Runnable tarea, long retraso, TimeUnit unidad) {
+        long vencimiento = ahora() + unidad.toNanos(Math.max(0, retraso));
+        Temporizador t = new Temporizador(tarea, vencimiento);
+        altas.add(t);
+        return t;
+    }
+
+    /**
+     * Cancela un temporizador y libera su casilla en el siguiente tick.
+     *
+     * @param t Temporizador a cancelar (puede ser null)
+     */
+    public void cancelar(Temporizador t) {
+        if (t != null && t.cancelar()) {
+            bajas.add(t);
+        }
+    }
+
+    /**
+     * Detiene la rueda. Los temporizadores pendientes no se ejecutan.
+     */
+    public void detener() {
+        activa = false;
+        if (hilo != null) {
+            hilo.interrupt();
+        }
+    }
+
+    /**
+     * Avanza una rueda sin hilo hasta un instante, procesando uno a uno los
+     * ticks que terminan antes, igual que lo haría su hilo.
+     *
+     * @param nanos Instante (ns desde la creación de la rueda)
+     */
+    void avanzar(long nanos) {
+        instanteManual = nanos;
+        while ((tick + 1) * duracionTick <= nanos) {
+            avanzarTick();
+        }
+    }
+
+    /**
+     * Instante actual en ns desde la creación de la rueda.
+     */
+    private long ahora() {
+        return (hilo != null) ? System.nanoTime() - inicio : instanteManual;
+    }
+
+    private void bucle() {
+        while (activa) {
+            long siguienteTick = (tick + 1) * duracionTick;
+            long espera = siguienteTick - ahora();
+            if (espera > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(espera);
+                } catch (InterruptedException e) {
+                    if (!activa) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            avanzarTick();
+        }
+    }
+
+    private void avanzarTick() {
+        procesarBajas();
+        procesarAltas();
+        cascada();
+        expirar(niveles[0][(int) (tick & mascara)]);
+        tick++;
+    }
+
+    /**
+     * Baja a los niveles inferiores las casillas de nivel superior que
+     * empiezan en este tick. Se recorre de arriba abajo para que lo que
+     * cae de un nivel alto se reparta en el mismo tick.
+     */
+    private void cascada() {
+        for (int k = NIVELES - 1; k >= 1; k--) {
+            int desplazamiento = k * bits;
+            if ((tick & ((1L << desplazamiento) - 1)) != 0) {
+                continue;
+            }
+            Temporizador t = niveles[k][(int) ((tick >>> desplazamiento) & mascara)].vaciar();
+            while (t != null) {
+                Temporizador sig = t.siguiente;
+                t.siguiente = null;
+                t.anterior = null;
+                t.casilla = null;
+                if (!t.estaCancelado()) {
+                    insertar(t);
+                }
+                t = sig;
+            }
+        }
+    }
+
+    /**
+     * Ejecuta los temporizadores de la casilla actual del nivel 0.
+     */
+    private void expirar(Casilla casilla) {
+        long ahora = ahora();
+        Temporizador t = casilla.cabeza;
+        while (t != null) {
+            if (t.estaCancelado()) {
+                t = casilla.quitar(t);
+            } else if (t.vencimiento <= ahora) {
+                Temporizador sig = casilla.quitar(t);
+                if (Temporizador.ESTADO.compareAndSet(t, Temporizador.PENDIENTE, Temporizador.VENCIDO)) {
+                    ejecutar(t);
+                }
+                t = sig;
+            } else {
+                t = t.siguiente;
+            }
+        }
+    }
+
+    /**
+     * Coloca un temporizador en el nivel más bajo que alcanza su vencimiento.
+     */
+    private void insertar(Temporizador t) {
+        // Si ya venció, va a la casilla actual del nivel 0
+        long destino = Math.max(t.vencimiento / duracionTick, tick);
+        long delta = destino - tick;
+        for (int k = 0; k < NIVELES; k++) {
+            int desplazamiento = k * bits;
+            if (delta < (1L << (desplazamiento + bits)) || k == NIVELES - 1) {
+                if (k == NIVELES - 1 && delta >= (1L << (desplazamiento + bits))) {
+                    // Fuera del alcance: se aparca en la última casilla y volverá a bajar
+                    destino = tick + (1L << (desplazamiento + bits)) - (1L << desplazamiento);
+                }
+                niveles[k][(int) ((destino >>> desplazamiento) & mascara)].agregar(t);
+                return;
+            }
+        }
+    }
+
+    private void procesarBajas() {
+        Temporizador t;
+        while ((t = bajas.poll()) != null) {
+            if (t.casilla != null) {
+                t.casilla.quitar(t);
+            }
+        }
+    }
+
+    private void procesarAltas() {
+        // Limitar el trabajo por tick para no retrasar la rueda en avalanchas
+        for (int i = 0; i < 100000; i++) {
+            Temporizador t = altas.poll();
+            if (t == null) {
+                return;
+            }
+            if (!t.estaCancelado()) {
+                insertar(t);
+            }
+        }
+    }
+
+    private static void ejecutar(Temporizador t) {
+        try {
+            t.tarea.run();
+        } catch (Throwable e) {
+            System.err.println("Error en temporizador: " + e.getMessage());
+        }
+    }
+}
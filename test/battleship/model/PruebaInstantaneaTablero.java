@@ -0,0 +1,145 @@
+package battleship.model;
+
+import java.util.Arrays;
+
+/**
+ * Prueba de InstantaneaTablero: la foto de un tablero con barcos tocados,
+ * hundidos e intactos vuelve igual de bytes y de base64, restaurarla en un
+ * tablero nuevo da la misma foto, y la vista del rival sólo lleva los
+ * barcos hundidos.
+ *
+ * Los disparos fuera del tablero no deben dejar rastro en la foto (una
+ * casilla 105 caería en los bits de tocados), y los bytes o el texto con
+ * otra longitud o caracteres que no son base64 se rechazan.
+ *
+ * Uso: java -cp bin:bin-test battleship.model.PruebaInstantaneaTablero
+ *
+ * @author Jorge González Navas
+ */
+public class PruebaInstantaneaTablero {
+
+    private static int fallos;
+
+    public static void main(String[] args) {
+        probarIdaYVuelta();
+        probarDisparosFuera();
+        probarEntradasInvalidas();
+        if (fallos > 0) {
+            System.out.println(fallos + " fallos");
+            System.exit(1);
+        }
+        System.out.println("PruebaInstantaneaTablero: OK");
+    }
+
+    /**
+     * Tablero con la flota completa: un destructor hundido, un acorazado
+     * tocado y dos disparos al agua.
+     */
+    static Tablero tableroJugado() {
+        Tablero tablero = flota();
+        for (int[] disparo : new int[][]{{7, 0}, {7, 1}, {2, 3}, {4, 4}, {9, 0}}) {
+            tablero.recibirDisparo(new Coordenada(disparo[0], disparo[1]));
+        }
+        return tablero;
+    }
+
+    /**
+     * Tablero con los cinco barcos colocados y sin disparos.
+     */
+    static Tablero flota() {
+        Tablero tablero = new Tablero();
+        tablero.colocarBarco(new Barco(Barco.TipoBarco.PORTAAVIONES), new Coordenada(0, 0), Barco.Orientacion.HORIZONTAL);
+        tablero.colocarBarco(new Barco(Barco.TipoBarco.ACORAZADO), new Coordenada(2, 3), Barco.Orientacion.VERTICAL);
+        tablero.colocarBarco(new Barco(Barco.TipoBarco.CRUCERO), new Coordenada(9, 7), Barco.Orientacion.HORIZONTAL);
+        tablero.colocarBarco(new Barco(Barco.TipoBarco.SUBMARINO), new Coordenada(5, 9), Barco.Orientacion.VERTICAL);
+        tablero.colocarBarco(new Barco(Barco.TipoBarco.DESTRUCTOR), new Coordenada(7, 0), Barco.Orientacion.HORIZONTAL);
+        return tablero;
+    }
+
+    private static void probarIdaYVuelta() {
+        Tablero tablero = tableroJugado();
+        for (boolean conBarcos : new boolean[]{true, false}) {
+            InstantaneaTablero foto = tablero.capturar(conBarcos);
+            String caso = conBarcos ? "vista del dueño" : "vista del rival";
+            comprobar(Arrays.equals(foto.toBytes(), InstantaneaTablero.desdeBytes(foto.toBytes()).toBytes()),
+                caso + ": cambia al pasar por bytes");
+            comprobar(foto.toBase64().equals(InstantaneaTablero.desdeBase64(foto.toBase64()).toBase64()),
+                caso + ": cambia al pasar por base64");
+            comprobar(foto.toBase64().length() == 43, caso + ": base64 de " + foto.toBase64().length() + " caracteres");
+            comprobar(foto.incluyeBarcos() == conBarcos, caso + ": incluyeBarcos() = " + foto.incluyeBarcos());
+
+            comprobar(foto.estaDisparada(70) && foto.estaTocada(70), caso + ": 7,0 no consta tocada");
+            comprobar(foto.estaDisparada(23) && foto.estaTocada(23), caso + ": 2,3 no consta tocada");
+            comprobar(foto.estaDisparada(44) && !foto.estaTocada(44), caso + ": 4,4 no consta agua");
+            comprobar(!foto.estaDisparada(0), caso + ": 0,0 consta disparada");
+            comprobar(foto.tieneBarco(Barco.TipoBarco.DESTRUCTOR), caso + ": falta el destructor hundido");
+            comprobar(new Coordenada(7, 0).equals(foto.getInicioBarco(Barco.TipoBarco.DESTRUCTOR)),
+                caso + ": el destructor empieza en " + foto.getInicioBarco(Barco.TipoBarco.DESTRUCTOR));
+            comprobar(foto.tieneBarco(Barco.TipoBarco.ACORAZADO) == conBarcos,
+                caso + ": el acorazado tocado " + (conBarcos ? "falta" : "se ve"));
+        }
+
+        // Restaurar la vista del dueño reconstruye barcos e impactos
+        InstantaneaTablero foto = tablero.capturar(true);
+        Tablero restaurado = new Tablero();
+        restaurado.restaurar(InstantaneaTablero.desdeBase64(foto.toBase64()));
+        comprobar(Arrays.equals(foto.toBytes(), restaurado.capturar(true).toBytes()), "restaurar cambia la foto");
+        comprobar(restaurado.getBarcos().size() == Barco.TipoBarco.values().length,
+            "restaurado con " + restaurado.getBarcos().size() + " barcos");
+        comprobar(restaurado.obtenerBarcoHundido(new Coordenada(7, 1)) != null, "el destructor restaurado no está hundido");
+        comprobar(restaurado.recibirDisparo(new Coordenada(2, 3)) == ResultadoDisparo.YA_DISPARADO,
+            "el impacto restaurado se puede repetir");
+        comprobar(restaurado.recibirDisparo(new Coordenada(3, 3)) == ResultadoDisparo.TOCADO,
+            "el acorazado restaurado no recibe impactos");
+
+        InstantaneaTablero vacia = InstantaneaTablero.vacia(true);
+        for (int casilla = 0; casilla < 100; casilla++) {
+            comprobar(!vacia.estaDisparada(casilla), "la foto vacía tiene disparada la casilla " + casilla);
+        }
+        comprobar(!vacia.tieneBarco(Barco.TipoBarco.PORTAAVIONES), "la foto vacía tiene barcos");
+    }
+
+    /**
+     * Un disparo fuera del tablero no cambia ni el tablero ni su foto.
+     */
+    private static void probarDisparosFuera() {
+        Tablero tablero = tableroJugado();
+        byte[] antes = tablero.capturar(true).toBytes();
+        for (int[] disparo : new int[][]{{10, 5}, {-1, 3}, {3, 10}, {12, 12}}) {
+            Coordenada coord = new Coordenada(disparo[0], disparo[1]);
+            comprobar(!coord.esValida(), coord + " se da por válida");
+            tablero.recibirDisparo(coord);
+        }
+        comprobar(Arrays.equals(antes, tablero.capturar(true).toBytes()), "un disparo fuera del tablero cambió la foto");
+    }
+
+    private static void probarEntradasInvalidas() {
+        rechaza(new byte[InstantaneaTablero.BYTES - 1], null, "bytes de menos");
+        rechaza(new byte[InstantaneaTablero.BYTES + 1], null, "bytes de más");
+        String texto = tableroJugado().capturar(true).toBase64();
+        rechaza(null, texto.substring(1), "base64 corto");
+        rechaza(null, texto + "A", "base64 largo");
+        rechaza(null, "*" + texto.substring(1), "carácter que no es base64");
+        rechaza(null, "ñ" + texto.substring(1), "carácter fuera de ASCII");
+    }
+
+    private static void rechaza(byte[] bytes, String texto, String caso) {
+        try {
+            if (bytes != null) {
+                InstantaneaTablero.desdeBytes(bytes);
+            } else {
+                InstantaneaTablero.desdeBase64(texto);
+            }
+            comprobar(false, caso + ": se aceptó");
+        } catch (IllegalArgumentException e) {
+            // Esperado
+        }
+    }
+
+    private static void comprobar(boolean condicion, String mensaje) {
+        if (!condicion) {
+            fallos++;
+            System.out.println("FALLO: " + mensaje);
+        }
+    }
+}
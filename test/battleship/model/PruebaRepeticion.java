@@ -0,0 +1,140 @@
+package battleship.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Prueba de Repeticion: una partida completa, con disparos vecinos (que se
+ * codifican como desplazamiento) y saltos, vuelve igual de toBytes() y al
+ * reproducirla sobre los tableros iniciales termina con la flota del
+ * perdedor hundida.
+ *
+ * Una casilla fuera del tablero no debe poder reconstruirse, ni escrita tal
+ * cual ni como desplazamiento desde la anterior del mismo tirador, y una
+ * flota incompleta no tiene repetición.
+ *
+ * Uso: java -cp bin:bin-test battleship.model.PruebaRepeticion
+ *
+ * @author Jorge González Navas
+ */
+public class PruebaRepeticion {
+
+    private static int fallos;
+
+    public static void main(String[] args) {
+        probarIdaYVuelta();
+        probarCasillasFuera();
+        probarFlotaIncompleta();
+        if (fallos > 0) {
+            System.out.println(fallos + " fallos");
+            System.exit(1);
+        }
+        System.out.println("PruebaRepeticion: OK");
+    }
+
+    /**
+     * Flota completa desplazada unas columnas (0 o 5), en filas alternas.
+     */
+    private static Tablero flota(int columna) {
+        Tablero tablero = new Tablero();
+        Barco.TipoBarco[] tipos = Barco.TipoBarco.values();
+        for (int i = 0; i < tipos.length; i++) {
+            Coordenada inicio = new Coordenada(2 * i, (tipos[i].getTamanio() == 5) ? 0 : columna);
+            tablero.colocarBarco(new Barco(tipos[i]), inicio, Barco.Orientacion.HORIZONTAL);
+        }
+        return tablero;
+    }
+
+    private static void probarIdaYVuelta() {
+        Tablero tablero1 = flota(0);
+        Tablero tablero2 = flota(5);
+
+        // El jugador 1 barre las casillas de la flota rival; el 2 dispara al agua
+        List<Integer> disparos = new ArrayList<Integer>();
+        int agua = 99;
+        for (Barco barco : tablero2.getBarcos()) {
+            for (Coordenada coord : barco.getPosiciones()) {
+                disparos.add(coord.getFila() * 10 + coord.getColumna());
+                disparos.add(agua--);
+            }
+        }
+        disparos.remove(disparos.size() - 1); // Gana con su último disparo
+        byte[] casillas = new byte[disparos.size() + 8];
+        for (int k = 0; k < disparos.size(); k++) {
+            casillas[k] = (byte) (int) disparos.get(k);
+        }
+
+        Repeticion original = Repeticion.crear(7, 1700000000000L, "Ana", "Bárbara Ñ", 1, tablero1, tablero2,
+            casillas, disparos.size());
+        byte[] bytes = original.toBytes();
+        Repeticion leida = Repeticion.desdeBytes(bytes);
+
+        comprobar(leida.getId() == 7, "ID " + leida.getId());
+        comprobar(leida.getFin() == 1700000000000L, "fin " + leida.getFin());
+        comprobar("Ana".equals(leida.getNombre(1)) && "Bárbara Ñ".equals(leida.getNombre(2)),
+            "nombres " + leida.getNombre(1) + ", " + leida.getNombre(2));
+        comprobar(leida.getGanador() == 1, "ganador " + leida.getGanador());
+        comprobar(leida.getNumDisparos() == disparos.size(), leida.getNumDisparos() + " disparos");
+        for (int k = 0; k < Math.min(leida.getNumDisparos(), disparos.size()); k++) {
+            Coordenada coord = leida.getDisparo(k);
+            comprobar(coord.getFila() * 10 + coord.getColumna() == disparos.get(k),
+                "disparo " + k + ": " + coord + " en vez de " + disparos.get(k));
+            comprobar(leida.getTirador(k) == 1 + k % 2, "tirador del disparo " + k);
+        }
+        comprobar(Arrays.equals(bytes, leida.toBytes()), "toBytes() cambia tras desdeBytes()");
+
+        // Reproducir: las flotas son las de partida y el perdedor acaba hundido
+        Tablero[] tableros = {leida.tableroInicial(1), leida.tableroInicial(2)};
+        comprobar(Arrays.equals(tableros[0].capturar(true).toBytes(), flota(0).capturar(true).toBytes()),
+            "flota inicial del jugador 1");
+        comprobar(Arrays.equals(tableros[1].capturar(true).toBytes(), tablero2.capturar(true).toBytes()),
+            "flota inicial del jugador 2");
+        for (int k = 0; k < leida.getNumDisparos(); k++) {
+            ResultadoDisparo resultado = tableros[2 - leida.getTirador(k)].recibirDisparo(leida.getDisparo(k));
+            comprobar(resultado != ResultadoDisparo.YA_DISPARADO, "disparo " + k + " repetido");
+        }
+        comprobar(tableros[1].todosBarcosHundidos(), "la flota del jugador 2 no acaba hundida");
+        comprobar(!tableros[0].todosBarcosHundidos(), "la flota del jugador 1 acaba hundida");
+    }
+
+    /**
+     * Casillas de 100 en adelante: escritas con sus 7 bits o alcanzadas con
+     * un desplazamiento desde la fila 9.
+     */
+    private static void probarCasillasFuera() {
+        rechaza(new byte[]{(byte) 105}, "casilla 105 escrita tal cual");
+        rechaza(new byte[]{(byte) 127}, "casilla 127 escrita tal cual");
+        rechaza(new byte[]{95, 0, (byte) 105}, "casilla 105 como desplazamiento de 95");
+        rechaza(new byte[]{98, 0, (byte) 100}, "casilla 100 como desplazamiento de 98");
+        rechaza(new byte[]{5, 0, -5}, "casilla -5 como desplazamiento de 5");
+    }
+
+    private static void rechaza(byte[] casillas, String caso) {
+        byte[] bytes = Repeticion.crear(1, 0, "a", "b", 0, flota(0), flota(5), casillas, casillas.length).toBytes();
+        try {
+            Repeticion.desdeBytes(bytes);
+            comprobar(false, caso + ": se aceptó");
+        } catch (IllegalArgumentException e) {
+            // Esperado
+        }
+    }
+
+    private static void probarFlotaIncompleta() {
+        Tablero incompleto = new Tablero();
+        incompleto.colocarBarco(new Barco(Barco.TipoBarco.DESTRUCTOR), new Coordenada(0, 0), Barco.Orientacion.HORIZONTAL);
+        try {
+            Repeticion.crear(1, 0, "a", "b", 0, flota(0), incompleto, new byte[0], 0);
+            comprobar(false, "se creó una repetición con una flota incompleta");
+        } catch (IllegalArgumentException e) {
+            // Esperado
+        }
+    }
+
+    private static void comprobar(boolean condicion, String mensaje) {
+        if (!condicion) {
+            fallos++;
+            System.out.println("FALLO: " + mensaje);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package battleship.persistencia;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prueba de DiarioPartidas a través de reinicios: lo registrado en una
+ * ejecución debe reaparecer entero y en orden al recuperar en la siguiente,
+ * venga de la instantánea o de los segmentos, y las secuencias nuevas deben
+ * seguir a las recuperadas.
+ *
+ * El estado que se vuelca en las instantáneas es la lista de eventos ya
+ * registrados, con su secuencia, y al recuperar se saltan los eventos que
+ * ya recoge (como hace Partida.reaplicar). Los segmentos son pequeños para
+ * que se roten varias veces, y se piden compactaciones a mitad de escritura
+ * para que parte de los eventos acaben sólo en una instantánea.
+ *
+ * Uso: java -cp bin:bin-test battleship.persistencia.PruebaDiarioPartidas
+ *
+ * @author Jorge González Navas
+ */
+public class PruebaDiarioPartidas {
+
+    // Tamaño de segmento: caben unas decenas de eventos
+    private static final int SEGMENTO = 2048;
+
+    private static int fallos;
+
+    public static void main(String[] args) throws Exception {
+        File directorio = Files.createTempDirectory("diario-prueba").toFile();
+        try {
+            List<String> esperado = new ArrayList<String>();
+            for (int ejecucion = 0; ejecucion < 3; ejecucion++) {
+                ejecutar(directorio, ejecucion, esperado);
+            }
+            // Una última recuperación sin escribir nada
+            Estado estado = new Estado();
+            DiarioPartidas diario = nuevo(directorio);
+            diario.recuperar(estado.recuperacion());
+            comprobarIguales("recuperación final", esperado, estado.eventos);
+        } finally {
+            borrar(directorio);
+        }
+        if (fallos > 0) {
+            System.out.println(fallos + " fallos");
+            System.exit(1);
+        }
+        System.out.println("PruebaDiarioPartidas: OK");
+    }
+
+    /**
+     * Recupera lo anterior, lo compara con lo esperado y registra una tanda
+     * de partidas nuevas antes de cerrar.
+     */
+    private static void ejecutar(File directorio, int ejecucion, List<String> esperado) throws InterruptedException {
+        String caso = "ejecución " + ejecucion;
+        final Estado estado = new Estado();
+        DiarioPartidas diario = nuevo(directorio);
+        try {
+            diario.recuperar(estado.recuperacion());
+        } catch (IOException e) {
+            comprobar(false, caso + ": no se pudo recuperar: " + e.getMessage());
+            return;
+        }
+        comprobarIguales(caso, esperado, estado.eventos);
+        long ultimaRecuperada = estado.ultima;
+        try {
+            diario.iniciar(estado);
+        } catch (IOException e) {
+            comprobar(false, caso + ": no se pudo iniciar: " + e.getMessage());
+            return;
+        }
+
+        long ultima = 0;
+        for (int i = 0; i < 20; i++) {
+            int partida = ejecucion * 100 + i;
+            for (EventoDiario evento : partida(partida)) {
+                synchronized (estado) {
+                    ultima = diario.registrar(evento);
+                    comprobar(ultima > estado.ultima, caso + ": secuencia " + ultima + " tras " + estado.ultima);
+                    estado.aplicar(evento);
+                }
+            }
+            if (i % 7 == 3) {
+                diario.pedirCompactacion();
+                Thread.sleep(20);
+            }
+        }
+        comprobar(estado.eventos.size() > esperado.size(), caso + ": no se registró nada");
+        comprobar(ultima > ultimaRecuperada, caso + ": las secuencias no siguen a las recuperadas");
+        diario.esperar(ultima);
+        diario.cerrar();
+        esperado.clear();
+        esperado.addAll(estado.eventos);
+    }
+
+    /**
+     * Eventos de una partida corta, con textos no ASCII y un token nulo.
+     */
+    private static List<EventoDiario> partida(int id) {
+        List<EventoDiario> eventos = new ArrayList<EventoDiario>();
+        eventos.add(EventoDiario.creada(id, "Ñoño " + id, "token-" + id));
+        eventos.add(EventoDiario.unido(id, "Zoë", null));
+        for (int tipo = 0; tipo < 5; tipo++) {
+            eventos.add(EventoDiario.barco(id, 1, tipo, 2 * tipo, 0, 0));
+            eventos.add(EventoDiario.barco(id, 2, tipo, 0, 2 * tipo, 1));
+        }
+        eventos.add(EventoDiario.listo(id, 1));
+        eventos.add(EventoDiario.listo(id, 2));
+        for (int k = 0; k < 6; k++) {
+            eventos.add(EventoDiario.disparo(id, 1 + k % 2, k, (id + k) % 10));
+        }
+        if (id % 2 == 0) {
+            eventos.add(EventoDiario.fin(id));
+        }
+        return eventos;
+    }
+
+    private static DiarioPartidas nuevo(File directorio) {
+        return new DiarioPartidas(directorio, DiarioPartidas.PoliticaFsync.SIEMPRE, 10, SEGMENTO, 3600000);
+    }
+
+    /**
+     * Texto con todos los campos del evento, para comparar.
+     */
+    private static String describir(EventoDiario evento) {
+        StringBuilder sb = new StringBuilder(evento.toString());
+        int datos = (evento.getTipo() == EventoDiario.Tipo.BARCO) ? 4
+            : (evento.getTipo() == EventoDiario.Tipo.DISPARO) ? 2 : 0;
+        for (int i = 0; i < datos; i++) {
+            sb.append(' ').append(evento.getDato(i));
+        }
+        return sb.append(' ').append(evento.getNombre()).append(' ').append(evento.getToken()).toString();
+    }
+
+    private static void comprobarIguales(String caso, List<String> esperado, List<String> recuperado) {
+        comprobar(esperado.size() == recuperado.size(), caso + ": " + recuperado.size() + " eventos recuperados de "
+            + esperado.size());
+        for (int i = 0; i < Math.min(esperado.size(), recuperado.size()); i++) {
+            if (!esperado.get(i).equals(recuperado.get(i))) {
+                comprobar(false, caso + ": evento " + i + " es " + recuperado.get(i) + " y debía ser " + esperado.get(i));
+                return;
+            }
+        }
+    }
+
+    private static void borrar(File archivo) {
+        File[] hijos = archivo.listFiles();
+        if (hijos != null) {
+            for (File hijo : hijos) {
+                borrar(hijo);
+            }
+        }
+        archivo.delete();
+    }
+
+    private static void comprobar(boolean condicion, String mensaje) {
+        if (!condicion) {
+            fallos++;
+            System.out.println("FALLO: " + mensaje);
+        }
+    }
+
+    /**
+     * Eventos aplicados en orden: es la fuente de las instantáneas y el
+     * destino de la recuperación.
+     */
+    private static final class Estado implements DiarioPartidas.FuenteEstado {
+        final List<String> eventos = new ArrayList<String>();
+        long ultima;
+
+        void aplicar(EventoDiario evento) {
+            eventos.add(describir(evento));
+            ultima = evento.getSecuencia();
+        }
+
+        @Override
+        public synchronized void escribirInstantanea(DataOutputStream salida) throws IOException {
+            salida.writeLong(ultima);
+            salida.writeInt(eventos.size());
+            for (String evento : eventos) {
+                salida.writeUTF(evento);
+            }
+        }
+
+        DiarioPartidas.Recuperacion recuperacion() {
+            return new DiarioPartidas.Recuperacion() {
+                public void cargarInstantanea(DataInputStream entrada) throws IOException {
+                    ultima = entrada.readLong();
+                    int num = entrada.readInt();
+                    for (int i = 0; i < num; i++) {
+                        eventos.add(entrada.readUTF());
+                    }
+                }
+
+                public void aplicar(EventoDiario evento) {
+                    // Lo que ya recoge la instantánea se salta por secuencia
+                    if (evento.getSecuencia() > ultima) {
+                        Estado.this.aplicar(evento);
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package battleship.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Prueba de ida y vuelta de los codecs de texto y binario: cada mensaje se
+ * escribe con EscritorMensajes y se vuelve a leer con LectorMensajes, que
+ * recibe los bytes de pocos en pocos para pasar por las tramas a medias.
+ * El mensaje leído debe tener el mismo comando, tipo y parámetros.
+ *
+ * También comprueba el canal de la capacidad MC, las reglas propias del
+ * texto (campos vacíos del final, líneas vacías) y que una trama que la
+ * admisión rechaza llega descartada, sin parámetros, y no desordena las
+ * siguientes.
+ *
+ * Uso: java -cp bin:bin-test battleship.protocol.PruebaCodecs
+ *
+ * @author Jorge González Navas
+ */
+public class PruebaCodecs {
+
+    private static final Codec[] CODECS = {CodecTexto.INSTANCIA, CodecBinario.INSTANCIA};
+
+    // Mensajes que deben volver iguales con los dos codecs
+    private static final Mensaje[] MENSAJES = {
+        new Mensaje("PING", new String[0]),
+        new Mensaje("DISPARAR", new String[]{"3", "4"}),
+        new Mensaje("RESULTADO_DISPARO", new String[]{"HUNDIDO", "9", "0"}),
+        new Mensaje("CONECTAR", new String[]{"José Ñandú", "BIN,TR,MC"}),
+        new Mensaje("COLOCAR_BARCO", new String[]{"PORTAAVIONES", "0", "0", "H"}),
+        // Enteros grandes, negativos y no canónicos (el binario los deja como texto)
+        new Mensaje("ESPERA_TURNO", new String[]{"127", "128", "1000000", "-5", "007", "+3"}),
+        // Campo vacío en medio
+        new Mensaje("ERROR", new String[]{"a", "", "b"}),
+        // Comando que no está en la enumeración
+        new Mensaje("COMANDO_RARO", new String[]{"x", "42"}),
+        new Mensaje("OBSERVANDO", new String[]{"1", textoLargo(300)})
+    };
+
+    private static int fallos;
+
+    public static void main(String[] args) throws IOException {
+        for (Codec codec : CODECS) {
+            probarIdaYVuelta(codec, false);
+            probarIdaYVuelta(codec, true);
+            probarAdmision(codec);
+        }
+        probarReglasTexto();
+        if (fallos > 0) {
+            System.out.println(fallos + " fallos");
+            System.exit(1);
+        }
+        System.out.println("PruebaCodecs: OK");
+    }
+
+    /**
+     * Escribe todos los mensajes, con canal si es multicanal, y los lee en
+     * el mismo orden.
+     */
+    private static void probarIdaYVuelta(Codec codec, boolean multicanal) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        EscritorMensajes escritor = new EscritorMensajes(bytes, codec);
+        if (multicanal) {
+            escritor.setCapacidades(Capacidades.MULTICANAL);
+            escritor.enviarYCambiarCodec(new Mensaje("PING", new String[0]), codec);
+        }
+        for (int i = 0; i < MENSAJES.length; i++) {
+            escritor.enviar(MENSAJES[i], i);
+        }
+
+        LectorMensajes lector = new LectorMensajes(new EntradaTroceada(bytes.toByteArray()), codec);
+        String caso = codec.getNombre() + (multicanal ? " MC" : "");
+        if (multicanal) {
+            lector.leer();
+            lector.setMulticanal(true);
+        }
+        for (int i = 0; i < MENSAJES.length; i++) {
+            MensajeRecibido leido = lector.leer();
+            if (leido == null) {
+                comprobar(false, caso + ": faltan mensajes desde el " + i);
+                return;
+            }
+            comprobarIgual(caso, MENSAJES[i], leido);
+            comprobar(lector.getCanal() == (multicanal ? i : 0), caso + ": canal " + lector.getCanal()
+                + " en el mensaje " + i);
+        }
+        comprobar(lector.leer() == null, caso + ": sobran mensajes");
+    }
+
+    /**
+     * Rechaza uno de cada dos mensajes: los rechazados llegan descartados,
+     * con su tipo y sin parámetros, y los demás llegan enteros.
+     */
+    private static void probarAdmision(Codec codec) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        EscritorMensajes escritor = new EscritorMensajes(bytes, codec);
+        for (Mensaje mensaje : MENSAJES) {
+            escritor.enviar(mensaje);
+        }
+        LectorMensajes lector = new LectorMensajes(new EntradaTroceada(bytes.toByteArray()), codec);
+        final Comando[] consultados = new Comando[MENSAJES.length];
+        lector.setAdmision(new LectorMensajes.Admision() {
+            private int n;
+
+            public boolean admitir(Comando tipo) {
+                consultados[n] = tipo;
+                return n++ % 2 == 1;
+            }
+        });
+        String caso = codec.getNombre() + " admisión";
+        for (int i = 0; i < MENSAJES.length; i++) {
+            MensajeRecibido leido = lector.leer();
+            if (leido == null) {
+                comprobar(false, caso + ": faltan mensajes desde el " + i);
+                return;
+            }
+            comprobar(consultados[i] == MENSAJES[i].getTipo(), caso + ": se consultó " + consultados[i]
+                + " para " + MENSAJES[i].getComando());
+            if (i % 2 == 0) {
+                comprobar(leido.isDescartado(), caso + ": " + MENSAJES[i].getComando() + " no llegó descartado");
+                comprobar(leido.getTipo() == MENSAJES[i].getTipo(), caso + ": descartado con tipo " + leido.getTipo());
+                comprobar(leido.getNumParametros() == 0, caso + ": descartado con parámetros");
+            } else {
+                comprobar(!leido.isDescartado(), caso + ": " + MENSAJES[i].getComando() + " llegó descartado");
+                comprobarIgual(caso, MENSAJES[i], leido);
+            }
+        }
+        comprobar(lector.leer() == null, caso + ": sobran mensajes");
+    }
+
+    /**
+     * El texto descarta los campos vacíos del final, como String.split, y
+     * salta las líneas vacías o hechas sólo de delimitadores.
+     */
+    private static void probarReglasTexto() throws IOException {
+        byte[] entrada = "\r\n||\nDISPARAR|1|2||\r\n|x\n".getBytes("UTF-8");
+        LectorMensajes lector = new LectorMensajes(new EntradaTroceada(entrada), CodecTexto.INSTANCIA);
+        MensajeRecibido leido = lector.leer();
+        comprobarIgual("TXT reglas", new Mensaje("DISPARAR", new String[]{"1", "2"}), leido);
+        leido = lector.leer();
+        comprobarIgual("TXT reglas", new Mensaje("", new String[]{"x"}), leido);
+        comprobar(lector.leer() == null, "TXT reglas: sobran mensajes");
+    }
+
+    private static void comprobarIgual(String caso, Mensaje esperado, Mensaje leido) {
+        if (leido == null) {
+            comprobar(false, caso + ": falta " + esperado);
+            return;
+        }
+        comprobar(esperado.getComando().equals(leido.getComando()), caso + ": comando " + leido.getComando()
+            + " en vez de " + esperado.getComando());
+        comprobar(esperado.getTipo() == leido.getTipo(), caso + ": tipo " + leido.getTipo() + " en "
+            + esperado.getComando());
+        comprobar(Arrays.equals(esperado.getParametros(), leido.getParametros()), caso + ": "
+            + Arrays.toString(leido.getParametros()) + " en vez de " + Arrays.toString(esperado.getParametros()));
+    }
+
+    private static String textoLargo(int longitud) {
+        StringBuilder sb = new StringBuilder(longitud);
+        for (int i = 0; i < longitud; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        return sb.toString();
+    }
+
+    private static void comprobar(boolean condicion, String mensaje) {
+        if (!condicion) {
+            fallos++;
+            System.out.println("FALLO: " + mensaje);
+        }
+    }
+
+    /**
+     * Entrega los bytes de 1 a 3 en cada lectura, como un socket lento.
+     */
+    private static final class EntradaTroceada extends InputStream {
+        private final ByteArrayInputStream bytes;
+        private int lecturas;
+
+        EntradaTroceada(byte[] contenido) {
+            this.bytes = new ByteArrayInputStream(contenido);
+        }
+
+        @Override
+        public int read() {
+            return bytes.read();
+        }
+
+        @Override
+        public int read(byte[] destino, int desde, int longitud) {
+            return bytes.read(destino, desde, Math.min(longitud, 1 + lecturas++ % 3));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package battleship.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prueba de RuedaTemporizadores en los casos límite de la jerarquía, con
+ * una rueda sin hilo que se avanza tick a tick: el resultado no depende del
+ * reloj ni de la carga de la máquina.
+ *
+ * Con 4 casillas por nivel cada nivel cubre 4, 16, 64 y 256 ticks. Se
+ * programan retrasos justo en el borde de cada nivel (y uno antes y uno
+ * después), retrasos más allá de la rueda, que se aparcan en el último
+ * nivel y tienen que volver a bajar, y se repite desde varios ticks de
+ * partida para que los bordes no coincidan siempre con una vuelta. Cada
+ * temporizador debe vencer exactamente en el tick en que termina su
+ * vencimiento: ni antes ni en una vuelta posterior.
+ *
+ * Uso: java -cp bin:bin-test battleship.util.PruebaRuedaTemporizadores
+ *
+ * @author Jorge González Navas
+ */
+public class PruebaRuedaTemporizadores {
+
+    private static final int CASILLAS = 4;
+
+    // Duración de un tick (ns)
+    private static final long TICK = 1000;
+
+    // Retrasos en ticks: bordes de los niveles 0-3 y el alcance de la rueda (256)
+    private static final long[] RETRASOS = {
+        0, 1, 3, 4, 5, 15, 16, 17, 63, 64, 65, 255, 256, 257, 1000, 5000
+    };
+
+    // Ticks desde los que se programa: alineados y no alineados con las vueltas
+    private static final long[] PARTIDAS = {0, 1, 3, 4, 5, 15, 16, 63, 64, 250, 255, 256, 1023};
+
+    private static int fallos;
+
+    public static void main(String[] args) {
+        for (long partida : PARTIDAS) {
+            probarRetrasos(partida);
+        }
+        probarCancelacionAparcada();
+        if (fallos > 0) {
+            System.out.println(fallos + " fallos");
+            System.exit(1);
+        }
+        System.out.println("PruebaRuedaTemporizadores: OK");
+    }
+
+    /**
+     * Programa todos los retrasos en el tick de partida y comprueba en qué
+     * tick vence cada uno.
+     */
+    private static void probarRetrasos(long partida) {
+        RuedaTemporizadores rueda = new RuedaTemporizadores(TICK, TimeUnit.NANOSECONDS, CASILLAS);
+        rueda.avanzar(partida * TICK);
+        final long[] vencidos = new long[RETRASOS.length];
+        final long[] paso = new long[1];
+        for (int i = 0; i < RETRASOS.length; i++) {
+            vencidos[i] = -1;
+            final int indice = i;
+            rueda.programar(new Runnable() {
+                public void run() {
+                    vencidos[indice] = paso[0];
+                }
+            }, RETRASOS[i] * TICK, TimeUnit.NANOSECONDS);
+        }
+        long ultimo = partida + RETRASOS[RETRASOS.length - 1] + 2;
+        for (paso[0] = partida + 1; paso[0] <= ultimo; paso[0]++) {
+            rueda.avanzar(paso[0] * TICK);
+        }
+        for (int i = 0; i < RETRASOS.length; i++) {
+            // El tick del vencimiento se procesa cuando termina, al empezar el siguiente
+            long esperado = partida + RETRASOS[i] + 1;
+            comprobar(vencidos[i] == esperado, "partida " + partida + ", retraso " + RETRASOS[i]
+                + ": vence en el paso " + vencidos[i] + " y debía en el " + esperado);
+        }
+    }
+
+    /**
+     * Un temporizador aparcado más allá de la rueda y cancelado no vence al
+     * bajar de nivel.
+     */
+    private static void probarCancelacionAparcada() {
+        RuedaTemporizadores rueda = new RuedaTemporizadores(TICK, TimeUnit.NANOSECONDS, CASILLAS);
+        final boolean[] vencido = new boolean[1];
+        RuedaTemporizadores.Temporizador t = rueda.programar(new Runnable() {
+            public void run() {
+                vencido[0] = true;
+            }
+        }, 1000 * TICK, TimeUnit.NANOSECONDS);
+        rueda.avanzar(300 * TICK);
+        rueda.cancelar(t);
+        for (long paso = 301; paso <= 1100; paso++) {
+            rueda.avanzar(paso * TICK);
+        }
+        comprobar(!vencido[0], "un temporizador aparcado y cancelado venció");
+    }
+
+    private static void comprobar(boolean condicion, String mensaje) {
+        if (!condicion) {
+            fallos++;
+            System.out.println("FALLO: " + mensaje);
+        }
+    }
+}